@@ -0,0 +1,150 @@
+/*
+ * PasswordManager
+ *
+ * Copyright (c) 2009-2019 Gabor Bata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package tirnav.passman.benchmark;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Date;
+import java.util.Random;
+
+import tirnav.passman.xml.bind.Entries;
+import tirnav.passman.xml.bind.Entry;
+
+/**
+ * Shared data for the benchmarks.
+ *
+ * @author jainj
+ *
+ */
+final class BenchmarkData {
+
+    private static final String CHARACTERS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+
+    private BenchmarkData() {
+        // not intended to be instantiated
+    }
+
+    /**
+     * Creates random {@code byte}s with a fixed seed, so every run works on the same data.
+     *
+     * @param size number of {@code byte}s
+     * @return random data
+     */
+    static byte[] newRandomBytes(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * Creates a synthetic vault.
+     *
+     * @param count number of entries
+     * @return entries with unique titles
+     */
+    static Entries newEntries(int count) {
+        Random random = new Random(count);
+        Entries entries = new Entries();
+        Date now = new Date();
+        for (int i = 0; i < count; i++) {
+            Entry entry = new Entry();
+            entry.setTitle("Entry " + i + " " + randomString(random, 12));
+            entry.setUrl("https://www." + randomString(random, 10).toLowerCase() + ".com/login");
+            entry.setUser(randomString(random, 8) + "@example.com");
+            entry.setPassword(randomString(random, 16));
+            entry.setNotes(i % 4 == 0 ? randomString(random, 120) : null);
+            entry.setModifiedDate(now);
+            entry.setLastPasswordChanged(now);
+            entry.setChangePasswordInDays(90);
+            entries.getEntry().add(entry);
+        }
+        return entries;
+    }
+
+    private static String randomString(Random random, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(CHARACTERS.charAt(random.nextInt(CHARACTERS.length())));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Output stream, that only counts the written {@code byte}s.
+     */
+    static final class CountingOutputStream extends OutputStream {
+
+        private long count;
+
+        @Override
+        public void write(int b) {
+            this.count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            this.count += len;
+        }
+
+        long getCount() {
+            return this.count;
+        }
+    }
+
+    /**
+     * Channel, that only counts the written {@code byte}s.
+     */
+    static final class CountingChannel implements WritableByteChannel {
+
+        private long count;
+
+        @Override
+        public int write(ByteBuffer src) {
+            int length = src.remaining();
+            src.position(src.limit());
+            this.count += length;
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+            // nothing to close
+        }
+
+        long getCount() {
+            return this.count;
+        }
+    }
+}
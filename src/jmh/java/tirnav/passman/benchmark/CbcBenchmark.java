@@ -0,0 +1,171 @@
+/*
+ * PasswordManager
+ *
+ * Copyright (c) 2009-2019 Gabor Bata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package tirnav.passman.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import tirnav.passman.crypt.BlockCipherEngine;
+import tirnav.passman.crypt.Cbc;
+import tirnav.passman.crypt.CipherEngine;
+import tirnav.passman.crypt.DecryptException;
+import tirnav.passman.crypt.JcaCipherEngine;
+import tirnav.passman.crypt.TableAes256;
+
+/**
+ * Streaming throughput of {@link Cbc} for one message, fed in chunks of 8 KB from an array, or from
+ * a heap or direct {@link ByteBuffer} with the output written to a channel.
+ *
+ * @author jainj
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CbcBenchmark {
+
+    private static final int CHUNK_SIZE = 8 * 1024;
+
+    @Param({"jca", "java"})
+    private String engine;
+
+    @Param({"array", "heap", "direct"})
+    private String input;
+
+    @Param({"1048576"})
+    private int size;
+
+    private byte[] key;
+
+    private byte[] iv;
+
+    private byte[] plain;
+
+    private byte[] encrypted;
+
+    private ByteBuffer plainBuffer;
+
+    private ByteBuffer encryptedBuffer;
+
+    @Setup
+    public void setUp() throws Exception {
+        this.key = BenchmarkData.newRandomBytes(32);
+        this.iv = BenchmarkData.newRandomBytes(16);
+        this.plain = BenchmarkData.newRandomBytes(this.size);
+        ByteArrayOutputStream output = new ByteArrayOutputStream(this.size + 16);
+        Cbc cbc = new Cbc(newEngine(), output);
+        cbc.encrypt(this.plain);
+        cbc.finishEncryption();
+        this.encrypted = output.toByteArray();
+        this.plainBuffer = newBuffer(this.plain);
+        this.encryptedBuffer = newBuffer(this.encrypted);
+    }
+
+    private ByteBuffer newBuffer(byte[] data) {
+        if (!"direct".equals(this.input)) {
+            return ByteBuffer.wrap(data);
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+        buffer.put(data);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void feed(ByteBuffer data, Cbc cbc, boolean encrypt) throws IOException {
+        ByteBuffer chunk = data.duplicate();
+        for (int offset = 0; offset < data.limit(); offset += CHUNK_SIZE) {
+            chunk.limit(Math.min(offset + CHUNK_SIZE, data.limit()));
+            if (encrypt) {
+                cbc.encrypt(chunk);
+            } else {
+                cbc.decrypt(chunk);
+            }
+        }
+    }
+
+    private CipherEngine newEngine() throws Exception {
+        if ("jca".equals(this.engine)) {
+            return new JcaCipherEngine(this.key, this.iv);
+        }
+        return new BlockCipherEngine(new TableAes256(this.key), this.iv);
+    }
+
+    @Benchmark
+    public long encrypt() throws Exception {
+        if (!"array".equals(this.input)) {
+            BenchmarkData.CountingChannel channel = new BenchmarkData.CountingChannel();
+            Cbc cbc = new Cbc(newEngine(), channel, Cbc.DEFAULT_BATCH_SIZE);
+            feed(this.plainBuffer, cbc, true);
+            cbc.finishEncryption();
+            return channel.getCount();
+        }
+        BenchmarkData.CountingOutputStream output = new BenchmarkData.CountingOutputStream();
+        Cbc cbc = new Cbc(newEngine(), output);
+        for (int offset = 0; offset < this.plain.length; offset += CHUNK_SIZE) {
+            cbc.encrypt(this.plain, offset, Math.min(CHUNK_SIZE, this.plain.length - offset));
+        }
+        cbc.finishEncryption();
+        return output.getCount();
+    }
+
+    @Benchmark
+    public long decrypt() throws Exception, IOException, DecryptException {
+        if (!"array".equals(this.input)) {
+            BenchmarkData.CountingChannel channel = new BenchmarkData.CountingChannel();
+            Cbc cbc = new Cbc(newEngine(), channel, Cbc.DEFAULT_BATCH_SIZE);
+            feed(this.encryptedBuffer, cbc, false);
+            cbc.finishDecryption();
+            return channel.getCount();
+        }
+        BenchmarkData.CountingOutputStream output = new BenchmarkData.CountingOutputStream();
+        Cbc cbc = new Cbc(newEngine(), output);
+        for (int offset = 0; offset < this.encrypted.length; offset += CHUNK_SIZE) {
+            cbc.decrypt(this.encrypted, offset, Math.min(CHUNK_SIZE, this.encrypted.length - offset));
+        }
+        cbc.finishDecryption();
+        return output.getCount();
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * PasswordManager
+ *
+ * Copyright (c) 2009-2019 Gabor Bata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package tirnav.passman.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import tirnav.passman.crypt.io.CryptOutputStream;
+import tirnav.passman.data.ChunkedDeflaterOutputStream;
+import tirnav.passman.xml.bind.Entries;
+import tirnav.passman.xml.converter.XmlConverter;
+
+/**
+ * Compression and encryption of a serialized vault with the serial GZIP stream ({@code threads}
+ * = 0), and with {@link ChunkedDeflaterOutputStream} on the given number of threads.
+ *
+ * @author jainj
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CompressionBenchmark {
+
+    @Param({"10000", "100000"})
+    private int entries;
+
+    @Param({"0", "1", "2", "4"})
+    private int threads;
+
+    private byte[] document;
+
+    private byte[] key;
+
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setUp() throws Exception {
+        Entries entries = BenchmarkData.newEntries(this.entries);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new XmlConverter<Entries>(Entries.class).write(entries, output);
+        this.document = output.toByteArray();
+        this.key = BenchmarkData.newRandomBytes(32);
+        if (this.threads > 0) {
+            this.pool = new ForkJoinPool(this.threads);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (this.pool != null) {
+            this.pool.shutdown();
+        }
+    }
+
+    @Benchmark
+    public long compress() throws Exception {
+        BenchmarkData.CountingOutputStream counter = new BenchmarkData.CountingOutputStream();
+        OutputStream crypt = new CryptOutputStream(counter, this.key);
+        OutputStream output = this.pool == null ? new GZIPOutputStream(crypt, 16 * 1024)
+                : new ChunkedDeflaterOutputStream(crypt, ChunkedDeflaterOutputStream.DEFAULT_CHUNK_SIZE, this.pool,
+                        2 * this.threads);
+        // the same writes as the XML writer
+        for (int offset = 0; offset < this.document.length; offset += 8192) {
+            output.write(this.document, offset, Math.min(8192, this.document.length - offset));
+        }
+        output.close();
+        return counter.getCount();
+    }
+}
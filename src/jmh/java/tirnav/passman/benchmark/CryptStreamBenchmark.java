@@ -0,0 +1,116 @@
+/*
+ * PasswordManager
+ *
+ * Copyright (c) 2009-2019 Gabor Bata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package tirnav.passman.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import tirnav.passman.crypt.io.CryptInputStream;
+import tirnav.passman.crypt.io.CryptOutputStream;
+
+/**
+ * Throughput of {@link CryptOutputStream} and {@link CryptInputStream} for different buffer sizes.
+ * The data is transferred in chunks of the size used by the GZIP streams.
+ *
+ * @author jainj
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CryptStreamBenchmark {
+
+    private static final int SIZE = 4 * 1024 * 1024;
+
+    @Param({"512", "4096", "16384", "65536"})
+    private int bufferSize;
+
+    @Param({"512", "16384"})
+    private int chunkSize;
+
+    private byte[] key;
+
+    private byte[] plain;
+
+    private byte[] encrypted;
+
+    private byte[] chunk;
+
+    @Setup
+    public void setUp() throws Exception {
+        this.key = BenchmarkData.newRandomBytes(32);
+        this.plain = BenchmarkData.newRandomBytes(SIZE);
+        this.chunk = new byte[this.chunkSize];
+        ByteArrayOutputStream output = new ByteArrayOutputStream(SIZE + 32);
+        CryptOutputStream stream = new CryptOutputStream(output, this.key);
+        stream.write(this.plain);
+        stream.close();
+        this.encrypted = output.toByteArray();
+    }
+
+    @Benchmark
+    public long write() throws Exception {
+        BenchmarkData.CountingOutputStream output = new BenchmarkData.CountingOutputStream();
+        CryptOutputStream stream = new CryptOutputStream(output, this.key, this.bufferSize);
+        for (int offset = 0; offset < SIZE; offset += this.chunkSize) {
+            stream.write(this.plain, offset, Math.min(this.chunkSize, SIZE - offset));
+        }
+        stream.close();
+        return output.getCount();
+    }
+
+    @Benchmark
+    public long read() throws Exception {
+        CryptInputStream stream = new CryptInputStream(new ByteArrayInputStream(this.encrypted), this.key,
+                this.bufferSize);
+        long count = 0;
+        int read;
+        while ((read = stream.read(this.chunk, 0, this.chunk.length)) >= 0) {
+            count += read;
+        }
+        stream.close();
+        return count;
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * PasswordManager
+ *
+ * Copyright (c) 2009-2019 Gabor Bata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package tirnav.passman.benchmark;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import tirnav.passman.data.DocumentFormat;
+import tirnav.passman.data.DocumentHelper;
+import tirnav.passman.data.Journal;
+import tirnav.passman.data.VaultHeader;
+import tirnav.passman.xml.bind.Entries;
+
+/**
+ * Full save and open of encrypted vaults through {@link DocumentHelper}. The key derivation is
+ * reduced to a single iteration, its cost is measured by {@link KeyDerivationBenchmark}.
+ *
+ * @author jainj
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class DocumentBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    private int entries;
+
+    @Param({"XML", "BINARY", "INDEXED"})
+    private DocumentFormat format;
+
+    private Entries document;
+
+    private File file;
+
+    private byte[] password;
+
+    private VaultHeader header;
+
+    @Setup
+    public void setUp() throws Exception {
+        this.document = BenchmarkData.newEntries(this.entries);
+        this.password = BenchmarkData.newRandomBytes(16);
+        this.header = VaultHeader.newInstance(1);
+        this.file = File.createTempFile("benchmark", ".pass");
+        DocumentHelper.newInstance(this.file.getPath(), this.password, this.header, this.format).writeDocument(this.document);
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.file.delete();
+        Journal.getFile(this.file.getPath()).delete();
+    }
+
+    @Benchmark
+    public Entries readDocument() throws Exception {
+        return DocumentHelper.newInstance(this.file.getPath(), this.password).readDocument();
+    }
+
+    @Benchmark
+    public void writeDocument() throws Exception {
+        DocumentHelper.newInstance(this.file.getPath(), this.password, this.header, this.format).writeDocument(this.document);
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * PasswordManager
+ *
+ * Copyright (c) 2009-2019 Gabor Bata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package tirnav.passman.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import tirnav.passman.crypt.io.CryptInputStream;
+import tirnav.passman.crypt.io.CryptOutputStream;
+import tirnav.passman.crypt.io.MappedCryptInputStream;
+import tirnav.passman.data.ChunkedDeflaterOutputStream;
+import tirnav.passman.data.ChunkedInflaterInputStream;
+import tirnav.passman.xml.bind.Entries;
+import tirnav.passman.xml.converter.XmlConverter;
+
+/**
+ * Decryption and decompression of a chunked vault file through the buffered file stream
+ * ({@code STREAM}) and through a memory mapping ({@code MAPPED}). With the {@code COLD} cache the
+ * page cache is dropped before every invocation, which needs root privileges on Linux.
+ *
+ * @author jainj
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ReadPathBenchmark {
+
+    public enum Path {
+        STREAM, MAPPED
+    }
+
+    public enum Cache {
+        WARM, COLD
+    }
+
+    @Param({"10000", "100000"})
+    private int entries;
+
+    @Param({"STREAM", "MAPPED"})
+    private Path path;
+
+    @Param({"WARM", "COLD"})
+    private Cache cache;
+
+    private File file;
+
+    private byte[] key;
+
+    private byte[] chunk;
+
+    @Setup
+    public void setUp() throws Exception {
+        Entries entries = BenchmarkData.newEntries(this.entries);
+        ByteArrayOutputStream document = new ByteArrayOutputStream();
+        new XmlConverter<Entries>(Entries.class).write(entries, document);
+        this.key = BenchmarkData.newRandomBytes(32);
+        this.chunk = new byte[8192];
+        this.file = File.createTempFile("benchmark", ".pmv");
+        ForkJoinPool pool = new ForkJoinPool(1);
+        try {
+            OutputStream output = new ChunkedDeflaterOutputStream(
+                    new CryptOutputStream(new FileOutputStream(this.file), this.key),
+                    ChunkedDeflaterOutputStream.DEFAULT_CHUNK_SIZE, pool, 2);
+            document.writeTo(output);
+            output.close();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void dropCache() throws Exception {
+        if (this.cache == Cache.COLD) {
+            Runtime.getRuntime().exec("sync").waitFor();
+            FileWriter writer = new FileWriter("/proc/sys/vm/drop_caches");
+            try {
+                writer.write("1");
+            } finally {
+                writer.close();
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.file.delete();
+    }
+
+    @Benchmark
+    public long read() throws Exception {
+        InputStream input;
+        if (this.path == Path.MAPPED) {
+            RandomAccessFile file = new RandomAccessFile(this.file, "r");
+            ByteBuffer mapped;
+            try {
+                mapped = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            } finally {
+                file.close();
+            }
+            input = new MappedCryptInputStream(mapped, this.key);
+        } else {
+            input = new CryptInputStream(new BufferedInputStream(new FileInputStream(this.file)), this.key);
+        }
+        InputStream stream = new ChunkedInflaterInputStream(input);
+        long count = 0;
+        int read;
+        while ((read = stream.read(this.chunk, 0, this.chunk.length)) >= 0) {
+            count += read;
+        }
+        stream.close();
+        return count;
+    }
+}
@@ -30,6 +30,8 @@
  */
 package tirnav.passman.crypt;
 
+import java.nio.ByteBuffer;
+
 /**
  * Implementation of the &quot;Advanced Encryption Standard&quot; (AES) with a key size of 256 bit.
  * The specification in &quot;Federal Information Processing Standards Publication 197&quot; defines
@@ -47,7 +49,7 @@ package tirnav.passman.crypt;
  * @author Timm Knape
  * @version $Revision: 1.3 $
  */
-public final class Aes256 {
+public final class Aes256 implements BlockCipher {
 
     /**
      * Number of {@code byte}s needed for 32 bit words.
@@ -394,10 +396,33 @@ public final class Aes256 {
      * @param outBlock array to store the encrypted block
      * @param outIndex starting of the encrypted block in {@code outBlock}
      */
+    @Override
     public void encrypt(byte[] inBlock, int inIndex, byte[] outBlock,
             int outIndex) {
         System.arraycopy(inBlock, inIndex, this._tmp, 0, BLOCK_SIZE);
+        encryptState();
+        System.arraycopy(this._tmp, 0, outBlock, outIndex, BLOCK_SIZE);
+    }
+
+    /**
+     * Encrypts one block of a buffer. The positions of the buffers are not changed.
+     *
+     * @param in buffer containing the input block
+     * @param inIndex starting of the input block in {@code in}
+     * @param out buffer to store the encrypted block
+     * @param outIndex starting of the encrypted block in {@code out}
+     */
+    @Override
+    public void encrypt(ByteBuffer in, int inIndex, ByteBuffer out, int outIndex) {
+        loadState(in, inIndex);
+        encryptState();
+        storeState(out, outIndex);
+    }
 
+    /**
+     * Encrypts the state.
+     */
+    private void encryptState() {
         addRoundKey(0);
         for (int round = 1; round < ROUNDS; ++round) {
             substituteState();
@@ -409,8 +434,30 @@ public final class Aes256 {
         substituteState();
         shiftRows();
         addRoundKey(ROUNDS * BLOCK_SIZE);
+    }
 
-        System.arraycopy(this._tmp, 0, outBlock, outIndex, BLOCK_SIZE);
+    /**
+     * Copies a block of a buffer into the state.
+     *
+     * @param in source buffer
+     * @param index starting of the block in {@code in}
+     */
+    private void loadState(ByteBuffer in, int index) {
+        for (int i = 0; i < BLOCK_SIZE; ++i) {
+            this._tmp[i] = in.get(index + i);
+        }
+    }
+
+    /**
+     * Copies the state into a buffer.
+     *
+     * @param out target buffer
+     * @param index starting of the block in {@code out}
+     */
+    private void storeState(ByteBuffer out, int index) {
+        for (int i = 0; i < BLOCK_SIZE; ++i) {
+            out.put(index + i, this._tmp[i]);
+        }
     }
 
     /**
@@ -487,10 +534,33 @@ public final class Aes256 {
      * @param outBlock array to store the decrypted block
      * @param outIndex position of the decrypted block
      */
+    @Override
     public void decrypt(byte[] inBlock, int inIndex, byte[] outBlock,
             int outIndex) {
         System.arraycopy(inBlock, inIndex, this._tmp, 0, BLOCK_SIZE);
+        decryptState();
+        System.arraycopy(this._tmp, 0, outBlock, outIndex, BLOCK_SIZE);
+    }
+
+    /**
+     * Decrypts one block of a buffer. The positions of the buffers are not changed.
+     *
+     * @param in buffer containing the encrypted block
+     * @param inIndex starting point of the encrypted block
+     * @param out buffer to store the decrypted block
+     * @param outIndex position of the decrypted block
+     */
+    @Override
+    public void decrypt(ByteBuffer in, int inIndex, ByteBuffer out, int outIndex) {
+        loadState(in, inIndex);
+        decryptState();
+        storeState(out, outIndex);
+    }
 
+    /**
+     * Decrypts the state.
+     */
+    private void decryptState() {
         addRoundKey(ROUNDS * BLOCK_SIZE);
         for (int round = ROUNDS - 1; round > 0; --round) {
             invShiftRows();
@@ -501,7 +571,5 @@ public final class Aes256 {
         invShiftRows();
         invSubstituteState();
         addRoundKey(0);
-
-        System.arraycopy(this._tmp, 0, outBlock, outIndex, BLOCK_SIZE);
     }
 }
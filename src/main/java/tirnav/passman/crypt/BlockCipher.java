@@ -0,0 +1,89 @@
+/*
+ * PasswordManager
+ *
+ * Copyright (c) 2009-2019 Gabor Bata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package tirnav.passman.crypt;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A block cipher with a block size of 128 bit. Implementations encrypt and decrypt exactly one
+ * block per invocation; chaining of blocks is done by {@link Cbc}.
+ * <p>
+ * The {@link ByteBuffer} variants accept heap and direct buffers. They use absolute indices, so
+ * the positions and limits of the buffers are not changed.
+ * </p>
+ *
+ * @author jainj
+ *
+ */
+public interface BlockCipher {
+
+    /**
+     * Encrypts one block. The input block lies in {@code inBlock} starting at the position
+     * {@code inIndex}. The encrypted block will be stored in {@code outBlock} starting at position
+     * {@code outIndex}. Input and output may overlap.
+     *
+     * @param inBlock array containing the input block
+     * @param inIndex starting of the input block in {@code inBlock}
+     * @param outBlock array to store the encrypted block
+     * @param outIndex starting of the encrypted block in {@code outBlock}
+     */
+    void encrypt(byte[] inBlock, int inIndex, byte[] outBlock, int outIndex);
+
+    /**
+     * Decrypts one block. The encrypted block starts at {@code inIndex} in {@code inBlock}. The
+     * decrypted block will be stored at {@code outIndex} in {@code outBlock}. Input and output may
+     * overlap.
+     *
+     * @param inBlock array containing the encrypted block
+     * @param inIndex starting point of the encrypted block
+     * @param outBlock array to store the decrypted block
+     * @param outIndex position of the decrypted block
+     */
+    void decrypt(byte[] inBlock, int inIndex, byte[] outBlock, int outIndex);
+
+    /**
+     * Encrypts one block of a buffer. Input and output may be the same buffer.
+     *
+     * @param in buffer containing the input block
+     * @param inIndex starting of the input block in {@code in}
+     * @param out buffer to store the encrypted block
+     * @param outIndex starting of the encrypted block in {@code out}
+     */
+    void encrypt(ByteBuffer in, int inIndex, ByteBuffer out, int outIndex);
+
+    /**
+     * Decrypts one block of a buffer. Input and output may be the same buffer.
+     *
+     * @param in buffer containing the encrypted block
+     * @param inIndex starting point of the encrypted block
+     * @param out buffer to store the decrypted block
+     * @param outIndex position of the decrypted block
+     */
+    void decrypt(ByteBuffer in, int inIndex, ByteBuffer out, int outIndex);
+}
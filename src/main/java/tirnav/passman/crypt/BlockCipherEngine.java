@@ -0,0 +1,165 @@
+/*
+ * PasswordManager
+ *
+ * Copyright (c) 2009-2019 Gabor Bata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package tirnav.passman.crypt;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link CipherEngine} that chains the blocks of a {@link BlockCipher} in pure Java. It is the
+ * fallback, if the Java Cryptography Architecture does not provide a usable AES implementation.
+ * <p>
+ * Buffers backed by accessible arrays are processed by the array methods, other buffers block by
+ * block through the {@link ByteBuffer} methods of the cipher.
+ * </p>
+ *
+ * @author jainj
+ *
+ */
+public final class BlockCipherEngine implements CipherEngine {
+
+    /**
+     * cipher
+     */
+    private final BlockCipher _cipher;
+
+    /**
+     * last encrypted block
+     */
+    private final byte[] _current;
+
+    /**
+     * copy of the encrypted block, that is decrypted at the moment
+     */
+    private final byte[] _buffer;
+
+    /**
+     * Creates the engine.
+     *
+     * @param cipher block cipher
+     * @param iv initial value of the chaining block
+     */
+    public BlockCipherEngine(BlockCipher cipher, byte[] iv) {
+        this._cipher = cipher;
+        this._current = new byte[BLOCK_SIZE];
+        System.arraycopy(iv, 0, this._current, 0, BLOCK_SIZE);
+        this._buffer = new byte[BLOCK_SIZE];
+    }
+
+    @Override
+    public void encrypt(byte[] in, int inIndex, int length, byte[] out, int outIndex) {
+        for (int offset = 0; offset < length; offset += BLOCK_SIZE) {
+            for (int i = 0; i < BLOCK_SIZE; ++i) {
+                this._current[i] ^= in[inIndex + offset + i];
+            }
+            this._cipher.encrypt(this._current, 0, this._current, 0);
+            System.arraycopy(this._current, 0, out, outIndex + offset, BLOCK_SIZE);
+        }
+    }
+
+    @Override
+    public void decrypt(byte[] in, int inIndex, int length, byte[] out, int outIndex) {
+        for (int offset = 0; offset < length; offset += BLOCK_SIZE) {
+            System.arraycopy(in, inIndex + offset, this._buffer, 0, BLOCK_SIZE);
+            this._cipher.decrypt(this._buffer, 0, out, outIndex + offset);
+            for (int i = 0; i < BLOCK_SIZE; ++i) {
+                out[outIndex + offset + i] ^= this._current[i];
+                this._current[i] = this._buffer[i];
+            }
+        }
+    }
+
+    @Override
+    public void encrypt(ByteBuffer in, ByteBuffer out) {
+        int length = checkLength(in, out);
+        int inIndex = in.position();
+        int outIndex = out.position();
+        if (in.hasArray() && out.hasArray()) {
+            encrypt(in.array(), in.arrayOffset() + inIndex, length, out.array(), out.arrayOffset() + outIndex);
+        } else {
+            for (int offset = 0; offset < length; offset += BLOCK_SIZE) {
+                for (int i = 0; i < BLOCK_SIZE; ++i) {
+                    this._current[i] ^= in.get(inIndex + offset + i);
+                }
+                this._cipher.encrypt(this._current, 0, this._current, 0);
+                for (int i = 0; i < BLOCK_SIZE; ++i) {
+                    out.put(outIndex + offset + i, this._current[i]);
+                }
+            }
+        }
+        advance(in, out, length);
+    }
+
+    @Override
+    public void decrypt(ByteBuffer in, ByteBuffer out) {
+        int length = checkLength(in, out);
+        int inIndex = in.position();
+        int outIndex = out.position();
+        if (in.hasArray() && out.hasArray()) {
+            decrypt(in.array(), in.arrayOffset() + inIndex, length, out.array(), out.arrayOffset() + outIndex);
+        } else {
+            for (int offset = 0; offset < length; offset += BLOCK_SIZE) {
+                for (int i = 0; i < BLOCK_SIZE; ++i) {
+                    this._buffer[i] = in.get(inIndex + offset + i);
+                }
+                this._cipher.decrypt(in, inIndex + offset, out, outIndex + offset);
+                for (int i = 0; i < BLOCK_SIZE; ++i) {
+                    int index = outIndex + offset + i;
+                    out.put(index, (byte) (out.get(index) ^ this._current[i]));
+                    this._current[i] = this._buffer[i];
+                }
+            }
+        }
+        advance(in, out, length);
+    }
+
+    /**
+     * Checks that the input consists of whole blocks, which fit into the output.
+     *
+     * @param in input buffer
+     * @param out output buffer
+     * @return number of {@code byte}s to process
+     */
+    private static int checkLength(ByteBuffer in, ByteBuffer out) {
+        int length = in.remaining();
+        if (length % BLOCK_SIZE != 0) {
+            throw new IllegalArgumentException("Input is not a multiple of the block size.");
+        }
+        if (in != out && out.remaining() < length) {
+            throw new IllegalArgumentException("Output buffer too short.");
+        }
+        return length;
+    }
+
+    private static void advance(ByteBuffer in, ByteBuffer out, int length) {
+        in.position(in.position() + length);
+        if (out != in) {
+            out.position(out.position() + length);
+        }
+    }
+}
@@ -32,10 +32,19 @@ package tirnav.passman.crypt;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 
 /**
- * Implements the &quot;Cipher Block Chaining Mode&quot;. As cipher the class {@link Aes256} will be
- * used.
+ * Implements the &quot;Cipher Block Chaining Mode&quot;. The blocks are processed by a
+ * {@link CipherEngine}; by default the one returned by {@link CipherEngines#newEngine}, which
+ * prefers the JCA implementation of AES and falls back to {@link TableAes256}. This class adds the
+ * buffering of partial blocks and the PKCS#5 padding.
+ * <p>
+ * Data can be passed in arrays or in heap or direct {@link ByteBuffer}s; buffers are processed by
+ * the engine without copying them into arrays. The output is written to an {@link OutputStream}
+ * or to a {@link WritableByteChannel}, which receives the batches from a direct buffer.
+ * </p>
  *
  * @author Timm Knape
  * @version $Revision: 1.4 $
@@ -48,24 +57,14 @@ public class Cbc {
     private static final int BLOCK_SIZE = 16;
 
     /**
-     * cipher
+     * default size of {@link Cbc#_batch} in {@code byte}s
      */
-    private final Aes256 _cipher;
+    public static final int DEFAULT_BATCH_SIZE = 16 * 1024;
 
     /**
-     * last calculated block
+     * cipher in CBC mode
      */
-    private final byte[] _current;
-
-    /**
-     * temporary block. It will only be used for decryption.
-     */
-    private byte[] _buffer = null;
-
-    /**
-     * temporary block.
-     */
-    private final byte[] _tmp;
+    private final CipherEngine _engine;
 
     /**
      * buffer of the last output block. It will only be used for decryption.
@@ -87,56 +86,103 @@ public class Cbc {
      */
     private int _overflowUsed;
 
+    /**
+     * reusable buffer for the output of whole blocks, so they are written with one call
+     */
+    private final byte[] _batch;
+
+    /**
+     * buffer used for the output of {@link ByteBuffer}s. It wraps {@link Cbc#_batch} for streams,
+     * and is a direct buffer for channels.
+     */
+    private final ByteBuffer _batchBuffer;
+
+    /**
+     * wraps {@link Cbc#_overflow}
+     */
+    private final ByteBuffer _overflowBuffer;
+
     private final OutputStream _output;
 
+    private final WritableByteChannel _channel;
+
     /**
      * Creates the temporary buffers.
      *
-     * @param iv initial value of {@link Cbc#_tmp}
-     * @param key key for {@link Cbc#_cipher}
+     * @param iv initial value of the chaining block
+     * @param key key for the AES algorithm
      * @param output stream where the encrypted or decrypted data is written
      */
     public Cbc(byte[] iv, byte[] key, OutputStream output) {
-        this._cipher = new Aes256(key);
-        this._current = new byte[BLOCK_SIZE];
-        System.arraycopy(iv, 0, this._current, 0, BLOCK_SIZE);
-        this._tmp = new byte[BLOCK_SIZE];
-        this._buffer = new byte[BLOCK_SIZE];
+        this(CipherEngines.newEngine(key, iv), output);
+    }
+
+    /**
+     * Creates the temporary buffers.
+     *
+     * @param iv initial value of the chaining block
+     * @param cipher block cipher, e.g. {@link Aes256} or {@link TableAes256}
+     * @param output stream where the encrypted or decrypted data is written
+     */
+    public Cbc(byte[] iv, BlockCipher cipher, OutputStream output) {
+        this(new BlockCipherEngine(cipher, iv), output);
+    }
+
+    /**
+     * Creates the temporary buffers.
+     *
+     * @param engine cipher in CBC mode, already initialized with key and initial value
+     * @param output stream where the encrypted or decrypted data is written
+     */
+    public Cbc(CipherEngine engine, OutputStream output) {
+        this(engine, output, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Creates the temporary buffers.
+     *
+     * @param engine cipher in CBC mode, already initialized with key and initial value
+     * @param output stream where the encrypted or decrypted data is written
+     * @param batchSize size of the output buffer in {@code byte}s; it is rounded down to whole
+     * blocks, the minimum is two blocks
+     */
+    public Cbc(CipherEngine engine, OutputStream output, int batchSize) {
+        this(engine, output, null, batchSize);
+    }
+
+    /**
+     * Creates the temporary buffers.
+     *
+     * @param engine cipher in CBC mode, already initialized with key and initial value
+     * @param output channel where the encrypted or decrypted data is written
+     * @param batchSize size of the output buffer in {@code byte}s; it is rounded down to whole
+     * blocks, the minimum is two blocks
+     */
+    public Cbc(CipherEngine engine, WritableByteChannel output, int batchSize) {
+        this(engine, null, output, batchSize);
+    }
+
+    private Cbc(CipherEngine engine, OutputStream output, WritableByteChannel channel, int batchSize) {
+        this._engine = engine;
         this._outBuffer = new byte[BLOCK_SIZE];
         this._outBufferUsed = false;
         this._overflow = new byte[BLOCK_SIZE];
+        this._overflowBuffer = ByteBuffer.wrap(this._overflow);
         this._overflowUsed = 0;
+        this._batch = new byte[Math.max(2 * BLOCK_SIZE, batchSize - batchSize % BLOCK_SIZE)];
+        this._batchBuffer = channel == null ? ByteBuffer.wrap(this._batch) : ByteBuffer.allocateDirect(this._batch.length);
         this._output = output;
+        this._channel = channel;
     }
 
     /**
-     * Encrypts a block. {@link Cbc#_current} will be modified.
+     * Encrypts a block.
      *
      * @param inBuffer array containing the input block
      * @param outBuffer storage of the encrypted block
      */
     private void encryptBlock(byte[] inBuffer, byte[] outBuffer) {
-        for (int i = 0; i < BLOCK_SIZE; ++i) {
-            this._current[i] ^= inBuffer[i];
-        }
-        this._cipher.encrypt(this._current, 0, this._current, 0);
-        System.arraycopy(this._current, 0, outBuffer, 0, BLOCK_SIZE);
-    }
-
-    /**
-     * Decrypts a block. {@link Cbc#_current} will be modified.
-     *
-     * @param inBuffer storage of the encrypted block
-     * @param outBuffer storage of the decrypted block
-     */
-    private void decryptBlock(byte[] inBuffer) {
-        System.arraycopy(inBuffer, 0, this._buffer, 0, BLOCK_SIZE);
-        this._cipher.decrypt(this._buffer, 0, this._tmp, 0);
-        for (int i = 0; i < BLOCK_SIZE; ++i) {
-            this._tmp[i] ^= this._current[i];
-            this._current[i] = this._buffer[i];
-            this._outBuffer[i] = this._tmp[i];
-        }
+        this._engine.encrypt(inBuffer, 0, BLOCK_SIZE, outBuffer, 0);
     }
 
     /**
@@ -172,44 +218,315 @@ public class Cbc {
      * @throws IOException if the writing fails
      */
     public void encrypt(byte[] data, int length) throws IOException {
+        encrypt(data, 0, length);
+    }
+
+    /**
+     * Decrypts a part of the array. Only the first {@code length} {@code byte}s of the array will
+     * be decrypted.
+     *
+     * @param data {@code byte}s that should be decrypted
+     * @param length number of {@code byte}s that should be decrypted
+     * @throws IOException if the writing fails
+     */
+    public void decrypt(byte[] data, int length) throws IOException {
+        decrypt(data, 0, length);
+    }
+
+    /**
+     * Encrypts a part of the array. Whole blocks are encrypted directly from {@code data} into
+     * {@link Cbc#_batch}, which is written with one call whenever it is full. Only a partial block
+     * at the end is kept in {@link Cbc#_overflow}.
+     *
+     * @param data {@code byte}s that should be encrypted
+     * @param offset start of the {@code byte}s in {@code data}
+     * @param length number of {@code byte}s that should be encrypted
+     * @throws IOException if the writing fails
+     */
+    public void encrypt(byte[] data, int offset, int length) throws IOException {
         if (data == null || length <= 0) {
             return;
         }
 
-        for (int i = 0; i < length; ++i) {
-            this._overflow[this._overflowUsed++] = data[i];
+        int index = offset;
+        int end = offset + length;
+        int used = 0;
+
+        if (this._overflowUsed > 0) {
+            index += fillOverflow(data, index, end);
             if (this._overflowUsed == BLOCK_SIZE) {
-                encryptBlock(this._overflow, this._outBuffer);
-                this._output.write(this._outBuffer);
+                encryptBlock(this._overflow, this._batch);
+                used = BLOCK_SIZE;
                 this._overflowUsed = 0;
             }
         }
+
+        while (end - index >= BLOCK_SIZE) {
+            if (used == this._batch.length) {
+                write(this._batch, 0, used);
+                used = 0;
+            }
+            int count = Math.min(wholeBlocks(end - index), this._batch.length - used);
+            this._engine.encrypt(data, index, count, this._batch, used);
+            used += count;
+            index += count;
+        }
+
+        if (used > 0) {
+            write(this._batch, 0, used);
+        }
+        fillOverflow(data, index, end);
     }
 
     /**
-     * Decrypts a part of the array. Only the first {@code length} {@code byte}s of the array will
-     * be decrypted.
+     * Decrypts a part of the array. Whole blocks are decrypted directly from {@code data} into
+     * {@link Cbc#_batch}. The last decrypted block is always held back in
+     * {@link Cbc#_outBuffer}, because it may contain the padding; it is put in front of the next
+     * batch, so each batch is written with one call.
      *
      * @param data {@code byte}s that should be decrypted
+     * @param offset start of the {@code byte}s in {@code data}
      * @param length number of {@code byte}s that should be decrypted
      * @throws IOException if the writing fails
      */
-    public void decrypt(byte[] data, int length) throws IOException {
+    public void decrypt(byte[] data, int offset, int length) throws IOException {
         if (data == null || length <= 0) {
             return;
         }
 
-        for (int i = 0; i < length; ++i) {
-            this._overflow[this._overflowUsed++] = data[i];
+        int index = offset;
+        int end = offset + length;
+        int used = 0;
+
+        if (this._outBufferUsed) {
+            System.arraycopy(this._outBuffer, 0, this._batch, 0, BLOCK_SIZE);
+            used = BLOCK_SIZE;
+        }
+
+        if (this._overflowUsed > 0) {
+            index += fillOverflow(data, index, end);
             if (this._overflowUsed == BLOCK_SIZE) {
-                if (this._outBufferUsed) {
-                    this._output.write(this._outBuffer);
+                this._engine.decrypt(this._overflow, 0, BLOCK_SIZE, this._batch, used);
+                used += BLOCK_SIZE;
+                this._overflowUsed = 0;
+            }
+        }
+
+        while (end - index >= BLOCK_SIZE) {
+            if (used == this._batch.length) {
+                write(this._batch, 0, used - BLOCK_SIZE);
+                System.arraycopy(this._batch, used - BLOCK_SIZE, this._batch, 0, BLOCK_SIZE);
+                used = BLOCK_SIZE;
+            }
+            int count = Math.min(wholeBlocks(end - index), this._batch.length - used);
+            this._engine.decrypt(data, index, count, this._batch, used);
+            used += count;
+            index += count;
+        }
+
+        if (used > 0) {
+            if (used > BLOCK_SIZE) {
+                write(this._batch, 0, used - BLOCK_SIZE);
+            }
+            System.arraycopy(this._batch, used - BLOCK_SIZE, this._outBuffer, 0, BLOCK_SIZE);
+            this._outBufferUsed = true;
+        }
+        fillOverflow(data, index, end);
+    }
+
+    /**
+     * Encrypts the remaining {@code byte}s of the buffer, its position is moved to its limit. Whole
+     * blocks are encrypted directly from {@code data} into {@link Cbc#_batchBuffer}.
+     *
+     * @param data {@code byte}s that should be encrypted, in a heap or direct buffer
+     * @throws IOException if the writing fails
+     */
+    public void encrypt(ByteBuffer data) throws IOException {
+        if (data == null || !data.hasRemaining()) {
+            return;
+        }
+
+        ByteBuffer batch = this._batchBuffer;
+        batch.clear();
+
+        if (this._overflowUsed > 0) {
+            fillOverflow(data);
+            if (this._overflowUsed == BLOCK_SIZE) {
+                this._overflowBuffer.clear();
+                this._engine.encrypt(this._overflowBuffer, batch);
+                this._overflowUsed = 0;
+            }
+        }
+
+        int limit = data.limit();
+        try {
+            while (data.remaining() >= BLOCK_SIZE) {
+                if (!batch.hasRemaining()) {
+                    writeBatch(batch.position());
+                    batch.clear();
                 }
-                decryptBlock(this._overflow);
-                this._outBufferUsed = true;
+                data.limit(data.position() + Math.min(wholeBlocks(data.remaining()), batch.remaining()));
+                this._engine.encrypt(data, batch);
+                data.limit(limit);
+            }
+        } finally {
+            data.limit(limit);
+        }
+
+        if (batch.position() > 0) {
+            writeBatch(batch.position());
+        }
+        fillOverflow(data);
+    }
+
+    /**
+     * Decrypts the remaining {@code byte}s of the buffer, its position is moved to its limit. Like
+     * {@link #decrypt(byte[], int, int)}, the last decrypted block is held back in
+     * {@link Cbc#_outBuffer}.
+     *
+     * @param data {@code byte}s that should be decrypted, in a heap or direct buffer
+     * @throws IOException if the writing fails
+     */
+    public void decrypt(ByteBuffer data) throws IOException {
+        if (data == null || !data.hasRemaining()) {
+            return;
+        }
+
+        ByteBuffer batch = this._batchBuffer;
+        batch.clear();
+
+        if (this._outBufferUsed) {
+            batch.put(this._outBuffer);
+        }
+
+        if (this._overflowUsed > 0) {
+            fillOverflow(data);
+            if (this._overflowUsed == BLOCK_SIZE) {
+                this._overflowBuffer.clear();
+                this._engine.decrypt(this._overflowBuffer, batch);
                 this._overflowUsed = 0;
             }
         }
+
+        int limit = data.limit();
+        try {
+            while (data.remaining() >= BLOCK_SIZE) {
+                if (!batch.hasRemaining()) {
+                    writeBatch(batch.position() - BLOCK_SIZE);
+                    holdBackLastBlock(batch);
+                    batch.clear();
+                    batch.put(this._outBuffer);
+                }
+                data.limit(data.position() + Math.min(wholeBlocks(data.remaining()), batch.remaining()));
+                this._engine.decrypt(data, batch);
+                data.limit(limit);
+            }
+        } finally {
+            data.limit(limit);
+        }
+
+        if (batch.position() > 0) {
+            if (batch.position() > BLOCK_SIZE) {
+                writeBatch(batch.position() - BLOCK_SIZE);
+            }
+            holdBackLastBlock(batch);
+            this._outBufferUsed = true;
+        }
+        fillOverflow(data);
+    }
+
+    /**
+     * Copies the last block before the position of the batch into {@link Cbc#_outBuffer}.
+     *
+     * @param batch {@link Cbc#_batchBuffer}
+     */
+    private void holdBackLastBlock(ByteBuffer batch) {
+        batch.position(batch.position() - BLOCK_SIZE);
+        batch.get(this._outBuffer);
+    }
+
+    /**
+     * Copies {@code byte}s of the buffer into {@link Cbc#_overflow} until it holds a whole block or
+     * the data is exhausted.
+     *
+     * @param data source buffer
+     */
+    private void fillOverflow(ByteBuffer data) {
+        int count = Math.min(BLOCK_SIZE - this._overflowUsed, data.remaining());
+        data.get(this._overflow, this._overflowUsed, count);
+        this._overflowUsed += count;
+    }
+
+    /**
+     * Writes the start of {@link Cbc#_batchBuffer}.
+     *
+     * @param length number of {@code byte}s
+     * @throws IOException if the writing fails
+     */
+    private void writeBatch(int length) throws IOException {
+        if (this._channel == null) {
+            this._output.write(this._batch, 0, length);
+            return;
+        }
+        ByteBuffer batch = this._batchBuffer.duplicate();
+        batch.clear();
+        batch.limit(length);
+        while (batch.hasRemaining()) {
+            this._channel.write(batch);
+        }
+    }
+
+    /**
+     * Writes a part of an array to the output.
+     *
+     * @param data source array
+     * @param offset start of the {@code byte}s in {@code data}
+     * @param length number of {@code byte}s
+     * @throws IOException if the writing fails
+     */
+    private void write(byte[] data, int offset, int length) throws IOException {
+        if (this._channel == null) {
+            this._output.write(data, offset, length);
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data, offset, length);
+        while (buffer.hasRemaining()) {
+            this._channel.write(buffer);
+        }
+    }
+
+    private void closeOutput() throws IOException {
+        if (this._channel == null) {
+            this._output.close();
+        } else {
+            this._channel.close();
+        }
+    }
+
+    /**
+     * Copies {@code byte}s into {@link Cbc#_overflow} until it holds a whole block or the data is
+     * exhausted.
+     *
+     * @param data source array
+     * @param index position of the first {@code byte} to copy
+     * @param end end of the data in {@code data}
+     * @return number of copied {@code byte}s
+     */
+    private int fillOverflow(byte[] data, int index, int end) {
+        int count = Math.min(BLOCK_SIZE - this._overflowUsed, end - index);
+        System.arraycopy(data, index, this._overflow, this._overflowUsed, count);
+        this._overflowUsed += count;
+        return count;
+    }
+
+    /**
+     * Rounds down to whole blocks.
+     *
+     * @param length number of {@code byte}s
+     * @return number of {@code byte}s in whole blocks
+     */
+    private static int wholeBlocks(int length) {
+        return length - length % BLOCK_SIZE;
     }
 
     /**
@@ -224,8 +541,8 @@ public class Cbc {
         }
 
         encryptBlock(this._overflow, this._outBuffer);
-        this._output.write(this._outBuffer);
-        this._output.close();
+        write(this._outBuffer, 0, BLOCK_SIZE);
+        closeOutput();
     }
 
     /**
@@ -249,8 +566,8 @@ public class Cbc {
 
         int left = BLOCK_SIZE - pad;
         if (left > 0) {
-            this._output.write(this._outBuffer, 0, left);
+            write(this._outBuffer, 0, left);
         }
-        this._output.close();
+        closeOutput();
     }
 }
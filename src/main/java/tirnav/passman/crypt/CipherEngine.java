@@ -0,0 +1,93 @@
+/*
+ * PasswordManager
+ *
+ * Copyright (c) 2009-2019 Gabor Bata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package tirnav.passman.crypt;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Block cipher in &quot;Cipher Block Chaining Mode&quot; that processes whole buffers per
+ * invocation. The chaining value is kept between invocations, so a message can be passed in
+ * consecutive parts. Padding is not handled here, it is done by {@link Cbc}.
+ * <p>
+ * An instance is used either for encryption or for decryption, but not for both.
+ * </p>
+ *
+ * @author jainj
+ *
+ * @see CipherEngines
+ */
+public interface CipherEngine {
+
+    /**
+     * Size of a block in {@code byte}s.
+     */
+    int BLOCK_SIZE = 16;
+
+    /**
+     * Encrypts {@code length} {@code byte}s. Input and output may be the same array.
+     *
+     * @param in array containing the plain data
+     * @param inIndex start of the plain data in {@code in}
+     * @param length number of {@code byte}s, a multiple of {@link #BLOCK_SIZE}
+     * @param out array to store the encrypted data
+     * @param outIndex start of the encrypted data in {@code out}
+     */
+    void encrypt(byte[] in, int inIndex, int length, byte[] out, int outIndex);
+
+    /**
+     * Decrypts {@code length} {@code byte}s. Input and output may be the same array.
+     *
+     * @param in array containing the encrypted data
+     * @param inIndex start of the encrypted data in {@code in}
+     * @param length number of {@code byte}s, a multiple of {@link #BLOCK_SIZE}
+     * @param out array to store the decrypted data
+     * @param outIndex start of the decrypted data in {@code out}
+     */
+    void decrypt(byte[] in, int inIndex, int length, byte[] out, int outIndex);
+
+    /**
+     * Encrypts the remaining {@code byte}s of {@code in}, a multiple of {@link #BLOCK_SIZE}, into
+     * {@code out}. Heap and direct buffers are accepted. The positions of both buffers are advanced;
+     * if they are the same buffer, the data is encrypted in place.
+     *
+     * @param in buffer containing the plain data
+     * @param out buffer to store the encrypted data
+     */
+    void encrypt(ByteBuffer in, ByteBuffer out);
+
+    /**
+     * Decrypts the remaining {@code byte}s of {@code in}, a multiple of {@link #BLOCK_SIZE}, into
+     * {@code out}. Heap and direct buffers are accepted. The positions of both buffers are advanced;
+     * if they are the same buffer, the data is decrypted in place.
+     *
+     * @param in buffer containing the encrypted data
+     * @param out buffer to store the plain data
+     */
+    void decrypt(ByteBuffer in, ByteBuffer out);
+}
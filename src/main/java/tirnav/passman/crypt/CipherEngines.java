@@ -0,0 +1,96 @@
+/*
+ * PasswordManager
+ *
+ * Copyright (c) 2009-2019 Gabor Bata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package tirnav.passman.crypt;
+
+import java.security.GeneralSecurityException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.crypto.Cipher;
+
+import tirnav.passman.util.Configuration;
+
+/**
+ * Factory for {@link CipherEngine}s. The JCA backed {@link JcaCipherEngine} is preferred; if it is
+ * not usable (e.g. 256 bit keys are restricted) or disabled by the {@code crypt.jca.enabled}
+ * configuration, {@link BlockCipherEngine} with {@link TableAes256} is used. Both produce the same
+ * output.
+ *
+ * @author jainj
+ *
+ */
+public final class CipherEngines {
+
+    private static final Logger LOG = Logger.getLogger(CipherEngines.class.getName());
+
+    private static volatile Boolean JCA_AVAILABLE;
+
+    private CipherEngines() {
+        // not intended to be instantiated
+    }
+
+    /**
+     * Creates a new engine for one message.
+     *
+     * @param key key for the AES algorithm, 32 {@code byte}s
+     * @param iv initial value of the chaining block
+     * @return engine
+     */
+    public static CipherEngine newEngine(byte[] key, byte[] iv) {
+        if (isJcaAvailable()) {
+            try {
+                return new JcaCipherEngine(key, iv);
+            } catch (GeneralSecurityException e) {
+                LOG.log(Level.WARNING, "Could not create JCA cipher, falling back to Java implementation.", e);
+            }
+        }
+        return new BlockCipherEngine(new TableAes256(key), iv);
+    }
+
+    /**
+     * Checks once whether the JCA cipher can be used.
+     *
+     * @return {@code true} if {@link JcaCipherEngine} should be used
+     */
+    static boolean isJcaAvailable() {
+        if (JCA_AVAILABLE == null) {
+            boolean available = false;
+            if (Configuration.getInstance().is("crypt.jca.enabled", true)) {
+                try {
+                    Cipher.getInstance(JcaCipherEngine.TRANSFORMATION);
+                    available = Cipher.getMaxAllowedKeyLength("AES") >= 256;
+                } catch (GeneralSecurityException e) {
+                    LOG.log(Level.CONFIG, "JCA cipher is not available.", e);
+                }
+            }
+            JCA_AVAILABLE = available;
+        }
+        return JCA_AVAILABLE;
+    }
+}
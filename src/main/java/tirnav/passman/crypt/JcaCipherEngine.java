@@ -0,0 +1,154 @@
+/*
+ * PasswordManager
+ *
+ * Copyright (c) 2009-2019 Gabor Bata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package tirnav.passman.crypt;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * {@link CipherEngine} backed by the {@code AES/CBC/NoPadding} transformation of the Java
+ * Cryptography Architecture. On current JVMs this uses the hardware AES instructions of the CPU.
+ * <p>
+ * The cipher is initialized on the first invocation, because the direction is not known before.
+ * </p>
+ *
+ * @author jainj
+ *
+ */
+public final class JcaCipherEngine implements CipherEngine {
+
+    /**
+     * JCA transformation
+     */
+    static final String TRANSFORMATION = "AES/CBC/NoPadding";
+
+    private final Cipher _cipher;
+
+    private final SecretKeySpec _key;
+
+    private final IvParameterSpec _iv;
+
+    /**
+     * Mode the cipher was initialized with, {@code 0} if not initialized yet.
+     */
+    private int _mode = 0;
+
+    /**
+     * Creates the engine.
+     *
+     * @param key key for the AES algorithm, 32 {@code byte}s
+     * @param iv initial value of the chaining block
+     * @throws GeneralSecurityException if the transformation is not available
+     */
+    public JcaCipherEngine(byte[] key, byte[] iv) throws GeneralSecurityException {
+        this._cipher = Cipher.getInstance(TRANSFORMATION);
+        this._key = new SecretKeySpec(key, 0, 32, "AES");
+        this._iv = new IvParameterSpec(iv, 0, BLOCK_SIZE);
+    }
+
+    @Override
+    public void encrypt(byte[] in, int inIndex, int length, byte[] out, int outIndex) {
+        update(Cipher.ENCRYPT_MODE, in, inIndex, length, out, outIndex);
+    }
+
+    @Override
+    public void decrypt(byte[] in, int inIndex, int length, byte[] out, int outIndex) {
+        update(Cipher.DECRYPT_MODE, in, inIndex, length, out, outIndex);
+    }
+
+    @Override
+    public void encrypt(ByteBuffer in, ByteBuffer out) {
+        update(Cipher.ENCRYPT_MODE, in, out);
+    }
+
+    @Override
+    public void decrypt(ByteBuffer in, ByteBuffer out) {
+        update(Cipher.DECRYPT_MODE, in, out);
+    }
+
+    /**
+     * Processes whole blocks with the cipher.
+     *
+     * @param mode {@link Cipher#ENCRYPT_MODE} or {@link Cipher#DECRYPT_MODE}
+     * @param in input array
+     * @param inIndex start of the input
+     * @param length number of {@code byte}s
+     * @param out output array
+     * @param outIndex start of the output
+     */
+    private void update(int mode, byte[] in, int inIndex, int length, byte[] out, int outIndex) {
+        init(mode);
+        try {
+            this._cipher.update(in, inIndex, length, out, outIndex);
+        } catch (ShortBufferException e) {
+            throw new IllegalArgumentException("Output buffer too short.", e);
+        }
+    }
+
+    /**
+     * Processes whole blocks of a buffer with the cipher.
+     *
+     * @param mode {@link Cipher#ENCRYPT_MODE} or {@link Cipher#DECRYPT_MODE}
+     * @param in input buffer
+     * @param out output buffer
+     */
+    private void update(int mode, ByteBuffer in, ByteBuffer out) {
+        init(mode);
+        try {
+            // the cipher rejects the same buffer object, but handles shared content
+            this._cipher.update(in, in == out ? out.duplicate() : out);
+        } catch (ShortBufferException e) {
+            throw new IllegalArgumentException("Output buffer too short.", e);
+        }
+    }
+
+    /**
+     * Initializes the cipher on the first invocation.
+     *
+     * @param mode {@link Cipher#ENCRYPT_MODE} or {@link Cipher#DECRYPT_MODE}
+     */
+    private void init(int mode) {
+        if (this._mode != mode) {
+            if (this._mode != 0) {
+                throw new IllegalStateException("Engine is already used in the other direction.");
+            }
+            try {
+                this._cipher.init(mode, this._key, this._iv);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Cannot initialize cipher.", e);
+            }
+            this._mode = mode;
+        }
+    }
+}
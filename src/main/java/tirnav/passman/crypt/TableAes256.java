@@ -0,0 +1,442 @@
+/*
+ * PasswordManager
+ *
+ * Copyright (c) 2009-2019 Gabor Bata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package tirnav.passman.crypt;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Table driven implementation of the &quot;Advanced Encryption Standard&quot; (AES) with a key
+ * size of 256 bit.
+ * <p>
+ * The state and the expanded key are held as 32 bit words. SubBytes, ShiftRows and MixColumns of
+ * one round are combined into four lookups in precomputed tables per column, as described in
+ * &quot;The Design of Rijndael&quot; (section 4.2). Decryption uses the equivalent inverse cipher,
+ * so the decryption key schedule is transformed once by InvMixColumns in the constructor.
+ * </p>
+ * <p>
+ * The results are identical to {@link Aes256}, which is kept as the reference implementation.
+ * </p>
+ *
+ * @author jainj
+ *
+ */
+public final class TableAes256 implements BlockCipher {
+
+    /**
+     * Number of {@code byte}s for a data block.
+     */
+    private static final int BLOCK_SIZE = 16;
+
+    /**
+     * key size in 32 bit words
+     */
+    private static final int KEY_WORDS = 8;
+
+    /**
+     * number of rounds
+     */
+    private static final int ROUNDS = 14;
+
+    /**
+     * Size of the expanded key in 32 bit words.
+     */
+    private static final int EXPANDED_KEY_WORDS = (ROUNDS + 1) * 4;
+
+    /**
+     * s-box permutation
+     */
+    private static final int[] S_BOX = new int[256];
+
+    /**
+     * inverse of the s-box permutation
+     */
+    private static final int[] INV_S_BOX = new int[256];
+
+    /**
+     * Round tables for encryption. {@code TE1} to {@code TE3} are {@code TE0} rotated right by one,
+     * two and three {@code byte}s.
+     */
+    private static final int[] TE0 = new int[256];
+    private static final int[] TE1 = new int[256];
+    private static final int[] TE2 = new int[256];
+    private static final int[] TE3 = new int[256];
+
+    /**
+     * Round tables for decryption. {@code TD1} to {@code TD3} are {@code TD0} rotated right by one,
+     * two and three {@code byte}s.
+     */
+    private static final int[] TD0 = new int[256];
+    private static final int[] TD1 = new int[256];
+    private static final int[] TD2 = new int[256];
+    private static final int[] TD3 = new int[256];
+
+    static {
+        // powers and logarithms of the generator 0x03 in GF(2^8)
+        int[] pow = new int[256];
+        int[] log = new int[256];
+        int x = 1;
+        for (int i = 0; i < 255; ++i) {
+            pow[i] = x;
+            log[x] = i;
+            x ^= times2(x);
+        }
+
+        for (int i = 0; i < 256; ++i) {
+            int inv = i == 0 ? 0 : pow[(255 - log[i]) % 255];
+            int s = inv ^ rotl8(inv, 1) ^ rotl8(inv, 2) ^ rotl8(inv, 3) ^ rotl8(inv, 4) ^ 0x63;
+            S_BOX[i] = s;
+            INV_S_BOX[s] = i;
+        }
+
+        for (int i = 0; i < 256; ++i) {
+            int s = S_BOX[i];
+            int s2 = times2(s);
+            int e = (s2 << 24) | (s << 16) | (s << 8) | (s2 ^ s);
+            TE0[i] = e;
+            TE1[i] = Integer.rotateRight(e, 8);
+            TE2[i] = Integer.rotateRight(e, 16);
+            TE3[i] = Integer.rotateRight(e, 24);
+
+            int si = INV_S_BOX[i];
+            int d = (mul(0x0e, si) << 24) | (mul(0x09, si) << 16) | (mul(0x0d, si) << 8) | mul(0x0b, si);
+            TD0[i] = d;
+            TD1[i] = Integer.rotateRight(d, 8);
+            TD2[i] = Integer.rotateRight(d, 16);
+            TD3[i] = Integer.rotateRight(d, 24);
+        }
+    }
+
+    /**
+     * expanded key for encryption
+     */
+    private final int[] _encryptKey;
+
+    /**
+     * expanded key for decryption, in reverse round order and transformed by InvMixColumns
+     */
+    private final int[] _decryptKey;
+
+    /**
+     * Expands the key for encryption and decryption.
+     *
+     * @param key key for the AES algorithm, 32 {@code byte}s
+     */
+    public TableAes256(byte[] key) {
+        this._encryptKey = new int[EXPANDED_KEY_WORDS];
+        this._decryptKey = new int[EXPANDED_KEY_WORDS];
+
+        int[] ek = this._encryptKey;
+        for (int i = 0; i < KEY_WORDS; ++i) {
+            ek[i] = getWord(key, i * 4);
+        }
+        for (int i = KEY_WORDS; i < EXPANDED_KEY_WORDS; ++i) {
+            int tmp = ek[i - 1];
+            if (i % KEY_WORDS == 0) {
+                tmp = substituteWord(Integer.rotateLeft(tmp, 8)) ^ (1 << (24 + i / KEY_WORDS - 1));
+            } else if (i % KEY_WORDS == 4) {
+                tmp = substituteWord(tmp);
+            }
+            ek[i] = ek[i - KEY_WORDS] ^ tmp;
+        }
+
+        int[] dk = this._decryptKey;
+        for (int round = 0; round <= ROUNDS; ++round) {
+            for (int j = 0; j < 4; ++j) {
+                int w = ek[(ROUNDS - round) * 4 + j];
+                if (round > 0 && round < ROUNDS) {
+                    w = TD0[S_BOX[w >>> 24]] ^ TD1[S_BOX[(w >>> 16) & 0xff]]
+                            ^ TD2[S_BOX[(w >>> 8) & 0xff]] ^ TD3[S_BOX[w & 0xff]];
+                }
+                dk[round * 4 + j] = w;
+            }
+        }
+    }
+
+    /**
+     * Encrypts one block. The input block lies in {@code inBlock} starting at the position
+     * {@code inIndex}. The {@code inBlock} won't be modified by this method. The encrypted block
+     * will be stored in {@code outBlock} starting at position {@code outIndex}.
+     *
+     * @param inBlock array containing the input block
+     * @param inIndex starting of the input block in {@code inBlock}
+     * @param outBlock array to store the encrypted block
+     * @param outIndex starting of the encrypted block in {@code outBlock}
+     */
+    @Override
+    public void encrypt(byte[] inBlock, int inIndex, byte[] outBlock, int outIndex) {
+        encryptWords(getWord(inBlock, inIndex), getWord(inBlock, inIndex + 4), getWord(inBlock, inIndex + 8),
+                getWord(inBlock, inIndex + 12), outBlock, null, outIndex);
+    }
+
+    /**
+     * Encrypts one block of a buffer. The positions of the buffers are not changed.
+     *
+     * @param in buffer containing the input block
+     * @param inIndex starting of the input block in {@code in}
+     * @param out buffer to store the encrypted block
+     * @param outIndex starting of the encrypted block in {@code out}
+     */
+    @Override
+    public void encrypt(ByteBuffer in, int inIndex, ByteBuffer out, int outIndex) {
+        encryptWords(getWord(in, inIndex), getWord(in, inIndex + 4), getWord(in, inIndex + 8),
+                getWord(in, inIndex + 12), null, out, outIndex);
+    }
+
+    /**
+     * Encrypts the words of one block, and stores the result either in an array or in a buffer.
+     *
+     * @param w0 first word of the input block
+     * @param w1 second word of the input block
+     * @param w2 third word of the input block
+     * @param w3 fourth word of the input block
+     * @param outBlock array to store the encrypted block, or {@code null}
+     * @param outBuffer buffer to store the encrypted block, if {@code outBlock} is {@code null}
+     * @param outIndex starting of the encrypted block
+     */
+    private void encryptWords(int w0, int w1, int w2, int w3, byte[] outBlock, ByteBuffer outBuffer, int outIndex) {
+        int[] rk = this._encryptKey;
+        int s0 = w0 ^ rk[0];
+        int s1 = w1 ^ rk[1];
+        int s2 = w2 ^ rk[2];
+        int s3 = w3 ^ rk[3];
+
+        int k = 4;
+        for (int round = 1; round < ROUNDS; ++round) {
+            int t0 = TE0[s0 >>> 24] ^ TE1[(s1 >>> 16) & 0xff] ^ TE2[(s2 >>> 8) & 0xff] ^ TE3[s3 & 0xff] ^ rk[k];
+            int t1 = TE0[s1 >>> 24] ^ TE1[(s2 >>> 16) & 0xff] ^ TE2[(s3 >>> 8) & 0xff] ^ TE3[s0 & 0xff] ^ rk[k + 1];
+            int t2 = TE0[s2 >>> 24] ^ TE1[(s3 >>> 16) & 0xff] ^ TE2[(s0 >>> 8) & 0xff] ^ TE3[s1 & 0xff] ^ rk[k + 2];
+            int t3 = TE0[s3 >>> 24] ^ TE1[(s0 >>> 16) & 0xff] ^ TE2[(s1 >>> 8) & 0xff] ^ TE3[s2 & 0xff] ^ rk[k + 3];
+            s0 = t0;
+            s1 = t1;
+            s2 = t2;
+            s3 = t3;
+            k += 4;
+        }
+
+        putWord(finalRound(S_BOX, s0, s1, s2, s3) ^ rk[k], outBlock, outBuffer, outIndex);
+        putWord(finalRound(S_BOX, s1, s2, s3, s0) ^ rk[k + 1], outBlock, outBuffer, outIndex + 4);
+        putWord(finalRound(S_BOX, s2, s3, s0, s1) ^ rk[k + 2], outBlock, outBuffer, outIndex + 8);
+        putWord(finalRound(S_BOX, s3, s0, s1, s2) ^ rk[k + 3], outBlock, outBuffer, outIndex + 12);
+    }
+
+    /**
+     * Decrypts a block. The encrypted block starts at {@code inIndex} in {@code inBlock}.
+     * {@code inBlock} won't be modified by this method. The decrypted block will be stored at
+     * {@code outIndex} in {@code outBlock}.
+     *
+     * @param inBlock array containing the encrypted block
+     * @param inIndex starting point of the encrypted block
+     * @param outBlock array to store the decrypted block
+     * @param outIndex position of the decrypted block
+     */
+    @Override
+    public void decrypt(byte[] inBlock, int inIndex, byte[] outBlock, int outIndex) {
+        decryptWords(getWord(inBlock, inIndex), getWord(inBlock, inIndex + 4), getWord(inBlock, inIndex + 8),
+                getWord(inBlock, inIndex + 12), outBlock, null, outIndex);
+    }
+
+    /**
+     * Decrypts one block of a buffer. The positions of the buffers are not changed.
+     *
+     * @param in buffer containing the encrypted block
+     * @param inIndex starting point of the encrypted block
+     * @param out buffer to store the decrypted block
+     * @param outIndex position of the decrypted block
+     */
+    @Override
+    public void decrypt(ByteBuffer in, int inIndex, ByteBuffer out, int outIndex) {
+        decryptWords(getWord(in, inIndex), getWord(in, inIndex + 4), getWord(in, inIndex + 8),
+                getWord(in, inIndex + 12), null, out, outIndex);
+    }
+
+    /**
+     * Decrypts the words of one block, and stores the result either in an array or in a buffer.
+     *
+     * @param w0 first word of the encrypted block
+     * @param w1 second word of the encrypted block
+     * @param w2 third word of the encrypted block
+     * @param w3 fourth word of the encrypted block
+     * @param outBlock array to store the decrypted block, or {@code null}
+     * @param outBuffer buffer to store the decrypted block, if {@code outBlock} is {@code null}
+     * @param outIndex position of the decrypted block
+     */
+    private void decryptWords(int w0, int w1, int w2, int w3, byte[] outBlock, ByteBuffer outBuffer, int outIndex) {
+        int[] rk = this._decryptKey;
+        int s0 = w0 ^ rk[0];
+        int s1 = w1 ^ rk[1];
+        int s2 = w2 ^ rk[2];
+        int s3 = w3 ^ rk[3];
+
+        int k = 4;
+        for (int round = 1; round < ROUNDS; ++round) {
+            int t0 = TD0[s0 >>> 24] ^ TD1[(s3 >>> 16) & 0xff] ^ TD2[(s2 >>> 8) & 0xff] ^ TD3[s1 & 0xff] ^ rk[k];
+            int t1 = TD0[s1 >>> 24] ^ TD1[(s0 >>> 16) & 0xff] ^ TD2[(s3 >>> 8) & 0xff] ^ TD3[s2 & 0xff] ^ rk[k + 1];
+            int t2 = TD0[s2 >>> 24] ^ TD1[(s1 >>> 16) & 0xff] ^ TD2[(s0 >>> 8) & 0xff] ^ TD3[s3 & 0xff] ^ rk[k + 2];
+            int t3 = TD0[s3 >>> 24] ^ TD1[(s2 >>> 16) & 0xff] ^ TD2[(s1 >>> 8) & 0xff] ^ TD3[s0 & 0xff] ^ rk[k + 3];
+            s0 = t0;
+            s1 = t1;
+            s2 = t2;
+            s3 = t3;
+            k += 4;
+        }
+
+        putWord(finalRound(INV_S_BOX, s0, s3, s2, s1) ^ rk[k], outBlock, outBuffer, outIndex);
+        putWord(finalRound(INV_S_BOX, s1, s0, s3, s2) ^ rk[k + 1], outBlock, outBuffer, outIndex + 4);
+        putWord(finalRound(INV_S_BOX, s2, s1, s0, s3) ^ rk[k + 2], outBlock, outBuffer, outIndex + 8);
+        putWord(finalRound(INV_S_BOX, s3, s2, s1, s0) ^ rk[k + 3], outBlock, outBuffer, outIndex + 12);
+    }
+
+    /**
+     * Builds one column of the last round, which has no MixColumns step. Byte {@code n} of the
+     * column is taken from byte {@code n} of the {@code n}-th argument.
+     *
+     * @param box s-box or inverse s-box
+     * @param a word providing the first {@code byte}
+     * @param b word providing the second {@code byte}
+     * @param c word providing the third {@code byte}
+     * @param d word providing the fourth {@code byte}
+     * @return substituted and shifted column
+     */
+    private static int finalRound(int[] box, int a, int b, int c, int d) {
+        return (box[a >>> 24] << 24) | (box[(b >>> 16) & 0xff] << 16) | (box[(c >>> 8) & 0xff] << 8)
+                | box[d & 0xff];
+    }
+
+    /**
+     * Substitutes all {@code byte}s of a word by the s-box.
+     *
+     * @param w word
+     * @return substituted word
+     */
+    private static int substituteWord(int w) {
+        return (S_BOX[w >>> 24] << 24) | (S_BOX[(w >>> 16) & 0xff] << 16) | (S_BOX[(w >>> 8) & 0xff] << 8)
+                | S_BOX[w & 0xff];
+    }
+
+    /**
+     * Reads a big endian word.
+     *
+     * @param b source array
+     * @param index position of the first {@code byte}
+     * @return word
+     */
+    private static int getWord(byte[] b, int index) {
+        return (b[index] << 24) | ((b[index + 1] & 0xff) << 16) | ((b[index + 2] & 0xff) << 8) | (b[index + 3] & 0xff);
+    }
+
+    /**
+     * Reads a big endian word, regardless of the byte order of the buffer.
+     *
+     * @param b source buffer
+     * @param index position of the first {@code byte}
+     * @return word
+     */
+    private static int getWord(ByteBuffer b, int index) {
+        int w = b.getInt(index);
+        return b.order() == ByteOrder.BIG_ENDIAN ? w : Integer.reverseBytes(w);
+    }
+
+    /**
+     * Writes a big endian word.
+     *
+     * @param w word
+     * @param b target array
+     * @param index position of the first {@code byte}
+     */
+    private static void putWord(int w, byte[] b, int index) {
+        b[index] = (byte) (w >>> 24);
+        b[index + 1] = (byte) (w >>> 16);
+        b[index + 2] = (byte) (w >>> 8);
+        b[index + 3] = (byte) w;
+    }
+
+    /**
+     * Writes a big endian word into an array or, if the array is {@code null}, into a buffer.
+     *
+     * @param w word
+     * @param b target array, or {@code null}
+     * @param buffer target buffer, if {@code b} is {@code null}
+     * @param index position of the first {@code byte}
+     */
+    private static void putWord(int w, byte[] b, ByteBuffer buffer, int index) {
+        if (b != null) {
+            putWord(w, b, index);
+        } else {
+            buffer.putInt(index, buffer.order() == ByteOrder.BIG_ENDIAN ? w : Integer.reverseBytes(w));
+        }
+    }
+
+    /**
+     * Multiplies a polynomial by its free variable in GF(2^8). See {@link Aes256} for the
+     * representation.
+     *
+     * @param b origin polynomial
+     * @return multiplied polynomial
+     */
+    private static int times2(int b) {
+        int result = b << 1;
+        if ((b & 0x80) != 0) {
+            result ^= 0x1b;
+        }
+        return result & 0xff;
+    }
+
+    /**
+     * Multiplies two polynomials in GF(2^8).
+     *
+     * @param a first polynomial
+     * @param b second polynomial
+     * @return result of the multiplication
+     */
+    private static int mul(int a, int b) {
+        int result = 0;
+        int first = a;
+        int current = b;
+        while (first != 0) {
+            if ((first & 0x01) != 0) {
+                result ^= current;
+            }
+            first >>= 1;
+            current = times2(current);
+        }
+        return result;
+    }
+
+    /**
+     * Rotates a {@code byte} left.
+     *
+     * @param b {@code byte} value
+     * @param shift number of bits
+     * @return rotated value
+     */
+    private static int rotl8(int b, int shift) {
+        return ((b << shift) | (b >>> (8 - shift))) & 0xff;
+    }
+}
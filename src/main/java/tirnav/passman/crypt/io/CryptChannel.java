@@ -0,0 +1,333 @@
+/*
+ * PasswordManager
+ *
+ * Copyright (c) 2009-2019 Gabor Bata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package tirnav.passman.crypt.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonReadableChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Random;
+
+import tirnav.passman.crypt.Cbc;
+import tirnav.passman.crypt.CipherEngines;
+import tirnav.passman.crypt.DecryptException;
+import tirnav.passman.util.CryptUtils;
+
+/**
+ * Channel counterpart of {@link CryptInputStream} and {@link CryptOutputStream}, the data format is
+ * the same. A channel is opened either for writing, then the passed data is encrypted into the
+ * underlying channel, or for reading, then the data of the underlying channel is decrypted. Like a
+ * read-only {@link java.nio.channels.FileChannel}, the other direction throws a
+ * {@link NonWritableChannelException} or {@link NonReadableChannelException}.
+ * <p>
+ * Heap and direct buffers are processed by the cipher without copying them into arrays, and the
+ * encrypted data is exchanged with the underlying channel through direct buffers. So a channel can
+ * be the target of {@link java.nio.channels.FileChannel#transferTo} or the source of
+ * {@link java.nio.channels.FileChannel#transferFrom}. The underlying channel has to be blocking.
+ * </p>
+ *
+ * @author jainj
+ *
+ */
+public class CryptChannel implements ReadableByteChannel, WritableByteChannel {
+
+    /**
+     * Size of a cipher block.
+     */
+    private static final int BLOCK_SIZE = 16;
+
+    /**
+     * Underlying channel that provides the encrypted data, {@code null} if opened for writing.
+     */
+    private final ReadableByteChannel _source;
+
+    /**
+     * Cipher.
+     */
+    private final Cbc _cipher;
+
+    /**
+     * Buffer of the encrypted data read from {@link CryptChannel#_source}.
+     */
+    private final ByteBuffer _fetchBuffer;
+
+    /**
+     * Decrypted data that is not returned yet, between its position and limit.
+     */
+    private final ByteBuffer _buffer;
+
+    /**
+     * Signals, if the underlying channel is at its end.
+     */
+    private boolean _lastBufferRead = false;
+
+    private boolean _open = true;
+
+    private CryptChannel(WritableByteChannel parent, byte[] key, byte[] iv, int bufferSize) {
+        this._source = null;
+        this._fetchBuffer = null;
+        this._buffer = null;
+        this._cipher = new Cbc(CipherEngines.newEngine(key, iv), parent, bufferSize);
+    }
+
+    private CryptChannel(ReadableByteChannel parent, byte[] key, byte[] iv, int bufferSize) {
+        if (bufferSize < BLOCK_SIZE) {
+            throw new IllegalArgumentException("Buffer size is less than a block.");
+        }
+        this._source = parent;
+        this._fetchBuffer = ByteBuffer.allocateDirect(bufferSize);
+        this._buffer = ByteBuffer.allocateDirect(bufferSize + 2 * BLOCK_SIZE);
+        this._buffer.limit(0);
+        this._cipher = new Cbc(CipherEngines.newEngine(key, iv), new BufferChannel(), bufferSize + BLOCK_SIZE);
+    }
+
+    /**
+     * Opens a channel that encrypts into {@code parent}. Random initial values for the CBC scheme
+     * are written to the underlying channel.
+     *
+     * @param parent channel that receives the encrypted data
+     * @param key key for the cipher algorithm
+     * @return channel for writing
+     * @throws IOException if the initial values can't be written to the underlying channel
+     */
+    public static CryptChannel forWriting(WritableByteChannel parent, byte[] key) throws IOException {
+        return forWriting(parent, key, writeIv(parent), Cbc.DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Opens a channel that encrypts into {@code parent} with the given initial values.
+     *
+     * @param parent channel that receives the encrypted data
+     * @param key key for the cipher algorithm
+     * @param iv initial values for the CBC scheme
+     * @param bufferSize maximum number of {@code byte}s written to {@code parent} at once
+     * @return channel for writing
+     */
+    public static CryptChannel forWriting(WritableByteChannel parent, byte[] key, byte[] iv, int bufferSize) {
+        return new CryptChannel(parent, key, iv, bufferSize);
+    }
+
+    /**
+     * Opens a channel that decrypts the data of {@code parent}. The initial values for the CBC
+     * scheme are read from the underlying channel.
+     *
+     * @param parent channel that provides the encrypted data
+     * @param key key for the cipher algorithm
+     * @return channel for reading
+     * @throws IOException if the initial values can't be read
+     */
+    public static CryptChannel forReading(ReadableByteChannel parent, byte[] key) throws IOException {
+        return forReading(parent, key, readIv(parent), CryptInputStream.DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Opens a channel that decrypts the data of {@code parent} with the given initial values.
+     *
+     * @param parent channel that provides the encrypted data
+     * @param key key for the cipher algorithm
+     * @param iv initial values for the CBC scheme
+     * @param bufferSize number of {@code byte}s read from {@code parent} at once
+     * @return channel for reading
+     */
+    public static CryptChannel forReading(ReadableByteChannel parent, byte[] key, byte[] iv, int bufferSize) {
+        return new CryptChannel(parent, key, iv, bufferSize);
+    }
+
+    /**
+     * Creates random initial values and writes them to the channel.
+     *
+     * @param parent underlying channel
+     * @return initial values for the CBC scheme
+     * @throws IOException if the initial values can't be written
+     */
+    private static byte[] writeIv(WritableByteChannel parent) throws IOException {
+        byte[] iv = new byte[BLOCK_SIZE];
+        Random rnd = CryptUtils.newRandomNumberGenerator();
+        rnd.nextBytes(iv);
+        ByteBuffer buffer = ByteBuffer.wrap(iv);
+        while (buffer.hasRemaining()) {
+            parent.write(buffer);
+        }
+        return iv;
+    }
+
+    /**
+     * Reads the initial values from the channel.
+     *
+     * @param parent underlying channel
+     * @return initial values for the CBC scheme
+     * @throws IOException if the initial values can't be read
+     */
+    private static byte[] readIv(ReadableByteChannel parent) throws IOException {
+        byte[] iv = new byte[BLOCK_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(iv);
+        while (buffer.hasRemaining()) {
+            if (parent.read(buffer) < 0) {
+                throw new IOException("No initial values in stream.");
+            }
+        }
+        return iv;
+    }
+
+    /**
+     * Encrypts the remaining {@code byte}s of the buffer.
+     *
+     * @param src buffer of the plain data
+     * @return number of {@code byte}s written, all remaining {@code byte}s of {@code src}
+     * @throws IOException if the underlying channel throws an exception
+     */
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        if (this._source != null) {
+            throw new NonWritableChannelException();
+        }
+        checkOpen();
+        int length = src.remaining();
+        this._cipher.encrypt(src);
+        return length;
+    }
+
+    /**
+     * Reads decrypted {@code byte}s into the buffer. At most the rest of the current chunk is
+     * returned.
+     *
+     * @param dst buffer to store the decrypted data
+     * @return number of {@code byte}s read or {@code -1} at the end of the data
+     * @throws IOException if the decryption fails or the underlying channel throws an exception
+     */
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (this._source == null) {
+            throw new NonReadableChannelException();
+        }
+        checkOpen();
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+        if (!fillBuffer()) {
+            return -1;
+        }
+        int count = Math.min(dst.remaining(), this._buffer.remaining());
+        ByteBuffer chunk = this._buffer.duplicate();
+        chunk.limit(chunk.position() + count);
+        dst.put(chunk);
+        this._buffer.position(chunk.position());
+        return count;
+    }
+
+    /**
+     * Decrypts the next chunk of data, if the buffer is completely returned.
+     *
+     * @return {@code false} if there is no more data
+     * @throws IOException if the decryption fails or the underlying channel throws an exception
+     */
+    private boolean fillBuffer() throws IOException {
+        while (!this._buffer.hasRemaining()) {
+            if (this._lastBufferRead) {
+                return false;
+            }
+
+            this._buffer.clear();
+            this._fetchBuffer.clear();
+            if (this._source.read(this._fetchBuffer) < 0) {
+                this._lastBufferRead = true;
+                try {
+                    this._cipher.finishDecryption();
+                } catch (DecryptException ex) {
+                    throw new IOException("can't decrypt");
+                }
+            } else {
+                this._fetchBuffer.flip();
+                this._cipher.decrypt(this._fetchBuffer);
+            }
+            this._buffer.flip();
+        }
+        return true;
+    }
+
+    private void checkOpen() throws ClosedChannelException {
+        if (!this._open) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return this._open;
+    }
+
+    /**
+     * Closes the channel. If it was opened for writing, the last block is padded and written
+     * before the underlying channel is closed.
+     *
+     * @throws IOException if the underlying channel throws an exception
+     */
+    @Override
+    public void close() throws IOException {
+        if (!this._open) {
+            return;
+        }
+        this._open = false;
+        if (this._source == null) {
+            this._cipher.finishEncryption();
+        } else {
+            this._source.close();
+        }
+    }
+
+    /**
+     * Receives the output of {@link CryptChannel#_cipher} directly in
+     * {@link CryptChannel#_buffer}.
+     */
+    private final class BufferChannel implements WritableByteChannel {
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            int length = src.remaining();
+            if (length > _buffer.remaining()) {
+                throw new IOException("Decryption buffer overflow.");
+            }
+            _buffer.put(src);
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+            // the decrypted data is still returned
+        }
+    }
+}
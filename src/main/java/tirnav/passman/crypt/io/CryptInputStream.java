@@ -30,11 +30,12 @@
  */
 package tirnav.passman.crypt.io;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 
 import tirnav.passman.crypt.Cbc;
+import tirnav.passman.crypt.CipherEngines;
 import tirnav.passman.crypt.DecryptException;
 
 /**
@@ -48,9 +49,15 @@ import tirnav.passman.crypt.DecryptException;
 public class CryptInputStream extends InputStream {
 
     /**
-     * Maximum size of data that will be read from the underlying stream.
+     * Default size of data that will be read from the underlying stream at once.
      */
-    private static final int FETCH_BUFFER_SIZE = 32;
+    public static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * Size of a cipher block. The decryption of a chunk may return one block more than it was fed,
+     * and the final block may add another one.
+     */
+    private static final int BLOCK_SIZE = 16;
 
     /**
      * Underlying stream that provides the encrypted data.
@@ -62,23 +69,26 @@ public class CryptInputStream extends InputStream {
      */
     private final Cbc _cipher;
 
-    private final ByteArrayOutputStream _decrypted;
-
     /**
      * Buffer of unencrypted data. If the buffer is completely returned, another chunk of data will
-     * be decrypted.
+     * be decrypted into it.
      */
-    private byte[] _buffer = null;
+    private final byte[] _buffer;
 
     /**
      * Number of {@code byte}s that are already returned from {@link CryptInputStream#_buffer}.
      */
     private int _bufferUsed = 0;
 
+    /**
+     * Number of decrypted {@code byte}s in {@link CryptInputStream#_buffer}.
+     */
+    private int _bufferLength = 0;
+
     /**
      * Buffer for storing the encrypted data.
      */
-    private final byte[] _fetchBuffer = new byte[FETCH_BUFFER_SIZE];
+    private final byte[] _fetchBuffer;
 
     /**
      * Signals, if the last encrypted data was read. If we run out of buffers, the stream is at its
@@ -94,9 +104,25 @@ public class CryptInputStream extends InputStream {
      * @param iv initial values for the CBC scheme
      */
     public CryptInputStream(InputStream parent, byte[] key, byte[] iv) {
+        this(parent, key, iv, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a cipher with the key and iv provided.
+     *
+     * @param parent Stream that provides the encrypted data
+     * @param key key for the cipher algorithm
+     * @param iv initial values for the CBC scheme
+     * @param bufferSize number of {@code byte}s read from the {@code parent} stream at once
+     */
+    public CryptInputStream(InputStream parent, byte[] key, byte[] iv, int bufferSize) {
+        if (bufferSize < BLOCK_SIZE) {
+            throw new IllegalArgumentException("Buffer size is less than a block.");
+        }
         this._parent = parent;
-        this._decrypted = new ByteArrayOutputStream();
-        this._cipher = new Cbc(iv, key, this._decrypted);
+        this._fetchBuffer = new byte[bufferSize];
+        this._buffer = new byte[bufferSize + 2 * BLOCK_SIZE];
+        this._cipher = new Cbc(CipherEngines.newEngine(key, iv), new BufferOutputStream(), bufferSize + BLOCK_SIZE);
     }
 
     /**
@@ -108,66 +134,125 @@ public class CryptInputStream extends InputStream {
      * @throws IOException if the iv can't be read
      */
     public CryptInputStream(InputStream parent, byte[] key) throws IOException {
-        this._parent = parent;
-        byte[] iv = new byte[16];
+        this(parent, key, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a cipher with the key. The iv will be read from the {@code parent} stream. If there
+     * are not enough {@code byte}s in the stream, an {@link java.io.IOException} will be raised.
+     *
+     * @param parent Stream that provides the encrypted data
+     * @param key key for the cipher algorithm
+     * @param bufferSize number of {@code byte}s read from the {@code parent} stream at once
+     * @throws IOException if the iv can't be read
+     */
+    public CryptInputStream(InputStream parent, byte[] key, int bufferSize) throws IOException {
+        this(parent, key, readIv(parent), bufferSize);
+    }
+
+    /**
+     * Reads the initial values from the stream.
+     *
+     * @param parent Stream that provides the encrypted data
+     * @return initial values for the CBC scheme
+     * @throws IOException if the iv can't be read
+     */
+    private static byte[] readIv(InputStream parent) throws IOException {
+        byte[] iv = new byte[BLOCK_SIZE];
         int readed = 0;
-        while (readed < 16) {
-            int cur = parent.read(iv, readed, 16 - readed);
+        while (readed < BLOCK_SIZE) {
+            int cur = parent.read(iv, readed, BLOCK_SIZE - readed);
             if (cur < 0) {
                 throw new IOException("No initial values in stream.");
             }
             readed += cur;
         }
-        this._decrypted = new ByteArrayOutputStream();
-        this._cipher = new Cbc(iv, key, this._decrypted);
-    }
-
-    /**
-     * Tries to read the next decrypted data from the output stream
-     */
-    private void readFromStream() {
-        if (this._decrypted.size() > 0) {
-            this._buffer = this._decrypted.toByteArray();
-            this._decrypted.reset();
-        }
+        return iv;
     }
 
     /**
-     * Returns the next decrypted {@code byte}. If there is no more data, {@code -1} will be
-     * returned. If the decryption fails or the underlying stream throws an
-     * {@link java.io.IOException}, an {@link java.io.IOException} will be thrown.
+     * Decrypts the next chunk of data, if the buffer is completely returned.
      *
-     * @return next decrypted {@code byte} or {@code -1}
+     * @return {@code false} if there is no more data
      * @throws IOException if the decryption fails or the underlying stream throws an exception
      */
-    @Override
-    public int read() throws IOException {
-        while (this._buffer == null || this._bufferUsed >= this._buffer.length) {
+    private boolean fillBuffer() throws IOException {
+        while (this._bufferUsed >= this._bufferLength) {
             if (this._lastBufferRead) {
-                return -1;
+                return false;
             }
 
             this._bufferUsed = 0;
-            this._buffer = null;
+            this._bufferLength = 0;
 
-            int readed = this._parent.read(this._fetchBuffer, 0, FETCH_BUFFER_SIZE);
+            int readed = this._parent.read(this._fetchBuffer, 0, this._fetchBuffer.length);
             if (readed < 0) {
                 this._lastBufferRead = true;
                 try {
                     this._cipher.finishDecryption();
-                    readFromStream();
                 } catch (DecryptException ex) {
                     throw new IOException("can't decrypt");
                 }
             } else {
-                this._cipher.decrypt(this._fetchBuffer, readed);
-                readFromStream();
+                this._cipher.decrypt(this._fetchBuffer, 0, readed);
             }
         }
+        return true;
+    }
 
+    /**
+     * Returns the next decrypted {@code byte}. If there is no more data, {@code -1} will be
+     * returned. If the decryption fails or the underlying stream throws an
+     * {@link java.io.IOException}, an {@link java.io.IOException} will be thrown.
+     *
+     * @return next decrypted {@code byte} or {@code -1}
+     * @throws IOException if the decryption fails or the underlying stream throws an exception
+     */
+    @Override
+    public int read() throws IOException {
+        if (!fillBuffer()) {
+            return -1;
+        }
         return this._buffer[this._bufferUsed++] & 0xff;
     }
 
+    /**
+     * Reads up to {@code length} decrypted {@code byte}s. At most the rest of the current chunk is
+     * returned, so the call blocks only if the whole chunk was already returned.
+     *
+     * @param b array to store the decrypted data
+     * @param offset start position in {@code b}
+     * @param length maximum number of {@code byte}s to read
+     * @return number of {@code byte}s read or {@code -1} at the end of the stream
+     * @throws IOException if the decryption fails or the underlying stream throws an exception
+     */
+    @Override
+    public int read(byte[] b, int offset, int length) throws IOException {
+        if (offset < 0 || length < 0 || length > b.length - offset) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (length == 0) {
+            return 0;
+        }
+        if (!fillBuffer()) {
+            return -1;
+        }
+        int count = Math.min(length, this._bufferLength - this._bufferUsed);
+        System.arraycopy(this._buffer, this._bufferUsed, b, offset, count);
+        this._bufferUsed += count;
+        return count;
+    }
+
+    /**
+     * Returns the number of decrypted {@code byte}s, that can be read without blocking.
+     *
+     * @return number of buffered {@code byte}s
+     */
+    @Override
+    public int available() {
+        return this._bufferLength - this._bufferUsed;
+    }
+
     /**
      * Closes the parent stream.
      *
@@ -177,4 +262,28 @@ public class CryptInputStream extends InputStream {
     public void close() throws IOException {
         this._parent.close();
     }
+
+    /**
+     * Receives the output of {@link CryptInputStream#_cipher} directly in
+     * {@link CryptInputStream#_buffer}.
+     */
+    private final class BufferOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            if (_bufferLength == _buffer.length) {
+                throw new IOException("Decryption buffer overflow.");
+            }
+            _buffer[_bufferLength++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int offset, int length) throws IOException {
+            if (length > _buffer.length - _bufferLength) {
+                throw new IOException("Decryption buffer overflow.");
+            }
+            System.arraycopy(b, offset, _buffer, _bufferLength, length);
+            _bufferLength += length;
+        }
+    }
 }
@@ -35,6 +35,7 @@ import java.io.OutputStream;
 import java.util.Random;
 
 import tirnav.passman.crypt.Cbc;
+import tirnav.passman.crypt.CipherEngines;
 import tirnav.passman.util.CryptUtils;
 
 /**
@@ -65,7 +66,19 @@ public class CryptOutputStream extends OutputStream {
      * @param iv initial values for the CBC scheme
      */
     public CryptOutputStream(OutputStream parent, byte[] key, byte[] iv) {
-        this._cipher = new Cbc(iv, key, parent);
+        this(parent, key, iv, Cbc.DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Initializes the cipher with the given key and initial values.
+     *
+     * @param parent underlying {@link java.io.OutputStream}
+     * @param key key for the cipher algorithm
+     * @param iv initial values for the CBC scheme
+     * @param bufferSize maximum number of {@code byte}s written to {@code parent} at once
+     */
+    public CryptOutputStream(OutputStream parent, byte[] key, byte[] iv, int bufferSize) {
+        this._cipher = new Cbc(CipherEngines.newEngine(key, iv), parent, bufferSize);
     }
 
     /**
@@ -78,12 +91,36 @@ public class CryptOutputStream extends OutputStream {
      */
     public CryptOutputStream(OutputStream parent, byte[] key)
             throws IOException {
+        this(parent, key, Cbc.DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Initializes the cipher with the given key. The initial values for the CBC scheme will be
+     * random and sent to the underlying stream.
+     *
+     * @param parent underlying {@link java.io.OutputStream}
+     * @param key key for the cipher algorithm
+     * @param bufferSize maximum number of {@code byte}s written to {@code parent} at once
+     * @throws IOException if the initial values can't be written to the underlying stream
+     */
+    public CryptOutputStream(OutputStream parent, byte[] key, int bufferSize)
+            throws IOException {
+        this(parent, key, writeIv(parent), bufferSize);
+    }
+
+    /**
+     * Creates random initial values and writes them to the stream.
+     *
+     * @param parent underlying {@link java.io.OutputStream}
+     * @return initial values for the CBC scheme
+     * @throws IOException if the initial values can't be written to the underlying stream
+     */
+    private static byte[] writeIv(OutputStream parent) throws IOException {
         byte[] iv = new byte[16];
         Random rnd = CryptUtils.newRandomNumberGenerator();
         rnd.nextBytes(iv);
         parent.write(iv);
-
-        this._cipher = new Cbc(iv, key, parent);
+        return iv;
     }
 
     /**
@@ -109,6 +146,22 @@ public class CryptOutputStream extends OutputStream {
         this._cipher.encrypt(b);
     }
 
+    /**
+     * Encrypts a part of a {@code byte} array.
+     *
+     * @param b {@code byte} array to be encrypted
+     * @param offset start position in {@code b}
+     * @param length number of {@code byte}s to be encrypted
+     * @throws IOException if encrypted data can't be written to the underlying stream
+     */
+    @Override
+    public void write(byte[] b, int offset, int length) throws IOException {
+        if (offset < 0 || length < 0 || length > b.length - offset) {
+            throw new IndexOutOfBoundsException();
+        }
+        this._cipher.encrypt(b, offset, length);
+    }
+
     /**
      * Finalizes the encryption and closes the underlying stream.
      *
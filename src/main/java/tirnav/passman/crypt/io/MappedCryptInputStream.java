@@ -0,0 +1,207 @@
+/*
+ * PasswordManager
+ *
+ * Copyright (c) 2009-2019 Gabor Bata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package tirnav.passman.crypt.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import tirnav.passman.crypt.CipherEngine;
+import tirnav.passman.crypt.CipherEngines;
+
+/**
+ * Decrypts the data of a {@link ByteBuffer}, usually a memory-mapped file, in the format written
+ * by {@link CryptOutputStream}. Unlike {@link CryptInputStream}, the length of the encrypted data
+ * is known in advance, so the padding is removed when the last block is decrypted, and no data
+ * has to be held back between the chunks.
+ * <p>
+ * Every chunk is decrypted from a slice of the source straight into a reusable direct buffer, the
+ * encrypted data is not copied to the heap. The {@code read} methods copy the decrypted data into
+ * the array of the caller. The buffer is wiped when the stream is closed.
+ * </p>
+ *
+ * @author jainj
+ *
+ */
+public class MappedCryptInputStream extends InputStream {
+
+    /**
+     * Size of a cipher block.
+     */
+    private static final int BLOCK_SIZE = CipherEngine.BLOCK_SIZE;
+
+    /**
+     * Encrypted data, its position is the start of the next chunk.
+     */
+    private final ByteBuffer source;
+
+    /**
+     * Cipher in CBC mode, the padding is handled by this stream.
+     */
+    private final CipherEngine engine;
+
+    /**
+     * Number of {@code byte}s decrypted at once, a multiple of the block size.
+     */
+    private final int chunkSize;
+
+    /**
+     * Direct buffer of the decrypted chunk, its remaining {@code byte}s are not returned yet.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Creates a stream that decrypts the remaining data of the buffer, which starts with the
+     * initialization vector.
+     *
+     * @param source buffer of the encrypted data, it is not modified
+     * @param key key for the cipher algorithm
+     * @throws IOException if the buffer does not contain the initial values and whole blocks
+     */
+    public MappedCryptInputStream(ByteBuffer source, byte[] key) throws IOException {
+        this(source, key, CryptInputStream.DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a stream that decrypts the remaining data of the buffer, which starts with the
+     * initialization vector.
+     *
+     * @param source buffer of the encrypted data, it is not modified
+     * @param key key for the cipher algorithm
+     * @param bufferSize number of {@code byte}s decrypted at once
+     * @throws IOException if the buffer does not contain the initial values and whole blocks
+     */
+    public MappedCryptInputStream(ByteBuffer source, byte[] key, int bufferSize) throws IOException {
+        if (bufferSize < BLOCK_SIZE) {
+            throw new IllegalArgumentException("Buffer size is less than a block.");
+        }
+        this.source = source.duplicate();
+        if (this.source.remaining() < 2 * BLOCK_SIZE || this.source.remaining() % BLOCK_SIZE != 0) {
+            throw new IOException("can't decrypt");
+        }
+        byte[] iv = new byte[BLOCK_SIZE];
+        this.source.get(iv);
+        this.engine = CipherEngines.newEngine(key, iv);
+        this.chunkSize = bufferSize - bufferSize % BLOCK_SIZE;
+        this.buffer = ByteBuffer.allocateDirect(this.chunkSize);
+        this.buffer.limit(0);
+    }
+
+    /**
+     * Decrypts the next chunk of data, if the buffer is completely returned.
+     *
+     * @return {@code false} if there is no more data
+     * @throws IOException if the padding of the last block is illegal
+     */
+    private boolean fillBuffer() throws IOException {
+        while (!this.buffer.hasRemaining()) {
+            int length = Math.min(this.chunkSize, this.source.remaining());
+            if (length == 0) {
+                return false;
+            }
+            ByteBuffer chunk = this.source.slice();
+            chunk.limit(length);
+            this.buffer.clear();
+            this.engine.decrypt(chunk, this.buffer);
+            this.buffer.flip();
+            this.source.position(this.source.position() + length);
+            if (!this.source.hasRemaining()) {
+                int pad = this.buffer.get(length - 1) & 0xff;
+                if (pad <= 0 || pad > BLOCK_SIZE) {
+                    throw new IOException("can't decrypt");
+                }
+                this.buffer.limit(length - pad);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the next decrypted {@code byte}, or {@code -1} at the end of the data.
+     *
+     * @return next decrypted {@code byte} or {@code -1}
+     * @throws IOException if the padding of the last block is illegal
+     */
+    @Override
+    public int read() throws IOException {
+        if (!fillBuffer()) {
+            return -1;
+        }
+        return this.buffer.get() & 0xff;
+    }
+
+    /**
+     * Reads up to {@code length} decrypted {@code byte}s. At most the rest of the current chunk is
+     * returned.
+     *
+     * @param b array to store the decrypted data
+     * @param offset start position in {@code b}
+     * @param length maximum number of {@code byte}s to read
+     * @return number of {@code byte}s read or {@code -1} at the end of the data
+     * @throws IOException if the padding of the last block is illegal
+     */
+    @Override
+    public int read(byte[] b, int offset, int length) throws IOException {
+        if (offset < 0 || length < 0 || length > b.length - offset) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (length == 0) {
+            return 0;
+        }
+        if (!fillBuffer()) {
+            return -1;
+        }
+        int count = Math.min(length, this.buffer.remaining());
+        this.buffer.get(b, offset, count);
+        return count;
+    }
+
+    /**
+     * Returns the number of decrypted {@code byte}s, that can be read without decrypting.
+     *
+     * @return number of buffered {@code byte}s
+     */
+    @Override
+    public int available() {
+        return this.buffer.remaining();
+    }
+
+    /**
+     * Wipes the decrypted data. The source buffer is not released, it is unmapped by the garbage
+     * collector.
+     */
+    @Override
+    public void close() {
+        this.buffer.clear();
+        while (this.buffer.hasRemaining()) {
+            this.buffer.put((byte) 0);
+        }
+        this.buffer.limit(0);
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * PasswordManager
+ *
+ * Copyright (c) 2009-2019 Gabor Bata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package tirnav.passman.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.AclFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+
+/**
+ * Output stream, that replaces a file only when the stream is closed successfully.
+ *
+ * <p>
+ * The data is written to a temporary file next to the target file, which is forced to the device
+ * according to the {@link SyncPolicy}, and moved atomically over the target on {@link #close()}.
+ * If the writing fails, {@link #discard()} has to be called before closing, then the temporary
+ * file is deleted and the target file is left unchanged. Optionally the previous versions of the
+ * target file are kept as {@code <file>.bak1} (newest) to {@code <file>.bak<n>}.
+ * </p>
+ *
+ * <p>
+ * A symbolic link is resolved, and the file it points to is replaced. The POSIX permissions, the
+ * owner, the group and the ACL of the target are copied to the new file, as far as the file
+ * system supports them, so the new file is not left with the permissions of a temporary file.
+ * </p>
+ *
+ * @author jainj
+ *
+ */
+public final class AtomicFileOutputStream extends OutputStream {
+
+    private final Path target;
+    private final Path temp;
+    private final FileChannel channel;
+    private final SyncPolicy syncPolicy;
+    private final int backupCount;
+    private boolean discarded;
+    private boolean closed;
+
+    /**
+     * Creates the temporary file for the target file.
+     *
+     * @param target the file to replace
+     * @param syncPolicy how the file is forced to the device
+     * @param backupCount number of previous versions to keep
+     * @throws IOException if the temporary file cannot be created
+     */
+    public AtomicFileOutputStream(File target, SyncPolicy syncPolicy, int backupCount) throws IOException {
+        Path path = target.getAbsoluteFile().toPath();
+        // a link is kept, the file it points to is replaced
+        this.target = Files.exists(path) ? path.toRealPath() : path;
+        this.syncPolicy = syncPolicy;
+        this.backupCount = backupCount;
+        this.temp = Files.createTempFile(this.target.getParent(), "." + this.target.getFileName(), ".tmp");
+        this.channel = FileChannel.open(this.temp, StandardOpenOption.WRITE);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+        while (buffer.hasRemaining()) {
+            this.channel.write(buffer);
+        }
+    }
+
+    /**
+     * Marks the written data as invalid, the target file is not replaced on close.
+     */
+    public void discard() {
+        this.discarded = true;
+    }
+
+    /**
+     * Replaces the target file with the written data, or deletes the data if it was discarded.
+     *
+     * @throws IOException if the file cannot be replaced, the target file is unchanged in this case
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        boolean replaced = false;
+        try {
+            if (this.discarded) {
+                this.channel.close();
+                return;
+            }
+            if (this.syncPolicy != SyncPolicy.NONE) {
+                this.channel.force(this.syncPolicy == SyncPolicy.FULL);
+            }
+            this.channel.close();
+            if (Files.exists(this.target)) {
+                copyAttributes();
+                if (this.backupCount > 0) {
+                    rotateBackups();
+                }
+            }
+            try {
+                Files.move(this.temp, this.target, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(this.temp, this.target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            replaced = true;
+            if (this.syncPolicy == SyncPolicy.FULL) {
+                forceDirectory();
+            }
+        } finally {
+            if (!replaced) {
+                this.channel.close();
+                Files.deleteIfExists(this.temp);
+            }
+        }
+    }
+
+    /**
+     * Copies the permissions, the owner, the group and the ACL of the target to the temporary file.
+     * The owner and the group are kept only if the user may set them.
+     */
+    private void copyAttributes() throws IOException {
+        FileStore store = Files.getFileStore(this.temp);
+        if (store.supportsFileAttributeView(PosixFileAttributeView.class)) {
+            PosixFileAttributes attributes = Files.readAttributes(this.target, PosixFileAttributes.class);
+            PosixFileAttributeView view = Files.getFileAttributeView(this.temp, PosixFileAttributeView.class);
+            view.setPermissions(attributes.permissions());
+            try {
+                view.setGroup(attributes.group());
+                view.setOwner(attributes.owner());
+            } catch (IOException e) {
+                // only the owner of the file or the superuser may change them
+            }
+        }
+        if (store.supportsFileAttributeView(AclFileAttributeView.class)) {
+            AclFileAttributeView view = Files.getFileAttributeView(this.temp, AclFileAttributeView.class);
+            view.setAcl(Files.getFileAttributeView(this.target, AclFileAttributeView.class).getAcl());
+        }
+    }
+
+    private Path getBackup(int index) {
+        return this.target.resolveSibling(this.target.getFileName() + ".bak" + index);
+    }
+
+    private void rotateBackups() throws IOException {
+        Files.deleteIfExists(getBackup(this.backupCount));
+        for (int i = this.backupCount - 1; i >= 1; i--) {
+            if (Files.exists(getBackup(i))) {
+                Files.move(getBackup(i), getBackup(i + 1));
+            }
+        }
+        // the target is copied, so it exists during the whole save
+        Files.copy(this.target, getBackup(1), StandardCopyOption.COPY_ATTRIBUTES);
+    }
+
+    /**
+     * Forces the directory entry of the moved file, not every platform can open directories.
+     */
+    private void forceDirectory() {
+        try {
+            FileChannel directory = FileChannel.open(this.target.getParent(), StandardOpenOption.READ);
+            try {
+                directory.force(true);
+            } finally {
+                directory.close();
+            }
+        } catch (IOException e) {
+            // the move itself is complete
+        }
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * PasswordManager
+ *
+ * Copyright (c) 2009-2019 Gabor Bata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package tirnav.passman.data;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Output stream, that compresses fixed-size chunks of the data in parallel.
+ *
+ * <p>
+ * The written data is cut into chunks, which are compressed independently by the tasks of an
+ * executor, while the caller continues writing the next chunk. The compressed chunks are written
+ * to the underlying stream in order by a background thread, so the encryption of the underlying
+ * stream runs in parallel with the serialization and the compression. The number of chunks in
+ * progress is bounded, so a slow underlying stream blocks the writer instead of buffering the
+ * whole document.
+ * </p>
+ *
+ * <p>
+ * The writer runs on a dedicated thread per stream, not on the executor: it blocks on the
+ * compression tasks and on the underlying stream for the whole save. On the executor it would
+ * take a compression thread away, and with a single thread the chunks it waits for would never
+ * be compressed. One short-lived thread per save is cheap compared to the key derivation and
+ * the file I/O.
+ * </p>
+ *
+ * <pre>
+ * chunk: length (4 bytes) | compressed length (4 bytes) | CRC-32 (4 bytes) | raw deflate data
+ * end: 0 (4 bytes)
+ * </pre>
+ *
+ * <p>
+ * The chunks are read by {@link ChunkedInflaterInputStream}.
+ * </p>
+ *
+ * @author jainj
+ *
+ */
+public final class ChunkedDeflaterOutputStream extends OutputStream {
+
+    /**
+     * Default size of the uncompressed chunks.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+
+    /**
+     * Deflaters of the compressing threads, they are reset for every chunk.
+     */
+    private static final ThreadLocal<Deflater> DEFLATERS = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        }
+    };
+
+    /**
+     * Marks the end of the chunks in the queue.
+     */
+    private static final Future<byte[]> END = new FutureTask<byte[]>(new Callable<byte[]>() {
+        @Override
+        public byte[] call() {
+            return null;
+        }
+    });
+
+    private final OutputStream out;
+    private final int chunkSize;
+    private final ExecutorService executor;
+    private final BlockingQueue<Future<byte[]>> queue;
+    private final Thread writer;
+    private volatile IOException error;
+    private byte[] buffer;
+    private int count;
+    private boolean closed;
+
+    /**
+     * Creates a new stream and starts its writer thread.
+     *
+     * @param out the underlying stream, it is closed when this stream is closed
+     * @param chunkSize size of the uncompressed chunks
+     * @param executor executor of the compression tasks
+     * @param maxPendingChunks maximum number of chunks compressed or waiting to be written
+     */
+    public ChunkedDeflaterOutputStream(final OutputStream out, final int chunkSize, final ExecutorService executor,
+            final int maxPendingChunks) {
+        if (chunkSize < 1 || chunkSize > ChunkedInflaterInputStream.MAX_CHUNK_SIZE) {
+            throw new IllegalArgumentException("Invalid chunk size: " + chunkSize);
+        }
+        this.out = out;
+        this.chunkSize = chunkSize;
+        this.executor = executor;
+        this.queue = new ArrayBlockingQueue<Future<byte[]>>(Math.max(1, maxPendingChunks));
+        this.buffer = new byte[chunkSize];
+        this.writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeChunks();
+            }
+        }, "chunk-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        this.buffer[this.count++] = (byte) b;
+        if (this.count == this.chunkSize) {
+            submitChunk();
+        }
+    }
+
+    @Override
+    public void write(final byte[] b, int offset, int length) throws IOException {
+        if (offset < 0 || length < 0 || length > b.length - offset) {
+            throw new IndexOutOfBoundsException();
+        }
+        while (length > 0) {
+            int n = Math.min(length, this.chunkSize - this.count);
+            System.arraycopy(b, offset, this.buffer, this.count, n);
+            this.count += n;
+            offset += n;
+            length -= n;
+            if (this.count == this.chunkSize) {
+                submitChunk();
+            }
+        }
+    }
+
+    /**
+     * Compresses the remaining data, waits until all chunks are written, and closes the
+     * underlying stream.
+     *
+     * @throws IOException if a chunk could not be compressed or written
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        try {
+            if (this.count > 0 && this.error == null) {
+                submitChunk();
+            }
+            enqueue(END);
+            this.writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing the chunks");
+        } finally {
+            Arrays.fill(this.buffer, (byte) 0);
+            // the writer must not write into the closed stream
+            if (this.writer.isAlive()) {
+                stopWriter();
+            }
+            this.out.close();
+        }
+        if (this.error != null) {
+            throw this.error;
+        }
+    }
+
+    private void submitChunk() throws IOException {
+        if (this.error != null) {
+            throw this.error;
+        }
+        final byte[] chunk = this.buffer;
+        final int length = this.count;
+        try {
+            enqueue(this.executor.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() {
+                    try {
+                        return compress(chunk, length);
+                    } finally {
+                        Arrays.fill(chunk, 0, length, (byte) 0);
+                    }
+                }
+            }));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing the chunks");
+        }
+        this.buffer = new byte[this.chunkSize];
+        this.count = 0;
+    }
+
+    /**
+     * Adds a chunk to the queue, waiting while it is full. The writer thread is checked while
+     * waiting, so the caller is not blocked forever if it has stopped.
+     */
+    private void enqueue(final Future<byte[]> future) throws IOException, InterruptedException {
+        while (!this.queue.offer(future, 100, TimeUnit.MILLISECONDS)) {
+            if (!this.writer.isAlive()) {
+                future.cancel(false);
+                throw this.error != null ? this.error : new IOException("The chunk writer has stopped");
+            }
+        }
+    }
+
+    /**
+     * Interrupts the writer thread, and waits until it has stopped. It stops at the next chunk, so
+     * the wait is short, and the interrupted status of the caller is kept.
+     */
+    private void stopWriter() {
+        boolean interrupted = false;
+        this.writer.interrupt();
+        while (this.writer.isAlive()) {
+            try {
+                this.writer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Compresses a chunk, and adds the chunk header in front of it.
+     */
+    private static byte[] compress(final byte[] chunk, final int length) {
+        CRC32 crc = new CRC32();
+        crc.update(chunk, 0, length);
+        Deflater deflater = DEFLATERS.get();
+        deflater.reset();
+        deflater.setInput(chunk, 0, length);
+        deflater.finish();
+        // incompressible data grows by a few bytes per 16 KB block
+        byte[] output = new byte[12 + length + length / 64 + 64];
+        int size = 12;
+        while (!deflater.finished()) {
+            if (size == output.length) {
+                output = Arrays.copyOf(output, output.length * 2);
+            }
+            size += deflater.deflate(output, size, output.length - size);
+        }
+        ByteBuffer.wrap(output).putInt(length).putInt(size - 12).putInt((int) crc.getValue());
+        return size == output.length ? output : shrink(output, size);
+    }
+
+    private static byte[] shrink(final byte[] output, final int size) {
+        byte[] result = Arrays.copyOf(output, size);
+        Arrays.fill(output, (byte) 0);
+        return result;
+    }
+
+    /**
+     * Writes the compressed chunks in order, until the end of the chunks. Any failure is recorded
+     * for the writing thread. After an error the chunks are still taken from the queue, so the
+     * writing thread is not blocked.
+     */
+    private void writeChunks() {
+        try {
+            Future<byte[]> future;
+            while ((future = this.queue.take()) != END) {
+                if (this.error != null) {
+                    future.cancel(false);
+                    continue;
+                }
+                try {
+                    byte[] chunk = future.get();
+                    this.out.write(chunk);
+                    Arrays.fill(chunk, (byte) 0);
+                } catch (ExecutionException e) {
+                    this.error = new IOException("Could not compress the data", e.getCause());
+                } catch (IOException e) {
+                    this.error = e;
+                } catch (Throwable e) {
+                    this.error = new IOException("Could not write the chunks", e);
+                }
+            }
+            if (this.error == null) {
+                try {
+                    this.out.write(new byte[4]);
+                } catch (IOException e) {
+                    this.error = e;
+                }
+            }
+        } catch (InterruptedException e) {
+            this.error = new InterruptedIOException("Interrupted while writing the chunks");
+        } catch (Throwable e) {
+            this.error = new IOException("Could not write the chunks", e);
+        }
+    }
+}
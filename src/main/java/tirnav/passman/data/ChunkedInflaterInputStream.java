@@ -0,0 +1,169 @@
+/*
+ * PasswordManager
+ *
+ * Copyright (c) 2009-2019 Gabor Bata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package tirnav.passman.data;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Input stream, that decompresses the chunks written by {@link ChunkedDeflaterOutputStream}.
+ *
+ * @author jainj
+ *
+ */
+public final class ChunkedInflaterInputStream extends InputStream {
+
+    /**
+     * Upper bound of the chunk size accepted while reading, to fail fast on corrupt data.
+     */
+    public static final int MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+
+    private final DataInputStream in;
+    private final Inflater inflater = new Inflater(true);
+    private final CRC32 crc = new CRC32();
+    private byte[] compressed = new byte[0];
+    private byte[] chunk = new byte[0];
+    private int position;
+    private int limit;
+    private boolean eof;
+
+    /**
+     * Creates a new stream.
+     *
+     * @param in the underlying stream, it is closed when this stream is closed
+     */
+    public ChunkedInflaterInputStream(final InputStream in) {
+        this.in = new DataInputStream(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (this.position == this.limit && !readChunk()) {
+            return -1;
+        }
+        return this.chunk[this.position++] & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] b, final int offset, final int length) throws IOException {
+        if (offset < 0 || length < 0 || length > b.length - offset) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (length == 0) {
+            return 0;
+        }
+        if (this.position == this.limit && !readChunk()) {
+            return -1;
+        }
+        int n = Math.min(length, this.limit - this.position);
+        System.arraycopy(this.chunk, this.position, b, offset, n);
+        this.position += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return this.limit - this.position;
+    }
+
+    /**
+     * Reads and decompresses the next chunk.
+     *
+     * @return {@code false} at the end of the chunks
+     */
+    private boolean readChunk() throws IOException {
+        if (this.eof) {
+            return false;
+        }
+        int length;
+        try {
+            length = this.in.readInt();
+        } catch (EOFException e) {
+            throw new IOException("Unexpected end of the compressed data");
+        }
+        if (length == 0) {
+            this.eof = true;
+            return false;
+        }
+        int compressedLength = this.in.readInt();
+        int checksum = this.in.readInt();
+        if (length < 0 || length > MAX_CHUNK_SIZE || compressedLength < 0 || compressedLength > 2 * MAX_CHUNK_SIZE) {
+            throw new IOException("Corrupt compressed data");
+        }
+        if (this.compressed.length < compressedLength) {
+            this.compressed = new byte[compressedLength];
+        }
+        // one spare byte, so the inflater can reach the end of the data after the last byte
+        if (this.chunk.length < length + 1) {
+            Arrays.fill(this.chunk, (byte) 0);
+            this.chunk = new byte[length + 1];
+        }
+        this.in.readFully(this.compressed, 0, compressedLength);
+        this.inflater.reset();
+        this.inflater.setInput(this.compressed, 0, compressedLength);
+        int size = 0;
+        try {
+            while (!this.inflater.finished() && size <= length) {
+                int n = this.inflater.inflate(this.chunk, size, length + 1 - size);
+                if (n == 0 && (this.inflater.needsInput() || this.inflater.needsDictionary())) {
+                    break;
+                }
+                size += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed data", e);
+        }
+        if (size != length || !this.inflater.finished()) {
+            throw new IOException("Corrupt compressed data");
+        }
+        this.crc.reset();
+        this.crc.update(this.chunk, 0, length);
+        if ((int) this.crc.getValue() != checksum) {
+            throw new IOException("Corrupt compressed data");
+        }
+        this.position = 0;
+        this.limit = length;
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.inflater.end();
+        Arrays.fill(this.chunk, (byte) 0);
+        this.position = 0;
+        this.limit = 0;
+        this.in.close();
+    }
+}
@@ -28,8 +28,12 @@
  */
 package tirnav.passman.data;
 
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import tirnav.passman.xml.bind.Entries;
 import tirnav.passman.xml.bind.Entry;
@@ -47,8 +51,53 @@ public class DataModel {
     private Entries entries = new Entries();
     private String fileName = null;
     private transient byte[] password = null;
+    private long passwordVersion;
+    private VaultHeader header = null;
+    private DocumentFormat format = null;
     private boolean modified = false;
 
+    /**
+     * Number of modifications, it is increased whenever the data model is marked as modified.
+     */
+    private long revision;
+
+    /**
+     * Revision of the last save. The saves set it while they hold {@link DocumentHelper#WRITE_LOCK},
+     * so a background save can check under the lock, that no newer revision has been written.
+     */
+    private volatile long savedRevision;
+
+    /**
+     * Changes of the entries since the file was read or saved, they are appended to the journal
+     * of the file on the next save.
+     */
+    private final List<Journal.Change> changes = new ArrayList<Journal.Change>();
+
+    /**
+     * Sequence number of the first recorded change. The changes are numbered in the order they
+     * were made, so a save can remove exactly the changes it has written, even if newer ones
+     * have been recorded or the list has been reset meanwhile.
+     */
+    private long firstChange = 0;
+
+    /**
+     * Mark of the opened file and its journal, that the changes are based on.
+     */
+    private Journal.Mark journalMark = null;
+
+    /**
+     * Index of the entry positions by title. It is updated by the entry operations of the data
+     * model, and rebuilt on the next lookup when an operation shifts the positions.
+     */
+    private final Map<String, Integer> titleIndex = new HashMap<String, Integer>();
+    private boolean titleIndexValid = false;
+    private int titleIndexSize = 0;
+
+    /**
+     * Full text index of the entries, it is updated by the entry operations of the data model.
+     */
+    private final SearchIndex searchIndex = new SearchIndex();
+
     private DataModel() {
         // not intended to be instantiated
     }
@@ -85,6 +134,75 @@ public class DataModel {
      */
     public final void setEntries(final Entries entries) {
         this.entries = entries;
+        this.titleIndexValid = false;
+        this.searchIndex.reset(entries.getEntry());
+        clearChanges();
+        this.journalMark = null;
+    }
+
+    /**
+     * Adds an entry to the end of the list.
+     *
+     * @param entry the entry
+     */
+    public void addEntry(final Entry entry) {
+        List<Entry> list = this.entries.getEntry();
+        list.add(entry);
+        this.changes.add(Journal.Change.add(entry));
+        this.searchIndex.add(entry);
+        if (this.titleIndexValid && this.titleIndexSize == list.size() - 1) {
+            if (!this.titleIndex.containsKey(entry.getTitle())) {
+                this.titleIndex.put(entry.getTitle(), list.size() - 1);
+            }
+            this.titleIndexSize = list.size();
+        }
+    }
+
+    /**
+     * Removes an entry.
+     *
+     * @param entry the entry
+     * @return {@code true} if the entry was in the list
+     */
+    public boolean removeEntry(final Entry entry) {
+        List<Entry> list = this.entries.getEntry();
+        int index = list.indexOf(entry);
+        boolean removed = index != -1;
+        if (removed) {
+            list.remove(index);
+            this.changes.add(Journal.Change.remove(index));
+            this.searchIndex.remove(entry);
+            // the positions of the following entries are shifted
+            this.titleIndexValid = false;
+        }
+        return removed;
+    }
+
+    /**
+     * Replaces an entry with a new one at the same position.
+     *
+     * @param oldEntry the entry to replace
+     * @param newEntry the new entry
+     */
+    public void replaceEntry(final Entry oldEntry, final Entry newEntry) {
+        List<Entry> list = this.entries.getEntry();
+        int index = list.indexOf(oldEntry);
+        if (index == -1) {
+            addEntry(newEntry);
+            return;
+        }
+        list.set(index, newEntry);
+        this.changes.add(Journal.Change.replace(index, newEntry));
+        this.searchIndex.remove(oldEntry);
+        this.searchIndex.add(newEntry);
+        if (this.titleIndexValid) {
+            String oldTitle = oldEntry.getTitle();
+            String newTitle = newEntry.getTitle();
+            if (oldTitle == null ? newTitle != null : !oldTitle.equals(newTitle)) {
+                // an entry with the same title at another position could become the first one
+                this.titleIndexValid = false;
+            }
+        }
     }
 
     /**
@@ -115,30 +233,213 @@ public class DataModel {
     }
 
     /**
-     * Sets the modified state of the data model.
+     * Sets the modified state of the data model. Every modification increases the revision.
      *
      * @param modified modified state
      */
     public final void setModified(final boolean modified) {
+        if (modified) {
+            this.revision++;
+        }
         this.modified = modified;
     }
 
+    /**
+     * Gets the number of modifications.
+     *
+     * @return revision of the data model
+     */
+    public final long getRevision() {
+        return this.revision;
+    }
+
+    /**
+     * Gets the revision of the last save.
+     *
+     * @return the saved revision
+     */
+    public final long getSavedRevision() {
+        return this.savedRevision;
+    }
+
+    /**
+     * Sets the revision of the last save, it has to be called with {@link DocumentHelper#WRITE_LOCK}
+     * held by the thread that wrote the file.
+     *
+     * @param savedRevision the saved revision
+     */
+    public final void setSavedRevision(final long savedRevision) {
+        this.savedRevision = savedRevision;
+    }
+
+    /**
+     * Marks the data model as saved, if it has not been modified since the given revision was
+     * taken.
+     *
+     * @param savedRevision the saved revision
+     * @return {@code true} if the data model is not modified any more
+     */
+    public final boolean setSaved(final long savedRevision) {
+        if (this.revision == savedRevision) {
+            this.modified = false;
+        }
+        return !this.modified;
+    }
+
+    /**
+     * Creates a snapshot of the entries for saving in the background. The entry list is copied,
+     * the entries are shared, as they are replaced instead of changed on edit. The modification
+     * dates are set here, so the saving thread does not change the shared entries.
+     *
+     * @return the snapshot
+     */
+    public Entries snapshot() {
+        DocumentHelper.updateLastModifiedDate(this.entries);
+        Entries snapshot = new Entries();
+        snapshot.getEntry().addAll(this.entries.getEntry());
+        return snapshot;
+    }
+
+    /**
+     * Gets the changes of the entries since the file was read or saved.
+     *
+     * @return copy of the changes, in order
+     */
+    public List<Journal.Change> getChanges() {
+        return new ArrayList<Journal.Change>(this.changes);
+    }
+
+    /**
+     * Gets the sequence number after the last recorded change. A save takes it together with
+     * {@link #getChanges()}, and passes it to {@link #removeChanges(long)} once they are written.
+     *
+     * @return sequence number of the next change
+     */
+    public long getChangeSequence() {
+        return this.firstChange + this.changes.size();
+    }
+
+    /**
+     * Removes the saved changes.
+     *
+     * @param sequence sequence number after the last saved change
+     */
+    public void removeChanges(final long sequence) {
+        int count = (int) Math.max(0, Math.min(sequence - this.firstChange, this.changes.size()));
+        this.changes.subList(0, count).clear();
+        this.firstChange += count;
+    }
+
+    private void clearChanges() {
+        this.firstChange += this.changes.size();
+        this.changes.clear();
+    }
+
+    /**
+     * Gets the mark of the opened file and its journal.
+     *
+     * @return the mark, or {@code null} if the next save has to write the whole file
+     */
+    public Journal.Mark getJournalMark() {
+        return this.journalMark;
+    }
+
+    public void setJournalMark(Journal.Mark journalMark) {
+        this.journalMark = journalMark;
+    }
+
+    /**
+     * Gets a copy of the password of the opened file. The caller owns the copy, and should wipe it
+     * when it is no longer used.
+     *
+     * @return copy of the password, or {@code null} if there is no password
+     */
     public byte[] getPassword() {
-        return this.password;
+        return this.password == null ? null : this.password.clone();
     }
 
+    /**
+     * Sets the password of the opened file. The data model keeps its own copy, the previous one is
+     * wiped. The caller still owns the given array.
+     *
+     * @param password the password, or {@code null}
+     */
     public void setPassword(byte[] password) {
-        this.password = password;
+        if (this.password != null && password != null && MessageDigest.isEqual(this.password, password)) {
+            // the same password is set again after every save
+            return;
+        }
+        wipePassword();
+        this.password = password == null ? null : password.clone();
+        this.passwordVersion++;
+    }
+
+    /**
+     * @return {@code true} if the data model has a password
+     */
+    public boolean hasPassword() {
+        return this.password != null;
+    }
+
+    /**
+     * Gets the version of the password, it is increased whenever another password is set.
+     *
+     * @return the version
+     */
+    public long getPasswordVersion() {
+        return this.passwordVersion;
+    }
+
+    private void wipePassword() {
+        if (this.password != null) {
+            Arrays.fill(this.password, (byte) 0);
+        }
+    }
+
+    /**
+     * Gets the header of the opened file. It is reused when the file is saved, so the salt stays
+     * the same until the password is changed.
+     *
+     * @return file header, or {@code null} if a new one has to be created
+     */
+    public VaultHeader getHeader() {
+        return this.header;
+    }
+
+    public void setHeader(VaultHeader header) {
+        this.header = header;
+    }
+
+    /**
+     * Gets the format of the opened file.
+     *
+     * @return file format, or {@code null} if the data model has not been saved yet
+     */
+    public DocumentFormat getFormat() {
+        return this.format;
+    }
+
+    public void setFormat(DocumentFormat format) {
+        this.format = format;
     }
 
     /**
-     * Clears all fields of the data model.
+     * Clears all fields of the data model, and wipes the cached keys and the keys of the indexed
+     * files.
      */
     public final void clear() {
         this.entries.getEntry().clear();
+        this.titleIndexValid = false;
+        this.searchIndex.clear();
+        clearChanges();
+        this.journalMark = null;
         this.fileName = null;
-        this.password = null;
+        setPassword(null);
+        this.header = null;
+        this.format = null;
         this.modified = false;
+        DerivedKeyCache.getInstance().clear();
+        IndexedContainer.wipeKeys();
     }
 
     /**
@@ -154,6 +455,28 @@ public class DataModel {
         return list;
     }
 
+    /**
+     * Rebuilds the search index, if the list has been modified without the data model. It reads
+     * the list, so it has to be called on the thread that modifies the entries.
+     */
+    public void syncSearchIndex() {
+        if (this.searchIndex.size() != this.entries.getEntry().size()) {
+            this.searchIndex.reset(this.entries.getEntry());
+        }
+    }
+
+    /**
+     * Finds the entries, whose title, user, URL or notes contain the search criteria, ignoring
+     * case. Only the search index is read, so this can be called on a background thread while the
+     * entries are modified.
+     *
+     * @param criteria search criteria
+     * @return matching entries in the order they were added
+     */
+    public List<Entry> search(String criteria) {
+        return this.searchIndex.search(criteria);
+    }
+
     /**
      * Gets entry index by title.
      *
@@ -161,7 +484,34 @@ public class DataModel {
      * @return entry index
      */
     public int getEntryIndexByTitle(String title) {
-        return getTitles().indexOf(title);
+        List<Entry> list = this.entries.getEntry();
+        if (!this.titleIndexValid || this.titleIndexSize != list.size()) {
+            rebuildTitleIndex();
+        }
+        Integer index = this.titleIndex.get(title);
+        if (index != null && (index >= list.size() || !equalTitle(list.get(index).getTitle(), title))) {
+            // the list has been modified without the data model
+            rebuildTitleIndex();
+            index = this.titleIndex.get(title);
+        }
+        return index == null ? -1 : index;
+    }
+
+    private void rebuildTitleIndex() {
+        this.titleIndex.clear();
+        List<Entry> list = this.entries.getEntry();
+        for (int i = 0; i < list.size(); i++) {
+            String title = list.get(i).getTitle();
+            if (!this.titleIndex.containsKey(title)) {
+                this.titleIndex.put(title, i);
+            }
+        }
+        this.titleIndexSize = list.size();
+        this.titleIndexValid = true;
+    }
+
+    private static boolean equalTitle(String a, String b) {
+        return a == null ? b == null : a.equals(b);
     }
 
     /**
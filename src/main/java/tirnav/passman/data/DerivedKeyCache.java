@@ -0,0 +1,202 @@
+/*
+ * PasswordManager
+ *
+ * Copyright (c) 2009-2019 Gabor Bata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package tirnav.passman.data;
+
+import static tirnav.passman.util.StringUtils.byteArrayToHex;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import tirnav.passman.util.Configuration;
+
+/**
+ * In-memory cache of derived keys, so the expensive key derivation runs only once per file and
+ * salt, and not on every open and save.
+ *
+ * <p>
+ * The cache does not store the password. Entries are verified with a HMAC of the password under
+ * a random session key, so a wrong password never gets the cached key. Keys are overwritten with
+ * zeros when they expire, or when the cache is cleared.
+ * </p>
+ *
+ * @author jainj
+ *
+ */
+public final class DerivedKeyCache {
+
+    private static volatile DerivedKeyCache INSTANCE;
+
+    /**
+     * Default time to live of the cached keys in seconds.
+     */
+    private static final int DEFAULT_TTL_SECONDS = 15 * 60;
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    private final Map<String, CachedKey> keys = new HashMap<String, CachedKey>();
+    private final long timeToLive;
+    private final byte[] sessionKey = new byte[32];
+
+    private DerivedKeyCache() {
+        this.timeToLive = Configuration.getInstance().getInteger("kdf.cache.ttl.seconds", DEFAULT_TTL_SECONDS) * 1000L;
+        new SecureRandom().nextBytes(this.sessionKey);
+    }
+
+    /**
+     * Gets the DerivedKeyCache singleton instance.
+     *
+     * @return instance of the DerivedKeyCache
+     */
+    public static DerivedKeyCache getInstance() {
+        if (INSTANCE == null) {
+            synchronized (DerivedKeyCache.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new DerivedKeyCache();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Gets the key for the given file, header and password. The key is derived only if it is not
+     * in the cache yet.
+     *
+     * @param fileName file name
+     * @param header header of the file
+     * @param password UTF-8 encoded password
+     * @return copy of the derived key
+     * @throws Exception if the key derivation failed
+     */
+    public byte[] deriveKey(final String fileName, final VaultHeader header, final byte[] password) throws Exception {
+        if (this.timeToLive <= 0) {
+            return header.deriveKey(password);
+        }
+        String id = getIdentity(fileName, header);
+        byte[] verifier = getVerifier(password);
+        synchronized (this) {
+            removeExpired();
+            CachedKey cached = this.keys.get(id);
+            if (cached != null && MessageDigest.isEqual(cached.verifier, verifier)) {
+                cached.expires = System.currentTimeMillis() + this.timeToLive;
+                return cached.key.clone();
+            }
+        }
+        // derivation runs outside of the lock, it can take a long time
+        byte[] key = header.deriveKey(password);
+        synchronized (this) {
+            CachedKey previous = this.keys.put(id, new CachedKey(key.clone(), verifier,
+                    System.currentTimeMillis() + this.timeToLive));
+            if (previous != null) {
+                previous.wipe();
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Removes and wipes all keys.
+     */
+    public synchronized void clear() {
+        for (CachedKey cached : this.keys.values()) {
+            cached.wipe();
+        }
+        this.keys.clear();
+    }
+
+    /**
+     * Gets the number of cached keys.
+     *
+     * @return number of keys
+     */
+    public synchronized int size() {
+        removeExpired();
+        return this.keys.size();
+    }
+
+    private void removeExpired() {
+        long now = System.currentTimeMillis();
+        Iterator<CachedKey> it = this.keys.values().iterator();
+        while (it.hasNext()) {
+            CachedKey cached = it.next();
+            if (cached.expires <= now) {
+                cached.wipe();
+                it.remove();
+            }
+        }
+    }
+
+    private byte[] getVerifier(final byte[] password) throws Exception {
+        Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+        mac.init(new SecretKeySpec(this.sessionKey, HMAC_ALGORITHM));
+        return mac.doFinal(password);
+    }
+
+    /**
+     * Identifies the file by its canonical path, and the key derivation by its parameters.
+     */
+    private static String getIdentity(final String fileName, final VaultHeader header) {
+        String path;
+        try {
+            path = new File(fileName).getCanonicalPath();
+        } catch (IOException e) {
+            path = new File(fileName).getAbsolutePath();
+        }
+        return path + '|' + header.getKdf() + '|' + header.getIterations() + '|' + byteArrayToHex(header.getSalt());
+    }
+
+    /**
+     * Cached key with the verifier of the password it was derived from.
+     */
+    private static final class CachedKey {
+        private final byte[] key;
+        private final byte[] verifier;
+        private long expires;
+
+        CachedKey(final byte[] key, final byte[] verifier, final long expires) {
+            this.key = key;
+            this.verifier = verifier;
+            this.expires = expires;
+        }
+
+        void wipe() {
+            Arrays.fill(this.key, (byte) 0);
+            Arrays.fill(this.verifier, (byte) 0);
+        }
+    }
+}
@@ -32,20 +32,36 @@ import static tirnav.passman.util.StringUtils.stripString;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.Lock;
 import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 import tirnav.passman.crypt.io.CryptInputStream;
 import tirnav.passman.crypt.io.CryptOutputStream;
+import tirnav.passman.crypt.io.MappedCryptInputStream;
+import tirnav.passman.util.Configuration;
 import tirnav.passman.xml.bind.Entries;
 import tirnav.passman.xml.bind.Entry;
+import tirnav.passman.xml.converter.BinaryConverter;
+import tirnav.passman.xml.converter.ElementCallback;
 import tirnav.passman.xml.converter.JsonConverter;
 import tirnav.passman.xml.converter.XmlConverter;
 
@@ -63,9 +79,50 @@ public final class DocumentHelper {
     private final String fileName;
 
     /**
-     * Key for encryption.
+     * Password for encryption.
      */
-    private final byte[] key;
+    private final byte[] password;
+
+    /**
+     * Header of the encrypted file, it describes how the key is derived from the password.
+     */
+    private VaultHeader header;
+
+    /**
+     * Format of the document, it is detected when the document is read.
+     */
+    private DocumentFormat format;
+
+    /**
+     * Digest of the last read or written file, and the end of its journal.
+     */
+    private Journal.Mark journalMark;
+
+    /**
+     * Digest of the encrypted file while it is read or written.
+     */
+    private MessageDigest digest;
+
+    /**
+     * The encrypted file while it is read, under the buffering and decrypting streams.
+     */
+    private InputStream digestInput;
+
+    /**
+     * The encrypted file while it is read through a memory mapping.
+     */
+    private ByteBuffer mappedInput;
+
+    /**
+     * Buffer size of the compression streams, the default of 512 bytes results in many small
+     * reads and writes on the crypt streams.
+     */
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * Name of the entry elements in the XML document.
+     */
+    private static final String ENTRY_ELEMENT = "entry";
 
     /**
      * Converter between document objects and streams representing XMLs
@@ -77,15 +134,37 @@ public final class DocumentHelper {
      */
     private static final JsonConverter<Entries> JSON_CONVERTER = new JsonConverter<Entries>(Entries.class);
 
+    /**
+     * Converter between document objects and streams of the compact binary format
+     */
+    private static final BinaryConverter BINARY_CONVERTER = new BinaryConverter();
+
+    /**
+     * Serializes the writes of the files and their journals, e.g. of the autosave and the save
+     * action. A save holds it while it checks the saved revision of the data model and writes, so
+     * an older revision is never written over a newer one.
+     */
+    public static final Object WRITE_LOCK = new Object();
+
+    /**
+     * Pool of the compression tasks, it is created on the first save.
+     */
+    private static volatile ForkJoinPool compressionPool;
+
     /**
      * Creates a DocumentHelper instance.
      *
      * @param fileName file name
-     * @param key key for encryption
+     * @param password password for encryption
+     * @param header header for writing, or {@code null} to create a new one
+     * @param format format for writing
      */
-    private DocumentHelper(final String fileName, final byte[] key) {
+    private DocumentHelper(final String fileName, final byte[] password, final VaultHeader header,
+            final DocumentFormat format) {
         this.fileName = fileName;
-        this.key = key;
+        this.password = password;
+        this.header = header;
+        this.format = format;
     }
 
     /**
@@ -95,18 +174,363 @@ public final class DocumentHelper {
      * @return a new DocumentHelper object
      */
     public static DocumentHelper newInstance(final String fileName) {
-        return new DocumentHelper(fileName, null);
+        return new DocumentHelper(fileName, null, null, DocumentFormat.XML);
+    }
+
+    /**
+     * Creates a document helper with encryption. The key derivation of new files is configured by
+     * {@link VaultHeader#newInstance()}.
+     *
+     * @param fileName file name
+     * @param password UTF-8 encoded password
+     * @return a new DocumentHelper object
+     */
+    public static DocumentHelper newInstance(final String fileName, final byte[] password) {
+        return new DocumentHelper(fileName, password, null, DocumentFormat.XML);
     }
 
     /**
-     * Creates a document helper with encryption.
+     * Creates a document helper with encryption, that writes the file with the given header.
+     * Legacy headers are replaced by a new one, so files are upgraded when they are saved.
      *
      * @param fileName file name
-     * @param key key for encryption
+     * @param password UTF-8 encoded password
+     * @param header header of the file, or {@code null} to create a new one
      * @return a new DocumentHelper object
      */
-    public static DocumentHelper newInstance(final String fileName, final byte[] key) {
-        return new DocumentHelper(fileName, key);
+    public static DocumentHelper newInstance(final String fileName, final byte[] password, final VaultHeader header) {
+        return new DocumentHelper(fileName, password, header, DocumentFormat.XML);
+    }
+
+    /**
+     * Creates a document helper with encryption, that writes the file with the given header and
+     * format.
+     *
+     * @param fileName file name
+     * @param password UTF-8 encoded password
+     * @param header header of the file, or {@code null} to create a new one
+     * @param format format of the file
+     * @return a new DocumentHelper object
+     */
+    public static DocumentHelper newInstance(final String fileName, final byte[] password, final VaultHeader header,
+            final DocumentFormat format) {
+        return new DocumentHelper(fileName, password, header, format == null ? DocumentFormat.XML : format);
+    }
+
+    /**
+     * Gets the password of an entry. The password of an entry of an indexed file is decrypted
+     * from the file, unlike {@link Entry#getPassword()} a failure is reported with an exception.
+     *
+     * @param entry the entry
+     * @return the password, or {@code null} if the entry has no password
+     * @throws IOException if the password cannot be read
+     */
+    public static String readPassword(final Entry entry) throws IOException {
+        if (entry instanceof IndexedEntry) {
+            return ((IndexedEntry) entry).readPassword();
+        }
+        return entry.getPassword();
+    }
+
+    /**
+     * Gets an entry for editing, whose password can be read without its file. An entry of an
+     * indexed file is copied with its decrypted password, other entries are returned as they are.
+     *
+     * @param entry the entry
+     * @return the entry, or its copy
+     * @throws IOException if the password cannot be read
+     */
+    public static Entry detach(final Entry entry) throws IOException {
+        if (entry instanceof IndexedEntry) {
+            return ((IndexedEntry) entry).detach();
+        }
+        return entry;
+    }
+
+    /**
+     * Gets the header of the last read or written file.
+     *
+     * @return the header, or {@code null} if no encrypted file was processed
+     */
+    public VaultHeader getHeader() {
+        return this.header;
+    }
+
+    /**
+     * Gets the format of the last read or written document.
+     *
+     * @return the format
+     */
+    public DocumentFormat getFormat() {
+        return this.format;
+    }
+
+    /**
+     * Gets the digest of the last read or written encrypted file, and the end of its journal.
+     * Changes can be appended to the journal by {@link #writeChanges(Entries, List, Journal.Mark)}
+     * with this mark.
+     *
+     * @return the mark, or {@code null} if the file has no journal
+     */
+    public Journal.Mark getJournalMark() {
+        return this.journalMark;
+    }
+
+    /**
+     * Opens the file for reading, and reads its header if it is encrypted. The digest of encrypted
+     * files is calculated while they are read.
+     *
+     * @return input stream of the document
+     * @throws Exception if the file cannot be opened, or the key cannot be derived
+     */
+    private InputStream newInputStream() throws Exception {
+        if (this.password == null) {
+            return new FileInputStream(this.fileName);
+        }
+        this.digest = newDigest();
+        if (Configuration.getInstance().is("read.mapped.enabled", false)) {
+            InputStream mapped = newMappedInputStream();
+            if (mapped != null) {
+                return mapped;
+            }
+        }
+        this.digestInput = new DigestInputStream(new FileInputStream(this.fileName), this.digest);
+        // the converters close the document stream, the file is closed by readDocument after the
+        // rest of it is read for the digest
+        InputStream input = new BufferedInputStream(new FilterInputStream(this.digestInput) {
+            @Override
+            public void close() {
+                // the file is left open
+            }
+        });
+        try {
+            this.header = VaultHeader.read(input);
+            InputStream cryptInput = new CryptInputStream(input, deriveKey());
+            if (this.header.isChunked()) {
+                return new ChunkedInflaterInputStream(cryptInput);
+            }
+            return new GZIPInputStream(cryptInput, BUFFER_SIZE);
+        } catch (Exception e) {
+            this.digestInput.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the file for reading through a memory mapping. The chunks are decrypted from slices of
+     * the mapping into a direct buffer, see {@link MappedCryptInputStream}, the encrypted data is
+     * not copied to the heap. The digest is calculated by
+     * {@link #replayJournal(Entries, ElementCallback)}.
+     * <p>
+     * The mapping is released by the garbage collector, until then the file cannot be replaced on
+     * some platforms, so this path is enabled by the {@code read.mapped.enabled} configuration.
+     * </p>
+     *
+     * @return input stream of the document, or {@code null} if the file is too large to be mapped
+     * @throws Exception if the file cannot be mapped, or the key cannot be derived
+     */
+    private InputStream newMappedInputStream() throws Exception {
+        RandomAccessFile file = new RandomAccessFile(this.fileName, "r");
+        ByteBuffer mapped;
+        try {
+            FileChannel channel = file.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                return null;
+            }
+            // the mapping stays valid after the channel is closed
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } finally {
+            file.close();
+        }
+        byte[] head = new byte[Math.min(mapped.remaining(), VaultHeader.MAX_LENGTH)];
+        mapped.duplicate().get(head);
+        this.header = VaultHeader.read(new ByteArrayInputStream(head));
+        ByteBuffer data = mapped.duplicate();
+        data.position(this.header.getLength());
+        InputStream cryptInput = new MappedCryptInputStream(data, deriveKey());
+        this.mappedInput = mapped;
+        if (this.header.isChunked()) {
+            return new ChunkedInflaterInputStream(cryptInput);
+        }
+        return new GZIPInputStream(cryptInput, BUFFER_SIZE);
+    }
+
+    private byte[] deriveKey() throws Exception {
+        return DerivedKeyCache.getInstance().deriveKey(this.fileName, this.header, this.password);
+    }
+
+    private static MessageDigest newDigest() throws NoSuchAlgorithmException {
+        return MessageDigest.getInstance("SHA-256");
+    }
+
+    private static SyncPolicy getSyncPolicy() {
+        try {
+            return SyncPolicy.valueOf(Configuration.getInstance().get("save.sync.policy", SyncPolicy.FULL.name()));
+        } catch (IllegalArgumentException e) {
+            return SyncPolicy.FULL;
+        }
+    }
+
+    /**
+     * Gets the pool of the compression tasks, its size is read from
+     * {@code save.compression.threads}, or the number of processors by default.
+     *
+     * @return the pool
+     */
+    private static ForkJoinPool getCompressionPool() {
+        if (compressionPool == null) {
+            synchronized (DocumentHelper.class) {
+                if (compressionPool == null) {
+                    int threads = Configuration.getInstance().getInteger("save.compression.threads", 0);
+                    compressionPool = new ForkJoinPool(threads > 0 ? threads : Runtime.getRuntime().availableProcessors());
+                }
+            }
+        }
+        return compressionPool;
+    }
+
+    /**
+     * Opens a temporary file, that replaces the file when it is closed.
+     *
+     * @return output stream of the temporary file
+     * @throws IOException if the temporary file cannot be created
+     */
+    private AtomicFileOutputStream newFileOutputStream() throws IOException {
+        return new AtomicFileOutputStream(new File(this.fileName), getSyncPolicy(),
+                Configuration.getInstance().getInteger("save.backup.count", 0));
+    }
+
+    /**
+     * Writes the header of the file if it is encrypted.
+     *
+     * @param fileOutput output stream of the file
+     * @return output stream of the document
+     * @throws Exception if the key cannot be derived
+     */
+    private OutputStream newOutputStream(final OutputStream fileOutput) throws Exception {
+        if (this.password == null) {
+            return fileOutput;
+        }
+        prepareHeader();
+        byte[] key = deriveKey();
+        this.digest = newDigest();
+        OutputStream output = new BufferedOutputStream(new DigestOutputStream(fileOutput, this.digest));
+        this.header.write(output);
+        ForkJoinPool pool = getCompressionPool();
+        return new ChunkedDeflaterOutputStream(new CryptOutputStream(output, key), getChunkSize(), pool,
+                2 * pool.getParallelism());
+    }
+
+    /**
+     * Prepares the header of an indexed file, which is written by {@link IndexedContainer}.
+     *
+     * @param fileOutput output stream of the file
+     * @return output stream of the file
+     * @throws Exception if the header cannot be created
+     */
+    private OutputStream newIndexedOutputStream(final OutputStream fileOutput) throws Exception {
+        prepareHeader();
+        this.digest = newDigest();
+        return fileOutput;
+    }
+
+    /**
+     * Creates a new header instead of a legacy one, and sets the version of the format.
+     *
+     * @throws Exception if the header cannot be created
+     */
+    private void prepareHeader() throws Exception {
+        if (this.header == null || this.header.isLegacy()) {
+            this.header = VaultHeader.newInstance();
+        }
+        this.header = this.header.forFormat(this.format);
+    }
+
+    private boolean isIndexed() {
+        return this.password != null && this.format == DocumentFormat.INDEXED;
+    }
+
+    private static int getChunkSize() {
+        return Configuration.getInstance().getInteger("save.chunk.kb", ChunkedDeflaterOutputStream.DEFAULT_CHUNK_SIZE / 1024) * 1024;
+    }
+
+    /**
+     * Writes the file through the given writer. The file is replaced only if the writing
+     * succeeds, otherwise it is left unchanged.
+     *
+     * @param document the document
+     * @param writer writes the document
+     * @throws DocumentProcessException when document format is incorrect, or the file cannot be written
+     */
+    private void writeFile(final Entries document, final DocumentWriter writer) throws DocumentProcessException {
+        writeFile(document, writer, null);
+    }
+
+    /**
+     * Writes the file through the given writer, and runs the given task when the file has been
+     * replaced. The passwords of indexed entries are not read from the file until the task has
+     * finished.
+     *
+     * @param document the document
+     * @param writer writes the document
+     * @param replaced task to run after the file has been replaced, or {@code null}
+     * @throws DocumentProcessException when document format is incorrect, or the file cannot be written
+     */
+    private void writeFile(final Entries document, final DocumentWriter writer, final Runnable replaced)
+            throws DocumentProcessException {
+        synchronized (WRITE_LOCK) {
+            doWriteFile(document, writer, replaced);
+        }
+    }
+
+    private void doWriteFile(final Entries document, final DocumentWriter writer, final Runnable replaced)
+            throws DocumentProcessException {
+        AtomicFileOutputStream fileOutputStream = null;
+        OutputStream outputStream = null;
+        this.digest = null;
+        try {
+            fileOutputStream = newFileOutputStream();
+            outputStream = isIndexed() ? newIndexedOutputStream(fileOutputStream) : newOutputStream(fileOutputStream);
+            updateLastModifiedDate(document);
+            writer.write(outputStream);
+            Lock replaceLock = IndexedContainer.getLock(this.fileName).writeLock();
+            replaceLock.lock();
+            try {
+                // replaces the file
+                outputStream.close();
+                if (replaced != null) {
+                    replaced.run();
+                }
+            } finally {
+                replaceLock.unlock();
+            }
+        } catch (Exception e) {
+            if (fileOutputStream != null) {
+                fileOutputStream.discard();
+                if (outputStream != null) {
+                    // stops the background thread of the compression
+                    closeQuietly(outputStream);
+                }
+                closeQuietly(fileOutputStream);
+            }
+            throw new DocumentProcessException(stripString(e.getMessage()));
+        }
+    }
+
+    private static void closeQuietly(final OutputStream outputStream) {
+        try {
+            outputStream.close();
+        } catch (IOException ignored) {
+            // the original exception is reported
+        }
+    }
+
+    /**
+     * Writes a document to an output stream.
+     */
+    private interface DocumentWriter {
+        void write(OutputStream outputStream) throws Exception;
     }
 
     /**
@@ -118,49 +542,232 @@ public final class DocumentHelper {
      * @throws DocumentProcessException when file format or password is incorrect
      */
     public Entries readDocument() throws IOException, DocumentProcessException {
-        InputStream inputStream = null;
-        Entries entries;
+        return readDocument(null);
+    }
+
+    /**
+     * Reads and XML or binary file to an {@link Entries} object. The format is detected from the
+     * beginning of the document. The entries are read one at a time, and passed to the callback
+     * as soon as they are read.
+     *
+     * @param callback callback for the entries, can be {@code null}
+     * @return the document
+     * @throws FileNotFoundException if file is not exists
+     * @throws IOException when I/O error occurred
+     * @throws DocumentProcessException when file format or password is incorrect
+     */
+    public Entries readDocument(final ElementCallback<Entry> callback) throws IOException, DocumentProcessException {
+        PushbackInputStream inputStream = null;
+        final Entries entries = new Entries();
+        ElementCallback<Entry> collector = new ElementCallback<Entry>() {
+            @Override
+            public void element(Entry entry) throws IOException {
+                entries.getEntry().add(entry);
+                if (callback != null) {
+                    callback.element(entry);
+                }
+            }
+        };
         try {
-            if (this.key == null) {
-                inputStream = new FileInputStream(this.fileName);
+            if (this.password != null) {
+                VaultHeader fileHeader = readHeader();
+                if (fileHeader.isIndexed()) {
+                    readIndexedDocument(fileHeader, entries, collector, callback);
+                    return entries;
+                }
+            }
+            inputStream = new PushbackInputStream(newInputStream(), 4);
+            if (BinaryConverter.isBinary(inputStream)) {
+                this.format = DocumentFormat.BINARY;
+                BINARY_CONVERTER.readElements(inputStream, collector);
             } else {
-                inputStream = new GZIPInputStream(new CryptInputStream(new BufferedInputStream(new FileInputStream(this.fileName)), this.key));
+                this.format = DocumentFormat.XML;
+                CONVERTER.readElements(inputStream, ENTRY_ELEMENT, Entry.class, collector);
+            }
+            if (this.password != null) {
+                replayJournal(entries, callback);
             }
-            entries = CONVERTER.read(inputStream);
         } catch (Exception e) {
             throw new DocumentProcessException(stripString(e.getMessage()));
         } finally {
             if (inputStream != null) {
                 inputStream.close();
             }
+            if (this.digestInput != null) {
+                this.digestInput.close();
+                this.digestInput = null;
+            }
+            this.mappedInput = null;
         }
         return entries;
     }
 
+    private VaultHeader readHeader() throws IOException {
+        InputStream input = new BufferedInputStream(new FileInputStream(this.fileName));
+        try {
+            return VaultHeader.read(input);
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Reads the index of an indexed file, and applies its journal.
+     *
+     * @param fileHeader header of the file
+     * @param entries the read entries
+     * @param collector collects the entries of the index
+     * @param callback callback for the entries of the journal, can be {@code null}
+     * @throws Exception if the file or the journal cannot be read
+     */
+    private void readIndexedDocument(final VaultHeader fileHeader, final Entries entries,
+            final ElementCallback<Entry> collector, final ElementCallback<Entry> callback) throws Exception {
+        this.header = fileHeader;
+        this.format = DocumentFormat.INDEXED;
+        byte[] key = deriveKey();
+        this.digest = newDigest();
+        IndexedContainer.read(this.fileName, key, this.digest, collector);
+        this.journalMark = Journal.replay(this.fileName, key, this.digest.digest(), entries.getEntry(), callback);
+    }
+
+    /**
+     * Applies the journal of the file to the read entries. The rest of the file is read for the
+     * digest, as the parsers can stop before the end of the file.
+     *
+     * @param entries the read entries
+     * @param callback callback for the entries, can be {@code null}
+     * @throws Exception if the journal cannot be read
+     */
+    private void replayJournal(final Entries entries, final ElementCallback<Entry> callback) throws Exception {
+        if (this.mappedInput != null) {
+            this.digest.update(this.mappedInput.duplicate());
+        } else {
+            // the content of the buffers above is already in the digest
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (this.digestInput.read(buffer) >= 0) {
+                // reads the rest of the file
+            }
+        }
+        this.journalMark = Journal.replay(this.fileName, deriveKey(), this.digest.digest(), entries.getEntry(), callback);
+    }
+
     /**
-     * Writes a document into an XML file.
+     * Writes a document into an XML or binary file, depending on the format of the helper. The
+     * journal of an encrypted file is replaced by an empty one.
      *
      * @param document the document
      * @throws DocumentProcessException when document format is incorrect
      * @throws IOException when I/O error occurred
      */
     public void writeDocument(final Entries document) throws DocumentProcessException, IOException {
-        OutputStream outputStream = null;
-        try {
-            if (this.key == null) {
-                outputStream = new FileOutputStream(this.fileName);
-            } else {
-                outputStream = new GZIPOutputStream(new CryptOutputStream(new BufferedOutputStream(new FileOutputStream(this.fileName)), this.key));
+        synchronized (WRITE_LOCK) {
+            final IndexedContainer.Locations[] locations = new IndexedContainer.Locations[1];
+            if (!isIndexed()) {
+                loadIndexedEntries(document);
+            }
+            writeFile(document, new DocumentWriter() {
+                @Override
+                public void write(OutputStream outputStream) throws Exception {
+                    if (isIndexed()) {
+                        locations[0] = IndexedContainer.write(outputStream, DocumentHelper.this.header, deriveKey(),
+                                DocumentHelper.this.fileName, document.getEntry(), getCompressionPool(), getChunkSize(),
+                                DocumentHelper.this.digest);
+                    } else if (DocumentHelper.this.format == DocumentFormat.BINARY) {
+                        BINARY_CONVERTER.writeElements(document.getEntry(), outputStream);
+                    } else {
+                        CONVERTER.writeElements(document.getEntry(), ENTRY_ELEMENT, outputStream);
+                    }
+                }
+            }, new Runnable() {
+                @Override
+                public void run() {
+                    if (locations[0] != null) {
+                        locations[0].apply();
+                    }
+                }
+            });
+            this.journalMark = null;
+            if (this.password != null) {
+                if (Configuration.getInstance().is("journal.enabled", true)) {
+                    this.journalMark = Journal.create(this.fileName, this.digest.digest(), getSyncPolicy());
+                } else {
+                    Journal.delete(this.fileName);
+                }
+            }
+        }
+    }
+
+    /**
+     * Decrypts the passwords of the indexed entries of this file, as the file is going to be
+     * replaced by a file without the passwords at the same positions.
+     *
+     * @param document the document
+     * @throws IOException if a password cannot be read
+     */
+    private void loadIndexedEntries(final Entries document) throws IOException {
+        for (Entry entry : document.getEntry()) {
+            if (entry instanceof IndexedEntry && ((IndexedEntry) entry).isStoredIn(this.fileName)) {
+                ((IndexedEntry) entry).load();
+            }
+        }
+    }
+
+    /**
+     * Saves the changes of the document since the file was read or written with the given mark.
+     * The changes are appended to the journal of the file, if it is not too long compared to the
+     * file. Otherwise, or without a mark, the whole document is written, which also compacts the
+     * journal. If the file or its journal has been written since the mark was taken, nothing is
+     * written, as the document may be older than the file.
+     *
+     * @param document the document
+     * @param changes changes of the document since the mark, in order
+     * @param mark mark of the file, or {@code null} to write the whole document
+     * @return {@code false} if the mark is outdated and nothing has been written
+     * @throws DocumentProcessException when document format is incorrect
+     * @throws IOException when I/O error occurred
+     */
+    public boolean writeChanges(final Entries document, final List<Journal.Change> changes, final Journal.Mark mark)
+            throws DocumentProcessException, IOException {
+        synchronized (WRITE_LOCK) {
+            if (!canAppend(changes, mark)) {
+                if (mark != null && !Journal.isCurrent(this.fileName, mark)) {
+                    return false;
+                }
+                writeDocument(document);
+                return true;
             }
             updateLastModifiedDate(document);
-            CONVERTER.write(document, outputStream);
-        } catch (Exception e) {
-            throw new DocumentProcessException(stripString(e.getMessage()));
-        } finally {
-            if (outputStream != null) {
-                outputStream.close();
+            Journal.Mark newMark;
+            try {
+                newMark = Journal.append(this.fileName, deriveKey(), mark, changes, getSyncPolicy());
+            } catch (Exception e) {
+                throw new DocumentProcessException(stripString(e.getMessage()));
+            }
+            if (newMark == null) {
+                // the file has been written since the mark was taken
+                return false;
             }
+            this.journalMark = newMark;
+            return true;
+        }
+    }
+
+    private boolean canAppend(final List<Journal.Change> changes, final Journal.Mark mark) {
+        if (mark == null || changes == null || changes.isEmpty() || this.password == null
+                || this.header == null || this.header.isLegacy()) {
+            return false;
+        }
+        Configuration configuration = Configuration.getInstance();
+        if (!configuration.is("journal.enabled", true)) {
+            return false;
         }
+        File file = new File(this.fileName);
+        if (!file.exists()) {
+            return false;
+        }
+        long limit = Math.max(configuration.getInteger("journal.compact.min.kb", 1024) * 1024L,
+                file.length() * configuration.getInteger("journal.compact.percent", 10) / 100);
+        return mark.getRecordsLength() < limit;
     }
     
     /**
@@ -171,22 +778,12 @@ public final class DocumentHelper {
      * @throws IOException when I/O error occurred
      */
     public void writeJsonDocument(final Entries document) throws DocumentProcessException, IOException {
-        OutputStream outputStream = null;
-        try {
-            if (this.key == null) {
-                outputStream = new FileOutputStream(this.fileName);
-            } else {
-                outputStream = new GZIPOutputStream(new CryptOutputStream(new BufferedOutputStream(new FileOutputStream(this.fileName)), this.key));
+        writeFile(document, new DocumentWriter() {
+            @Override
+            public void write(OutputStream outputStream) throws Exception {
+                JSON_CONVERTER.write(document, outputStream);
             }
-            updateLastModifiedDate(document);
-            JSON_CONVERTER.write(document, outputStream);
-        } catch (Exception e) {
-            throw new DocumentProcessException(stripString(e.getMessage()));
-        } finally {
-            if (outputStream != null) {
-                outputStream.close();
-            }
-        }
+        });
     }
     
     /**
@@ -197,25 +794,15 @@ public final class DocumentHelper {
      * @throws IOException when I/O error occurred
      */
     public void writeCsvDocument(final Entries document) throws DocumentProcessException, IOException {
-        OutputStream outputStream = null;
-        try {
-            if (this.key == null) {
-                outputStream = new FileOutputStream(this.fileName);
-            } else {
-                outputStream = new GZIPOutputStream(new CryptOutputStream(new BufferedOutputStream(new FileOutputStream(this.fileName)), this.key));
+        writeFile(document, new DocumentWriter() {
+            @Override
+            public void write(OutputStream outputStream) throws Exception {
+                JSON_CONVERTER.writeCSV(document, outputStream);
             }
-            updateLastModifiedDate(document);
-            JSON_CONVERTER.writeCSV(document, outputStream);
-        } catch (Exception e) {
-            throw new DocumentProcessException(stripString(e.getMessage()));
-        } finally {
-            if (outputStream != null) {
-                outputStream.close();
-            }
-        }
+        });
     }
     
-	private void updateLastModifiedDate(Entries document) {
+	static void updateLastModifiedDate(Entries document) {
 		for(Entry e :document.getEntry()) {
 			if(e.isModified()) {
 				e.setModified(Boolean.FALSE);
@@ -0,0 +1,461 @@
+/*
+ * PasswordManager
+ *
+ * Copyright (c) 2009-2019 Gabor Bata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package tirnav.passman.data;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import tirnav.passman.crypt.io.CryptInputStream;
+import tirnav.passman.crypt.io.CryptOutputStream;
+import tirnav.passman.xml.bind.Entry;
+import tirnav.passman.xml.converter.BinaryConverter;
+import tirnav.passman.xml.converter.ElementCallback;
+
+/**
+ * Reads and writes indexed files, whose passwords are encrypted separately from the other fields.
+ *
+ * <p>
+ * Opening an indexed file decrypts only the index with the titles, users, URLs and notes, the
+ * passwords are decrypted by {@link IndexedEntry} when they are used. The passwords of unchanged
+ * entries are copied encrypted when the file is written with the same key.
+ * </p>
+ *
+ * <pre>
+ * header (version 3) | passwords | index | index position (8 bytes)
+ * password: iv (16 bytes) | encrypted UTF-8 password
+ * index: iv (16 bytes) | encrypted chunks of
+ *        entry count (4 bytes) | (record length (4 bytes) | record | password position (8 bytes) | password length (4 bytes))*
+ * </pre>
+ *
+ * <p>
+ * The records are encoded by {@link BinaryConverter} without the password, the password position
+ * is -1 for entries without password. The digest of the index and the index position identifies
+ * the file for the journal, as the index is encrypted with a new initialization vector on every
+ * write.
+ * </p>
+ *
+ * @author jainj
+ *
+ */
+final class IndexedContainer {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final BinaryConverter CONVERTER = new BinaryConverter();
+
+    /**
+     * Upper bound of the record and password lengths accepted while reading, to fail fast on
+     * corrupt data.
+     */
+    private static final int MAX_LENGTH = 16 * 1024 * 1024;
+
+    /**
+     * Indexed file and its key, the passwords of the entries are decrypted from it. The key is
+     * derived once, when the file is read or written, and kept for the session, so reading a
+     * password on the event dispatch thread does not run the key derivation. It is wiped by
+     * {@link #wipeKeys()}.
+     */
+    static final class Source {
+        private final Path file;
+        private final ReadWriteLock lock;
+        private byte[] key;
+
+        Source(String fileName, byte[] key) {
+            this.file = new File(fileName).getAbsoluteFile().toPath();
+            this.key = key.clone();
+            this.lock = IndexedContainer.getLock(this.file);
+            synchronized (SOURCES) {
+                SOURCES.put(this, Boolean.TRUE);
+            }
+        }
+
+        /**
+         * Gets the lock of the file. The passwords are decrypted with the read lock, so the file is
+         * not replaced meanwhile.
+         *
+         * @return the lock
+         */
+        ReadWriteLock getLock() {
+            return this.lock;
+        }
+
+        /**
+         * Decrypts a password.
+         *
+         * @param offset position of the encrypted password
+         * @param length length of the encrypted password
+         * @return the password
+         * @throws IOException if the password cannot be read, or the key has been wiped
+         */
+        String decrypt(long offset, int length) throws IOException {
+            FileChannel channel = FileChannel.open(this.file, StandardOpenOption.READ);
+            byte[] blob;
+            try {
+                blob = read(channel, offset, length);
+            } finally {
+                channel.close();
+            }
+            byte[] copy = getKey();
+            byte[] password;
+            try {
+                password = decryptBlob(blob, copy);
+            } finally {
+                Arrays.fill(copy, (byte) 0);
+            }
+            try {
+                return new String(password, UTF_8);
+            } finally {
+                Arrays.fill(password, (byte) 0);
+            }
+        }
+
+        boolean isFile(String fileName) {
+            return this.file.equals(new File(fileName).getAbsoluteFile().toPath());
+        }
+
+        private synchronized boolean hasKey(byte[] otherKey) {
+            return this.key != null && MessageDigest.isEqual(this.key, otherKey);
+        }
+
+        private synchronized byte[] getKey() throws IOException {
+            if (this.key == null) {
+                throw new IOException("The key of the file has been wiped");
+            }
+            return this.key.clone();
+        }
+
+        private synchronized void wipeKey() {
+            if (this.key != null) {
+                Arrays.fill(this.key, (byte) 0);
+                this.key = null;
+            }
+        }
+    }
+
+    /**
+     * Locations of the passwords of a written file, they are applied to the entries when the
+     * file has replaced the previous one.
+     */
+    static final class Locations {
+        private final Source source;
+        private final List<Entry> entries;
+        private final long[] offsets;
+        private final int[] lengths;
+
+        private Locations(Source source, List<Entry> entries, long[] offsets, int[] lengths) {
+            this.source = source;
+            this.entries = entries;
+            this.offsets = offsets;
+            this.lengths = lengths;
+        }
+
+        /**
+         * Moves the indexed entries to the written file.
+         */
+        void apply() {
+            for (int i = 0; i < this.offsets.length; i++) {
+                Entry entry = this.entries.get(i);
+                if (entry instanceof IndexedEntry) {
+                    ((IndexedEntry) entry).setBlob(this.offsets[i] < 0 ? null : this.source, this.offsets[i],
+                            this.lengths[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sources with a key, they are removed when their entries are no longer used.
+     */
+    private static final Map<Source, Boolean> SOURCES = new WeakHashMap<Source, Boolean>();
+
+    /**
+     * Locks of the files by path, the entries of every version of a file share the lock.
+     */
+    private static final Map<Path, ReadWriteLock> LOCKS = new HashMap<Path, ReadWriteLock>();
+
+    private IndexedContainer() {
+        // not intended to be instantiated
+    }
+
+    /**
+     * Gets the lock of a file. It is held for writing while the file is replaced and its entries
+     * are moved to the new file.
+     *
+     * @param fileName the file
+     * @return the lock
+     */
+    static ReadWriteLock getLock(String fileName) {
+        return getLock(new File(fileName).getAbsoluteFile().toPath());
+    }
+
+    private static ReadWriteLock getLock(Path file) {
+        synchronized (LOCKS) {
+            ReadWriteLock lock = LOCKS.get(file);
+            if (lock == null) {
+                lock = new ReentrantReadWriteLock();
+                LOCKS.put(file, lock);
+            }
+            return lock;
+        }
+    }
+
+    /**
+     * Wipes the keys of all sources. The passwords of their entries cannot be read afterwards.
+     */
+    static void wipeKeys() {
+        synchronized (SOURCES) {
+            for (Source source : SOURCES.keySet()) {
+                source.wipeKey();
+            }
+            SOURCES.clear();
+        }
+    }
+
+    /**
+     * Reads the index of a file. The header has already been checked.
+     *
+     * @param fileName the file
+     * @param key key of the file, the entries keep a copy of it
+     * @param digest digest of the index, it is updated with the read index
+     * @param callback receives the entries in order
+     * @throws IOException if the file is corrupt
+     */
+    static void read(String fileName, byte[] key, MessageDigest digest, ElementCallback<Entry> callback)
+            throws IOException {
+        Path file = new File(fileName).getAbsoluteFile().toPath();
+        byte[] index;
+        long indexOffset;
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size < 8) {
+                throw new IOException("Corrupt file");
+            }
+            byte[] trailer = read(channel, size - 8, 8);
+            indexOffset = ByteBuffer.wrap(trailer).getLong();
+            if (indexOffset < 0 || indexOffset > size - 8 || size - 8 - indexOffset > Integer.MAX_VALUE) {
+                throw new IOException("Corrupt file index");
+            }
+            index = read(channel, indexOffset, (int) (size - 8 - indexOffset));
+            digest.update(index);
+            digest.update(trailer);
+        } finally {
+            channel.close();
+        }
+
+        Source source = new Source(fileName, key);
+        DataInputStream input = new DataInputStream(new ChunkedInflaterInputStream(
+                new CryptInputStream(new ByteArrayInputStream(index), key)));
+        try {
+            int count = input.readInt();
+            if (count < 0) {
+                throw new IOException("Corrupt file index");
+            }
+            byte[] record = new byte[0];
+            for (int i = 0; i < count; i++) {
+                int length = input.readInt();
+                if (length < 0 || length > MAX_LENGTH) {
+                    throw new IOException("Corrupt file index");
+                }
+                if (record.length < length) {
+                    Arrays.fill(record, (byte) 0);
+                    record = new byte[length];
+                }
+                input.readFully(record, 0, length);
+                IndexedEntry entry = new IndexedEntry();
+                CONVERTER.fromRecord(record, length, entry);
+                long blobOffset = input.readLong();
+                int blobLength = input.readInt();
+                if (blobOffset >= 0) {
+                    if (blobLength < 0 || blobLength > MAX_LENGTH || blobOffset > indexOffset - blobLength) {
+                        throw new IOException("Corrupt file index");
+                    }
+                    entry.setBlob(source, blobOffset, blobLength);
+                }
+                callback.element(entry);
+            }
+            Arrays.fill(record, (byte) 0);
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Writes an indexed file.
+     *
+     * @param out output stream of the file, it is not closed
+     * @param header header of the file
+     * @param key key of the file, the entries keep a copy of it
+     * @param fileName the file
+     * @param entries the entries
+     * @param executor executor of the compression of the index
+     * @param chunkSize chunk size of the compression of the index
+     * @param digest digest of the index, it is updated with the written index
+     * @return locations of the passwords, to be applied when the file is replaced
+     * @throws IOException if the file cannot be written
+     */
+    static Locations write(OutputStream out, VaultHeader header, byte[] key, String fileName,
+            List<Entry> entries, ExecutorService executor, int chunkSize, MessageDigest digest) throws IOException {
+        // the file is closed by the caller
+        OutputStream output = new BufferedOutputStream(out);
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        header.write(headerBytes);
+        headerBytes.writeTo(output);
+        long position = headerBytes.size();
+
+        int count = entries.size();
+        long[] offsets = new long[count];
+        int[] lengths = new int[count];
+        Map<Source, FileChannel> channels = new HashMap<Source, FileChannel>();
+        try {
+            for (int i = 0; i < count; i++) {
+                byte[] blob = getBlob(entries.get(i), key, channels);
+                if (blob == null) {
+                    offsets[i] = -1;
+                    continue;
+                }
+                output.write(blob);
+                offsets[i] = position;
+                lengths[i] = blob.length;
+                position += blob.length;
+            }
+        } finally {
+            for (FileChannel channel : channels.values()) {
+                channel.close();
+            }
+        }
+
+        long indexOffset = position;
+        OutputStream indexOutput = new DigestOutputStream(output, digest);
+        OutputStream cryptOutput = new FilterOutputStream(indexOutput) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                this.out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                // the position of the index follows
+                flush();
+            }
+        };
+        DataOutputStream index = new DataOutputStream(new ChunkedDeflaterOutputStream(
+                new CryptOutputStream(cryptOutput, key), chunkSize, executor, 2));
+        index.writeInt(count);
+        for (int i = 0; i < count; i++) {
+            byte[] record = CONVERTER.toRecord(entries.get(i), false);
+            index.writeInt(record.length);
+            index.write(record);
+            index.writeLong(offsets[i]);
+            index.writeInt(lengths[i]);
+            Arrays.fill(record, (byte) 0);
+        }
+        // finishes the chunks and the encryption
+        index.close();
+        new DataOutputStream(indexOutput).writeLong(indexOffset);
+        output.flush();
+        return new Locations(new Source(fileName, key), entries, offsets, lengths);
+    }
+
+    /**
+     * Gets the encrypted password of an entry. The password of an indexed entry is copied, if it
+     * is encrypted with the same key.
+     */
+    private static byte[] getBlob(Entry entry, byte[] key, Map<Source, FileChannel> channels) throws IOException {
+        if (entry instanceof IndexedEntry) {
+            IndexedEntry indexed = (IndexedEntry) entry;
+            Source source = indexed.getSource();
+            if (source != null && source.hasKey(key)) {
+                FileChannel channel = channels.get(source);
+                if (channel == null) {
+                    channel = FileChannel.open(source.file, StandardOpenOption.READ);
+                    channels.put(source, channel);
+                }
+                return read(channel, indexed.getOffset(), indexed.getLength());
+            }
+        }
+        String password = entry instanceof IndexedEntry ? ((IndexedEntry) entry).readPassword() : entry.getPassword();
+        if (password == null) {
+            return null;
+        }
+        byte[] bytes = password.getBytes(UTF_8);
+        ByteArrayOutputStream blob = new ByteArrayOutputStream(bytes.length + 48);
+        OutputStream crypt = new CryptOutputStream(blob, key);
+        crypt.write(bytes);
+        crypt.close();
+        Arrays.fill(bytes, (byte) 0);
+        return blob.toByteArray();
+    }
+
+    private static byte[] decryptBlob(byte[] blob, byte[] key) throws IOException {
+        InputStream input = new CryptInputStream(new ByteArrayInputStream(blob), key);
+        ByteArrayOutputStream password = new ByteArrayOutputStream(blob.length);
+        byte[] buffer = new byte[256];
+        int read;
+        while ((read = input.read(buffer)) >= 0) {
+            password.write(buffer, 0, read);
+        }
+        input.close();
+        Arrays.fill(buffer, (byte) 0);
+        return password.toByteArray();
+    }
+
+    private static byte[] read(FileChannel channel, long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+        return buffer.array();
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * PasswordManager
+ *
+ * Copyright (c) 2009-2019 Gabor Bata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package tirnav.passman.data;
+
+import java.io.IOException;
+import java.util.concurrent.locks.Lock;
+
+import tirnav.passman.xml.bind.Entry;
+
+/**
+ * Entry of an indexed file, whose password is decrypted from the file only when it is read.
+ *
+ * <p>
+ * The password is not kept in memory, every call of {@link #readPassword()} decrypts it again
+ * with the key of the file. When the file is written, the entry is moved to the new location of its password.
+ * </p>
+ *
+ * @author jainj
+ *
+ */
+final class IndexedEntry extends Entry {
+
+    private IndexedContainer.Source source;
+    private long offset;
+    private int length;
+
+    /**
+     * Sets the location of the encrypted password, or removes it.
+     *
+     * @param source the file, or {@code null} if the entry has no password
+     * @param offset position of the encrypted password in the file
+     * @param length length of the encrypted password
+     */
+    synchronized void setBlob(IndexedContainer.Source source, long offset, int length) {
+        this.source = source;
+        this.offset = offset;
+        this.length = length;
+        super.setPassword(null);
+    }
+
+    /**
+     * Gets the file of the encrypted password.
+     *
+     * @return the file, or {@code null} if the password is not in a file
+     */
+    synchronized IndexedContainer.Source getSource() {
+        return this.source;
+    }
+
+    /**
+     * Checks if the password is encrypted in the given file.
+     *
+     * @param fileName the file
+     * @return {@code true} if the password is read from the file
+     */
+    synchronized boolean isStoredIn(String fileName) {
+        return this.source != null && this.source.isFile(fileName);
+    }
+
+    synchronized long getOffset() {
+        return this.offset;
+    }
+
+    synchronized int getLength() {
+        return this.length;
+    }
+
+    /**
+     * Decrypts the password, and keeps it in memory, as its file is going to be replaced.
+     *
+     * @throws IOException if the password cannot be read
+     */
+    void load() throws IOException {
+        String password = readPassword();
+        synchronized (this) {
+            this.source = null;
+            super.setPassword(password);
+        }
+    }
+
+    /**
+     * Creates a plain copy of the entry with the decrypted password, whose password can be read
+     * without the file.
+     *
+     * @return the copy
+     * @throws IOException if the password cannot be read
+     */
+    Entry detach() throws IOException {
+        Entry copy = new Entry();
+        copy.setTitle(getTitle());
+        copy.setUrl(getUrl());
+        copy.setUser(getUser());
+        copy.setPassword(readPassword());
+        copy.setNotes(getNotes());
+        copy.setModifiedDate(getModifiedDate());
+        copy.setLastPasswordChanged(getLastPasswordChanged());
+        copy.setChangePasswordInDays(getChangePasswordInDays());
+        copy.setModified(isModified());
+        copy.setPasswordChanged(isPasswordChanged());
+        return copy;
+    }
+
+    /**
+     * Decrypts the password from the file.
+     *
+     * @return the password
+     * @throws IOException if the password cannot be read, or the file has been closed
+     */
+    String readPassword() throws IOException {
+        while (true) {
+            IndexedContainer.Source current;
+            synchronized (this) {
+                if (this.source == null) {
+                    return super.getPassword();
+                }
+                current = this.source;
+            }
+            // the file is not replaced while it is read, only while another version of it is saved
+            Lock lock = current.getLock().readLock();
+            lock.lock();
+            try {
+                long currentOffset;
+                int currentLength;
+                synchronized (this) {
+                    if (this.source != current) {
+                        // moved to the new file before the lock was taken
+                        continue;
+                    }
+                    currentOffset = this.offset;
+                    currentLength = this.length;
+                }
+                return current.decrypt(currentOffset, currentLength);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Decrypts the password from the file. The user interface reads it with
+     * {@link DocumentHelper#readPassword(Entry)}, which reports the errors.
+     *
+     * @return the password
+     * @throws IllegalStateException if the password cannot be read
+     */
+    @Override
+    public String getPassword() {
+        try {
+            return readPassword();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read the password: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public synchronized void setPassword(String value) {
+        this.source = null;
+        super.setPassword(value);
+    }
+}
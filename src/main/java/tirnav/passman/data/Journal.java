@@ -0,0 +1,486 @@
+/*
+ * PasswordManager
+ *
+ * Copyright (c) 2009-2019 Gabor Bata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package tirnav.passman.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import tirnav.passman.crypt.io.CryptInputStream;
+import tirnav.passman.crypt.io.CryptOutputStream;
+import tirnav.passman.xml.bind.Entry;
+import tirnav.passman.xml.converter.BinaryConverter;
+import tirnav.passman.xml.converter.ElementCallback;
+
+/**
+ * Encrypted, append-only journal of the entry changes next to a data file.
+ *
+ * <p>
+ * Saving a few changed entries appends small records to the journal instead of rewriting the
+ * whole data file. The journal belongs to the data file with the SHA-256 digest in its header, a
+ * journal of another version of the data file is ignored. When the whole data file is written,
+ * the journal is replaced by an empty one, which folds the changes into the data file.
+ * </p>
+ *
+ * <pre>
+ * magic (8 bytes) | version (1 byte) | digest of the data file (32 bytes) | records
+ * record: length (4 bytes) | iv (16 bytes) | encrypted change
+ * change: operation (1 byte) | index (4 bytes) | [entry length (4 bytes) | entry] | CRC-32 (4 bytes)
+ * </pre>
+ *
+ * <p>
+ * The entries are encoded as the records of {@link BinaryConverter}, and encrypted with the key of
+ * the data file. A truncated record at the end (e.g. after a crash) is ignored.
+ * </p>
+ *
+ * @author jainj
+ *
+ */
+public final class Journal {
+
+    private static final Logger LOG = Logger.getLogger(Journal.class.getName());
+
+    /**
+     * Magic number at the beginning of journal files.
+     */
+    static final byte[] MAGIC = {'P', 'M', 'J', 'O', 'U', 'R', 'N', 0};
+
+    /**
+     * Current journal format version.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * Length of the SHA-256 digest of the data file.
+     */
+    public static final int DIGEST_LENGTH = 32;
+
+    private static final int HEADER_LENGTH = MAGIC.length + 1 + DIGEST_LENGTH;
+
+    private static final int ADD = 1;
+    private static final int REPLACE = 2;
+    private static final int REMOVE = 3;
+
+    /**
+     * Upper bound of the record length accepted while reading, to fail fast on corrupt data.
+     */
+    private static final int MAX_RECORD_LENGTH = 64 * 1024 * 1024;
+
+    private static final BinaryConverter CONVERTER = new BinaryConverter();
+
+    /**
+     * A change of the entry list.
+     */
+    public static final class Change {
+        private final int operation;
+        private final int index;
+        private final Entry entry;
+
+        private Change(int operation, int index, Entry entry) {
+            this.operation = operation;
+            this.index = index;
+            this.entry = entry;
+        }
+
+        /**
+         * The entry is added to the end of the list.
+         *
+         * @param entry the entry
+         * @return the change
+         */
+        public static Change add(Entry entry) {
+            return new Change(ADD, -1, entry);
+        }
+
+        /**
+         * The entry at the index is replaced.
+         *
+         * @param index position of the replaced entry
+         * @param entry the new entry
+         * @return the change
+         */
+        public static Change replace(int index, Entry entry) {
+            return new Change(REPLACE, index, entry);
+        }
+
+        /**
+         * The entry at the index is removed.
+         *
+         * @param index position of the removed entry
+         * @return the change
+         */
+        public static Change remove(int index) {
+            return new Change(REMOVE, index, null);
+        }
+    }
+
+    /**
+     * Identifies a version of the data file, and the end of its journal.
+     */
+    public static final class Mark {
+        private final byte[] digest;
+        private final long length;
+
+        Mark(byte[] digest, long length) {
+            this.digest = digest.clone();
+            this.length = length;
+        }
+
+        /**
+         * Gets the length of the journal.
+         *
+         * @return length in bytes
+         */
+        public long getLength() {
+            return this.length;
+        }
+
+        /**
+         * Gets the number of bytes of the records in the journal.
+         *
+         * @return length of the records in bytes
+         */
+        public long getRecordsLength() {
+            return this.length - HEADER_LENGTH;
+        }
+    }
+
+    private Journal() {
+        // not intended to be instantiated
+    }
+
+    /**
+     * Gets the journal file of a data file.
+     *
+     * @param fileName the data file
+     * @return the journal file
+     */
+    public static File getFile(String fileName) {
+        return new File(fileName + ".journal");
+    }
+
+    /**
+     * Deletes the journal of a data file.
+     *
+     * @param fileName the data file
+     * @throws IOException if the journal exists and cannot be deleted
+     */
+    public static void delete(String fileName) throws IOException {
+        Files.deleteIfExists(getFile(fileName).toPath());
+    }
+
+    /**
+     * Creates an empty journal for a data file, replacing the previous one.
+     *
+     * @param fileName the data file
+     * @param digest digest of the data file
+     * @param syncPolicy how the journal is forced to the device
+     * @return mark of the empty journal
+     * @throws IOException if the journal cannot be written
+     */
+    public static Mark create(String fileName, byte[] digest, SyncPolicy syncPolicy) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(getFile(fileName), "rw");
+        try {
+            FileChannel channel = file.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            header.put(MAGIC).put((byte) VERSION).put(digest).flip();
+            channel.truncate(0);
+            writeFully(channel, header, 0);
+            force(channel, syncPolicy);
+        } finally {
+            file.close();
+        }
+        return new Mark(digest, HEADER_LENGTH);
+    }
+
+    /**
+     * Checks whether the data file and its journal are still the ones of the mark.
+     *
+     * @param fileName the data file
+     * @param mark the data file and the end of the journal
+     * @return {@code true} if the journal belongs to the same data file and ends at the mark
+     * @throws IOException if the journal cannot be read
+     */
+    public static boolean isCurrent(String fileName, Mark mark) throws IOException {
+        File journal = getFile(fileName);
+        if (!journal.exists()) {
+            return false;
+        }
+        RandomAccessFile file = new RandomAccessFile(journal, "r");
+        try {
+            return findEnd(file.getChannel(), mark.digest) == mark.length;
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Appends changes to the journal. The changes are appended only if the journal still ends at
+     * the mark, otherwise the data file or the journal has been written by someone else since the
+     * mark was taken, and the caller has to write the whole data file from its current state.
+     *
+     * @param fileName the data file
+     * @param key key of the data file
+     * @param mark the data file and the end of the journal, that the changes are based on
+     * @param changes the changes, the entries are encoded now
+     * @param syncPolicy how the journal is forced to the device
+     * @return mark after the appended changes, or {@code null} if the journal does not end at the mark
+     * @throws IOException if the journal cannot be written
+     */
+    public static Mark append(String fileName, byte[] key, Mark mark, List<Change> changes,
+            SyncPolicy syncPolicy) throws IOException {
+        File journal = getFile(fileName);
+        if (!journal.exists()) {
+            return null;
+        }
+        RandomAccessFile file = new RandomAccessFile(journal, "rw");
+        try {
+            FileChannel channel = file.getChannel();
+            if (findEnd(channel, mark.digest) != mark.length) {
+                return null;
+            }
+            ByteArrayOutputStream records = new ByteArrayOutputStream();
+            for (Change change : changes) {
+                writeRecord(records, key, change);
+            }
+            // drops a truncated record after the mark
+            channel.truncate(mark.length);
+            writeFully(channel, ByteBuffer.wrap(records.toByteArray()), mark.length);
+            force(channel, syncPolicy);
+            return new Mark(mark.digest, mark.length + records.size());
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Applies the journal to the entries read from the data file. A truncated or damaged last
+     * record is ignored, as it is the record that was written when the application stopped.
+     *
+     * @param fileName the data file
+     * @param key key of the data file
+     * @param digest digest of the data file
+     * @param entries the entries of the data file, modified in place
+     * @param callback called for every added or replaced entry, can be {@code null}
+     * @return mark of the applied journal, or {@code null} if there is no journal of the data file
+     * @throws IOException if a record before the last one is corrupt, or the journal does not match
+     *             the entries
+     */
+    public static Mark replay(String fileName, byte[] key, byte[] digest, List<Entry> entries,
+            ElementCallback<Entry> callback) throws IOException {
+        File file = getFile(fileName);
+        if (!file.exists()) {
+            return null;
+        }
+        byte[] data = Files.readAllBytes(file.toPath());
+        if (!isHeaderOf(data, digest)) {
+            LOG.warning("The journal belongs to another version of the data file, it is ignored: " + file);
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        int position = HEADER_LENGTH;
+        while (position + 4 <= data.length) {
+            int length = buffer.getInt(position);
+            if (length < 0 || length > MAX_RECORD_LENGTH || length > data.length - position - 4) {
+                // truncated record
+                break;
+            }
+            byte[] change;
+            try {
+                change = readRecord(data, position + 4, length, key);
+            } catch (IOException e) {
+                if (position + 4 + length < data.length) {
+                    throw e;
+                }
+                // the last record may have been torn by a crash while it was written
+                LOG.warning("The last record of the journal is damaged, it is ignored: " + file);
+                break;
+            }
+            applyRecord(change, entries, callback);
+            position += 4 + length;
+        }
+        Arrays.fill(data, (byte) 0);
+        return new Mark(digest, position);
+    }
+
+    private static boolean isHeaderOf(byte[] header, byte[] digest) {
+        if (header.length < HEADER_LENGTH || header[MAGIC.length] != VERSION) {
+            return false;
+        }
+        return Arrays.equals(Arrays.copyOf(header, MAGIC.length), MAGIC)
+                && Arrays.equals(Arrays.copyOfRange(header, MAGIC.length + 1, HEADER_LENGTH), digest);
+    }
+
+    /**
+     * Finds the end of the last complete record.
+     *
+     * @return the position, or -1 if the journal belongs to another data file
+     */
+    private static long findEnd(FileChannel channel, byte[] digest) throws IOException {
+        long size = channel.size();
+        if (size < HEADER_LENGTH) {
+            return -1;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        readFully(channel, header, 0);
+        if (!isHeaderOf(header.array(), digest)) {
+            return -1;
+        }
+        long position = HEADER_LENGTH;
+        ByteBuffer length = ByteBuffer.allocate(4);
+        while (position + 4 <= size) {
+            length.clear();
+            readFully(channel, length, position);
+            int recordLength = length.getInt(0);
+            if (recordLength < 0 || position + 4 + recordLength > size) {
+                break;
+            }
+            position += 4 + recordLength;
+        }
+        return position;
+    }
+
+    private static void writeRecord(ByteArrayOutputStream records, byte[] key, Change change) throws IOException {
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(plain);
+        output.writeByte(change.operation);
+        output.writeInt(change.index);
+        if (change.entry != null) {
+            byte[] record = CONVERTER.toRecord(change.entry);
+            output.writeInt(record.length);
+            output.write(record);
+            Arrays.fill(record, (byte) 0);
+        }
+        byte[] data = plain.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(data);
+
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream(data.length + 48);
+        CryptOutputStream crypt = new CryptOutputStream(encrypted, key);
+        crypt.write(data);
+        crypt.write(ByteBuffer.allocate(4).putInt((int) crc.getValue()).array());
+        crypt.close();
+        Arrays.fill(data, (byte) 0);
+
+        new DataOutputStream(records).writeInt(encrypted.size());
+        encrypted.writeTo(records);
+    }
+
+    private static byte[] readRecord(byte[] data, int offset, int length, byte[] key) throws IOException {
+        InputStream crypt = new CryptInputStream(new ByteArrayInputStream(data, offset, length), key);
+        ByteArrayOutputStream plain = new ByteArrayOutputStream(length);
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = crypt.read(buffer)) >= 0) {
+            plain.write(buffer, 0, read);
+        }
+        crypt.close();
+        byte[] change = plain.toByteArray();
+        if (change.length < 9) {
+            throw new IOException("Invalid journal record");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(change, 0, change.length - 4);
+        if ((int) crc.getValue() != ByteBuffer.wrap(change).getInt(change.length - 4)) {
+            throw new IOException("Corrupt journal record");
+        }
+        return change;
+    }
+
+    private static void applyRecord(byte[] change, List<Entry> entries, ElementCallback<Entry> callback)
+            throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(change, 0, change.length - 4));
+        int operation = input.readUnsignedByte();
+        int index = input.readInt();
+        Entry entry = null;
+        if (operation == ADD || operation == REPLACE) {
+            int length = input.readInt();
+            if (length < 0 || length > input.available()) {
+                throw new IOException("Invalid journal record");
+            }
+            byte[] record = new byte[length];
+            input.readFully(record);
+            entry = CONVERTER.fromRecord(record, length);
+            Arrays.fill(record, (byte) 0);
+        }
+        Arrays.fill(change, (byte) 0);
+        if (operation != ADD && (index < 0 || index >= entries.size())) {
+            throw new IOException("The journal does not match the data file");
+        }
+        switch (operation) {
+            case ADD:
+                entries.add(entry);
+                break;
+            case REPLACE:
+                entries.set(index, entry);
+                break;
+            case REMOVE:
+                entries.remove(index);
+                break;
+            default:
+                throw new IOException("Unknown journal operation: " + operation);
+        }
+        if (entry != null && callback != null) {
+            callback.element(entry);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Unexpected end of journal");
+            }
+        }
+    }
+
+    private static void force(FileChannel channel, SyncPolicy syncPolicy) throws IOException {
+        if (syncPolicy != SyncPolicy.NONE) {
+            channel.force(syncPolicy == SyncPolicy.FULL);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+}
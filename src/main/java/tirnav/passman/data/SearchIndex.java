@@ -0,0 +1,303 @@
+/*
+ * PasswordManager
+ *
+ * Copyright (c) 2009-2019 Gabor Bata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package tirnav.passman.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+
+import tirnav.passman.xml.bind.Entry;
+
+/**
+ * Case insensitive substring search over the title, user, URL and notes of the entries.
+ *
+ * <p>
+ * Every entry gets a document number, and every distinct trigram of its lower case text has a
+ * posting list of the document numbers containing it. A query is answered by intersecting the
+ * posting lists of its trigrams, and checking the remaining candidates. Queries shorter than a
+ * trigram check all entries. When a query extends the previous one, only the previous result is
+ * checked again. A search can be canceled by interrupting its thread.
+ * </p>
+ *
+ * <p>
+ * Removed entries leave a gap in the document numbers, which is skipped during the search. The
+ * index is rebuilt when more than half of the documents are removed.
+ * </p>
+ *
+ * @author jainj
+ *
+ */
+public class SearchIndex {
+
+    /**
+     * Separates the fields of an entry in the indexed text, so matches cannot span fields.
+     */
+    private static final char FIELD_SEPARATOR = '\n';
+
+    private static final int[] EMPTY = new int[0];
+
+    /**
+     * Interruption of the search is checked after every 1024 candidates.
+     */
+    private static final int CANCEL_CHECK_MASK = 1023;
+
+    private final Map<Long, Postings> postings = new HashMap<Long, Postings>();
+    private final Map<Entry, Integer> documents = new IdentityHashMap<Entry, Integer>();
+    private final List<Entry> entries = new ArrayList<Entry>();
+    private final List<String> texts = new ArrayList<String>();
+    private int removed;
+
+    /**
+     * Incremented on every modification, the previous result is reused only if it is unchanged.
+     */
+    private int modifications;
+    private String lastQuery;
+    private int lastModifications;
+    private int[] lastResult;
+
+    /**
+     * Indexes all entries, and drops the previous content.
+     *
+     * @param entries the entries
+     */
+    public synchronized void reset(Collection<Entry> entries) {
+        this.postings.clear();
+        this.documents.clear();
+        this.entries.clear();
+        this.texts.clear();
+        this.removed = 0;
+        this.modifications++;
+        this.lastResult = null;
+        for (Entry entry : entries) {
+            add(entry);
+        }
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public synchronized void clear() {
+        reset(new ArrayList<Entry>(0));
+    }
+
+    /**
+     * Gets the number of indexed entries.
+     *
+     * @return number of entries
+     */
+    public synchronized int size() {
+        return this.documents.size();
+    }
+
+    /**
+     * Adds an entry to the index.
+     *
+     * @param entry the entry
+     */
+    public synchronized void add(Entry entry) {
+        if (this.documents.containsKey(entry)) {
+            return;
+        }
+        int document = this.entries.size();
+        String text = toText(entry);
+        this.documents.put(entry, document);
+        this.entries.add(entry);
+        this.texts.add(text);
+        this.modifications++;
+        Set<Long> trigrams = new HashSet<Long>();
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            Long trigram = trigram(text, i);
+            if (trigrams.add(trigram)) {
+                Postings list = this.postings.get(trigram);
+                if (list == null) {
+                    list = new Postings();
+                    this.postings.put(trigram, list);
+                }
+                list.add(document);
+            }
+        }
+    }
+
+    /**
+     * Removes an entry from the index.
+     *
+     * @param entry the entry
+     */
+    public synchronized void remove(Entry entry) {
+        Integer document = this.documents.remove(entry);
+        if (document == null) {
+            return;
+        }
+        this.entries.set(document, null);
+        this.texts.set(document, null);
+        this.removed++;
+        this.modifications++;
+        if (this.removed > this.entries.size() / 2) {
+            List<Entry> live = new ArrayList<Entry>(this.documents.size());
+            for (Entry e : this.entries) {
+                if (e != null) {
+                    live.add(e);
+                }
+            }
+            reset(live);
+        }
+    }
+
+    /**
+     * Finds the entries, whose title, user, URL or notes contain the query, ignoring case.
+     *
+     * @param query the query
+     * @return matching entries in the order they were added
+     * @throws CancellationException if the thread is interrupted during the search
+     */
+    public synchronized List<Entry> search(String query) {
+        String q = query.toLowerCase();
+        int[] candidates;
+        boolean all = false;
+        if (this.lastResult != null && this.lastModifications == this.modifications && q.contains(this.lastQuery)) {
+            // every match of the longer query is a match of the previous one
+            candidates = this.lastResult;
+        } else if (q.length() < 3) {
+            candidates = null;
+            all = true;
+        } else {
+            candidates = intersect(q);
+        }
+
+        int[] result = new int[all ? this.entries.size() : candidates.length];
+        int count = 0;
+        int length = all ? this.entries.size() : candidates.length;
+        for (int i = 0; i < length; i++) {
+            if ((i & CANCEL_CHECK_MASK) == 0 && Thread.currentThread().isInterrupted()) {
+                // a newer search is waiting, the previous result stays valid
+                throw new CancellationException("Search canceled");
+            }
+            int document = all ? i : candidates[i];
+            String text = this.texts.get(document);
+            if (text != null && text.contains(q)) {
+                result[count++] = document;
+            }
+        }
+        result = Arrays.copyOf(result, count);
+        this.lastQuery = q;
+        this.lastResult = result;
+        this.lastModifications = this.modifications;
+
+        List<Entry> matches = new ArrayList<Entry>(count);
+        for (int document : result) {
+            matches.add(this.entries.get(document));
+        }
+        return matches;
+    }
+
+    /**
+     * Intersects the posting lists of the trigrams of the query, starting with the shortest one.
+     */
+    private int[] intersect(String q) {
+        List<Postings> lists = new ArrayList<Postings>();
+        for (int i = 0; i + 3 <= q.length(); i++) {
+            Postings list = this.postings.get(trigram(q, i));
+            if (list == null) {
+                return EMPTY;
+            }
+            lists.add(list);
+        }
+        Postings shortest = lists.get(0);
+        for (Postings list : lists) {
+            if (list.size < shortest.size) {
+                shortest = list;
+            }
+        }
+        int[] result = Arrays.copyOf(shortest.documents, shortest.size);
+        int count = result.length;
+        for (Postings list : lists) {
+            if (list == shortest) {
+                continue;
+            }
+            int kept = 0;
+            int j = 0;
+            for (int i = 0; i < count; i++) {
+                int document = result[i];
+                while (j < list.size && list.documents[j] < document) {
+                    j++;
+                }
+                if (j < list.size && list.documents[j] == document) {
+                    result[kept++] = document;
+                }
+            }
+            count = kept;
+            if (count == 0) {
+                break;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private static Long trigram(String text, int offset) {
+        return ((long) text.charAt(offset) << 32) | ((long) text.charAt(offset + 1) << 16) | text.charAt(offset + 2);
+    }
+
+    private static String toText(Entry entry) {
+        StringBuilder sb = new StringBuilder();
+        append(sb, entry.getTitle());
+        append(sb, entry.getUser());
+        append(sb, entry.getUrl());
+        append(sb, entry.getNotes());
+        return sb.toString().toLowerCase();
+    }
+
+    private static void append(StringBuilder sb, String field) {
+        if (field != null) {
+            sb.append(field);
+        }
+        sb.append(FIELD_SEPARATOR);
+    }
+
+    /**
+     * Ascending list of document numbers.
+     */
+    private static final class Postings {
+        private int[] documents = new int[4];
+        private int size;
+
+        void add(int document) {
+            if (this.size == this.documents.length) {
+                this.documents = Arrays.copyOf(this.documents, this.size * 2);
+            }
+            this.documents[this.size++] = document;
+        }
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * PasswordManager
+ *
+ * Copyright (c) 2009-2019 Gabor Bata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package tirnav.passman.data;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import tirnav.passman.util.Configuration;
+import tirnav.passman.util.CryptUtils;
+
+/**
+ * Unencrypted header of a data file, that describes how the key is derived from the password.
+ *
+ * <p>
+ * Files written before the header was introduced start directly with the initialization vector
+ * and use the unsalted SHA-256 hash of the password as key. They have no magic number, and are
+ * represented by {@link #legacy()}.
+ * </p>
+ *
+ * <pre>
+ * magic (8 bytes) | version (1 byte) | kdf (1 byte) | iterations (4 bytes) | salt length (1 byte) | salt
+ * </pre>
+ *
+ * <p>
+ * The encrypted data of version 1 files is a GZIP stream. Since version 2 it consists of
+ * independently compressed chunks, see {@link ChunkedDeflaterOutputStream}. Version 3 files are
+ * indexed, see {@link IndexedContainer}.
+ * </p>
+ *
+ * @author jainj
+ *
+ */
+public final class VaultHeader {
+
+    /**
+     * Magic number at the beginning of files with header.
+     */
+    static final byte[] MAGIC = {'P', 'M', 'V', 'A', 'U', 'L', 'T', 0};
+
+    /**
+     * Current file format version.
+     */
+    public static final int VERSION = 2;
+
+    /**
+     * First file format version with chunked compression.
+     */
+    public static final int VERSION_CHUNKED = 2;
+
+    /**
+     * File format version of the indexed files.
+     */
+    public static final int VERSION_INDEXED = 3;
+
+    /**
+     * Key derivation of the files without header: SHA-256 with 1000 iterations, without salt.
+     */
+    public static final int KDF_SHA256 = 0;
+
+    /**
+     * Key derivation with PBKDF2-HMAC-SHA256.
+     */
+    public static final int KDF_PBKDF2_SHA256 = 1;
+
+    /**
+     * Length of the generated salts in bytes.
+     */
+    public static final int SALT_LENGTH = 16;
+
+    /**
+     * Upper bound of the salt length accepted while reading a header.
+     */
+    private static final int MAX_SALT_LENGTH = 64;
+
+    /**
+     * Upper bound of the PBKDF2 iterations, about a hundred times the calibrated count of current
+     * machines. A corrupt or crafted header must not keep the key derivation busy for hours.
+     */
+    public static final int MAX_ITERATIONS = 100000000;
+
+    /**
+     * Maximum length of a header.
+     */
+    static final int MAX_LENGTH = MAGIC.length + 1 + 1 + 4 + 1 + MAX_SALT_LENGTH;
+
+    /**
+     * Default duration of the key derivation, when the number of iterations is calibrated.
+     */
+    private static final int DEFAULT_TARGET_MILLIS = 500;
+
+    /**
+     * Number of iterations determined by the calibration, it is measured only once.
+     */
+    private static volatile Integer calibratedIterations;
+
+    private static final VaultHeader LEGACY = new VaultHeader(0, KDF_SHA256, 1000, new byte[0]);
+
+    private final int version;
+    private final int kdf;
+    private final int iterations;
+    private final byte[] salt;
+
+    private VaultHeader(final int version, final int kdf, final int iterations, final byte[] salt) {
+        this.version = version;
+        this.kdf = kdf;
+        this.iterations = iterations;
+        this.salt = salt;
+    }
+
+    /**
+     * Gets the header of files without header.
+     *
+     * @return legacy header
+     */
+    public static VaultHeader legacy() {
+        return LEGACY;
+    }
+
+    /**
+     * Creates a PBKDF2 header with a new random salt, and the configured number of iterations.
+     *
+     * <p>
+     * The number of iterations is read from {@code kdf.iterations}. If it is not set, it is
+     * calibrated on the current machine, so the key derivation takes about
+     * {@code kdf.target.millis} milliseconds.
+     * </p>
+     *
+     * @return a new header
+     * @throws Exception if the calibration failed
+     */
+    public static VaultHeader newInstance() throws Exception {
+        int iterations = Configuration.getInstance().getInteger("kdf.iterations", 0);
+        if (iterations <= 0) {
+            iterations = getCalibratedIterations();
+        }
+        return newInstance(iterations);
+    }
+
+    /**
+     * Creates a PBKDF2 header with a new random salt.
+     *
+     * @param iterations number of iterations
+     * @return a new header
+     */
+    public static VaultHeader newInstance(final int iterations) {
+        if (iterations < 1 || iterations > MAX_ITERATIONS) {
+            throw new IllegalArgumentException("Invalid number of iterations: " + iterations);
+        }
+        byte[] salt = new byte[SALT_LENGTH];
+        new SecureRandom().nextBytes(salt);
+        return new VaultHeader(VERSION, KDF_PBKDF2_SHA256, iterations, salt);
+    }
+
+    private static int getCalibratedIterations() throws Exception {
+        if (calibratedIterations == null) {
+            synchronized (VaultHeader.class) {
+                if (calibratedIterations == null) {
+                    int targetMillis = Configuration.getInstance().getInteger("kdf.target.millis", DEFAULT_TARGET_MILLIS);
+                    calibratedIterations = Math.min(MAX_ITERATIONS, CryptUtils.calibratePbkdf2Iterations(targetMillis));
+                }
+            }
+        }
+        return calibratedIterations;
+    }
+
+    /**
+     * Reads the header from the beginning of a file. If the stream does not start with the magic
+     * number, it is reset, and the legacy header is returned.
+     *
+     * @param input stream supporting {@link InputStream#mark(int)}
+     * @return the header
+     * @throws IOException if the header is corrupt, or has an unknown version
+     */
+    public static VaultHeader read(final InputStream input) throws IOException {
+        if (!input.markSupported()) {
+            throw new IllegalArgumentException("Input stream does not support mark");
+        }
+        input.mark(MAGIC.length);
+        byte[] magic = new byte[MAGIC.length];
+        int length = 0;
+        int read;
+        while (length < magic.length && (read = input.read(magic, length, magic.length - length)) >= 0) {
+            length += read;
+        }
+        if (length < magic.length || !Arrays.equals(magic, MAGIC)) {
+            input.reset();
+            return LEGACY;
+        }
+        DataInputStream data = new DataInputStream(input);
+        int version = data.readUnsignedByte();
+        if (version < 1 || version > VERSION_INDEXED) {
+            throw new IOException("Unsupported file version: " + version);
+        }
+        int kdf = data.readUnsignedByte();
+        if (kdf != KDF_PBKDF2_SHA256) {
+            throw new IOException("Unsupported key derivation: " + kdf);
+        }
+        int iterations = data.readInt();
+        int saltLength = data.readUnsignedByte();
+        if (iterations < 1 || saltLength > MAX_SALT_LENGTH) {
+            throw new IOException("Corrupt file header");
+        }
+        if (iterations > MAX_ITERATIONS) {
+            throw new IOException("Too many key derivation iterations: " + iterations);
+        }
+        byte[] salt = new byte[saltLength];
+        data.readFully(salt);
+        return new VaultHeader(version, kdf, iterations, salt);
+    }
+
+    /**
+     * Writes the header. Nothing is written for the legacy header.
+     *
+     * @param output output stream
+     * @throws IOException if the header could not be written
+     */
+    public void write(final OutputStream output) throws IOException {
+        if (isLegacy()) {
+            return;
+        }
+        DataOutputStream data = new DataOutputStream(output);
+        data.write(MAGIC);
+        data.writeByte(this.version);
+        data.writeByte(this.kdf);
+        data.writeInt(this.iterations);
+        data.writeByte(this.salt.length);
+        data.write(this.salt);
+        data.flush();
+    }
+
+    /**
+     * Gets the header of the current version of the given format with the same key derivation,
+     * so the key does not change when an older file is written in the current format.
+     *
+     * @param format format of the file
+     * @return header of the current version, or this header if it is the legacy header
+     */
+    public VaultHeader forFormat(final DocumentFormat format) {
+        int newVersion = format == DocumentFormat.INDEXED ? VERSION_INDEXED : VERSION;
+        if (isLegacy() || this.version == newVersion) {
+            return this;
+        }
+        return new VaultHeader(newVersion, this.kdf, this.iterations, this.salt);
+    }
+
+    /**
+     * Checks if the data of the file is compressed in chunks.
+     *
+     * @return {@code true} since version 2
+     */
+    public boolean isChunked() {
+        return this.version >= VERSION_CHUNKED;
+    }
+
+    /**
+     * Checks if the file is indexed.
+     *
+     * @return {@code true} for version 3
+     */
+    public boolean isIndexed() {
+        return this.version == VERSION_INDEXED;
+    }
+
+    /**
+     * Gets the number of {@code byte}s written by {@link #write(OutputStream)}.
+     *
+     * @return length of the header, {@code 0} for the legacy header
+     */
+    public int getLength() {
+        if (isLegacy()) {
+            return 0;
+        }
+        // magic, version, kdf, iterations, salt length and salt
+        return MAGIC.length + 1 + 1 + 4 + 1 + this.salt.length;
+    }
+
+    /**
+     * Derives the encryption key from the password.
+     *
+     * @param password UTF-8 encoded password
+     * @return 256 bit key
+     * @throws Exception if error occurred
+     */
+    public byte[] deriveKey(final byte[] password) throws Exception {
+        if (this.kdf == KDF_SHA256) {
+            return CryptUtils.getPKCS5Sha256Hash(password);
+        }
+        return CryptUtils.getPbkdf2Sha256Hash(password, this.salt, this.iterations);
+    }
+
+    /**
+     * Checks if this is the header of a file without header.
+     *
+     * @return {@code true} for the legacy header
+     */
+    public boolean isLegacy() {
+        return this.kdf == KDF_SHA256;
+    }
+
+    public int getVersion() {
+        return this.version;
+    }
+
+    public int getKdf() {
+        return this.kdf;
+    }
+
+    public int getIterations() {
+        return this.iterations;
+    }
+
+    public byte[] getSalt() {
+        return this.salt.clone();
+    }
+}
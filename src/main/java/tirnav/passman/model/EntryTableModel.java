@@ -3,21 +3,34 @@
  */
 package tirnav.passman.model;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.swing.Icon;
-import javax.swing.ImageIcon;
-import javax.swing.JLabel;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.table.AbstractTableModel;
 
+import tirnav.passman.data.DataModel;
+import tirnav.passman.util.IconStorage;
 import tirnav.passman.xml.bind.Entry;
 
 /**
+ * Table model of the visible entries, a view over the live entry list of the
+ * data model. The rows hold the entries by reference, so they stay valid while
+ * the entry list is replaced, and the cell values are read from the entries
+ * when they are painted. The rows are updated
+ * incrementally, so only the inserted, removed and changed rows are repainted
+ * and the selection of the table is kept.
+ *
  * @author jainj
  *
  */
-public class EntryTableModel extends DefaultTableModel {
+public class EntryTableModel extends AbstractTableModel {
 
 	/**
 	 * 
@@ -28,20 +41,47 @@ public class EntryTableModel extends DefaultTableModel {
 
 	public Class[] m_colTypes = { Icon.class, String.class,String.class, Date.class, Date.class, Integer.class };
 
-	List<Entry> entryDataList;
+	private final IconStorage iconStorage;
+
+	/** The data model, which holds the live entry list. */
+	private final DataModel model;
 
-	public EntryTableModel(List<Entry> entryDataVector) {
+	/**
+	 * The visible entries by reference, in display order. The entry list may be
+	 * replaced or shifted before the next update, so the rows never map to
+	 * positions in it.
+	 */
+	private final List<Entry> rows = new ArrayList<Entry>();
+
+	/**
+	 * The displayed values of the rows at the last update, the entries are
+	 * changed in place when they are saved, e.g. their modification dates.
+	 */
+	private Map<Entry, Object[]> shown = new IdentityHashMap<Entry, Object[]>();
+
+	public EntryTableModel(DataModel model) {
+		this(model, IconStorage.getInstance());
+	}
+
+	public EntryTableModel(DataModel model, IconStorage iconStorage) {
 		super();
-		this.entryDataList = entryDataVector;
+		this.model = model;
+		this.iconStorage = iconStorage;
+		this.iconStorage.addListener(new IconStorage.Listener() {
+			@Override
+			public void iconLoaded(String domain) {
+				fireIconUpdated(domain);
+			}
+		});
 	}
 
 	public int getColumnCount() {
 		return m_colNames.length;
 	}
 
-	/*public int getRowCount() {
-		return null != entryDataList?entryDataList.size():0;
-	}*/
+	public int getRowCount() {
+		return rows.size();
+	}
 
 	public String getColumnName(int col) {
 		return m_colNames[col];
@@ -52,29 +92,143 @@ public class EntryTableModel extends DefaultTableModel {
 	}
 
 	/* (non-Javadoc)
-	 * @see javax.swing.table.DefaultTableModel#isCellEditable(int, int)
+	 * @see javax.swing.table.AbstractTableModel#isCellEditable(int, int)
 	 */
 	@Override
 	public boolean isCellEditable(int row, int column) {
 		return false;
 	}
 
-	/*public Object getValueAt(int row, int col) {
-		Entry data = (Entry) (entryDataList.get(row));
+	public Object getValueAt(int row, int col) {
+		Entry data = getEntry(row);
 
 		switch (col) {
 		case 0:
-			return data.getTitle();
+			return iconStorage.getIcon(data.getUrl());
 		case 1:
-			return data.getUser();
+			return data.getTitle();
 		case 2:
-			return data.getModifiedDate();
+			return data.getUser();
 		case 3:
-			return data.getLastPasswordChanged();
+			return data.getModifiedDate();
 		case 4:
+			return data.getLastPasswordChanged();
+		case 5:
 			return data.getChangePasswordInDays();
 		}
 
-		return new String();
-	}*/
+		return null;
+	}
+
+	/**
+	 * Checks that the entries are elements of the entry list, only with
+	 * assertions enabled.
+	 *
+	 * @param entries the entries
+	 * @return {@code true} if all entries are in the entry list
+	 */
+	private boolean isInEntryList(List<Entry> entries) {
+		Set<Entry> known = Collections.newSetFromMap(new IdentityHashMap<Entry, Boolean>());
+		known.addAll(model.getEntries().getEntry());
+		for (Entry entry : entries) {
+			if (!known.contains(entry)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the values of the entry, which are shown in its row.
+	 *
+	 * @param entry the entry
+	 * @return the values
+	 */
+	private static Object[] getDisplayedValues(Entry entry) {
+		return new Object[] { entry.getUrl(), entry.getTitle(), entry.getUser(), entry.getModifiedDate(),
+				entry.getLastPasswordChanged(), entry.getChangePasswordInDays() };
+	}
+
+	/**
+	 * Repaints the icon of the rows, whose URL belongs to the given domain.
+	 *
+	 * @param domain the domain
+	 */
+	private void fireIconUpdated(String domain) {
+		for (int i = 0; i < rows.size(); i++) {
+			if (domain.equals(IconStorage.getDomain(rows.get(i).getUrl()))) {
+				fireTableCellUpdated(i, 0);
+			}
+		}
+	}
+
+	/**
+	 * Gets the entry of the given model row.
+	 *
+	 * @param row model row index
+	 * @return the entry
+	 */
+	public Entry getEntry(int row) {
+		return rows.get(row);
+	}
+
+	/**
+	 * Gets the model row of the entry with the given title.
+	 *
+	 * @param title entry title
+	 * @return model row index, or -1 if the entry is not visible
+	 */
+	public int indexOfTitle(String title) {
+		for (int i = 0; i < rows.size(); i++) {
+			String rowTitle = rows.get(i).getTitle();
+			if (rowTitle == null ? title == null : rowTitle.equals(title)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Shows the given entries, which have to be elements of the entry list.
+	 * Only the difference to the current rows is applied, contiguous rows are
+	 * reported in a single event. Retained rows, whose values have changed since
+	 * the last update, are reported as updated.
+	 *
+	 * @param entries the entries in display order
+	 */
+	public void update(List<Entry> entries) {
+		assert isInEntryList(entries) : "Entry is not in the entry list";
+
+		Map<Entry, Object[]> newShown = new IdentityHashMap<Entry, Object[]>(entries.size() * 2);
+		Set<Entry> changed = Collections.newSetFromMap(new IdentityHashMap<Entry, Boolean>());
+		for (Entry entry : entries) {
+			Object[] values = getDisplayedValues(entry);
+			Object[] oldValues = shown.get(entry);
+			if (oldValues != null && !Arrays.equals(oldValues, values)) {
+				changed.add(entry);
+			}
+			newShown.put(entry, values);
+		}
+		shown = newShown;
+
+		boolean incremental = ListDiff.update(rows, entries, changed, new ListDiff.Listener() {
+			@Override
+			public void removed(int first, int last) {
+				fireTableRowsDeleted(first, last);
+			}
+
+			@Override
+			public void inserted(int first, int last) {
+				fireTableRowsInserted(first, last);
+			}
+
+			@Override
+			public void updated(int first, int last) {
+				fireTableRowsUpdated(first, last);
+			}
+		});
+		if (!incremental) {
+			fireTableDataChanged();
+		}
+	}
 }
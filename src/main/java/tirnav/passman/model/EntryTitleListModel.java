@@ -0,0 +1,68 @@
+/**
+ * 
+ */
+package tirnav.passman.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.AbstractListModel;
+
+import tirnav.passman.xml.bind.Entry;
+
+/**
+ * List model of the visible entry titles, updated incrementally like
+ * {@link EntryTableModel}.
+ *
+ * @author jainj
+ *
+ */
+public class EntryTitleListModel extends AbstractListModel<String> {
+
+	private static final long serialVersionUID = 4309871243470375012L;
+
+	/** The visible entries in display order. */
+	private final List<Entry> rows = new ArrayList<Entry>();
+
+	public int getSize() {
+		return rows.size();
+	}
+
+	public String getElementAt(int index) {
+		return rows.get(index).getTitle();
+	}
+
+	/**
+	 * Shows the titles of the given entries. Only the difference to the
+	 * current rows is applied.
+	 *
+	 * @param entries the entries in display order
+	 */
+	public void update(List<Entry> entries) {
+		int oldSize = rows.size();
+		boolean incremental = ListDiff.update(rows, entries, new ListDiff.Listener() {
+			@Override
+			public void removed(int first, int last) {
+				fireIntervalRemoved(EntryTitleListModel.this, first, last);
+			}
+
+			@Override
+			public void inserted(int first, int last) {
+				fireIntervalAdded(EntryTitleListModel.this, first, last);
+			}
+
+			@Override
+			public void updated(int first, int last) {
+				fireContentsChanged(EntryTitleListModel.this, first, last);
+			}
+		});
+		if (!incremental) {
+			if (oldSize > 0) {
+				fireIntervalRemoved(this, 0, oldSize - 1);
+			}
+			if (!rows.isEmpty()) {
+				fireIntervalAdded(this, 0, rows.size() - 1);
+			}
+		}
+	}
+}
@@ -0,0 +1,140 @@
+/**
+ * 
+ */
+package tirnav.passman.model;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Updates a list of rows to a new list of rows with the minimal number of
+ * removed and inserted ranges, rows are matched by identity. Retained rows,
+ * whose displayed values have changed, are reported as updated ranges.
+ *
+ * @author jainj
+ *
+ */
+public final class ListDiff {
+
+	/**
+	 * Receives the changed ranges, each range is reported right after the rows
+	 * have been modified, so indices refer to the current state of the list.
+	 */
+	public interface Listener {
+
+		/**
+		 * Rows {@code first..last} (inclusive) have been removed.
+		 */
+		void removed(int first, int last);
+
+		/**
+		 * Rows {@code first..last} (inclusive) have been inserted.
+		 */
+		void inserted(int first, int last);
+
+		/**
+		 * Retained rows {@code first..last} (inclusive) show changed values.
+		 */
+		void updated(int first, int last);
+	}
+
+	private ListDiff() {
+		// not intended to be instantiated
+	}
+
+	/**
+	 * Turns {@code rows} into a copy of {@code newRows}, without updated rows.
+	 *
+	 * @param rows the current rows, modified in place
+	 * @param newRows the new rows
+	 * @param listener receives the removed and inserted ranges
+	 * @return {@code false} if the order of the retained rows changed
+	 * @see #update(List, List, Set, Listener)
+	 */
+	public static <T> boolean update(List<T> rows, List<? extends T> newRows, Listener listener) {
+		return update(rows, newRows, Collections.<T>emptySet(), listener);
+	}
+
+	/**
+	 * Turns {@code rows} into a copy of {@code newRows}. Rows present in both
+	 * lists keep their positions relative to each other, so the new list must
+	 * keep the order of the retained rows (e.g. both lists are sorted by the
+	 * same key).
+	 *
+	 * @param rows the current rows, modified in place
+	 * @param newRows the new rows
+	 * @param changed the retained rows, whose displayed values have changed, a
+	 *        set based on identity
+	 * @param listener receives the removed, inserted and updated ranges
+	 * @return {@code false} if the order of the retained rows changed, in this
+	 *         case the rows are replaced without notifying the listener
+	 */
+	public static <T> boolean update(List<T> rows, List<? extends T> newRows, Set<? extends T> changed,
+			Listener listener) {
+		Map<T, Integer> newIndex = new IdentityHashMap<T, Integer>(newRows.size() * 2);
+		for (int i = 0; i < newRows.size(); i++) {
+			newIndex.put(newRows.get(i), i);
+		}
+
+		// remove from the end, so the reported ranges stay valid
+		int last = rows.size() - 1;
+		while (last >= 0) {
+			if (newIndex.containsKey(rows.get(last))) {
+				last--;
+				continue;
+			}
+			int first = last;
+			while (first > 0 && !newIndex.containsKey(rows.get(first - 1))) {
+				first--;
+			}
+			rows.subList(first, last + 1).clear();
+			listener.removed(first, last);
+			last = first - 1;
+		}
+
+		int previous = -1;
+		for (T row : rows) {
+			int index = newIndex.get(row);
+			if (index <= previous) {
+				rows.clear();
+				rows.addAll(newRows);
+				return false;
+			}
+			previous = index;
+		}
+
+		// the retained rows are a subsequence of the new rows now
+		int i = 0;
+		while (i < newRows.size()) {
+			if (i < rows.size() && rows.get(i) == newRows.get(i)) {
+				i++;
+				continue;
+			}
+			T next = i < rows.size() ? rows.get(i) : null;
+			int end = i + 1;
+			while (end < newRows.size() && newRows.get(end) != next) {
+				end++;
+			}
+			rows.addAll(i, newRows.subList(i, end));
+			listener.inserted(i, end - 1);
+			i = end;
+		}
+
+		if (!changed.isEmpty()) {
+			int first = -1;
+			for (i = 0; i <= rows.size(); i++) {
+				boolean updated = i < rows.size() && changed.contains(rows.get(i));
+				if (updated && first < 0) {
+					first = i;
+				} else if (!updated && first >= 0) {
+					listener.updated(first, i - 1);
+					first = -1;
+				}
+			}
+		}
+		return true;
+	}
+}
@@ -34,7 +34,7 @@ import java.awt.FlowLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
-import java.util.Random;
+import java.util.Arrays;
 
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
@@ -50,7 +50,7 @@ import javax.swing.WindowConstants;
 import javax.swing.border.TitledBorder;
 
 import tirnav.passman.util.Configuration;
-import tirnav.passman.util.CryptUtils;
+import tirnav.passman.util.PasswordGenerator;
 import tirnav.passman.util.SpringUtilities;
 
 /**
@@ -97,7 +97,12 @@ public final class GeneratePasswordDialog extends JDialog implements ActionListe
 
     private String generatedPassword;
 
-    private final Random random = CryptUtils.newRandomNumberGenerator();
+    /**
+     * Generator of the last used character set, it is reused while the settings are unchanged.
+     */
+    private PasswordGenerator generator;
+
+    private String generatorCharacters;
 
     /**
      * Constructor of GeneratePasswordDialog.
@@ -220,28 +225,31 @@ public final class GeneratePasswordDialog extends JDialog implements ActionListe
         if ("custom_symbols_check".equals(command)) {
             this.customSymbolsField.setEditable(((JCheckBox) e.getSource()).isSelected());
         } else if ("generate_button".equals(command)) {
-            String characterSet = "";
+            StringBuilder characterSet = new StringBuilder();
             for (int i = 0; i < PASSWORD_OPTIONS.length; i++) {
                 if (this.checkBoxes[i].isSelected()) {
-                    characterSet += PASSWORD_OPTIONS[i][1];
+                    characterSet.append(PASSWORD_OPTIONS[i][1]);
                 }
             }
 
             if (this.customSymbolsCheck.isSelected()) {
-                characterSet += this.customSymbolsField.getText();
+                characterSet.append(this.customSymbolsField.getText());
             }
 
-            if (characterSet.isEmpty()) {
+            if (characterSet.length() == 0) {
                 MessageDialog.showWarningMessage(this, "Cannot generate password.\nPlease select a character set.");
                 return;
             }
 
-            StringBuilder generated = new StringBuilder();
-            int passwordLength = Integer.parseInt(String.valueOf(this.lengthSpinner.getValue()));
-            for (int i = 0; i < passwordLength; i++) {
-                generated.append(characterSet.charAt(this.random.nextInt(characterSet.length())));
+            String characters = characterSet.toString();
+            if (this.generator == null || !characters.equals(this.generatorCharacters)) {
+                this.generator = new PasswordGenerator(characters);
+                this.generatorCharacters = characters;
             }
-            this.passwordField.setText(generated.toString());
+            int passwordLength = Integer.parseInt(String.valueOf(this.lengthSpinner.getValue()));
+            char[] generated = this.generator.generate(passwordLength);
+            this.passwordField.setText(new String(generated));
+            Arrays.fill(generated, '\0');
         } else if ("accept_button".equals(command)) {
             this.generatedPassword = this.passwordField.getText();
             if (this.generatedPassword.isEmpty()) {
@@ -22,7 +22,15 @@ import tirnav.passman.xml.bind.Entry;
  */
 public class IconedListCellRenderer extends DefaultListCellRenderer implements TableCellRenderer {
 
-	private final IconStorage iconStorage = IconStorage.newInstance();
+	private final IconStorage iconStorage;
+
+	public IconedListCellRenderer() {
+		this(IconStorage.getInstance());
+	}
+
+	public IconedListCellRenderer(IconStorage iconStorage) {
+		this.iconStorage = iconStorage;
+	}
 
     @Override
     public Component getListCellRendererComponent(JList list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
@@ -60,7 +60,6 @@ import javax.swing.border.EmptyBorder;
 
 import tirnav.passman.util.CryptUtils;
 import tirnav.passman.util.SpringUtilities;
-import tirnav.passman.util.StringUtils;
 
 /**
  * Utility class for displaying message dialogs.
@@ -245,7 +244,8 @@ public final class MessageDialog extends JDialog implements ActionListener {
      *
      * @param parent parent component
      * @param confirm password confirmation
-     * @return the password
+     * @return the UTF-8 encoded password, the key is derived from it when the file is read or
+     * written
      */
     public static byte[] showPasswordDialog(final Component parent, final boolean confirm) {
         JPanel panel = new JPanel();
@@ -277,14 +277,7 @@ public final class MessageDialog extends JDialog implements ActionListener {
             }
         }
 
-        byte[] passwordHash = null;
-        try {
-            passwordHash = CryptUtils.getPKCS5Sha256Hash(password.getPassword());
-        } catch (Exception e) {
-            showErrorMessage(parent,
-                    "Cannot generate password hash:\n" + StringUtils.stripString(e.getMessage()) + "\n\nOpening and saving files are not possible!");
-        }
-        return passwordHash;
+        return CryptUtils.toBytes(password.getPassword());
     }
 
     /**
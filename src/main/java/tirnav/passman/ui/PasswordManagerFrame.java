@@ -43,14 +43,14 @@ import java.awt.event.KeyEvent;
 import java.awt.event.MouseEvent;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import javax.swing.DefaultListModel;
 import javax.swing.ImageIcon;
 import javax.swing.JFrame;
-import javax.swing.JLabel;
 import javax.swing.JList;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
@@ -63,17 +63,19 @@ import javax.swing.ListSelectionModel;
 import javax.swing.RowSorter;
 import javax.swing.SortOrder;
 import javax.swing.WindowConstants;
-import javax.swing.table.DefaultTableModel;
 import javax.swing.table.TableCellRenderer;
 import javax.swing.table.TableModel;
 import javax.swing.table.TableRowSorter;
 
 import tirnav.passman.data.DataModel;
 import tirnav.passman.model.EntryTableModel;
+import tirnav.passman.model.EntryTitleListModel;
+import tirnav.passman.ui.action.AutosaveScheduler;
 import tirnav.passman.ui.action.Callback;
 import tirnav.passman.ui.action.CloseListener;
 import tirnav.passman.ui.action.ListListener;
 import tirnav.passman.ui.action.MenuActionType;
+import tirnav.passman.ui.action.SearchScheduler;
 import tirnav.passman.ui.helper.EntryHelper;
 import tirnav.passman.ui.helper.FileHelper;
 import tirnav.passman.util.Configuration;
@@ -96,10 +98,22 @@ public final class PasswordManagerFrame extends JFrame {
     public static final String PROGRAM_NAME = "PasswordManager Password Manager";
     public static final String PROGRAM_VERSION = "0.1.18-SNAPSHOT";
 
+    /**
+     * Order of the entries in the list, by title ignoring case.
+     */
+    private static final Comparator<Entry> TITLE_ORDER = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry e1, Entry e2) {
+            return String.CASE_INSENSITIVE_ORDER.compare(e1.getTitle(), e2.getTitle());
+        }
+    };
+
     private final JPopupMenu popup;
     private final JPanel topContainerPanel;
     private final JMenuBar menuBar;
     private final SearchPanel searchPanel;
+    private final SearchScheduler<List<Entry>> searchScheduler;
+    private final AutosaveScheduler autosaveScheduler;
     private final JMenu fileMenu;
     private final JMenu editMenu;
     private final JMenu toolsMenu;
@@ -107,10 +121,11 @@ public final class PasswordManagerFrame extends JFrame {
     private final JToolBar toolBar;
     private final JScrollPane scrollPane;
     private final JList entryTitleList;
-    private final DefaultListModel entryTitleListModel;
+    private final EntryTitleListModel entryTitleListModel;
     private final DataModel model = DataModel.getInstance();
     private final JTable dataTable;
-    private final DefaultTableModel dataModel;
+    private final EntryTableModel dataModel;
+    private final IconStorage iconStorage = IconStorage.getInstance();
     private final StatusPanel statusPanel;
     private volatile boolean processing = false;
 
@@ -141,11 +156,43 @@ public final class PasswordManagerFrame extends JFrame {
         this.toolBar.add(MenuActionType.ABOUT.getAction());
         this.toolBar.add(MenuActionType.EXIT.getAction());
 
+        this.searchScheduler = new SearchScheduler<List<Entry>>(
+                Configuration.getInstance().getInteger("search.debounce.millis", 150),
+                new SearchScheduler.ResultListener<List<Entry>>() {
+                    @Override
+                    public void searchFinished(String criteria, List<Entry> entries) {
+                        showEntries(criteria, entries, null);
+                    }
+                });
+        if (Configuration.getInstance().is("autosave.enabled", false)) {
+            this.autosaveScheduler = new AutosaveScheduler(this.model,
+                    Configuration.getInstance().getInteger("autosave.interval.seconds", 30) * 1000L,
+                    new AutosaveScheduler.SaveListener() {
+                        @Override
+                        public boolean canSave() {
+                            // a manual save or open is in progress
+                            return !isProcessing();
+                        }
+
+                        @Override
+                        public void saved(String fileName) {
+                            refreshFrameTitle();
+                        }
+
+                        @Override
+                        public void saveFailed(String fileName, Exception e) {
+                            statusPanel.setText("Autosave failed: " + e.getMessage());
+                        }
+                    });
+            this.autosaveScheduler.start();
+        } else {
+            this.autosaveScheduler = null;
+        }
         this.searchPanel = new SearchPanel(new Callback() {
             @Override
             public void call(boolean enabled) {
                 if (enabled) {
-                    refreshEntryTitleList(null);
+                    scheduleSearch();
                 }
             }
         });
@@ -213,14 +260,20 @@ public final class PasswordManagerFrame extends JFrame {
         this.popup.addSeparator();
         this.popup.add(MenuActionType.FIND_ENTRY.getAction());
 
-        this.entryTitleListModel = new DefaultListModel();
+        this.entryTitleListModel = new EntryTitleListModel();
         this.entryTitleList = new JList(this.entryTitleListModel);
         this.entryTitleList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
         this.entryTitleList.addMouseListener(new ListListener());
-        this.entryTitleList.setCellRenderer(new IconedListCellRenderer());
+        this.entryTitleList.setCellRenderer(new IconedListCellRenderer(this.iconStorage));
+        this.iconStorage.addListener(new IconStorage.Listener() {
+            @Override
+            public void iconLoaded(String domain) {
+                PasswordManagerFrame.this.entryTitleList.repaint();
+            }
+        });
 
         //table
-        this.dataModel= new EntryTableModel(model.getEntries().getEntry());
+        this.dataModel= new EntryTableModel(model, this.iconStorage);
         this.dataTable= new JTable(dataModel){
             public Component prepareRenderer(TableCellRenderer renderer, int row, int column){
                 Component returnComp = super.prepareRenderer(renderer, row, column);
@@ -328,6 +381,15 @@ public final class PasswordManagerFrame extends JFrame {
 		return dataTable;
 	}
 
+    /**
+     * Gets the favicon storage of this frame.
+     *
+     * @return icon storage
+     */
+    public IconStorage getIconStorage() {
+        return this.iconStorage;
+    }
+
 	/**
      * Gets the data model of this frame.
      *
@@ -342,8 +404,9 @@ public final class PasswordManagerFrame extends JFrame {
      */
     public void clearModel() {
         this.model.clear();
-        this.entryTitleListModel.clear();
-        this.dataModel.setRowCount(0);
+        List<Entry> noEntries = Collections.emptyList();
+        this.entryTitleListModel.update(noEntries);
+        this.dataModel.update(noEntries);
     }
 
     /**
@@ -361,32 +424,64 @@ public final class PasswordManagerFrame extends JFrame {
      * @param selectTitle title to select, or {@code null} if nothing to select
      */
     public void refreshEntryTitleList(String selectTitle) {
-    	IconStorage iconStorage = IconStorage.newInstance();
-    	
-        this.entryTitleListModel.clear();
-        this.dataModel.setRowCount(0);
-        List<String> titles = this.model.getTitles();
-        Collections.sort(titles, String.CASE_INSENSITIVE_ORDER);
-
+        // a running search could overwrite the list with an outdated result
+        this.searchScheduler.cancel();
         String searchCriteria = this.searchPanel.getSearchCriteria();
-        for (String title : titles) {
-            if (searchCriteria.isEmpty() || title.toLowerCase().contains(searchCriteria.toLowerCase())) {
-                this.entryTitleListModel.addElement(title);
-                Entry entry = this.model.getEntryByTitle(title);
-                JLabel label = new JLabel(title);
-                label.setIcon(iconStorage.getIcon(entry.getUrl()));
-                this.dataModel.addRow(new Object[]{ label.getIcon() , title, entry.getUser(), entry.getModifiedDate(),entry.getLastPasswordChanged(),entry.getChangePasswordInDays()});
+        this.model.syncSearchIndex();
+        List<Entry> entries = searchCriteria.isEmpty() ? new ArrayList<Entry>(this.model.getEntries().getEntry())
+                : this.model.search(searchCriteria);
+        Collections.sort(entries, TITLE_ORDER);
+        showEntries(searchCriteria, entries, selectTitle);
+    }
+
+    /**
+     * Filters the entry titles in the background, the list is refreshed when the search finishes.
+     */
+    private void scheduleSearch() {
+        final String searchCriteria = this.searchPanel.getSearchCriteria();
+        // the search thread must not read the list, while it is modified on the EDT
+        this.model.syncSearchIndex();
+        final List<Entry> snapshot = searchCriteria.isEmpty()
+                ? new ArrayList<Entry>(this.model.getEntries().getEntry()) : null;
+        this.searchScheduler.schedule(searchCriteria, new Callable<List<Entry>>() {
+            @Override
+            public List<Entry> call() {
+                List<Entry> entries = snapshot != null ? snapshot : PasswordManagerFrame.this.model.search(searchCriteria);
+                Collections.sort(entries, TITLE_ORDER);
+                return entries;
             }
-        }
+        });
+    }
+
+    /**
+     * Shows the entries in the entry list and table.
+     *
+     * @param searchCriteria search criteria, the entries are filtered by
+     * @param entries the entries in display order
+     * @param selectTitle title to select, or {@code null} if nothing to select
+     */
+    private void showEntries(String searchCriteria, List<Entry> entries, String selectTitle) {
+        int entryCount = this.model.getEntries().getEntry().size();
+
+        // the table and the list shift their selection with the inserted and removed rows
+        this.entryTitleListModel.update(entries);
+        // rows changed in place, e.g. the modification dates set on save, are repainted too
+        this.dataModel.update(entries);
 
         if (selectTitle != null) {
             this.entryTitleList.setSelectedValue(selectTitle, true);
+            int row = this.dataModel.indexOfTitle(selectTitle);
+            if (row != -1) {
+                int viewRow = this.dataTable.convertRowIndexToView(row);
+                this.dataTable.setRowSelectionInterval(viewRow, viewRow);
+                this.dataTable.scrollRectToVisible(this.dataTable.getCellRect(viewRow, 0, true));
+            }
         }
 
         if (searchCriteria.isEmpty()) {
-            this.statusPanel.setText("Entries count: " + titles.size());
+            this.statusPanel.setText("Entries count: " + entryCount);
         } else {
-            this.statusPanel.setText("Entries found: " + this.entryTitleListModel.size() + " / " + titles.size());
+            this.statusPanel.setText("Entries found: " + this.entryTitleListModel.getSize() + " / " + entryCount);
         }
     }
 
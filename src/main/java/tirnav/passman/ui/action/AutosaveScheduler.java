@@ -0,0 +1,297 @@
+/*
+ * PasswordManager
+ *
+ * Copyright (c) 2009-2019 Gabor Bata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package tirnav.passman.ui.action;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.swing.SwingUtilities;
+
+import tirnav.passman.data.DataModel;
+import tirnav.passman.data.DocumentFormat;
+import tirnav.passman.data.DocumentHelper;
+import tirnav.passman.data.Journal;
+import tirnav.passman.data.VaultHeader;
+import tirnav.passman.xml.bind.Entries;
+
+/**
+ * Saves the modified data model periodically on a background thread.
+ *
+ * <p>
+ * The data model is checked in fixed intervals, so a burst of edits results in a single save.
+ * The entries are copied on the event dispatch thread, then encrypted and written on the
+ * background thread while the user can continue editing. Nothing is written, if the data model
+ * has not been modified since the last save, or it has never been saved to a file. The write is
+ * serialized with the manual saves, and skipped if a manual save has written the same or a newer
+ * revision since the copy was taken.
+ * </p>
+ *
+ * @author jainj
+ *
+ */
+public class AutosaveScheduler {
+
+    private static final Logger LOG = Logger.getLogger(AutosaveScheduler.class.getName());
+
+    /**
+     * Callback for the autosave.
+     */
+    public interface SaveListener {
+
+        /**
+         * Called on the event dispatch thread before the data model is copied.
+         *
+         * @return {@code true} if the data model can be saved now
+         */
+        boolean canSave();
+
+        /**
+         * Called on the event dispatch thread, when the data model has been saved.
+         *
+         * @param fileName the saved file
+         */
+        void saved(String fileName);
+
+        /**
+         * Called on the event dispatch thread, when the data model could not be saved.
+         *
+         * @param fileName the file
+         * @param e the error
+         */
+        void saveFailed(String fileName, Exception e);
+    }
+
+    /**
+     * State of the data model to save.
+     */
+    private static final class Snapshot {
+        private final long revision;
+        private final String fileName;
+        /** Own copy of the password, it is wiped once the snapshot has been written. */
+        private final byte[] password;
+        private final long passwordVersion;
+        private final VaultHeader header;
+        private final DocumentFormat format;
+        private final Entries entries;
+        private final List<Journal.Change> changes;
+        private final long changeSequence;
+        private final Journal.Mark journalMark;
+
+        private Snapshot(DataModel model) {
+            this.revision = model.getRevision();
+            this.fileName = model.getFileName();
+            this.password = model.getPassword();
+            this.passwordVersion = model.getPasswordVersion();
+            this.header = model.getHeader();
+            this.format = model.getFormat();
+            this.entries = model.snapshot();
+            this.changes = model.getChanges();
+            this.changeSequence = model.getChangeSequence();
+            this.journalMark = model.getJournalMark();
+        }
+    }
+
+    private final DataModel model;
+    private final long intervalMillis;
+    private final SaveListener listener;
+    private final ScheduledExecutorService executor;
+    private final AtomicInteger saveCount = new AtomicInteger();
+
+    /**
+     * Creates a new scheduler with its own background thread.
+     *
+     * @param model the data model to save
+     * @param intervalMillis time between the checks of the data model, in milliseconds
+     * @param listener callback for the saves
+     */
+    public AutosaveScheduler(DataModel model, long intervalMillis, SaveListener listener) {
+        this.model = model;
+        this.intervalMillis = Math.max(1, intervalMillis);
+        this.listener = listener;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "autosave");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Starts the periodic checks.
+     */
+    public void start() {
+        this.executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    autosave();
+                } catch (RuntimeException e) {
+                    // an exception would cancel the further runs
+                    LOG.log(Level.WARNING, "Autosave failed.", e);
+                }
+            }
+        }, this.intervalMillis, this.intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the background thread, a running save is completed.
+     */
+    public void shutdown() {
+        this.executor.shutdown();
+    }
+
+    /**
+     * Waits until the background thread has stopped after {@link #shutdown()}.
+     *
+     * @param timeout maximum time to wait
+     * @param unit unit of the timeout
+     * @return {@code true} if the thread has stopped
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return this.executor.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * Gets the number of successful saves.
+     *
+     * @return number of saves
+     */
+    public int getSaveCount() {
+        return this.saveCount.get();
+    }
+
+    private Snapshot takeSnapshot() {
+        if (!this.model.isModified() || this.model.getFileName() == null || !this.model.hasPassword()
+                || !this.listener.canSave()) {
+            return null;
+        }
+        return new Snapshot(this.model);
+    }
+
+    private void autosave() {
+        final Snapshot[] snapshots = new Snapshot[1];
+        try {
+            SwingUtilities.invokeAndWait(new Runnable() {
+                @Override
+                public void run() {
+                    snapshots[0] = takeSnapshot();
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (InvocationTargetException e) {
+            LOG.log(Level.WARNING, "Could not copy the data model.", e.getCause());
+            return;
+        }
+        final Snapshot snapshot = snapshots[0];
+        if (snapshot == null) {
+            return;
+        }
+
+        final DocumentHelper helper = DocumentHelper.newInstance(snapshot.fileName, snapshot.password,
+                snapshot.header, snapshot.format);
+        try {
+            synchronized (DocumentHelper.WRITE_LOCK) {
+                if (this.model.getSavedRevision() >= snapshot.revision) {
+                    // a manual save has written this or a newer revision since the snapshot
+                    return;
+                }
+                if (!helper.writeChanges(snapshot.entries, snapshot.changes, snapshot.journalMark)) {
+                    // the file has been written by someone else, the snapshot may be older than it
+                    discardJournalMark(snapshot);
+                    return;
+                }
+                this.model.setSavedRevision(snapshot.revision);
+            }
+        } catch (final Exception e) {
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    listener.saveFailed(snapshot.fileName, e);
+                }
+            });
+            return;
+        } finally {
+            Arrays.fill(snapshot.password, (byte) 0);
+        }
+        this.saveCount.incrementAndGet();
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                // the user may have opened another file, changed the password or saved meanwhile
+                if (isCurrent(snapshot) && model.getSavedRevision() == snapshot.revision) {
+                    if (snapshot.header == model.getHeader()) {
+                        model.setHeader(helper.getHeader());
+                    }
+                    model.setJournalMark(helper.getJournalMark());
+                    model.removeChanges(snapshot.changeSequence);
+                    model.setSaved(snapshot.revision);
+                }
+                listener.saved(snapshot.fileName);
+            }
+        });
+    }
+
+    /**
+     * Checks on the event dispatch thread, that the data model has not been saved to another file,
+     * with another password or journal since the snapshot was taken.
+     */
+    private boolean isCurrent(Snapshot snapshot) {
+        return snapshot.fileName.equals(this.model.getFileName())
+                && snapshot.passwordVersion == this.model.getPasswordVersion()
+                && snapshot.journalMark == this.model.getJournalMark();
+    }
+
+    /**
+     * Drops the outdated journal mark of the snapshot, so the next autosave writes the whole
+     * document from a new snapshot.
+     */
+    private void discardJournalMark(final Snapshot snapshot) {
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                if (isCurrent(snapshot)) {
+                    model.setJournalMark(null);
+                }
+            }
+        });
+    }
+}
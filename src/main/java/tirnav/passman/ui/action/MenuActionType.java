@@ -35,6 +35,7 @@ import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.Calendar;
+import java.util.Arrays;
 
 import javax.swing.Action;
 import javax.swing.ActionMap;
@@ -144,6 +145,9 @@ public enum MenuActionType {
                 MessageDialog.showInformationMessage(parent, "Password has not been modified.");
             } else {
                 parent.getModel().setPassword(password);
+                Arrays.fill(password, (byte) 0);
+                // a new salt is generated for the new password
+                parent.getModel().setHeader(null);
                 parent.getModel().setModified(true);
                 parent.refreshFrameTitle();
                 MessageDialog.showInformationMessage(parent,
@@ -255,7 +259,7 @@ public enum MenuActionType {
             PasswordManagerFrame parent = PasswordManagerFrame.getInstance();
             Entry entry = EntryHelper.getSelectedEntry(parent);
             if (entry != null) {
-                EntryHelper.copyEntryField(parent, entry.getPassword());
+                EntryHelper.copyEntryPassword(parent, entry);
             }
         }
     }),
@@ -302,7 +306,7 @@ public enum MenuActionType {
 			}
             Entry entry = EntryHelper.getSelectedEntry(parent);
             if (entry != null) {
-                EntryHelper.copyEntryField(parent, entry.getPassword());
+                EntryHelper.copyEntryPassword(parent, entry);
             	if (Desktop.isDesktopSupported() && Desktop.getDesktop().isSupported(Desktop.Action.BROWSE)) {
             	    try {
             	    	// create a toast message 
@@ -0,0 +1,163 @@
+/*
+ * PasswordManager
+ *
+ * Copyright (c) 2009-2019 Gabor Bata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package tirnav.passman.ui.action;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * Runs searches on a background thread, so typing in the search field does not block the event
+ * dispatch thread.
+ *
+ * <p>
+ * A search is started only when no new search was scheduled within the debounce window. A newer
+ * search cancels the pending one, and interrupts the running one. Only the result of the latest
+ * search is published, on the event dispatch thread.
+ * </p>
+ *
+ * @author jainj
+ *
+ * @param <R> type of the search result
+ */
+public class SearchScheduler<R> {
+
+    private static final Logger LOG = Logger.getLogger(SearchScheduler.class.getName());
+
+    /**
+     * Callback for the search results.
+     *
+     * @param <R> type of the search result
+     */
+    public interface ResultListener<R> {
+
+        /**
+         * Called on the event dispatch thread with the result of the latest search.
+         *
+         * @param criteria search criteria
+         * @param result search result
+         */
+        void searchFinished(String criteria, R result);
+    }
+
+    private final ScheduledExecutorService executor;
+    private final long debounceMillis;
+    private final ResultListener<R> listener;
+
+    /**
+     * Number of the latest search, results of older searches are dropped.
+     */
+    private final AtomicLong generation = new AtomicLong();
+    private Future<?> pending;
+
+    /**
+     * Creates a new scheduler with its own background thread.
+     *
+     * @param debounceMillis time to wait for further input before searching, in milliseconds
+     * @param listener callback for the results
+     */
+    public SearchScheduler(long debounceMillis, ResultListener<R> listener) {
+        this.debounceMillis = Math.max(0, debounceMillis);
+        this.listener = listener;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "search");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Schedules a search, and cancels the previous one.
+     *
+     * @param criteria search criteria, passed back to the listener
+     * @param search the search, it should stop with {@link CancellationException} when its thread
+     * is interrupted
+     */
+    public synchronized void schedule(final String criteria, final Callable<R> search) {
+        final long current = cancel();
+        this.pending = this.executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (current != generation.get()) {
+                    return;
+                }
+                final R result;
+                try {
+                    result = search.call();
+                } catch (CancellationException e) {
+                    return;
+                } catch (Exception e) {
+                    LOG.log(Level.WARNING, "Search failed.", e);
+                    return;
+                }
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (current == generation.get()) {
+                            listener.searchFinished(criteria, result);
+                        }
+                    }
+                });
+            }
+        }, this.debounceMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Cancels the pending or running search, its result will not be published.
+     *
+     * @return number of the next search
+     */
+    public synchronized long cancel() {
+        if (this.pending != null) {
+            this.pending.cancel(true);
+            this.pending = null;
+        }
+        return this.generation.incrementAndGet();
+    }
+
+    /**
+     * Stops the background thread.
+     */
+    public void shutdown() {
+        cancel();
+        this.executor.shutdownNow();
+    }
+}
@@ -28,8 +28,12 @@
  */
 package tirnav.passman.ui.helper;
 
-import javax.swing.table.DefaultTableModel;
+import java.io.IOException;
 
+import javax.swing.JTable;
+
+import tirnav.passman.data.DocumentHelper;
+import tirnav.passman.model.EntryTableModel;
 import tirnav.passman.ui.EntryDialog;
 import tirnav.passman.ui.PasswordManagerFrame;
 import tirnav.passman.ui.MessageDialog;
@@ -62,7 +66,7 @@ public final class EntryHelper {
                 MessageDialog.YES_NO_OPTION);
         if (option == MessageDialog.YES_OPTION) {
             String title = (String) parent.getEntryTitleList().getSelectedValue();
-            parent.getModel().getEntries().getEntry().remove(parent.getModel().getEntryByTitle(title));
+            parent.getModel().removeEntry(parent.getModel().getEntryByTitle(title));
             parent.getModel().setModified(true);
             parent.refreshFrameTitle();
             parent.refreshEntryTitleList(null);
@@ -80,10 +84,13 @@ public final class EntryHelper {
             return;
         }
         String title = (String) parent.getEntryTitleList().getSelectedValue();
-        Entry oldEntry = parent.getModel().getEntryByTitle(title);
+        Entry oldEntry = detachEntry(parent, parent.getModel().getEntryByTitle(title));
+        if (oldEntry == null) {
+            return;
+        }
         EntryDialog ed = new EntryDialog(parent, "Duplicate Entry", oldEntry, true);
         if (ed.getFormData() != null) {
-            parent.getModel().getEntries().getEntry().add(ed.getFormData());
+            parent.getModel().addEntry(ed.getFormData());
             parent.getModel().setModified(true);
             parent.refreshFrameTitle();
             parent.refreshEntryTitleList(ed.getFormData().getTitle());
@@ -101,14 +108,14 @@ public final class EntryHelper {
             MessageDialog.showWarningMessage(parent, "Please select an entry.");
             return;
         }
-        String title = (String) parent.getDataTable(). getValueAt(parent.getDataTable().getSelectedRow(),1);
-        Entry oldEntry = parent.getModel().getEntryByTitle(title);
-        int row = parent.getDataTable().convertRowIndexToModel(parent.getDataTable().getSelectedRow());
-        EntryDialog ed = new EntryDialog(parent, "Edit Entry", oldEntry, false);
+        Entry oldEntry = getEntryAtRow(parent, parent.getDataTable().getSelectedRow());
+        Entry detached = detachEntry(parent, oldEntry);
+        if (detached == null) {
+            return;
+        }
+        EntryDialog ed = new EntryDialog(parent, "Edit Entry", detached, false);
         if (ed.getFormData() != null) {
-            parent.getModel().getEntries().getEntry().remove(oldEntry);
-            ((DefaultTableModel)parent.getDataTable().getModel()).removeRow(row);
-            parent.getModel().getEntries().getEntry().add(ed.getFormData());
+            parent.getModel().replaceEntry(oldEntry, ed.getFormData());
             parent.getModel().setModified(true);
             parent.refreshFrameTitle();
             parent.refreshEntryTitleList(ed.getFormData().getTitle());
@@ -123,7 +130,7 @@ public final class EntryHelper {
     public static void addEntry(PasswordManagerFrame parent) {
         EntryDialog ed = new EntryDialog(parent, "Add New Entry", null, true);
         if (ed.getFormData() != null) {
-            parent.getModel().getEntries().getEntry().add(ed.getFormData());
+            parent.getModel().addEntry(ed.getFormData());
             parent.getModel().setModified(true);
             parent.refreshFrameTitle();
             parent.refreshEntryTitleList(ed.getFormData().getTitle());
@@ -143,8 +150,54 @@ public final class EntryHelper {
             return null;
         }
         //return parent.getModel().getEntryByTitle((String) parent.getEntryTitleList().getSelectedValue());
-    	return parent.getModel().getEntryByTitle((String) parent.getDataTable().getValueAt(parent.getDataTable().getSelectedRow(),0));
-        
+    	return getEntryAtRow(parent, parent.getDataTable().getSelectedRow());
+    }
+
+    /**
+     * Gets the entry shown in the given table row.
+     *
+     * @param parent the parent frame
+     * @param viewRow row index of the table view
+     * @return the entry
+     */
+    private static Entry getEntryAtRow(PasswordManagerFrame parent, int viewRow) {
+        JTable table = parent.getDataTable();
+        return ((EntryTableModel) table.getModel()).getEntry(table.convertRowIndexToModel(viewRow));
+    }
+
+    /**
+     * Gets the entry to show in the entry dialog, its password is read from the file of an indexed
+     * entry. Shows an error message if the password cannot be read.
+     *
+     * @param parent the parent frame
+     * @param entry the entry
+     * @return the entry or its copy, or {@code null} if the password cannot be read
+     */
+    private static Entry detachEntry(PasswordManagerFrame parent, Entry entry) {
+        try {
+            return DocumentHelper.detach(entry);
+        } catch (IOException e) {
+            MessageDialog.showErrorMessage(parent, "Could not read the password:\n" + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Copy the password of the entry to clipboard. Shows an error message if the password
+     * cannot be read.
+     *
+     * @param parent the parent frame
+     * @param entry the entry
+     */
+    public static void copyEntryPassword(PasswordManagerFrame parent, Entry entry) {
+        String password;
+        try {
+            password = DocumentHelper.readPassword(entry);
+        } catch (IOException e) {
+            MessageDialog.showErrorMessage(parent, "Could not read the password:\n" + e.getMessage());
+            return;
+        }
+        copyEntryField(parent, password);
     }
 
     /**
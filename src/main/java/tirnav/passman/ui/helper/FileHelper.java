@@ -31,20 +31,30 @@ package tirnav.passman.ui.helper;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
 import java.util.prefs.Preferences;
 
+import javax.swing.BoxLayout;
+import javax.swing.JCheckBox;
+import javax.swing.JComponent;
 import javax.swing.JFileChooser;
+import javax.swing.JPanel;
 import javax.swing.filechooser.FileFilter;
 
+import tirnav.passman.data.DataModel;
+import tirnav.passman.data.DocumentFormat;
 import tirnav.passman.data.DocumentHelper;
+import tirnav.passman.data.Journal;
 import tirnav.passman.ui.PasswordManagerFrame;
 import tirnav.passman.ui.MessageDialog;
 import tirnav.passman.ui.action.Callback;
 import tirnav.passman.ui.action.Worker;
+import tirnav.passman.util.Configuration;
 import tirnav.passman.util.IconStorage;
 import tirnav.passman.util.StringUtils;
 import tirnav.passman.xml.bind.Entry;
+import tirnav.passman.xml.converter.ElementCallback;
 
 /**
  * Helper utils for file operations.
@@ -227,12 +237,13 @@ public final class FileHelper {
             @Override
             protected Void doInBackground() throws Exception {
                 try {
-                    parent.getModel().setEntries(DocumentHelper.newInstance(fileName).readDocument());
+                    parent.getModel().setEntries(DocumentHelper.newInstance(fileName).readDocument(newIconPreloader(parent)));
                     parent.getModel().setModified(true);
                     parent.getModel().setFileName(null);
                     parent.getModel().setPassword(null);
+                    parent.getModel().setHeader(null);
+                    parent.getModel().setFormat(null);
                     parent.getSearchPanel().setVisible(false);
-                    preloadDomainIcons(parent.getModel().getEntries().getEntry());
                 } catch (Throwable e) {
                     throw new Exception("An error occured during the import operation:\n" + e.getMessage());
                 }
@@ -267,8 +278,24 @@ public final class FileHelper {
      */
     public static void saveFile(final PasswordManagerFrame parent, final boolean saveAs, final Callback callback) {
         final String fileName;
+        final DocumentFormat format;
         if (saveAs || parent.getModel().getFileName() == null) {
-            File file = showFileChooser(parent, "Save", "pass", "PasswordManager Data Files (*.pass)");
+            DocumentFormat currentFormat = parent.getModel().getFormat();
+            JCheckBox binaryFormat = new JCheckBox("Compact binary format");
+            binaryFormat.setToolTipText("Smaller and faster, but cannot be opened by older versions");
+            binaryFormat.setSelected(currentFormat == null
+                    ? Configuration.getInstance().is("binary.format.enabled", false)
+                    : currentFormat == DocumentFormat.BINARY);
+            JCheckBox indexedFormat = new JCheckBox("Decrypt passwords on demand");
+            indexedFormat.setToolTipText("Faster to open, passwords are decrypted only when they are used");
+            indexedFormat.setSelected(currentFormat == null
+                    ? Configuration.getInstance().is("indexed.format.enabled", false)
+                    : currentFormat == DocumentFormat.INDEXED);
+            JPanel formats = new JPanel();
+            formats.setLayout(new BoxLayout(formats, BoxLayout.Y_AXIS));
+            formats.add(binaryFormat);
+            formats.add(indexedFormat);
+            File file = showFileChooser(parent, "Save", "pass", "PasswordManager Data Files (*.pass)", formats);
             if (file == null) {
                 callback.call(false);
                 return;
@@ -278,12 +305,18 @@ public final class FileHelper {
                 callback.call(false);
                 return;
             }
+            if (indexedFormat.isSelected()) {
+                format = DocumentFormat.INDEXED;
+            } else {
+                format = binaryFormat.isSelected() ? DocumentFormat.BINARY : DocumentFormat.XML;
+            }
         } else {
             fileName = parent.getModel().getFileName();
+            format = parent.getModel().getFormat();
         }
 
         final byte[] password;
-        if (parent.getModel().getPassword() == null) {
+        if (!parent.getModel().hasPassword()) {
             password = MessageDialog.showPasswordDialog(parent, true);
             if (password == null) {
                 callback.call(false);
@@ -296,10 +329,30 @@ public final class FileHelper {
             @Override
             protected Void doInBackground() throws Exception {
                 try {
-                    DocumentHelper.newInstance(fileName, password).writeDocument(parent.getModel().getEntries());
-                    parent.getModel().setFileName(fileName);
-                    parent.getModel().setPassword(password);
-                    parent.getModel().setModified(false);
+                    DataModel model = parent.getModel();
+                    DocumentHelper helper = DocumentHelper.newInstance(fileName, password, model.getHeader(), format);
+                    List<Journal.Change> changes = model.getChanges();
+                    long changeSequence = model.getChangeSequence();
+                    // a running autosave finishes first, and the next one sees the saved revision
+                    synchronized (DocumentHelper.WRITE_LOCK) {
+                        if (fileName.equals(model.getFileName()) && format == model.getFormat()) {
+                            // only the changes since the last save are written, the whole document
+                            // if the file has been written by someone else
+                            if (!helper.writeChanges(model.getEntries(), changes, model.getJournalMark())) {
+                                helper.writeDocument(model.getEntries());
+                            }
+                        } else {
+                            helper.writeDocument(model.getEntries());
+                        }
+                        model.setSavedRevision(model.getRevision());
+                    }
+                    model.setFileName(fileName);
+                    model.setPassword(password);
+                    model.setHeader(helper.getHeader());
+                    model.setFormat(helper.getFormat());
+                    model.setJournalMark(helper.getJournalMark());
+                    model.removeChanges(changeSequence);
+                    model.setModified(false);
                 } catch (Throwable e) {
                     throw new Exception("An error occured during the save operation:\n" + e.getMessage());
                 }
@@ -309,6 +362,8 @@ public final class FileHelper {
             @Override
             protected void done() {
                 stopProcessing();
+                // the data model keeps its own copy
+                Arrays.fill(password, (byte) 0);
                 boolean result = true;
                 try {
                     get();
@@ -374,11 +429,14 @@ public final class FileHelper {
             @Override
             protected Void doInBackground() throws Exception {
                 try {
-                    parent.getModel().setEntries(DocumentHelper.newInstance(fileName, password).readDocument());
+                    DocumentHelper helper = DocumentHelper.newInstance(fileName, password);
+                    parent.getModel().setEntries(helper.readDocument(newIconPreloader(parent)));
                     parent.getModel().setFileName(fileName);
                     parent.getModel().setPassword(password);
+                    parent.getModel().setHeader(helper.getHeader());
+                    parent.getModel().setFormat(helper.getFormat());
+                    parent.getModel().setJournalMark(helper.getJournalMark());
                     parent.getSearchPanel().setVisible(false);
-                    preloadDomainIcons(parent.getModel().getEntries().getEntry());
                 } catch (FileNotFoundException e) {
                     throw e;
                 } catch (IOException e) {
@@ -397,10 +455,12 @@ public final class FileHelper {
                 } catch (Exception e) {
                     if (e.getCause() != null && e.getCause() instanceof FileNotFoundException) {
                         handleFileNotFound(parent, fileName, password);
-                    } else {
-                        showErrorMessage(e);
+                        return;
                     }
+                    showErrorMessage(e);
                 }
+                // the data model keeps its own copy
+                Arrays.fill(password, (byte) 0);
             }
         };
         worker.execute();
@@ -411,7 +471,7 @@ public final class FileHelper {
      *
      * @param parent parent frame
      * @param fileName file name
-     * @param password password to create a new file
+     * @param password password to create a new file, it is wiped when it is no longer used
      */
     static void handleFileNotFound(final PasswordManagerFrame parent, final String fileName, final byte[] password) {
         int option = MessageDialog.showQuestionMessage(parent, "File not found:\n" + StringUtils.stripString(fileName)
@@ -421,17 +481,29 @@ public final class FileHelper {
                 @Override
                 protected Void doInBackground() throws Exception {
                     try {
-                        DocumentHelper.newInstance(fileName, password).writeDocument(parent.getModel().getEntries());
+                        DocumentHelper helper = DocumentHelper.newInstance(fileName, password);
+                        helper.writeDocument(parent.getModel().getEntries());
                         parent.getModel().setFileName(fileName);
                         parent.getModel().setPassword(password);
+                        parent.getModel().setHeader(helper.getHeader());
+                        parent.getModel().setFormat(helper.getFormat());
+                        parent.getModel().setJournalMark(helper.getJournalMark());
+                        parent.getModel().removeChanges(parent.getModel().getChangeSequence());
                     } catch (Exception ex) {
                         throw new Exception("An error occured during the open operation:\n" + ex.getMessage());
                     }
                     return null;
                 }
 
+                @Override
+                protected void done() {
+                    Arrays.fill(password, (byte) 0);
+                    super.done();
+                }
             };
             fileNotFoundWorker.execute();
+        } else {
+            Arrays.fill(password, (byte) 0);
         }
     }
 
@@ -446,6 +518,21 @@ public final class FileHelper {
      */
     private static File showFileChooser(final PasswordManagerFrame parent, final String taskName,
             final String extension, final String description) {
+        return showFileChooser(parent, taskName, extension, description, null);
+    }
+
+    /**
+     * Shows a file chooser dialog with an accessory component for additional options.
+     *
+     * @param parent parent component
+     * @param taskName name of the task
+     * @param extension accepted file extension
+     * @param description file extension description
+     * @param accessory accessory component, can be {@code null}
+     * @return a file object
+     */
+    private static File showFileChooser(final PasswordManagerFrame parent, final String taskName,
+            final String extension, final String description, final JComponent accessory) {
         File ret = null;
         Preferences prefs = Preferences.userRoot().node(FileHelper.class.getName());
         JFileChooser fc = new JFileChooser(prefs.get(LAST_USED_FOLDER,
@@ -461,6 +548,9 @@ public final class FileHelper {
                 return description;
             }
         });
+        if (accessory != null) {
+            fc.setAccessory(accessory);
+        }
         int returnVal = fc.showDialog(parent, taskName);
         if (returnVal == JFileChooser.APPROVE_OPTION) {
             ret = fc.getSelectedFile();
@@ -505,14 +595,19 @@ public final class FileHelper {
     }
 
     /**
-     * Preload favicon image icons for domains.
+     * Creates a callback, that preloads the favicon image icons for the domains of the entries
+     * while they are read. The icons are loaded in the background.
      *
-     * @param entries the entries
+     * @param parent parent frame
+     * @return the callback
      */
-    private static void preloadDomainIcons(List<Entry> entries) {
-        IconStorage iconStorage = IconStorage.newInstance();
-        for (Entry entry : entries) {
-            iconStorage.getIcon(entry.getUrl());
-        }
+    private static ElementCallback<Entry> newIconPreloader(PasswordManagerFrame parent) {
+        final IconStorage iconStorage = parent.getIconStorage();
+        return new ElementCallback<Entry>() {
+            @Override
+            public void element(Entry entry) {
+                iconStorage.getIcon(entry.getUrl());
+            }
+        };
     }
 }
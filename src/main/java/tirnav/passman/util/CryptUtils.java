@@ -28,10 +28,17 @@
  */
 package tirnav.passman.util;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
 import java.security.MessageDigest;
 import java.security.SecureRandom;
+import java.util.Arrays;
 import java.util.Random;
 
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
 /**
  * Crypto related utility class.
  *
@@ -40,6 +47,13 @@ import java.util.Random;
  */
 public final class CryptUtils {
 
+    /**
+     * Number of PBKDF2 iterations, that are never undercut by the calibration.
+     */
+    public static final int MIN_PBKDF2_ITERATIONS = 10000;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
     private CryptUtils() {
         // utility class
     }
@@ -52,7 +66,18 @@ public final class CryptUtils {
      * @throws Exception if error occurred
      */
     public static byte[] getPKCS5Sha256Hash(final char[] text) throws Exception {
-        return getSha256Hash(text, 1000);
+        return getSha256Hash(toBytes(text), 1000);
+    }
+
+    /**
+     * Calculate SHA-256 hash, with 1000 iterations by default (RSA PKCS5).
+     *
+     * @param password UTF-8 encoded password
+     * @return hash of the password
+     * @throws Exception if error occurred
+     */
+    public static byte[] getPKCS5Sha256Hash(final byte[] password) throws Exception {
+        return getSha256Hash(password, 1000);
     }
 
     /**
@@ -63,7 +88,7 @@ public final class CryptUtils {
      * @throws Exception if error occurred
      */
     public static byte[] getSha256Hash(final char[] text) throws Exception {
-        return getSha256Hash(text, 0);
+        return getSha256Hash(toBytes(text), 0);
     }
 
     /**
@@ -79,16 +104,14 @@ public final class CryptUtils {
      * noticeably affecting the typical user. A minimum of 1000 operations is recommended in RSA
      * PKCS5 standard.
      *
-     * @param text password text
+     * @param bytes password bytes
      * @param iteration number of iterations
      * @return hash of the password
      * @throws Exception if error occurred
      */
-    private static byte[] getSha256Hash(final char[] text, final int iteration) throws Exception {
+    private static byte[] getSha256Hash(final byte[] bytes, final int iteration) throws Exception {
         MessageDigest md = MessageDigest.getInstance("SHA-256");
         md.reset();
-        // md.update(salt);
-        byte[] bytes = new String(text).getBytes("UTF-8");
         byte[] digest = md.digest(bytes);
         for (int i = 0; i < iteration; i++) {
             md.reset();
@@ -97,6 +120,88 @@ public final class CryptUtils {
         return digest;
     }
 
+    /**
+     * Derives a 256 bit key with PBKDF2-HMAC-SHA256 (RSA PKCS5 v2.0).
+     *
+     * <p>
+     * Unlike {@link #getPKCS5Sha256Hash(byte[])} the password is combined with a salt, so the same
+     * password results in different keys for different files, and the same pre-computed table
+     * cannot be used to attack all of them.
+     * </p>
+     *
+     * @param password UTF-8 encoded password
+     * @param salt salt
+     * @param iterations number of iterations
+     * @return the derived key
+     * @throws Exception if error occurred
+     */
+    public static byte[] getPbkdf2Sha256Hash(final byte[] password, final byte[] salt, final int iterations)
+            throws Exception {
+        if (iterations < 1) {
+            throw new IllegalArgumentException("Invalid number of iterations: " + iterations);
+        }
+        Mac mac = Mac.getInstance("HmacSHA256");
+        // an empty key is not accepted by SecretKeySpec, but it is equivalent to a single zero byte
+        mac.init(new SecretKeySpec(password.length == 0 ? new byte[1] : password, "HmacSHA256"));
+        // a single block is enough for a 256 bit key
+        mac.update(salt);
+        mac.update(new byte[] {0, 0, 0, 1});
+        byte[] u = mac.doFinal();
+        byte[] result = u.clone();
+        for (int i = 1; i < iterations; i++) {
+            mac.update(u);
+            mac.doFinal(u, 0);
+            for (int j = 0; j < result.length; j++) {
+                result[j] ^= u[j];
+            }
+        }
+        Arrays.fill(u, (byte) 0);
+        return result;
+    }
+
+    /**
+     * Measures the PBKDF2 speed of the current machine and calculates the number of iterations, for
+     * which the key derivation takes about the given time.
+     *
+     * @param targetMillis desired duration of one key derivation in milliseconds
+     * @return number of iterations, at least {@link #MIN_PBKDF2_ITERATIONS}
+     * @throws Exception if error occurred
+     */
+    public static int calibratePbkdf2Iterations(final long targetMillis) throws Exception {
+        byte[] password = new byte[16];
+        byte[] salt = new byte[16];
+        int iterations = 1000;
+        long elapsed;
+        // double the work until the measurement is long enough to be meaningful
+        while (true) {
+            long start = System.nanoTime();
+            getPbkdf2Sha256Hash(password, salt, iterations);
+            elapsed = System.nanoTime() - start;
+            if (elapsed >= 50000000L || iterations >= (1 << 24)) {
+                break;
+            }
+            iterations <<= 1;
+        }
+        long calibrated = iterations * (targetMillis * 1000000L) / Math.max(elapsed, 1L);
+        return (int) Math.max(MIN_PBKDF2_ITERATIONS, Math.min(Integer.MAX_VALUE, calibrated));
+    }
+
+    /**
+     * Encodes the password text with UTF-8.
+     *
+     * @param text password text
+     * @return UTF-8 encoded password
+     */
+    public static byte[] toBytes(final char[] text) {
+        ByteBuffer buffer = UTF_8.encode(CharBuffer.wrap(text));
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        if (buffer.hasArray()) {
+            Arrays.fill(buffer.array(), (byte) 0);
+        }
+        return bytes;
+    }
+
     /**
      * Get random number generator.
      *
@@ -0,0 +1,307 @@
+/*
+ * PasswordManager
+ *
+ * Copyright (c) 2009-2019 Gabor Bata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package tirnav.passman.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Append-only store of icon images in a single file.
+ *
+ * <p>
+ * The position of the latest record of each key is kept in memory, the data is read through a
+ * memory mapping, which is created on the first read. Replaced records stay in the file as waste
+ * until the store is compacted. A truncated record at the end of the file (e.g. after a crash) is ignored and overwritten.
+ * </p>
+ *
+ * <pre>
+ * magic (4 bytes) | version (1 byte) | records
+ * record: key length (2 bytes) | key (UTF-8) | data length (4 bytes) | data
+ * </pre>
+ *
+ * @author jainj
+ *
+ */
+public final class IconPack implements Closeable {
+
+    private static final Logger LOG = Logger.getLogger(IconPack.class.getName());
+
+    private static final byte[] MAGIC = {'P', 'M', 'I', 'P'};
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = MAGIC.length + 1;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Files smaller than this are not compacted.
+     */
+    private static final long MIN_COMPACT_LENGTH = 64 * 1024;
+
+    private final File file;
+    private RandomAccessFile randomAccessFile;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    /** Position and length of the data of each key. */
+    private final Map<String, long[]> index = new HashMap<String, long[]>();
+    private long length;
+    private long wasteBytes;
+
+    private IconPack(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Opens or creates an icon pack. The pack is compacted, if at least the given ratio of the
+     * file is taken by replaced records.
+     *
+     * @param file the pack file
+     * @param compactRatio waste ratio, that triggers the compaction
+     * @return the icon pack
+     * @throws IOException if the file could not be read
+     */
+    public static IconPack open(File file, double compactRatio) throws IOException {
+        IconPack pack = new IconPack(file);
+        pack.load();
+        if (pack.length >= MIN_COMPACT_LENGTH && pack.wasteBytes >= pack.length * compactRatio) {
+            try {
+                pack.compact();
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Could not compact the icon pack.", e);
+            }
+        }
+        return pack;
+    }
+
+    /**
+     * Opens the file, and reads the position of the records through the channel. The file is not
+     * mapped yet, so it can still be replaced by {@link #compact()}.
+     */
+    private void load() throws IOException {
+        this.randomAccessFile = new RandomAccessFile(this.file, "rw");
+        this.channel = this.randomAccessFile.getChannel();
+        this.buffer = null;
+        this.index.clear();
+        this.wasteBytes = 0;
+        if (this.channel.size() < HEADER_LENGTH) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            header.put(MAGIC).put((byte) VERSION).flip();
+            this.channel.truncate(0);
+            this.channel.write(header, 0);
+        }
+        long size = this.channel.size();
+        ByteBuffer header = read(0, HEADER_LENGTH);
+        byte[] magic = new byte[MAGIC.length];
+        header.get(magic);
+        if (!Arrays.equals(MAGIC, magic) || header.get() != VERSION) {
+            close();
+            throw new IOException("Unsupported icon pack: " + this.file);
+        }
+        long position = HEADER_LENGTH;
+        while (size - position >= 2) {
+            int keyLength = read(position, 2).getShort() & 0xFFFF;
+            if (size - position - 2 < keyLength + 4) {
+                break;
+            }
+            ByteBuffer keyAndLength = read(position + 2, keyLength + 4);
+            byte[] key = new byte[keyLength];
+            keyAndLength.get(key);
+            int dataLength = keyAndLength.getInt();
+            long dataStart = position + 2 + keyLength + 4;
+            if (dataLength < 0 || size - dataStart < dataLength) {
+                break;
+            }
+            long[] previous = this.index.put(new String(key, UTF_8), new long[]{dataStart, dataLength});
+            if (previous != null) {
+                this.wasteBytes += recordLength(keyLength, (int) previous[1]);
+            }
+            position = dataStart + dataLength;
+        }
+        this.length = position;
+        if (size > this.length) {
+            this.channel.truncate(this.length);
+        }
+    }
+
+    /**
+     * Reads a part of the file through the channel.
+     *
+     * @param position start of the part
+     * @param length length of the part, it has to be in the file
+     * @return buffer of the part, ready to be read
+     */
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer data = ByteBuffer.allocate(length);
+        while (data.hasRemaining()) {
+            if (this.channel.read(data, position + data.position()) < 0) {
+                throw new IOException("Unexpected end of the icon pack: " + this.file);
+            }
+        }
+        data.flip();
+        return data;
+    }
+
+    private void map() throws IOException {
+        this.buffer = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, this.channel.size());
+    }
+
+    private static long recordLength(int keyLength, int dataLength) {
+        return 2 + keyLength + 4 + dataLength;
+    }
+
+    /**
+     * Gets the data of a key.
+     *
+     * @param key the key
+     * @return copy of the data, or {@code null} if the key is not in the pack
+     * @throws IOException if the file could not be read
+     */
+    public synchronized byte[] get(String key) throws IOException {
+        long[] slot = this.index.get(key);
+        if (slot == null) {
+            return null;
+        }
+        if (this.buffer == null || slot[0] + slot[1] > this.buffer.capacity()) {
+            // mapped on the first read, or appended after the file was mapped
+            map();
+        }
+        byte[] data = new byte[(int) slot[1]];
+        ByteBuffer view = this.buffer.duplicate();
+        view.position((int) slot[0]);
+        view.get(data);
+        return data;
+    }
+
+    public synchronized boolean contains(String key) {
+        return this.index.containsKey(key);
+    }
+
+    /**
+     * Appends the data of a key, a previous record of the key becomes waste.
+     *
+     * @param key the key
+     * @param data the data
+     * @throws IOException if the file could not be written
+     */
+    public synchronized void put(String key, byte[] data) throws IOException {
+        byte[] keyBytes = key.getBytes(UTF_8);
+        if (keyBytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("Key is too long.");
+        }
+        ByteBuffer record = ByteBuffer.allocate((int) recordLength(keyBytes.length, data.length));
+        record.putShort((short) keyBytes.length).put(keyBytes).putInt(data.length).put(data).flip();
+        long position = this.length;
+        while (record.hasRemaining()) {
+            position += this.channel.write(record, position);
+        }
+        long[] previous = this.index.put(key, new long[]{this.length + 2 + keyBytes.length + 4, data.length});
+        if (previous != null) {
+            this.wasteBytes += recordLength(keyBytes.length, (int) previous[1]);
+        }
+        this.length = position;
+    }
+
+    public synchronized int size() {
+        return this.index.size();
+    }
+
+    /**
+     * Gets the length of the valid records and the header.
+     *
+     * @return length in bytes
+     */
+    public synchronized long getLength() {
+        return this.length;
+    }
+
+    /**
+     * Gets the length of the replaced records.
+     *
+     * @return length in bytes
+     */
+    public synchronized long getWasteBytes() {
+        return this.wasteBytes;
+    }
+
+    /**
+     * Rewrites the pack with the latest record of each key. The records are copied through the
+     * channel, and the new file is not mapped.
+     * <p>
+     * A mapping of the file is released only by the garbage collector, until then the file cannot
+     * be replaced on some platforms (e.g. Windows). {@link #open(File, double)} compacts the pack
+     * before it is mapped. After {@link #get(String)} the compaction may fail on these platforms,
+     * the pack is left unchanged in this case.
+     * </p>
+     *
+     * @throws IOException if the pack could not be written
+     */
+    public synchronized void compact() throws IOException {
+        File compactFile = new File(this.file.getPath() + ".tmp");
+        IconPack compacted = new IconPack(compactFile);
+        compactFile.delete();
+        compacted.load();
+        try {
+            for (String key : this.index.keySet()) {
+                long[] slot = this.index.get(key);
+                compacted.put(key, read(slot[0], (int) slot[1]).array());
+            }
+            compacted.channel.force(true);
+        } finally {
+            compacted.close();
+        }
+        close();
+        try {
+            Files.move(compactFile.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            load();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        this.buffer = null;
+        if (this.randomAccessFile != null) {
+            this.randomAccessFile.close();
+            this.randomAccessFile = null;
+            this.channel = null;
+        }
+    }
+}
@@ -2,20 +2,35 @@ package tirnav.passman.util;
 
 import javax.imageio.ImageIO;
 import javax.swing.ImageIcon;
+import javax.swing.SwingUtilities;
 
-import java.awt.Graphics2D;
-import java.awt.Image;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
-import java.util.HashMap;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import java.net.URI;
 
-import static java.awt.image.BufferedImage.TYPE_4BYTE_ABGR;
 import static tirnav.passman.util.CryptUtils.getSha256Hash;
 import static tirnav.passman.util.StringUtils.byteArrayToHex;
 
@@ -23,91 +38,376 @@ import static tirnav.passman.util.StringUtils.byteArrayToHex;
  * Icon storage for getting and caching image data from a favicon provider.
  *
  * <p>
- * Currently Google S2 is used to retrieve favicons.
+ * Currently Google S2 is used to retrieve favicons by default, the provider
+ * can be changed with the {@code favicon.provider.url} property.
+ * </p>
+ *
+ * <p>
+ * Icons are loaded in the background: {@link #getIcon(String)} returns the
+ * default icon until the icon of the domain is loaded, then the listeners are
+ * notified on the event dispatch thread. Requests for the same domain are
+ * loaded only once.
+ * </p>
+ *
+ * <p>
+ * Loaded icons are kept in a least recently used cache, which is limited by
+ * the size of the decoded images ({@code favicon.cache.max.bytes}). Domains
+ * whose icon could not be fetched get the default icon until the retry time
+ * ({@code favicon.retry.seconds}) elapses. The application shares one
+ * instance, see {@link #getInstance()}.
+ * </p>
+ *
+ * <p>
+ * Fetched icons are stored as PNG in a single {@link IconPack} in the icon
+ * directory, they are decoded when they are displayed first.
  * </p>
  *
  * @author Daniil Bubnov
  */
 public class IconStorage {
 
+    /**
+     * Receives the domains whose icon has been loaded.
+     */
+    public interface Listener {
+
+        /**
+         * Called on the event dispatch thread, when the icon of a domain has been loaded.
+         *
+         * @param domain the domain
+         */
+        void iconLoaded(String domain);
+    }
+
     private static final Logger LOG = Logger.getLogger(IconStorage.class.getName());
     private static final String FAVICON_PROVIDER_URL_PATTERN = "https://www.google.com/s2/favicons?domain=%s";
     private static final ImageIcon DEFAULT_ICON = new ImageIcon(IconStorage.class
             .getResource("/resources/images/keyring.png"));
     private static final String ICONS = "icons";
-    private final Map<String, ImageIcon> icons = new HashMap<String, ImageIcon>();
+    private static final String ICON_PACK = "icons.pack";
+    private static volatile IconStorage INSTANCE;
+
+    /** Loaded icons in access order, guarded by itself. */
+    private final LinkedHashMap<String, ImageIcon> icons = new LinkedHashMap<String, ImageIcon>(16, 0.75f, true);
+    private long cacheBytes;
+    private final long maxCacheBytes;
+    /** Retry time of the domains, whose icon could not be fetched. */
+    private final Map<String, Long> failed = new ConcurrentHashMap<String, Long>();
+    private final long retryMillis;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final Set<String> pending = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
     private final boolean enabled;
+    private final String providerUrlPattern;
+    private final File iconDirectory;
+    private final int timeoutMillis;
+    private final ThreadPoolExecutor executor;
+    /** Persistent store of the fetched icons, {@code null} if it could not be opened. */
+    private final IconPack pack;
+
+    private IconStorage(boolean enabled, String providerUrlPattern, File iconDirectory, int timeoutMillis,
+            long maxCacheBytes, long retryMillis) {
+        this.enabled = enabled;
+        this.providerUrlPattern = providerUrlPattern;
+        this.iconDirectory = iconDirectory;
+        this.timeoutMillis = timeoutMillis;
+        this.maxCacheBytes = maxCacheBytes;
+        this.retryMillis = retryMillis;
+        if (enabled && !iconDirectory.exists()) {
+            iconDirectory.mkdir();
+        }
+        IconPack iconPack = null;
+        if (enabled) {
+            try {
+                iconPack = IconPack.open(new File(iconDirectory, ICON_PACK),
+                        Configuration.getInstance().getInteger("favicon.pack.compact.percent", 50) / 100.0);
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Could not open the icon pack, icons are not stored.", e);
+            }
+        }
+        this.pack = iconPack;
+        int threads = Math.max(1, Configuration.getInstance().getInteger("favicon.fetch.threads", 4));
+        this.executor = new ThreadPoolExecutor(threads, threads, 10, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "favicon");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
 
-    private IconStorage() {
-        enabled = Configuration.getInstance().is("fetch.favicons.enabled", true);
-        if (enabled && !new File(ICONS).exists()) {
-            new File(ICONS).mkdir();
+    /**
+     * Gets the shared icon storage, configured by the application properties.
+     *
+     * @return the icon storage
+     */
+    public static IconStorage getInstance() {
+        if (INSTANCE == null) {
+            synchronized (IconStorage.class) {
+                if (INSTANCE == null) {
+                    Configuration configuration = Configuration.getInstance();
+                    INSTANCE = new IconStorage(configuration.is("fetch.favicons.enabled", true),
+                            configuration.get("favicon.provider.url", FAVICON_PROVIDER_URL_PATTERN), new File(ICONS),
+                            configuration.getInteger("favicon.fetch.timeout.millis", 5000),
+                            configuration.getInteger("favicon.cache.max.bytes", 8 * 1024 * 1024),
+                            configuration.getInteger("favicon.retry.seconds", 3600) * 1000L);
+                }
+            }
         }
+        return INSTANCE;
+    }
+
+    /**
+     * Creates a separate, enabled icon storage with the given provider.
+     *
+     * @param providerUrlPattern favicon URL pattern, {@code %s} is replaced by the domain
+     * @param iconDirectory directory of the cached icon files
+     * @param timeoutMillis connect and read timeout of the provider
+     * @param maxCacheBytes maximum size of the decoded icons in memory
+     * @param retryMillis time until a failed domain is fetched again
+     * @return the icon storage
+     */
+    public static IconStorage newInstance(String providerUrlPattern, File iconDirectory, int timeoutMillis,
+            long maxCacheBytes, long retryMillis) {
+        return new IconStorage(true, providerUrlPattern, iconDirectory, timeoutMillis, maxCacheBytes, retryMillis);
     }
 
-    public static IconStorage newInstance() {
-        return new IconStorage();
+    public static ImageIcon getDefaultIcon() {
+        return DEFAULT_ICON;
+    }
+
+    /**
+     * Gets the domain of an URL.
+     *
+     * @param url the URL
+     * @return the domain, or {@code null} if the URL has no domain
+     */
+    public static String getDomain(String url) {
+        try {
+            return new URI(url).getHost();
+        } catch (Exception e) {
+            return null;
+        }
     }
 
     public boolean isEnabled() {
         return enabled;
     }
 
-    public synchronized ImageIcon getIcon(String url) {
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Gets the size of the decoded icons in the memory cache.
+     *
+     * @return size in bytes
+     */
+    public long getCacheBytes() {
+        synchronized (icons) {
+            return cacheBytes;
+        }
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Gets the icon of the domain of the URL. This method does not block, if
+     * the icon is not loaded yet, the default icon is returned and the icon
+     * is loaded in the background.
+     *
+     * @param url the URL
+     * @return the icon, or {@code null} if the storage is disabled
+     */
+    public ImageIcon getIcon(String url) {
         if (!enabled) {
             return null;
         }
-        // get domain
-        String domain;
-        try {
-            domain = new URI(url).getHost();
-        } catch (Exception e) {
-            return DEFAULT_ICON;
-        }
+        String domain = getDomain(url);
         if (domain == null) {
             return DEFAULT_ICON;
         }
-        // check cache
-        ImageIcon imageIcon = icons.get(domain);
+        ImageIcon imageIcon;
+        synchronized (icons) {
+            imageIcon = icons.get(domain);
+        }
         if (imageIcon != null) {
+            hitCount.incrementAndGet();
             return imageIcon;
         }
-        // check file
+        Long retryTime = failed.get(domain);
+        if (retryTime != null) {
+            if (System.currentTimeMillis() < retryTime) {
+                hitCount.incrementAndGet();
+                return DEFAULT_ICON;
+            }
+            failed.remove(domain);
+        }
+        missCount.incrementAndGet();
+        if (pending.add(domain)) {
+            executor.execute(new IconLoader(domain));
+        }
+        return DEFAULT_ICON;
+    }
+
+    private void cacheIcon(String domain, ImageIcon imageIcon) {
+        synchronized (icons) {
+            ImageIcon previous = icons.put(domain, imageIcon);
+            if (previous != null) {
+                cacheBytes -= sizeOf(previous);
+            }
+            cacheBytes += sizeOf(imageIcon);
+            // the new icon is the most recently used one, it is kept even if it exceeds the limit
+            Iterator<ImageIcon> eldest = icons.values().iterator();
+            while (cacheBytes > maxCacheBytes && icons.size() > 1) {
+                cacheBytes -= sizeOf(eldest.next());
+                eldest.remove();
+                evictionCount.incrementAndGet();
+            }
+        }
+    }
+
+    private static long sizeOf(ImageIcon imageIcon) {
+        return 4L * Math.max(1, imageIcon.getIconWidth()) * Math.max(1, imageIcon.getIconHeight());
+    }
+
+    /**
+     * Loads the icon of a domain from the icon pack or the favicon provider.
+     *
+     * @param domain the domain
+     * @return the icon, or {@code null} if it could not be fetched
+     */
+    private ImageIcon loadIcon(String domain) {
+        try {
+            byte[] data = pack != null ? pack.get(domain) : null;
+            if (data != null) {
+                return decodeIcon(data);
+            }
+            File legacyFile = getLegacyIconFile(domain);
+            if (legacyFile != null) {
+                data = Files.readAllBytes(legacyFile.toPath());
+                storeIcon(domain, data);
+                if (pack != null) {
+                    // only once the icon is in the pack, the file is no longer needed
+                    legacyFile.delete();
+                }
+                return decodeIcon(data);
+            }
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Could not read favicon.", e);
+        }
+        try {
+            BufferedImage image = fetchIcon(domain);
+            ByteArrayOutputStream png = new ByteArrayOutputStream();
+            ImageIO.write(image, "png", png);
+            storeIcon(domain, png.toByteArray());
+            return new ImageIcon(image);
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, "Could not get favicon.");
+            return null;
+        }
+    }
+
+    /**
+     * Gets the icon file written by earlier versions, which stored one file per domain.
+     *
+     * @param domain the domain
+     * @return the icon file, or {@code null} if there is no such file
+     */
+    private File getLegacyIconFile(String domain) {
         String iconFileName;
         try {
             iconFileName = byteArrayToHex(getSha256Hash(domain.toCharArray())) + ".png";
         } catch (Exception e) {
-            return DEFAULT_ICON;
+            return null;
         }
-        File iconFile = new File(ICONS, iconFileName);
-        if (iconFile.exists()) {
-            imageIcon = new ImageIcon(iconFile.getAbsolutePath());
-            icons.put(domain, imageIcon);
-            return imageIcon;
+        File iconFile = new File(iconDirectory, iconFileName);
+        return iconFile.exists() ? iconFile : null;
+    }
+
+    private void storeIcon(String domain, byte[] data) throws IOException {
+        if (pack != null) {
+            pack.put(domain, data);
         }
-        return getAndCacheIcon(domain, iconFileName);
     }
 
-    private ImageIcon getAndCacheIcon(String domain, String iconFileName) {
-        ImageIcon imageIcon;
+    private static ImageIcon decodeIcon(byte[] data) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(data));
+        if (image == null) {
+            throw new IOException("Unsupported image format.");
+        }
+        return new ImageIcon(image);
+    }
+
+    private BufferedImage fetchIcon(String domain) throws IOException {
+        URLConnection connection = new URL(String.format(providerUrlPattern, domain)).openConnection();
+        connection.setConnectTimeout(timeoutMillis);
+        connection.setReadTimeout(timeoutMillis);
+        BufferedImage image;
+        InputStream in = connection.getInputStream();
         try {
-            String iconUrl = String.format(FAVICON_PROVIDER_URL_PATTERN, domain);
-            imageIcon = new ImageIcon(new URL(iconUrl));
-            Image image = imageIcon.getImage();
-            BufferedImage bi = new BufferedImage(image.getWidth(null), image.getHeight(null), TYPE_4BYTE_ABGR);
-            Graphics2D g2 = bi.createGraphics();
-            g2.drawImage(image, 0, 0, null);
-            g2.dispose();
-            ImageIO.write(bi, "png", new File(ICONS, iconFileName));
-            icons.put(domain, imageIcon);
-        } catch (Exception e) {
-            LOG.log(Level.WARNING, "Could not get favicon.");
-            // We put a standard icon to cache.
-            // Note that on the next application run we will try to retrieve the icon again,
-            // this will save us from occasional connection problems.
-            imageIcon = DEFAULT_ICON;
-            icons.put(domain, imageIcon);
+            image = ImageIO.read(in);
+        } finally {
+            in.close();
+        }
+        if (image == null) {
+            throw new IOException("Unsupported image format.");
+        }
+        return image;
+    }
+
+    /**
+     * Loads the icon of a domain and notifies the listeners.
+     */
+    private class IconLoader implements Runnable {
+
+        private final String domain;
+
+        IconLoader(String domain) {
+            this.domain = domain;
+        }
+
+        @Override
+        public void run() {
+            try {
+                ImageIcon imageIcon = loadIcon(domain);
+                if (imageIcon != null) {
+                    cacheIcon(domain, imageIcon);
+                } else {
+                    // the default icon is used until the retry time, this will save us
+                    // from occasional connection problems
+                    failed.put(domain, System.currentTimeMillis() + retryMillis);
+                }
+            } finally {
+                pending.remove(domain);
+            }
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    for (Listener listener : listeners) {
+                        listener.iconLoaded(domain);
+                    }
+                }
+            });
         }
-        return imageIcon;
     }
 }
@@ -0,0 +1,212 @@
+/*
+ * PasswordManager
+ *
+ * Copyright (c) 2009-2019 Gabor Bata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package tirnav.passman.util;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * Generates random passwords from a fixed set of characters. The character set is deduplicated
+ * once, so every character has the same probability. The indices are drawn by rejection sampling
+ * from a pool of random {@code byte}s, which is refilled with one call of the random number
+ * generator, and the passwords are written into {@code char} arrays without intermediate
+ * {@link String}s.
+ * <p>
+ * Instances are not thread-safe.
+ * </p>
+ *
+ * @author jainj
+ *
+ */
+public final class PasswordGenerator {
+
+    /**
+     * Number of random {@code byte}s fetched at once.
+     */
+    private static final int POOL_SIZE = 512;
+
+    /**
+     * Distinct characters of the passwords.
+     */
+    private final char[] characters;
+
+    /**
+     * Number of random {@code byte}s per drawn value, 2 for more than 256 characters.
+     */
+    private final int bytesPerValue;
+
+    /**
+     * Drawn values below this limit are accepted, it is the largest multiple of the number of
+     * characters in the range of the values.
+     */
+    private final int limit;
+
+    private final Random random;
+
+    private final byte[] pool = new byte[POOL_SIZE];
+
+    /**
+     * Position of the next unused {@code byte} in {@link #pool}.
+     */
+    private int poolIndex = POOL_SIZE;
+
+    /**
+     * Creates a generator with a {@link java.security.SecureRandom} source.
+     *
+     * @param characters characters of the passwords, duplicates are ignored
+     * @throws IllegalArgumentException if there are no characters
+     */
+    public PasswordGenerator(final CharSequence characters) {
+        this(characters, CryptUtils.newRandomNumberGenerator());
+    }
+
+    /**
+     * Creates a generator.
+     *
+     * @param characters characters of the passwords, duplicates are ignored
+     * @param random source of the random {@code byte}s
+     * @throws IllegalArgumentException if there are no characters
+     */
+    public PasswordGenerator(final CharSequence characters, final Random random) {
+        this.characters = distinct(characters);
+        if (this.characters.length == 0) {
+            throw new IllegalArgumentException("No characters for password generation.");
+        }
+        this.bytesPerValue = this.characters.length > 256 ? 2 : 1;
+        int range = 1 << (8 * this.bytesPerValue);
+        this.limit = range - range % this.characters.length;
+        this.random = random;
+    }
+
+    /**
+     * Collects the distinct characters in their original order.
+     *
+     * @param characters characters, may contain duplicates
+     * @return distinct characters
+     */
+    private static char[] distinct(final CharSequence characters) {
+        char[] result = new char[characters.length()];
+        int count = 0;
+        BitSet seen = new BitSet();
+        for (int i = 0; i < characters.length(); i++) {
+            char c = characters.charAt(i);
+            if (!seen.get(c)) {
+                seen.set(c);
+                result[count++] = c;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Gets the distinct characters of the passwords.
+     *
+     * @return copy of the characters
+     */
+    public char[] getCharacters() {
+        return this.characters.clone();
+    }
+
+    /**
+     * Generates a password.
+     *
+     * @param length length of the password
+     * @return the password
+     */
+    public char[] generate(final int length) {
+        char[] password = new char[length];
+        generate(password, 0, length);
+        return password;
+    }
+
+    /**
+     * Generates a number of passwords of the same length.
+     *
+     * @param count number of passwords
+     * @param length length of the passwords
+     * @return the passwords
+     */
+    public char[][] generate(final int count, final int length) {
+        char[][] passwords = new char[count][length];
+        for (char[] password : passwords) {
+            generate(password, 0, length);
+        }
+        return passwords;
+    }
+
+    /**
+     * Writes random characters into an array.
+     *
+     * @param target array of the password
+     * @param offset start of the password in {@code target}
+     * @param length length of the password
+     */
+    public void generate(final char[] target, final int offset, final int length) {
+        if (offset < 0 || length < 0 || length > target.length - offset) {
+            throw new IndexOutOfBoundsException();
+        }
+        for (int i = offset; i < offset + length; i++) {
+            target[i] = this.characters[nextIndex()];
+        }
+    }
+
+    /**
+     * Draws the index of the next character. Values at or above {@link #limit} are rejected, so
+     * all indices have the same probability.
+     *
+     * @return index in {@link #characters}
+     */
+    private int nextIndex() {
+        int value;
+        do {
+            value = nextByte();
+            if (this.bytesPerValue == 2) {
+                value = (value << 8) | nextByte();
+            }
+        } while (value >= this.limit);
+        return value % this.characters.length;
+    }
+
+    /**
+     * Takes the next {@code byte} of the pool, used {@code byte}s are cleared, so the pool does
+     * not reveal generated passwords.
+     *
+     * @return random value between 0 and 255
+     */
+    private int nextByte() {
+        if (this.poolIndex == POOL_SIZE) {
+            this.random.nextBytes(this.pool);
+            this.poolIndex = 0;
+        }
+        int value = this.pool[this.poolIndex] & 0xff;
+        this.pool[this.poolIndex++] = 0;
+        return value;
+    }
+}
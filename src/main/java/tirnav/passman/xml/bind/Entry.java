@@ -228,15 +228,15 @@ public class Entry {
 	}
 
 	/* (non-Javadoc)
+	 * The password is left out, so hashing an entry of an indexed file does not decrypt it.
 	 * @see java.lang.Object#hashCode()
 	 */
 	@Override
 	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
-		result = prime * result + changePasswordInDays;
+		result = prime * result + ((changePasswordInDays == null) ? 0 : changePasswordInDays.hashCode());
 		result = prime * result + ((notes == null) ? 0 : notes.hashCode());
-		result = prime * result + ((password == null) ? 0 : password.hashCode());
 		result = prime * result + ((title == null) ? 0 : title.hashCode());
 		result = prime * result + ((url == null) ? 0 : url.hashCode());
 		result = prime * result + ((user == null) ? 0 : user.hashCode());
@@ -258,7 +258,11 @@ public class Entry {
 			return false;
 		}
 		Entry other = (Entry) obj;
-		if (changePasswordInDays != other.changePasswordInDays) {
+		if (changePasswordInDays == null) {
+			if (other.changePasswordInDays != null) {
+				return false;
+			}
+		} else if (!changePasswordInDays.equals(other.changePasswordInDays)) {
 			return false;
 		}
 		if (notes == null) {
@@ -268,13 +272,6 @@ public class Entry {
 		} else if (!notes.equals(other.notes)) {
 			return false;
 		}
-		if (password == null) {
-			if (other.password != null) {
-				return false;
-			}
-		} else if (!password.equals(other.password)) {
-			return false;
-		}
 		if (title == null) {
 			if (other.title != null) {
 				return false;
@@ -296,6 +293,16 @@ public class Entry {
 		} else if (!user.equals(other.user)) {
 			return false;
 		}
+		// compared last and through the getter, the password of an indexed entry is decrypted on demand
+		String password = getPassword();
+		String otherPassword = other.getPassword();
+		if (password == null) {
+			if (otherPassword != null) {
+				return false;
+			}
+		} else if (!password.equals(otherPassword)) {
+			return false;
+		}
 		return true;
 	}
 
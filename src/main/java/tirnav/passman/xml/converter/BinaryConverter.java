@@ -0,0 +1,462 @@
+/*
+ * PasswordManager
+ *
+ * Copyright (c) 2009-2019 Gabor Bata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package tirnav.passman.xml.converter;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Date;
+
+import tirnav.passman.xml.bind.Entries;
+import tirnav.passman.xml.bind.Entry;
+
+/**
+ * Class for conversion between {@link Entries} and a compact binary format.
+ *
+ * <p>
+ * The stream starts with a magic number and a version, followed by length prefixed entry
+ * records, and a record of length zero at the end. A record is a sequence of tagged, length
+ * prefixed fields. Fields with {@code null} value are not written, and fields with unknown tags
+ * are skipped, so new fields can be added without changing the version.
+ * </p>
+ *
+ * <pre>
+ * magic (4 bytes) | version (1 byte) | { record length (varint) | { tag (1 byte) | length (varint) | value } } | 0
+ * </pre>
+ *
+ * <p>
+ * Strings are UTF-8 encoded, dates are milliseconds since the epoch as 8 bytes, integers are
+ * 4 bytes, both big-endian.
+ * </p>
+ *
+ * @author jainj
+ *
+ */
+public class BinaryConverter {
+
+    /**
+     * Magic number at the beginning of the binary documents. It cannot be the beginning of an
+     * XML document.
+     */
+    static final byte[] MAGIC = {(byte) 0x89, 'P', 'M', 'B'};
+
+    /**
+     * Current format version.
+     */
+    public static final int VERSION = 1;
+
+    private static final int TAG_TITLE = 1;
+    private static final int TAG_URL = 2;
+    private static final int TAG_USER = 3;
+    private static final int TAG_PASSWORD = 4;
+    private static final int TAG_NOTES = 5;
+    private static final int TAG_MODIFIED_DATE = 6;
+    private static final int TAG_LAST_PASSWORD_CHANGED = 7;
+    private static final int TAG_CHANGE_PASSWORD_IN_DAYS = 8;
+
+    /**
+     * Upper bound of the record length accepted while reading, to fail fast on corrupt data.
+     */
+    private static final int MAX_RECORD_LENGTH = 64 * 1024 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Checks if the stream contains a binary document. The stream is not consumed.
+     *
+     * @param inputStream the input stream, which can unread at least 4 bytes
+     * @return {@code true} if the stream starts with the magic number
+     * @throws IOException if any error occurred
+     */
+    public static boolean isBinary(PushbackInputStream inputStream) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        int length = 0;
+        int read;
+        while (length < magic.length && (read = inputStream.read(magic, length, magic.length - length)) >= 0) {
+            length += read;
+        }
+        inputStream.unread(magic, 0, length);
+        return length == magic.length && Arrays.equals(magic, MAGIC);
+    }
+
+    /**
+     * Writes the given document to the given output stream.
+     *
+     * @param document the document
+     * @param outputStream the output stream
+     * @throws IOException if any error occurred
+     */
+    public void write(Entries document, OutputStream outputStream) throws IOException {
+        writeElements(document.getEntry(), outputStream);
+    }
+
+    /**
+     * Reads a document from the given input stream.
+     *
+     * @param inputStream the input stream
+     * @return the document
+     * @throws IOException if any error occurred
+     */
+    public Entries read(InputStream inputStream) throws IOException {
+        final Entries entries = new Entries();
+        readElements(inputStream, new ElementCallback<Entry>() {
+            @Override
+            public void element(Entry entry) {
+                entries.getEntry().add(entry);
+            }
+        });
+        return entries;
+    }
+
+    /**
+     * Writes the entries one at a time.
+     *
+     * @param entries the entries
+     * @param outputStream the output stream
+     * @throws IOException if any error occurred
+     */
+    public void writeElements(Iterable<Entry> entries, OutputStream outputStream) throws IOException {
+        Encoder record = new Encoder();
+        Encoder header = new Encoder();
+        outputStream.write(MAGIC);
+        outputStream.write(VERSION);
+        for (Entry entry : entries) {
+            encodeEntry(record, entry, true);
+            header.reset();
+            header.writeVarInt(record.length);
+            outputStream.write(header.buffer, 0, header.length);
+            outputStream.write(record.buffer, 0, record.length);
+        }
+        outputStream.write(0);
+        record.wipe();
+    }
+
+    /**
+     * Reads the entries one at a time.
+     *
+     * @param inputStream the input stream
+     * @param callback called for every entry as soon as it is read
+     * @throws IOException if any error occurred
+     */
+    public void readElements(InputStream inputStream, ElementCallback<Entry> callback) throws IOException {
+        DataInputStream input = new DataInputStream(inputStream);
+        byte[] magic = new byte[MAGIC.length];
+        input.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Invalid binary document");
+        }
+        int version = input.readUnsignedByte();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported binary document version: " + version);
+        }
+        byte[] buffer = new byte[256];
+        try {
+            int length;
+            while ((length = readVarInt(input)) != 0) {
+                if (length < 0 || length > MAX_RECORD_LENGTH) {
+                    throw new IOException("Invalid record length: " + length);
+                }
+                if (buffer.length < length) {
+                    Arrays.fill(buffer, (byte) 0);
+                    buffer = new byte[Math.max(length, buffer.length * 2)];
+                }
+                input.readFully(buffer, 0, length);
+                callback.element(decodeEntry(buffer, length, new Entry()));
+            }
+            if (input.read() >= 0) {
+                throw new IOException("Unexpected data after the last record");
+            }
+        } finally {
+            Arrays.fill(buffer, (byte) 0);
+        }
+    }
+
+    /**
+     * Encodes a single entry as a record without the length prefix, e.g. for the change journal.
+     *
+     * @param entry the entry
+     * @return the record
+     */
+    public byte[] toRecord(Entry entry) {
+        return toRecord(entry, true);
+    }
+
+    /**
+     * Encodes a single entry as a record without the length prefix.
+     *
+     * @param entry the entry
+     * @param withPassword {@code false} to leave out the password, it is not even read then
+     * @return the record
+     */
+    public byte[] toRecord(Entry entry, boolean withPassword) {
+        Encoder record = new Encoder();
+        encodeEntry(record, entry, withPassword);
+        byte[] result = Arrays.copyOf(record.buffer, record.length);
+        record.wipe();
+        return result;
+    }
+
+    /**
+     * Decodes a record written by {@link #toRecord(Entry)}.
+     *
+     * @param record buffer of the record
+     * @param length length of the record
+     * @return the entry
+     * @throws IOException if the record is invalid
+     */
+    public Entry fromRecord(byte[] record, int length) throws IOException {
+        return decodeEntry(record, length, new Entry());
+    }
+
+    /**
+     * Decodes a record written by {@link #toRecord(Entry, boolean)} into the given entry.
+     *
+     * @param record buffer of the record
+     * @param length length of the record
+     * @param entry the entry to fill
+     * @return the entry
+     * @throws IOException if the record is invalid
+     */
+    public Entry fromRecord(byte[] record, int length, Entry entry) throws IOException {
+        return decodeEntry(record, length, entry);
+    }
+
+    private static void encodeEntry(Encoder record, Entry entry, boolean withPassword) {
+        record.reset();
+        record.writeString(TAG_TITLE, entry.getTitle());
+        record.writeString(TAG_URL, entry.getUrl());
+        record.writeString(TAG_USER, entry.getUser());
+        if (withPassword) {
+            record.writeString(TAG_PASSWORD, entry.getPassword());
+        }
+        record.writeString(TAG_NOTES, entry.getNotes());
+        record.writeDate(TAG_MODIFIED_DATE, entry.getModifiedDate());
+        record.writeDate(TAG_LAST_PASSWORD_CHANGED, entry.getLastPasswordChanged());
+        record.writeInteger(TAG_CHANGE_PASSWORD_IN_DAYS, entry.getChangePasswordInDays());
+    }
+
+    private static Entry decodeEntry(byte[] buffer, int length, Entry entry) throws IOException {
+        int[] position = {0};
+        while (position[0] < length) {
+            int tag = buffer[position[0]++] & 0xff;
+            int size = readVarInt(buffer, position, length);
+            int offset = position[0];
+            if (size < 0 || size > length - offset) {
+                throw new IOException("Invalid field length: " + size);
+            }
+            switch (tag) {
+                case TAG_TITLE:
+                    entry.setTitle(new String(buffer, offset, size, UTF_8));
+                    break;
+                case TAG_URL:
+                    entry.setUrl(new String(buffer, offset, size, UTF_8));
+                    break;
+                case TAG_USER:
+                    entry.setUser(new String(buffer, offset, size, UTF_8));
+                    break;
+                case TAG_PASSWORD:
+                    entry.setPassword(new String(buffer, offset, size, UTF_8));
+                    break;
+                case TAG_NOTES:
+                    entry.setNotes(new String(buffer, offset, size, UTF_8));
+                    break;
+                case TAG_MODIFIED_DATE:
+                    entry.setModifiedDate(new Date(getLong(buffer, offset, size)));
+                    break;
+                case TAG_LAST_PASSWORD_CHANGED:
+                    entry.setLastPasswordChanged(new Date(getLong(buffer, offset, size)));
+                    break;
+                case TAG_CHANGE_PASSWORD_IN_DAYS:
+                    entry.setChangePasswordInDays((int) getLong(buffer, offset, size));
+                    break;
+                default:
+                    // unknown field of a newer version
+                    break;
+            }
+            position[0] = offset + size;
+        }
+        return entry;
+    }
+
+    private static long getLong(byte[] buffer, int offset, int size) throws IOException {
+        if (size != 4 && size != 8) {
+            throw new IOException("Invalid numeric field length: " + size);
+        }
+        long value = 0;
+        for (int i = 0; i < size; i++) {
+            value = (value << 8) | (buffer[offset + i] & 0xff);
+        }
+        return value;
+    }
+
+    private static int readVarInt(DataInputStream input) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = input.read();
+            if (b < 0) {
+                throw new EOFException("Unexpected end of binary document");
+            }
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Invalid length");
+    }
+
+    private static int readVarInt(byte[] buffer, int[] position, int length) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (position[0] >= length) {
+                throw new IOException("Truncated record");
+            }
+            int b = buffer[position[0]++];
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Invalid length");
+    }
+
+    /**
+     * Growable buffer, that encodes the fields of a record without intermediate objects.
+     */
+    private static final class Encoder {
+        private byte[] buffer = new byte[256];
+        private int length;
+
+        void reset() {
+            this.length = 0;
+        }
+
+        void wipe() {
+            Arrays.fill(this.buffer, (byte) 0);
+        }
+
+        private void ensureCapacity(int additional) {
+            if (this.length + additional > this.buffer.length) {
+                byte[] grown = Arrays.copyOf(this.buffer, Math.max(this.length + additional, this.buffer.length * 2));
+                wipe();
+                this.buffer = grown;
+            }
+        }
+
+        void writeVarInt(int value) {
+            ensureCapacity(5);
+            while ((value & ~0x7f) != 0) {
+                this.buffer[this.length++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            this.buffer[this.length++] = (byte) value;
+        }
+
+        void writeString(int tag, String value) {
+            if (value == null) {
+                return;
+            }
+            int size = utf8Length(value);
+            ensureCapacity(6 + size);
+            this.buffer[this.length++] = (byte) tag;
+            writeVarInt(size);
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c < 0x80) {
+                    this.buffer[this.length++] = (byte) c;
+                } else if (c < 0x800) {
+                    this.buffer[this.length++] = (byte) (0xc0 | (c >> 6));
+                    this.buffer[this.length++] = (byte) (0x80 | (c & 0x3f));
+                } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, value.charAt(++i));
+                    this.buffer[this.length++] = (byte) (0xf0 | (cp >> 18));
+                    this.buffer[this.length++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                    this.buffer[this.length++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                    this.buffer[this.length++] = (byte) (0x80 | (cp & 0x3f));
+                } else if (Character.isSurrogate(c)) {
+                    // unpaired surrogate, replaced like by String.getBytes
+                    this.buffer[this.length++] = (byte) '?';
+                } else {
+                    this.buffer[this.length++] = (byte) (0xe0 | (c >> 12));
+                    this.buffer[this.length++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                    this.buffer[this.length++] = (byte) (0x80 | (c & 0x3f));
+                }
+            }
+        }
+
+        void writeDate(int tag, Date value) {
+            if (value == null) {
+                return;
+            }
+            writeNumber(tag, value.getTime(), 8);
+        }
+
+        void writeInteger(int tag, Integer value) {
+            if (value == null) {
+                return;
+            }
+            writeNumber(tag, value, 4);
+        }
+
+        private void writeNumber(int tag, long value, int size) {
+            ensureCapacity(2 + size);
+            this.buffer[this.length++] = (byte) tag;
+            this.buffer[this.length++] = (byte) size;
+            for (int i = size - 1; i >= 0; i--) {
+                this.buffer[this.length++] = (byte) (value >>> (i * 8));
+            }
+        }
+
+        private static int utf8Length(String value) {
+            int size = 0;
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c < 0x80) {
+                    size++;
+                } else if (c < 0x800) {
+                    size += 2;
+                } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    size += 4;
+                    i++;
+                } else if (Character.isSurrogate(c)) {
+                    size++;
+                } else {
+                    size += 3;
+                }
+            }
+            return size;
+        }
+    }
+}
@@ -28,15 +28,22 @@
  */
 package tirnav.passman.xml.converter;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.dataformat.xml.JacksonXmlModule;
 import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+import com.fasterxml.jackson.dataformat.xml.deser.FromXmlParser;
 import com.fasterxml.jackson.dataformat.xml.ser.ToXmlGenerator;
+import com.fasterxml.jackson.dataformat.xml.util.XmlRootNameLookup;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import javax.xml.namespace.QName;
 
 /**
  * Class for conversion between objects and streams representing XMLs.
@@ -49,6 +56,7 @@ public class XmlConverter<T> {
 
     private final Class<T> documentClass;
     private final XmlMapper mapper;
+    private final QName rootName;
 
     public XmlConverter(Class<T> documentClass) {
         this.documentClass = documentClass;
@@ -57,6 +65,7 @@ public class XmlConverter<T> {
         this.mapper = new XmlMapper(module);
         this.mapper.enable(SerializationFeature.INDENT_OUTPUT);
         this.mapper.enable(ToXmlGenerator.Feature.WRITE_XML_DECLARATION);
+        this.rootName = new XmlRootNameLookup().findRootName(documentClass, this.mapper.getSerializationConfig());
     }
 
     /**
@@ -80,4 +89,71 @@ public class XmlConverter<T> {
     public T read(InputStream inputStream) throws IOException {
         return mapper.readValue(inputStream, documentClass);
     }
+
+    /**
+     * Reads the child elements with the given name one at a time, without binding the whole
+     * document. Other child elements are skipped.
+     *
+     * @param inputStream the input stream
+     * @param elementName name of the child elements
+     * @param elementClass type of the child elements
+     * @param callback called for every element as soon as it is read
+     * @throws IOException if any error occurred
+     */
+    public <E> void readElements(InputStream inputStream, String elementName, Class<E> elementClass,
+            ElementCallback<E> callback) throws IOException {
+        ObjectReader reader = mapper.readerFor(elementClass);
+        FromXmlParser parser = (FromXmlParser) mapper.getFactory().createParser(inputStream);
+        try {
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.VALUE_NULL || token == JsonToken.VALUE_STRING) {
+                // empty root element
+                return;
+            }
+            if (token != JsonToken.START_OBJECT) {
+                throw new IOException("Invalid document, root element is missing");
+            }
+            while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                token = parser.nextToken();
+                if (elementName.equals(name) && token == JsonToken.START_OBJECT) {
+                    callback.element(reader.<E>readValue(parser));
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Writes the elements one at a time as children of the document root element. The output is
+     * the same as writing a document with the given elements by {@link #write(Object, OutputStream)}.
+     *
+     * @param elements the elements
+     * @param elementName name of the child elements
+     * @param outputStream the output stream
+     * @throws IOException if any error occurred
+     */
+    public <E> void writeElements(Iterable<E> elements, String elementName, OutputStream outputStream)
+            throws IOException {
+        ObjectWriter writer = mapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        ToXmlGenerator generator = mapper.getFactory().createGenerator(outputStream, JsonEncoding.UTF8);
+        try {
+            if (mapper.isEnabled(SerializationFeature.INDENT_OUTPUT)) {
+                generator.useDefaultPrettyPrinter();
+            }
+            generator.setNextName(rootName);
+            generator.initGenerator();
+            generator.writeStartObject();
+            for (E element : elements) {
+                generator.writeFieldName(elementName);
+                writer.writeValue(generator, element);
+            }
+            generator.writeEndObject();
+        } finally {
+            generator.close();
+        }
+    }
 }
@@ -2,6 +2,8 @@ package jpass.crypt;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.util.Arrays;
 import java.util.Random;
 
@@ -9,7 +11,10 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import tirnav.passman.crypt.Aes256;
+import tirnav.passman.crypt.BlockCipherEngine;
 import tirnav.passman.crypt.Cbc;
+import tirnav.passman.crypt.CipherEngines;
 import tirnav.passman.crypt.DecryptException;
 
 /**
@@ -156,6 +161,46 @@ public class CbcTest {
         Assert.assertTrue(Arrays.equals(plain, _decrypted.toByteArray()));
     }
 
+    /**
+     * Test the bulk path with a small batch buffer. The data is passed in parts of random sizes, so
+     * partial blocks, whole blocks and full batches are mixed. The result has to be the same as the
+     * one of the reference implementation.
+     */
+    @Test
+    public void shouldEncryptAndDecryptInRandomParts() throws DecryptException, IOException {
+        Random rnd = new Random();
+        byte[] key = new byte[32];
+        byte[] iv = new byte[16];
+        byte[] data = new byte[5000];
+        rnd.nextBytes(key);
+        rnd.nextBytes(iv);
+        rnd.nextBytes(data);
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        Cbc reference = new Cbc(iv, new Aes256(key), expected);
+        reference.encrypt(data);
+        reference.finishEncryption();
+
+        Cbc encrypt = new Cbc(new BlockCipherEngine(new Aes256(key), iv), _encrypted, 48);
+        for (int offset = 0; offset < data.length;) {
+            int length = Math.min(rnd.nextInt(100), data.length - offset);
+            encrypt.encrypt(data, offset, length);
+            offset += length;
+        }
+        encrypt.finishEncryption();
+        Assert.assertTrue(Arrays.equals(expected.toByteArray(), _encrypted.toByteArray()));
+
+        byte[] encrypted = _encrypted.toByteArray();
+        Cbc decrypt = new Cbc(new BlockCipherEngine(new Aes256(key), iv), _decrypted, 48);
+        for (int offset = 0; offset < encrypted.length;) {
+            int length = Math.min(rnd.nextInt(100), encrypted.length - offset);
+            decrypt.decrypt(encrypted, offset, length);
+            offset += length;
+        }
+        decrypt.finishDecryption();
+        Assert.assertTrue(Arrays.equals(data, _decrypted.toByteArray()));
+    }
+
     /**
      * Test the encryption of one random message with the noted size.
      *
@@ -181,4 +226,49 @@ public class CbcTest {
 
         Assert.assertTrue(Arrays.equals(data, _decrypted.toByteArray()));
     }
+
+    /**
+     * Direct and heap buffers are passed in parts of random sizes, the output is written to a
+     * channel. The result has to be the same as the one of the array methods.
+     */
+    @Test
+    public void shouldEncryptAndDecryptBuffersInRandomParts() throws DecryptException, IOException {
+        Random rnd = new Random();
+        byte[] key = new byte[32];
+        byte[] iv = new byte[16];
+        byte[] data = new byte[5000];
+        rnd.nextBytes(key);
+        rnd.nextBytes(iv);
+        rnd.nextBytes(data);
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        Cbc reference = new Cbc(iv, new Aes256(key), expected);
+        reference.encrypt(data);
+        reference.finishEncryption();
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+        direct.put(data);
+        direct.flip();
+        Cbc encrypt = new Cbc(CipherEngines.newEngine(key, iv), Channels.newChannel(_encrypted), 48);
+        while (direct.hasRemaining()) {
+            ByteBuffer part = direct.duplicate();
+            part.limit(part.position() + Math.min(rnd.nextInt(100), part.remaining()));
+            encrypt.encrypt(part);
+            Assert.assertFalse(part.hasRemaining());
+            direct.position(part.position());
+        }
+        encrypt.finishEncryption();
+        Assert.assertTrue(Arrays.equals(expected.toByteArray(), _encrypted.toByteArray()));
+
+        ByteBuffer encrypted = ByteBuffer.wrap(_encrypted.toByteArray());
+        Cbc decrypt = new Cbc(new BlockCipherEngine(new Aes256(key), iv), _decrypted, 48);
+        while (encrypted.hasRemaining()) {
+            ByteBuffer part = encrypted.slice();
+            part.limit(Math.min(rnd.nextInt(100), part.remaining()));
+            decrypt.decrypt(part);
+            encrypted.position(encrypted.position() + part.position());
+        }
+        decrypt.finishDecryption();
+        Assert.assertTrue(Arrays.equals(data, _decrypted.toByteArray()));
+    }
 }
@@ -0,0 +1,147 @@
+package jpass.crypt;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import tirnav.passman.crypt.Aes256;
+import tirnav.passman.crypt.BlockCipherEngine;
+import tirnav.passman.crypt.Cbc;
+import tirnav.passman.crypt.CipherEngine;
+import tirnav.passman.crypt.CipherEngines;
+import tirnav.passman.crypt.JcaCipherEngine;
+import tirnav.passman.crypt.TableAes256;
+
+/**
+ * Tests that the JCA backed engine and the pure Java engine are interchangeable.
+ *
+ * @author jainj
+ *
+ */
+public class CipherEngineTest {
+
+    /**
+     * Number of blocks of the random message.
+     */
+    private static final int BLOCKS = 97;
+
+    /**
+     * Both engines have to produce the same cipher text, also when the message is passed in parts
+     * of different sizes.
+     */
+    @Test
+    public void shouldProduceSameOutputAsJavaImplementation() throws Exception {
+        Random rnd = new Random();
+        byte[] key = new byte[32];
+        byte[] iv = new byte[16];
+        byte[] data = new byte[BLOCKS * CipherEngine.BLOCK_SIZE];
+        rnd.nextBytes(key);
+        rnd.nextBytes(iv);
+        rnd.nextBytes(data);
+
+        byte[] expected = new byte[data.length];
+        new BlockCipherEngine(new Aes256(key), iv).encrypt(data, 0, data.length, expected, 0);
+
+        byte[] encrypted = new byte[data.length];
+        CipherEngine jca = new JcaCipherEngine(key, iv);
+        int offset = 0;
+        for (int blocks = 1; offset < data.length; ++blocks) {
+            int length = Math.min(blocks * CipherEngine.BLOCK_SIZE, data.length - offset);
+            jca.encrypt(data, offset, length, encrypted, offset);
+            offset += length;
+        }
+        Assert.assertTrue(Arrays.equals(expected, encrypted));
+
+        byte[] decrypted = encrypted.clone();
+        CipherEngine decrypter = CipherEngines.newEngine(key, iv);
+        decrypter.decrypt(decrypted, 0, 5 * CipherEngine.BLOCK_SIZE, decrypted, 0);
+        decrypter.decrypt(decrypted, 5 * CipherEngine.BLOCK_SIZE, data.length - 5 * CipherEngine.BLOCK_SIZE,
+                decrypted, 5 * CipherEngine.BLOCK_SIZE);
+        Assert.assertTrue(Arrays.equals(data, decrypted));
+    }
+
+    /**
+     * Data encrypted by the Java implementation has to be decrypted by the default engine, including
+     * the padding.
+     */
+    @Test
+    public void shouldDecryptDataOfJavaImplementation() throws Exception {
+        Random rnd = new Random();
+        byte[] key = new byte[32];
+        byte[] iv = new byte[16];
+        byte[] data = new byte[1000];
+        rnd.nextBytes(key);
+        rnd.nextBytes(iv);
+        rnd.nextBytes(data);
+
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        Cbc encrypt = new Cbc(iv, new Aes256(key), encrypted);
+        encrypt.encrypt(data);
+        encrypt.finishEncryption();
+
+        ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+        Cbc decrypt = new Cbc(iv, key, decrypted);
+        decrypt.decrypt(encrypted.toByteArray());
+        decrypt.finishDecryption();
+
+        Assert.assertTrue(Arrays.equals(data, decrypted.toByteArray()));
+    }
+
+    /**
+     * All engines have to produce the same output for heap, direct and little endian buffers,
+     * also when the data is processed in place.
+     */
+    @Test
+    public void shouldProcessBuffersInPlace() throws Exception {
+        Random rnd = new Random();
+        byte[] key = new byte[32];
+        byte[] iv = new byte[16];
+        byte[] data = new byte[BLOCKS * CipherEngine.BLOCK_SIZE];
+        rnd.nextBytes(key);
+        rnd.nextBytes(iv);
+        rnd.nextBytes(data);
+
+        byte[] expected = new byte[data.length];
+        new BlockCipherEngine(new Aes256(key), iv).encrypt(data, 0, data.length, expected, 0);
+
+        ByteBuffer[] buffers = {ByteBuffer.allocate(data.length + 3), ByteBuffer.allocateDirect(data.length + 3),
+            ByteBuffer.allocateDirect(data.length + 3).order(ByteOrder.LITTLE_ENDIAN)};
+        for (ByteBuffer buffer : buffers) {
+            CipherEngine[][] engines = {
+                {new BlockCipherEngine(new Aes256(key), iv), new BlockCipherEngine(new Aes256(key), iv)},
+                {new BlockCipherEngine(new TableAes256(key), iv), new BlockCipherEngine(new TableAes256(key), iv)},
+                {new JcaCipherEngine(key, iv), new JcaCipherEngine(key, iv)}};
+            for (CipherEngine[] engine : engines) {
+                buffer.clear();
+                buffer.position(3);
+                buffer.put(data);
+                buffer.position(3);
+                ByteBuffer part = buffer.duplicate();
+                part.limit(3 + 5 * CipherEngine.BLOCK_SIZE);
+                engine[0].encrypt(part, part);
+                Assert.assertEquals(3 + 5 * CipherEngine.BLOCK_SIZE, part.position());
+                part.limit(buffer.limit());
+                engine[0].encrypt(part, part);
+                Assert.assertFalse(part.hasRemaining());
+
+                byte[] encrypted = new byte[data.length];
+                buffer.get(encrypted);
+                Assert.assertTrue(Arrays.equals(expected, encrypted));
+
+                ByteBuffer decrypted = ByteBuffer.allocateDirect(data.length);
+                buffer.position(3);
+                engine[1].decrypt(buffer, decrypted);
+                Assert.assertFalse(decrypted.hasRemaining());
+                decrypted.flip();
+                byte[] plain = new byte[data.length];
+                decrypted.get(plain);
+                Assert.assertTrue(Arrays.equals(data, plain));
+            }
+        }
+    }
+}
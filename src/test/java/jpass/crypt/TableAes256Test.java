@@ -0,0 +1,102 @@
+package jpass.crypt;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import tirnav.passman.crypt.Aes256;
+import tirnav.passman.crypt.TableAes256;
+
+/**
+ * Tests the table driven AES implementation against the values of &quot;Federal Information
+ * Processing Standards Publication 197&quot; and against the reference implementation
+ * {@link Aes256}.
+ *
+ * @author jainj
+ *
+ */
+public class TableAes256Test {
+
+    /**
+     * Number of times, a random sample will be encrypted.
+     */
+    private static final int RANDOM_TRIES = 100;
+
+    /**
+     * Encrypts and Decrypts a test message. The results will be compared against the reference
+     * values.
+     */
+    @Test
+    public void shouldEntryptAndDecryptATestMessage() {
+        byte[] key = new byte[32];
+        for (int i = 0; i < key.length; ++i) {
+            key[i] = (byte) i;
+        }
+        byte[] block = new byte[16];
+        for (int i = 0; i < block.length; ++i) {
+            block[i] = (byte) (i * 0x11);
+        }
+        byte[] expectedEncrypted = {(byte) 0x8e, (byte) 0xa2, (byte) 0xb7, (byte) 0xca, (byte) 0x51, (byte) 0x67,
+            (byte) 0x45, (byte) 0xbf, (byte) 0xea, (byte) 0xfc, (byte) 0x49, (byte) 0x90, (byte) 0x4b, (byte) 0x49,
+            (byte) 0x60, (byte) 0x89};
+
+        TableAes256 cipher = new TableAes256(key);
+
+        byte[] encrypted = new byte[16];
+        cipher.encrypt(block, 0, encrypted, 0);
+        Assert.assertTrue(Arrays.equals(expectedEncrypted, encrypted));
+
+        byte[] decrypted = new byte[16];
+        cipher.decrypt(expectedEncrypted, 0, decrypted, 0);
+        Assert.assertTrue(Arrays.equals(block, decrypted));
+    }
+
+    /**
+     * Random keys and blocks must give the same results as the reference implementation, also when
+     * the blocks do not start at the beginning of the arrays.
+     */
+    @Test
+    public void shouldMatchReferenceImplementation() {
+        Random rnd = new Random();
+        byte[] key = new byte[32];
+        byte[] data = new byte[21];
+        byte[] expected = new byte[16];
+        byte[] encrypted = new byte[19];
+        byte[] decrypted = new byte[16];
+
+        for (int i = 0; i < RANDOM_TRIES; ++i) {
+            rnd.nextBytes(key);
+            rnd.nextBytes(data);
+            Aes256 reference = new Aes256(key);
+            TableAes256 cipher = new TableAes256(key);
+
+            reference.encrypt(data, 5, expected, 0);
+            cipher.encrypt(data, 5, encrypted, 3);
+            Assert.assertTrue(Arrays.equals(expected, Arrays.copyOfRange(encrypted, 3, 19)));
+
+            cipher.decrypt(encrypted, 3, decrypted, 0);
+            Assert.assertTrue(Arrays.equals(Arrays.copyOfRange(data, 5, 21), decrypted));
+        }
+    }
+
+    /**
+     * Encryption and decryption have to work in place.
+     */
+    @Test
+    public void shouldEncryptAndDecryptInPlace() {
+        Random rnd = new Random();
+        byte[] key = new byte[32];
+        byte[] data = new byte[16];
+        rnd.nextBytes(key);
+        rnd.nextBytes(data);
+        byte[] block = data.clone();
+
+        TableAes256 cipher = new TableAes256(key);
+        cipher.encrypt(block, 0, block, 0);
+        Assert.assertFalse(Arrays.equals(data, block));
+        cipher.decrypt(block, 0, block, 0);
+        Assert.assertTrue(Arrays.equals(data, block));
+    }
+}
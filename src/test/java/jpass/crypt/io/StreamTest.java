@@ -2,19 +2,28 @@ package jpass.crypt.io;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
 import java.util.Random;
 
 import org.junit.Assert;
 import org.junit.Test;
 
+import tirnav.passman.crypt.io.CryptChannel;
 import tirnav.passman.crypt.io.CryptInputStream;
 import tirnav.passman.crypt.io.CryptOutputStream;
+import tirnav.passman.crypt.io.MappedCryptInputStream;
 
 /**
- * Tests {@link tirnav.passman.crypt.io.CryptInputStream} and {@link tirnav.passman.crypt.io.CryptOutputStream}. A
- * random message will be encrypted and decrypted.
+ * Tests {@link tirnav.passman.crypt.io.CryptInputStream}, {@link tirnav.passman.crypt.io.MappedCryptInputStream},
+ * {@link tirnav.passman.crypt.io.CryptOutputStream} and {@link tirnav.passman.crypt.io.CryptChannel}. A random
+ * message will be encrypted and decrypted.
  *
  * @author Timm Knape
  * @version $Revision: 1.3 $
@@ -59,4 +68,181 @@ public class StreamTest {
         Assert.assertEquals(plain.length, decrypted.toByteArray().length);
         Assert.assertTrue(Arrays.equals(plain, decrypted.toByteArray()));
     }
+
+    /**
+     * A large random message will be written and read in parts of random sizes with small buffers,
+     * so the array based paths have to handle partial blocks and chunk boundaries.
+     */
+    @Test
+    public void shouldDecryptWithArrayReadsAndWrites() throws IOException {
+        byte[] key = new byte[32];
+        Random rnd = new Random();
+        rnd.nextBytes(key);
+
+        byte[] plain = new byte[100 * DATA_SIZE + 7];
+        rnd.nextBytes(plain);
+
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        CryptOutputStream output = new CryptOutputStream(encrypted, key, 64);
+        for (int offset = 0; offset < plain.length;) {
+            int length = Math.min(rnd.nextInt(300), plain.length - offset);
+            output.write(plain, offset, length);
+            offset += length;
+        }
+        output.close();
+
+        CryptInputStream decrypter = new CryptInputStream(new ByteArrayInputStream(encrypted.toByteArray()), key, 48);
+        ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+        byte[] buffer = new byte[200];
+        int read;
+        while ((read = decrypter.read(buffer, 0, 1 + rnd.nextInt(buffer.length))) >= 0) {
+            decrypted.write(buffer, 0, read);
+        }
+        decrypter.close();
+
+        Assert.assertTrue(Arrays.equals(plain, decrypted.toByteArray()));
+    }
+
+    /**
+     * A random message will be encrypted into a file, and decrypted from the mapped file with a
+     * buffer that is not a multiple of the block size.
+     */
+    @Test
+    public void shouldDecryptAMappedFile() throws IOException {
+        byte[] key = new byte[32];
+        Random rnd = new Random();
+        rnd.nextBytes(key);
+
+        byte[] plain = new byte[100 * DATA_SIZE + 7];
+        rnd.nextBytes(plain);
+
+        File file = File.createTempFile("stream", ".test");
+        try {
+            CryptOutputStream output = new CryptOutputStream(new FileOutputStream(file), key);
+            output.write(plain);
+            output.close();
+
+            RandomAccessFile input = new RandomAccessFile(file, "r");
+            ByteBuffer mapped;
+            try {
+                mapped = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, input.length());
+            } finally {
+                input.close();
+            }
+            MappedCryptInputStream decrypter = new MappedCryptInputStream(mapped, key, 100);
+            ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+            byte[] buffer = new byte[200];
+            int read;
+            while ((read = decrypter.read(buffer, 0, 1 + rnd.nextInt(buffer.length))) >= 0) {
+                decrypted.write(buffer, 0, read);
+            }
+            decrypter.close();
+
+            Assert.assertTrue(Arrays.equals(plain, decrypted.toByteArray()));
+            Assert.assertEquals(0, mapped.position());
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Messages of whole blocks, including the empty message, keep their length, and data that
+     * is not made of whole blocks is rejected.
+     */
+    @Test
+    public void shouldHandleBlockBoundariesOfMappedData() throws IOException {
+        byte[] key = new byte[32];
+        Random rnd = new Random();
+        rnd.nextBytes(key);
+
+        for (int length : new int[] {0, 16, 32}) {
+            byte[] plain = new byte[length];
+            rnd.nextBytes(plain);
+            ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+            CryptOutputStream output = new CryptOutputStream(encrypted, key);
+            output.write(plain);
+            output.close();
+
+            MappedCryptInputStream decrypter = new MappedCryptInputStream(ByteBuffer.wrap(encrypted.toByteArray()), key);
+            ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+            int read;
+            while ((read = decrypter.read()) >= 0) {
+                decrypted.write(read);
+            }
+            Assert.assertTrue(Arrays.equals(plain, decrypted.toByteArray()));
+        }
+
+        try {
+            new MappedCryptInputStream(ByteBuffer.wrap(new byte[40]), key);
+            Assert.fail("Partial block accepted");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    /**
+     * A random message will be encrypted by a channel, transferred from a file, and decrypted by the
+     * stream. The stream output is transferred to a file through a channel and read back.
+     */
+    @Test
+    public void shouldTransferFilesThroughChannels() throws IOException {
+        byte[] key = new byte[32];
+        Random rnd = new Random();
+        rnd.nextBytes(key);
+
+        byte[] plain = new byte[100 * DATA_SIZE + 7];
+        rnd.nextBytes(plain);
+
+        File file = File.createTempFile("stream", ".test");
+        try {
+            FileOutputStream plainFile = new FileOutputStream(file);
+            plainFile.write(plain);
+            plainFile.close();
+
+            ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+            CryptChannel writer = CryptChannel.forWriting(Channels.newChannel(encrypted), key);
+            FileChannel source = new RandomAccessFile(file, "r").getChannel();
+            try {
+                long position = 0;
+                while (position < source.size()) {
+                    position += source.transferTo(position, 333, writer);
+                }
+            } finally {
+                source.close();
+            }
+            Assert.assertEquals(0, writer.write(ByteBuffer.allocateDirect(0)));
+            writer.close();
+
+            CryptInputStream decrypter = new CryptInputStream(new ByteArrayInputStream(encrypted.toByteArray()), key);
+            ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+            byte[] buffer = new byte[200];
+            int read;
+            while ((read = decrypter.read(buffer)) >= 0) {
+                decrypted.write(buffer, 0, read);
+            }
+            decrypter.close();
+            Assert.assertTrue(Arrays.equals(plain, decrypted.toByteArray()));
+
+            CryptChannel reader = CryptChannel.forReading(
+                    Channels.newChannel(new ByteArrayInputStream(encrypted.toByteArray())), key);
+            FileChannel target = new RandomAccessFile(file, "rw").getChannel();
+            try {
+                target.truncate(0);
+                long position = 0;
+                long count;
+                while ((count = target.transferFrom(reader, position, 1000)) > 0) {
+                    position += count;
+                }
+                Assert.assertEquals(plain.length, target.size());
+                ByteBuffer content = ByteBuffer.allocate(plain.length);
+                target.read(content, 0);
+                Assert.assertTrue(Arrays.equals(plain, content.array()));
+            } finally {
+                target.close();
+                reader.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
 }
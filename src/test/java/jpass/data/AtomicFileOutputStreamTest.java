@@ -0,0 +1,131 @@
+package jpass.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import tirnav.passman.data.AtomicFileOutputStream;
+import tirnav.passman.data.SyncPolicy;
+
+/**
+ * Tests {@link tirnav.passman.data.AtomicFileOutputStream}.
+ *
+ * @author jainj
+ *
+ */
+public class AtomicFileOutputStreamTest {
+
+    private File directory;
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        this.directory = Files.createTempDirectory("atomic").toFile();
+        this.file = new File(this.directory, "vault.pass");
+    }
+
+    @After
+    public void tearDown() {
+        for (File child : this.directory.listFiles()) {
+            child.delete();
+        }
+        this.directory.delete();
+    }
+
+    private void save(String content, SyncPolicy syncPolicy, int backupCount) throws IOException {
+        AtomicFileOutputStream out = new AtomicFileOutputStream(this.file, syncPolicy, backupCount);
+        out.write(content.getBytes("UTF-8"));
+        out.close();
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), "UTF-8");
+    }
+
+    /**
+     * The file is replaced on close with every sync policy, no temporary file is left.
+     */
+    @Test
+    public void shouldReplaceFileOnClose() throws IOException {
+        for (SyncPolicy syncPolicy : SyncPolicy.values()) {
+            save("content " + syncPolicy, syncPolicy, 0);
+            Assert.assertEquals("content " + syncPolicy, read(this.file));
+            Assert.assertEquals(Arrays.asList("vault.pass"), Arrays.asList(this.directory.list()));
+        }
+    }
+
+    /**
+     * A discarded stream must not change the file.
+     */
+    @Test
+    public void shouldKeepFileWhenDiscarded() throws IOException {
+        save("original", SyncPolicy.DATA, 0);
+
+        AtomicFileOutputStream out = new AtomicFileOutputStream(this.file, SyncPolicy.DATA, 0);
+        out.write("partial".getBytes("UTF-8"));
+        Assert.assertEquals("original", read(this.file));
+        out.discard();
+        out.close();
+
+        Assert.assertEquals("original", read(this.file));
+        Assert.assertEquals(Arrays.asList("vault.pass"), Arrays.asList(this.directory.list()));
+    }
+
+    /**
+     * The previous versions are rotated, only the configured number of backups is kept.
+     */
+    @Test
+    public void shouldRotateBackups() throws IOException {
+        for (int i = 1; i <= 4; i++) {
+            save("version" + i, SyncPolicy.NONE, 2);
+        }
+        Assert.assertEquals("version4", read(this.file));
+        Assert.assertEquals("version3", read(new File(this.directory, "vault.pass.bak1")));
+        Assert.assertEquals("version2", read(new File(this.directory, "vault.pass.bak2")));
+        Assert.assertEquals(3, this.directory.list().length);
+    }
+
+    /**
+     * The new file keeps the permissions of the replaced file, not the ones of a temporary file.
+     */
+    @Test
+    public void shouldKeepPermissions() throws IOException {
+        Assume.assumeTrue(Files.getFileStore(this.directory.toPath()).supportsFileAttributeView("posix"));
+        save("version1", SyncPolicy.NONE, 0);
+        Set<PosixFilePermission> permissions = PosixFilePermissions.fromString("rw-r-----");
+        Files.setPosixFilePermissions(this.file.toPath(), permissions);
+
+        save("version2", SyncPolicy.NONE, 0);
+        Assert.assertEquals("version2", read(this.file));
+        Assert.assertEquals(permissions, Files.getPosixFilePermissions(this.file.toPath()));
+    }
+
+    /**
+     * A symbolic link is kept, the file it points to is replaced.
+     */
+    @Test
+    public void shouldReplaceLinkedFile() throws IOException {
+        File linked = new File(this.directory, "linked.pass");
+        save("version1", SyncPolicy.NONE, 0);
+        Files.move(this.file.toPath(), linked.toPath());
+        try {
+            Files.createSymbolicLink(this.file.toPath(), linked.toPath());
+        } catch (UnsupportedOperationException e) {
+            Assume.assumeNoException(e);
+        }
+
+        save("version2", SyncPolicy.NONE, 0);
+        Assert.assertTrue(Files.isSymbolicLink(this.file.toPath()));
+        Assert.assertEquals("version2", read(linked));
+    }
+}
@@ -0,0 +1,191 @@
+package jpass.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import tirnav.passman.data.ChunkedDeflaterOutputStream;
+import tirnav.passman.data.ChunkedInflaterInputStream;
+
+/**
+ * Tests {@link tirnav.passman.data.ChunkedDeflaterOutputStream} and
+ * {@link tirnav.passman.data.ChunkedInflaterInputStream}.
+ *
+ * @author jainj
+ *
+ */
+public class ChunkedDeflaterOutputStreamTest {
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        this.executor = Executors.newFixedThreadPool(3);
+    }
+
+    @After
+    public void tearDown() {
+        this.executor.shutdown();
+    }
+
+    private byte[] compress(byte[] data, int chunkSize) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        OutputStream out = new ChunkedDeflaterOutputStream(output, chunkSize, this.executor, 2);
+        // mixes single bytes and arrays crossing the chunk boundaries
+        out.write(data, 0, data.length / 3);
+        for (int i = data.length / 3; i < data.length / 2; i++) {
+            out.write(data[i]);
+        }
+        out.write(data, data.length / 2, data.length - data.length / 2);
+        out.close();
+        return output.toByteArray();
+    }
+
+    private static byte[] decompress(byte[] compressed) throws IOException {
+        InputStream in = new ChunkedInflaterInputStream(new ByteArrayInputStream(compressed));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[777];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            output.write(buffer, 0, read);
+        }
+        in.close();
+        return output.toByteArray();
+    }
+
+    private static byte[] newData(int length) {
+        byte[] data = new byte[length];
+        Random random = new Random(42);
+        for (int i = 0; i < length; i++) {
+            // compressible, but not trivial
+            data[i] = (byte) ('a' + random.nextInt(8));
+        }
+        return data;
+    }
+
+    /**
+     * The chunks are written in order, regardless of the order they are compressed in.
+     */
+    @Test
+    public void shouldDecompressChunksInOrder() throws IOException {
+        byte[] data = newData(100000);
+        byte[] compressed = compress(data, 4096);
+        Assert.assertTrue(compressed.length < data.length);
+        Assert.assertTrue(Arrays.equals(data, decompress(compressed)));
+    }
+
+    /**
+     * Random data does not compress, the chunks grow slightly.
+     */
+    @Test
+    public void shouldStoreIncompressibleData() throws IOException {
+        byte[] data = new byte[50000];
+        new Random(7).nextBytes(data);
+        Assert.assertTrue(Arrays.equals(data, decompress(compress(data, 1000))));
+    }
+
+    /**
+     * An empty stream consists of the end marker only.
+     */
+    @Test
+    public void shouldWriteEmptyStream() throws IOException {
+        byte[] compressed = compress(new byte[0], 1024);
+        Assert.assertEquals(4, compressed.length);
+        Assert.assertEquals(0, decompress(compressed).length);
+    }
+
+    /**
+     * Corrupt data is detected by the checksum of the chunks.
+     */
+    @Test(expected = IOException.class)
+    public void shouldDetectCorruptChunk() throws IOException {
+        byte[] compressed = compress(newData(10000), 4096);
+        compressed[20] ^= 0x10;
+        decompress(compressed);
+    }
+
+    /**
+     * A stream without the end marker is incomplete.
+     */
+    @Test(expected = IOException.class)
+    public void shouldDetectTruncatedStream() throws IOException {
+        byte[] compressed = compress(newData(10000), 4096);
+        decompress(Arrays.copyOf(compressed, compressed.length - 4));
+    }
+
+    /**
+     * Errors of the underlying stream are reported when the stream is closed.
+     */
+    @Test(expected = IOException.class)
+    public void shouldReportWriteError() throws IOException {
+        OutputStream failing = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("disk full");
+            }
+        };
+        OutputStream out = new ChunkedDeflaterOutputStream(failing, 1024, this.executor, 2);
+        out.write(newData(10000));
+        out.close();
+    }
+
+    /**
+     * An unchecked failure of the underlying stream must not stop the writer thread silently, the
+     * save has to fail instead of waiting for the full queue.
+     */
+    @Test(timeout = 10000)
+    public void shouldReportUncheckedWriteError() throws IOException {
+        OutputStream failing = new OutputStream() {
+            @Override
+            public void write(int b) {
+                throw new IllegalStateException("broken");
+            }
+        };
+        OutputStream out = new ChunkedDeflaterOutputStream(failing, 1024, this.executor, 1);
+        try {
+            out.write(newData(100000));
+            out.close();
+            Assert.fail("The error was not reported");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    /**
+     * An interrupted close stops the writer thread and still closes the underlying stream.
+     */
+    @Test
+    public void shouldCloseStreamWhenInterrupted() throws IOException {
+        final boolean[] closed = new boolean[1];
+        OutputStream target = new ByteArrayOutputStream() {
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+        OutputStream out = new ChunkedDeflaterOutputStream(target, 1024, this.executor, 1);
+        out.write(newData(100));
+        Thread.currentThread().interrupt();
+        try {
+            out.close();
+            Assert.fail("The interruption was not reported");
+        } catch (InterruptedIOException e) {
+            // expected
+        } finally {
+            Assert.assertTrue(Thread.interrupted());
+        }
+        Assert.assertTrue(closed[0]);
+    }
+}
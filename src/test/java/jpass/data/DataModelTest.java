@@ -0,0 +1,202 @@
+package jpass.data;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import tirnav.passman.data.DataModel;
+import tirnav.passman.xml.bind.Entries;
+import tirnav.passman.xml.bind.Entry;
+
+/**
+ * Tests the title index of {@link tirnav.passman.data.DataModel}.
+ *
+ * @author jainj
+ *
+ */
+public class DataModelTest {
+
+    private DataModel model;
+
+    @Before
+    public void setUp() {
+        this.model = DataModel.getInstance();
+        this.model.clear();
+    }
+
+    @After
+    public void tearDown() {
+        this.model.clear();
+    }
+
+    private static Entry newEntry(String title) {
+        Entry entry = new Entry();
+        entry.setTitle(title);
+        return entry;
+    }
+
+    /**
+     * The index has to follow add, replace and remove operations.
+     */
+    @Test
+    public void shouldFindEntriesAfterModifications() {
+        Entry a = newEntry("a");
+        Entry b = newEntry("b");
+        Entry c = newEntry("c");
+        this.model.addEntry(a);
+        this.model.addEntry(b);
+        this.model.addEntry(c);
+        Assert.assertEquals(1, this.model.getEntryIndexByTitle("b"));
+        Assert.assertSame(c, this.model.getEntryByTitle("c"));
+
+        Entry d = newEntry("d");
+        this.model.addEntry(d);
+        Assert.assertEquals(3, this.model.getEntryIndexByTitle("d"));
+
+        Entry b2 = newEntry("b2");
+        this.model.replaceEntry(b, b2);
+        Assert.assertEquals(-1, this.model.getEntryIndexByTitle("b"));
+        Assert.assertSame(b2, this.model.getEntryByTitle("b2"));
+        Assert.assertEquals(1, this.model.getEntryIndexByTitle("b2"));
+
+        this.model.removeEntry(a);
+        Assert.assertNull(this.model.getEntryByTitle("a"));
+        Assert.assertEquals(0, this.model.getEntryIndexByTitle("b2"));
+        Assert.assertEquals(2, this.model.getEntryIndexByTitle("d"));
+    }
+
+    /**
+     * Loading new entries has to replace the index.
+     */
+    @Test
+    public void shouldIndexLoadedEntries() {
+        this.model.addEntry(newEntry("old"));
+        Assert.assertNotNull(this.model.getEntryByTitle("old"));
+
+        Entries entries = new Entries();
+        entries.getEntry().add(newEntry("x"));
+        entries.getEntry().add(newEntry("y"));
+        this.model.setEntries(entries);
+
+        Assert.assertNull(this.model.getEntryByTitle("old"));
+        Assert.assertEquals(1, this.model.getEntryIndexByTitle("y"));
+    }
+
+    /**
+     * Lookups have to stay correct, if entries are added or removed directly in the list.
+     */
+    @Test
+    public void shouldDetectDirectModifications() {
+        this.model.addEntry(newEntry("a"));
+        this.model.addEntry(newEntry("b"));
+        Assert.assertEquals(1, this.model.getEntryIndexByTitle("b"));
+
+        this.model.getEntries().getEntry().add(0, newEntry("z"));
+        Assert.assertEquals(2, this.model.getEntryIndexByTitle("b"));
+        Assert.assertEquals(0, this.model.getEntryIndexByTitle("z"));
+
+        this.model.getEntries().getEntry().remove(0);
+        Assert.assertEquals(-1, this.model.getEntryIndexByTitle("z"));
+        Assert.assertEquals(0, this.model.getEntryIndexByTitle("a"));
+    }
+
+    /**
+     * The search index reads only its own state. Entries added directly to the list are found
+     * after the index is synchronized.
+     */
+    @Test
+    public void shouldSearchIndexOnlyAfterSync() {
+        this.model.addEntry(newEntry("mail"));
+        Entry direct = newEntry("mailbox");
+        this.model.getEntries().getEntry().add(direct);
+        Assert.assertEquals(1, this.model.search("mail").size());
+
+        this.model.syncSearchIndex();
+        Assert.assertEquals(2, this.model.search("mail").size());
+        Assert.assertTrue(this.model.search("mail").contains(direct));
+    }
+
+    /**
+     * Like {@code indexOf}, the first entry with the title is found.
+     */
+    @Test
+    public void shouldFindFirstEntryWithTitle() {
+        Entry first = newEntry("same");
+        this.model.addEntry(first);
+        this.model.addEntry(newEntry("same"));
+
+        Assert.assertSame(first, this.model.getEntryByTitle("same"));
+        Assert.assertEquals(0, this.model.getEntryIndexByTitle("same"));
+    }
+
+    /**
+     * The entry operations are recorded for the journal until they are saved.
+     */
+    @Test
+    public void shouldRecordChanges() {
+        Entry a = newEntry("a");
+        this.model.addEntry(a);
+        this.model.addEntry(newEntry("b"));
+        long saved = this.model.getChangeSequence();
+        this.model.replaceEntry(a, newEntry("a2"));
+        Assert.assertEquals(3, this.model.getChanges().size());
+
+        this.model.removeChanges(saved);
+        this.model.removeEntry(this.model.getEntryByTitle("b"));
+        Assert.assertEquals(2, this.model.getChanges().size());
+
+        this.model.setEntries(new Entries());
+        Assert.assertTrue(this.model.getChanges().isEmpty());
+        Assert.assertNull(this.model.getJournalMark());
+    }
+
+    /**
+     * A save removes only the changes it has written, not the ones recorded after it took them.
+     */
+    @Test
+    public void shouldRemoveOnlySavedChanges() {
+        this.model.addEntry(newEntry("a"));
+        long saved = this.model.getChangeSequence();
+        this.model.addEntry(newEntry("b"));
+        this.model.removeChanges(saved);
+        this.model.removeChanges(saved);
+        Assert.assertEquals(1, this.model.getChanges().size());
+
+        // the changes of a newly opened file are not removed by an earlier save
+        this.model.setEntries(new Entries());
+        this.model.addEntry(newEntry("c"));
+        this.model.removeChanges(saved + 1);
+        Assert.assertEquals(1, this.model.getChanges().size());
+        this.model.removeChanges(this.model.getChangeSequence());
+        Assert.assertTrue(this.model.getChanges().isEmpty());
+    }
+
+    /**
+     * The data model keeps its own copy of the password, and hands out copies, so every holder
+     * can wipe its array.
+     */
+    @Test
+    public void shouldKeepOwnCopyOfPassword() {
+        byte[] password = { 1, 2, 3 };
+        this.model.setPassword(password);
+        long version = this.model.getPasswordVersion();
+        Arrays.fill(password, (byte) 0);
+        byte[] copy = this.model.getPassword();
+        Assert.assertArrayEquals(new byte[] { 1, 2, 3 }, copy);
+        Arrays.fill(copy, (byte) 0);
+        Assert.assertArrayEquals(new byte[] { 1, 2, 3 }, this.model.getPassword());
+
+        // setting the same password again does not change the version
+        this.model.setPassword(new byte[] { 1, 2, 3 });
+        Assert.assertEquals(version, this.model.getPasswordVersion());
+        this.model.setPassword(new byte[] { 4 });
+        Assert.assertTrue(this.model.getPasswordVersion() > version);
+
+        this.model.clear();
+        Assert.assertFalse(this.model.hasPassword());
+        Assert.assertNull(this.model.getPassword());
+    }
+}
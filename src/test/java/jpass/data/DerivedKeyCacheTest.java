@@ -0,0 +1,80 @@
+package jpass.data;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import tirnav.passman.data.DerivedKeyCache;
+import tirnav.passman.data.VaultHeader;
+import tirnav.passman.util.CryptUtils;
+
+/**
+ * Tests {@link tirnav.passman.data.DerivedKeyCache}.
+ *
+ * @author jainj
+ *
+ */
+public class DerivedKeyCacheTest {
+
+    @After
+    public void tearDown() {
+        DerivedKeyCache.getInstance().clear();
+    }
+
+    /**
+     * The cached key has to be the same as the derived one, and it is derived only once per file
+     * and salt.
+     */
+    @Test
+    public void shouldCacheDerivedKey() throws Exception {
+        DerivedKeyCache cache = DerivedKeyCache.getInstance();
+        VaultHeader header = VaultHeader.newInstance(1000);
+        byte[] password = CryptUtils.toBytes("secret".toCharArray());
+
+        byte[] key = cache.deriveKey("test.pass", header, password);
+        Assert.assertTrue(Arrays.equals(header.deriveKey(password), key));
+        Assert.assertEquals(1, cache.size());
+
+        Assert.assertTrue(Arrays.equals(key, cache.deriveKey("test.pass", header, password)));
+        Assert.assertEquals(1, cache.size());
+
+        cache.deriveKey("other.pass", header, password);
+        cache.deriveKey("test.pass", VaultHeader.newInstance(1000), password);
+        Assert.assertEquals(3, cache.size());
+    }
+
+    /**
+     * A wrong password must not get the cached key.
+     */
+    @Test
+    public void shouldNotReturnCachedKeyForWrongPassword() throws Exception {
+        DerivedKeyCache cache = DerivedKeyCache.getInstance();
+        VaultHeader header = VaultHeader.newInstance(1000);
+        byte[] password = CryptUtils.toBytes("secret".toCharArray());
+        byte[] wrong = CryptUtils.toBytes("wrong".toCharArray());
+
+        byte[] key = cache.deriveKey("test.pass", header, password);
+        byte[] wrongKey = cache.deriveKey("test.pass", header, wrong);
+
+        Assert.assertFalse(Arrays.equals(key, wrongKey));
+        Assert.assertTrue(Arrays.equals(header.deriveKey(wrong), wrongKey));
+    }
+
+    /**
+     * Returned keys are copies, wiping the cache does not modify them.
+     */
+    @Test
+    public void shouldClearCache() throws Exception {
+        DerivedKeyCache cache = DerivedKeyCache.getInstance();
+        VaultHeader header = VaultHeader.newInstance(1000);
+        byte[] password = CryptUtils.toBytes("secret".toCharArray());
+
+        byte[] key = cache.deriveKey("test.pass", header, password);
+        cache.clear();
+
+        Assert.assertEquals(0, cache.size());
+        Assert.assertTrue(Arrays.equals(header.deriveKey(password), key));
+    }
+}
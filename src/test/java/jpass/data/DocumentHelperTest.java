@@ -0,0 +1,624 @@
+package jpass.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import tirnav.passman.crypt.io.CryptOutputStream;
+import tirnav.passman.data.DataModel;
+import tirnav.passman.data.DerivedKeyCache;
+import tirnav.passman.data.DocumentFormat;
+import tirnav.passman.data.DocumentHelper;
+import tirnav.passman.data.DocumentProcessException;
+import tirnav.passman.data.Journal;
+import tirnav.passman.data.VaultHeader;
+import tirnav.passman.util.CryptUtils;
+import tirnav.passman.xml.bind.Entries;
+import tirnav.passman.xml.bind.Entry;
+import tirnav.passman.xml.converter.ElementCallback;
+import tirnav.passman.xml.converter.XmlConverter;
+
+/**
+ * Tests reading and writing encrypted files with {@link tirnav.passman.data.DocumentHelper}.
+ *
+ * @author jainj
+ *
+ */
+public class DocumentHelperTest {
+
+    /**
+     * Temporary data file.
+     */
+    private File file;
+
+    /**
+     * Password of the data file.
+     */
+    private byte[] password;
+
+    @Before
+    public void setUp() throws Exception {
+        this.file = File.createTempFile("document", ".pass");
+        this.password = CryptUtils.toBytes("secret".toCharArray());
+    }
+
+    @After
+    public void tearDown() {
+        this.file.delete();
+        Journal.getFile(this.file.getPath()).delete();
+    }
+
+    private static Entries newEntries() {
+        Entries entries = new Entries();
+        for (int i = 0; i < 3; i++) {
+            Entry entry = new Entry();
+            entry.setTitle("title" + i);
+            entry.setUser("user" + i);
+            entry.setPassword("password" + i);
+            entries.getEntry().add(entry);
+        }
+        return entries;
+    }
+
+    /**
+     * A written file starts with a PBKDF2 header, and can be read again with the same password.
+     */
+    @Test
+    public void shouldReadWrittenDocument() throws Exception {
+        VaultHeader header = VaultHeader.newInstance(1000);
+        DocumentHelper.newInstance(this.file.getPath(), this.password, header).writeDocument(newEntries());
+
+        DocumentHelper helper = DocumentHelper.newInstance(this.file.getPath(), this.password);
+        Entries entries = helper.readDocument();
+
+        Assert.assertEquals(3, entries.getEntry().size());
+        Assert.assertEquals("password2", entries.getEntry().get(2).getPassword());
+        Assert.assertEquals(VaultHeader.KDF_PBKDF2_SHA256, helper.getHeader().getKdf());
+        Assert.assertEquals(DocumentFormat.XML, helper.getFormat());
+        Assert.assertEquals(1000, helper.getHeader().getIterations());
+        Assert.assertTrue(Arrays.equals(header.getSalt(), helper.getHeader().getSalt()));
+    }
+
+    /**
+     * Files without header are encrypted with the unsalted hash, they have to be readable, and
+     * are upgraded when they are written.
+     */
+    @Test
+    public void shouldReadAndUpgradeLegacyDocument() throws Exception {
+        OutputStream output = new GZIPOutputStream(new CryptOutputStream(new BufferedOutputStream(
+                new FileOutputStream(this.file)), CryptUtils.getPKCS5Sha256Hash("secret".toCharArray())));
+        new XmlConverter<Entries>(Entries.class).write(newEntries(), output);
+        output.close();
+
+        DocumentHelper helper = DocumentHelper.newInstance(this.file.getPath(), this.password);
+        Entries entries = helper.readDocument();
+        Assert.assertEquals(3, entries.getEntry().size());
+        Assert.assertTrue(helper.getHeader().isLegacy());
+
+        DocumentHelper writer = DocumentHelper.newInstance(this.file.getPath(), this.password, helper.getHeader());
+        writer.writeDocument(entries);
+        Assert.assertFalse(writer.getHeader().isLegacy());
+
+        helper = DocumentHelper.newInstance(this.file.getPath(), this.password);
+        Assert.assertEquals(3, helper.readDocument().getEntry().size());
+        Assert.assertFalse(helper.getHeader().isLegacy());
+    }
+
+    /**
+     * The same password must not result in the same file header twice.
+     */
+    @Test
+    public void shouldUseDifferentSalts() throws Exception {
+        Assert.assertFalse(Arrays.equals(VaultHeader.newInstance(1000).getSalt(),
+                VaultHeader.newInstance(1000).getSalt()));
+    }
+
+    /**
+     * Reading with a wrong password has to fail.
+     */
+    @Test(expected = DocumentProcessException.class)
+    public void shouldNotReadWithWrongPassword() throws Exception {
+        DocumentHelper.newInstance(this.file.getPath(), this.password, VaultHeader.newInstance(1000))
+                .writeDocument(newEntries());
+
+        DocumentHelper.newInstance(this.file.getPath(), CryptUtils.toBytes("wrong".toCharArray())).readDocument();
+    }
+
+    /**
+     * The header is stored unencrypted in front of the initialization vector.
+     */
+    @Test
+    public void shouldWriteHeaderInFrontOfData() throws Exception {
+        VaultHeader header = VaultHeader.newInstance(1000);
+        DocumentHelper.newInstance(this.file.getPath(), this.password, header).writeDocument(newEntries());
+
+        InputStream input = new BufferedInputStream(new FileInputStream(this.file));
+        try {
+            VaultHeader read = VaultHeader.read(input);
+            Assert.assertEquals(VaultHeader.VERSION, read.getVersion());
+            Assert.assertEquals(header.getIterations(), read.getIterations());
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * A header with an absurd number of iterations is rejected before the key is derived.
+     */
+    @Test(expected = IOException.class)
+    public void shouldRejectTooManyIterations() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.write(new byte[] {'P', 'M', 'V', 'A', 'U', 'L', 'T', 0});
+        data.writeByte(VaultHeader.VERSION);
+        data.writeByte(VaultHeader.KDF_PBKDF2_SHA256);
+        data.writeInt(VaultHeader.MAX_ITERATIONS + 1);
+        data.writeByte(VaultHeader.SALT_LENGTH);
+        data.write(new byte[VaultHeader.SALT_LENGTH]);
+        VaultHeader.read(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+
+    /**
+     * Entries are passed to the callback in document order while they are read.
+     */
+    @Test
+    public void shouldPassEntriesToCallback() throws Exception {
+        DocumentHelper.newInstance(this.file.getPath(), this.password, VaultHeader.newInstance(1000))
+                .writeDocument(newEntries());
+
+        final List<String> titles = new ArrayList<String>();
+        Entries entries = DocumentHelper.newInstance(this.file.getPath(), this.password).readDocument(
+                new ElementCallback<Entry>() {
+                    @Override
+                    public void element(Entry entry) {
+                        titles.add(entry.getTitle());
+                    }
+                });
+
+        Assert.assertEquals(Arrays.asList("title0", "title1", "title2"), titles);
+        Assert.assertEquals(3, entries.getEntry().size());
+    }
+
+    /**
+     * Binary documents are detected on read, and keep their format.
+     */
+    @Test
+    public void shouldReadBinaryDocument() throws Exception {
+        DocumentHelper.newInstance(this.file.getPath(), this.password, VaultHeader.newInstance(1000),
+                DocumentFormat.BINARY).writeDocument(newEntries());
+
+        DocumentHelper helper = DocumentHelper.newInstance(this.file.getPath(), this.password);
+        Entries entries = helper.readDocument();
+
+        Assert.assertEquals(DocumentFormat.BINARY, helper.getFormat());
+        Assert.assertEquals(3, entries.getEntry().size());
+        Assert.assertEquals("user1", entries.getEntry().get(1).getUser());
+    }
+
+    /**
+     * A failing save must leave the previous file intact.
+     */
+    @Test
+    public void shouldKeepFileWhenWriteFails() throws Exception {
+        VaultHeader header = VaultHeader.newInstance(1000);
+        DocumentHelper.newInstance(this.file.getPath(), this.password, header).writeDocument(newEntries());
+        long length = this.file.length();
+
+        Entries broken = newEntries();
+        broken.getEntry().add(new Entry() {
+            @Override
+            public String getTitle() {
+                throw new IllegalStateException("broken entry");
+            }
+        });
+        try {
+            DocumentHelper.newInstance(this.file.getPath(), this.password, header).writeDocument(broken);
+            Assert.fail("the write must fail");
+        } catch (DocumentProcessException e) {
+            // expected
+        }
+
+        Assert.assertEquals(length, this.file.length());
+        Entries entries = DocumentHelper.newInstance(this.file.getPath(), this.password).readDocument();
+        Assert.assertEquals(3, entries.getEntry().size());
+        File[] siblings = this.file.getParentFile().listFiles();
+        for (File sibling : siblings) {
+            Assert.assertFalse(sibling.getName().startsWith("." + this.file.getName()));
+        }
+    }
+
+    private static Entry newEntry(String title) {
+        Entry entry = new Entry();
+        entry.setTitle(title);
+        entry.setPassword("password-" + title);
+        return entry;
+    }
+
+    /**
+     * Saved changes are appended to the journal without rewriting the file, and are applied when
+     * the file is read.
+     */
+    @Test
+    public void shouldReplayJournal() throws Exception {
+        Entries entries = newEntries();
+        DocumentHelper writer = DocumentHelper.newInstance(this.file.getPath(), this.password, VaultHeader.newInstance(1000));
+        writer.writeDocument(entries);
+        long modified = this.file.lastModified();
+        long length = this.file.length();
+
+        List<Journal.Change> changes = new ArrayList<Journal.Change>();
+        entries.getEntry().add(newEntry("added"));
+        changes.add(Journal.Change.add(entries.getEntry().get(3)));
+        entries.getEntry().set(1, newEntry("replaced"));
+        changes.add(Journal.Change.replace(1, entries.getEntry().get(1)));
+        entries.getEntry().remove(0);
+        changes.add(Journal.Change.remove(0));
+        writer.writeChanges(entries, changes, writer.getJournalMark());
+
+        Assert.assertEquals(length, this.file.length());
+        Assert.assertEquals(modified, this.file.lastModified());
+        Assert.assertTrue(writer.getJournalMark().getRecordsLength() > 0);
+
+        DocumentHelper reader = DocumentHelper.newInstance(this.file.getPath(), this.password);
+        List<String> titles = new ArrayList<String>();
+        for (Entry entry : reader.readDocument().getEntry()) {
+            titles.add(entry.getTitle());
+        }
+        Assert.assertEquals(Arrays.asList("replaced", "title2", "added"), titles);
+        Assert.assertEquals(writer.getJournalMark().getLength(), reader.getJournalMark().getLength());
+
+        // the next save continues the journal of the read file
+        Entries read = DocumentHelper.newInstance(this.file.getPath(), this.password).readDocument();
+        read.getEntry().add(newEntry("next"));
+        reader.writeChanges(read, Arrays.asList(Journal.Change.add(read.getEntry().get(3))), reader.getJournalMark());
+        Assert.assertEquals(4, DocumentHelper.newInstance(this.file.getPath(), this.password).readDocument().getEntry().size());
+    }
+
+    /**
+     * Changes based on an outdated mark must not be appended twice, and the document they belong
+     * to must not replace the newer file.
+     */
+    @Test
+    public void shouldNotWriteWhenJournalMoved() throws Exception {
+        Entries entries = newEntries();
+        DocumentHelper writer = DocumentHelper.newInstance(this.file.getPath(), this.password, VaultHeader.newInstance(1000));
+        writer.writeDocument(entries);
+        Journal.Mark mark = writer.getJournalMark();
+
+        Entries older = new Entries();
+        older.getEntry().addAll(entries.getEntry());
+        entries.getEntry().add(newEntry("added"));
+        List<Journal.Change> changes = Arrays.asList(Journal.Change.add(entries.getEntry().get(3)));
+        Assert.assertTrue(writer.writeChanges(entries, changes, mark));
+        long length = Journal.getFile(this.file.getPath()).length();
+
+        Assert.assertFalse(writer.writeChanges(entries, changes, mark));
+        Assert.assertFalse(writer.writeChanges(older, Collections.<Journal.Change>emptyList(), mark));
+        Assert.assertEquals(length, Journal.getFile(this.file.getPath()).length());
+        Assert.assertEquals(4, DocumentHelper.newInstance(this.file.getPath(), this.password).readDocument().getEntry().size());
+    }
+
+    /**
+     * A truncated record at the end of the journal is ignored, and the next append replaces it.
+     */
+    @Test
+    public void shouldIgnoreTruncatedRecord() throws Exception {
+        Entries entries = newEntries();
+        DocumentHelper writer = DocumentHelper.newInstance(this.file.getPath(), this.password, VaultHeader.newInstance(1000));
+        writer.writeDocument(entries);
+        entries.getEntry().add(newEntry("first"));
+        writer.writeChanges(entries, Arrays.asList(Journal.Change.add(entries.getEntry().get(3))), writer.getJournalMark());
+        Journal.Mark mark = writer.getJournalMark();
+        entries.getEntry().add(newEntry("second"));
+        writer.writeChanges(entries, Arrays.asList(Journal.Change.add(entries.getEntry().get(4))), mark);
+
+        RandomAccessFile journal = new RandomAccessFile(Journal.getFile(this.file.getPath()), "rw");
+        journal.setLength(journal.length() - 5);
+        journal.close();
+
+        DocumentHelper reader = DocumentHelper.newInstance(this.file.getPath(), this.password);
+        Entries read = reader.readDocument();
+        Assert.assertEquals(4, read.getEntry().size());
+        Assert.assertEquals(mark.getLength(), reader.getJournalMark().getLength());
+
+        read.getEntry().add(newEntry("third"));
+        reader.writeChanges(read, Arrays.asList(Journal.Change.add(read.getEntry().get(4))), reader.getJournalMark());
+        Entries reread = DocumentHelper.newInstance(this.file.getPath(), this.password).readDocument();
+        Assert.assertEquals("third", reread.getEntry().get(4).getTitle());
+    }
+
+    /**
+     * A damaged last record is treated like a truncated one, it was torn while it was written.
+     */
+    @Test
+    public void shouldIgnoreDamagedLastRecord() throws Exception {
+        Entries entries = newEntries();
+        DocumentHelper writer = DocumentHelper.newInstance(this.file.getPath(), this.password, VaultHeader.newInstance(1000));
+        writer.writeDocument(entries);
+        entries.getEntry().add(newEntry("first"));
+        writer.writeChanges(entries, Arrays.asList(Journal.Change.add(entries.getEntry().get(3))), writer.getJournalMark());
+        entries.getEntry().add(newEntry("second"));
+        writer.writeChanges(entries, Arrays.asList(Journal.Change.add(entries.getEntry().get(4))), writer.getJournalMark());
+        damageJournal(Journal.getFile(this.file.getPath()).length() - 1);
+
+        Entries read = DocumentHelper.newInstance(this.file.getPath(), this.password).readDocument();
+        Assert.assertEquals(4, read.getEntry().size());
+        Assert.assertEquals("first", read.getEntry().get(3).getTitle());
+    }
+
+    /**
+     * A damaged record followed by other records is corruption, it is not skipped.
+     */
+    @Test(expected = DocumentProcessException.class)
+    public void shouldRejectDamagedEarlierRecord() throws Exception {
+        Entries entries = newEntries();
+        DocumentHelper writer = DocumentHelper.newInstance(this.file.getPath(), this.password, VaultHeader.newInstance(1000));
+        writer.writeDocument(entries);
+        entries.getEntry().add(newEntry("first"));
+        writer.writeChanges(entries, Arrays.asList(Journal.Change.add(entries.getEntry().get(3))), writer.getJournalMark());
+        long firstRecordEnd = writer.getJournalMark().getLength();
+        entries.getEntry().add(newEntry("second"));
+        writer.writeChanges(entries, Arrays.asList(Journal.Change.add(entries.getEntry().get(4))), writer.getJournalMark());
+        damageJournal(firstRecordEnd - 1);
+
+        DocumentHelper.newInstance(this.file.getPath(), this.password).readDocument();
+    }
+
+    private void damageJournal(long position) throws IOException {
+        RandomAccessFile journal = new RandomAccessFile(Journal.getFile(this.file.getPath()), "rw");
+        try {
+            journal.seek(position);
+            int value = journal.read();
+            journal.seek(position);
+            journal.write(value ^ 0xff);
+        } finally {
+            journal.close();
+        }
+    }
+
+    /**
+     * The journal of another version of the file is not applied.
+     */
+    @Test
+    public void shouldIgnoreJournalOfReplacedFile() throws Exception {
+        Entries entries = newEntries();
+        DocumentHelper writer = DocumentHelper.newInstance(this.file.getPath(), this.password, VaultHeader.newInstance(1000));
+        writer.writeDocument(entries);
+        entries.getEntry().add(newEntry("added"));
+        writer.writeChanges(entries, Arrays.asList(Journal.Change.add(entries.getEntry().get(3))), writer.getJournalMark());
+        byte[] journal = java.nio.file.Files.readAllBytes(Journal.getFile(this.file.getPath()).toPath());
+
+        DocumentHelper.newInstance(this.file.getPath(), this.password, VaultHeader.newInstance(1000)).writeDocument(newEntries());
+        java.nio.file.Files.write(Journal.getFile(this.file.getPath()).toPath(), journal);
+
+        DocumentHelper reader = DocumentHelper.newInstance(this.file.getPath(), this.password);
+        Assert.assertEquals(3, reader.readDocument().getEntry().size());
+        Assert.assertNull(reader.getJournalMark());
+    }
+
+    /**
+     * Version 1 files are compressed with GZIP, they have to be readable, and are written with
+     * chunked compression and the same salt.
+     */
+    @Test
+    public void shouldReadAndUpgradeVersion1Document() throws Exception {
+        VaultHeader header = VaultHeader.newInstance(1000);
+        byte[] key = header.deriveKey(this.password);
+        OutputStream output = new BufferedOutputStream(new FileOutputStream(this.file));
+        DataOutputStream data = new DataOutputStream(output);
+        data.write(new byte[] {'P', 'M', 'V', 'A', 'U', 'L', 'T', 0});
+        data.writeByte(1);
+        data.writeByte(VaultHeader.KDF_PBKDF2_SHA256);
+        data.writeInt(header.getIterations());
+        data.writeByte(header.getSalt().length);
+        data.write(header.getSalt());
+        OutputStream gzip = new GZIPOutputStream(new CryptOutputStream(output, key));
+        new XmlConverter<Entries>(Entries.class).write(newEntries(), gzip);
+        gzip.close();
+
+        DocumentHelper helper = DocumentHelper.newInstance(this.file.getPath(), this.password);
+        Entries entries = helper.readDocument();
+        Assert.assertEquals(3, entries.getEntry().size());
+        Assert.assertEquals(1, helper.getHeader().getVersion());
+        Assert.assertFalse(helper.getHeader().isChunked());
+
+        DocumentHelper writer = DocumentHelper.newInstance(this.file.getPath(), this.password, helper.getHeader());
+        writer.writeDocument(entries);
+        Assert.assertEquals(VaultHeader.VERSION, writer.getHeader().getVersion());
+        Assert.assertTrue(writer.getHeader().isChunked());
+        Assert.assertTrue(Arrays.equals(header.getSalt(), writer.getHeader().getSalt()));
+
+        helper = DocumentHelper.newInstance(this.file.getPath(), this.password);
+        Assert.assertEquals("password2", helper.readDocument().getEntry().get(2).getPassword());
+    }
+
+    /**
+     * Indexed files decrypt the passwords when they are read, also after the file has been
+     * rewritten, which moves the passwords.
+     */
+    @Test
+    public void shouldReadPasswordsOfIndexedDocument() throws Exception {
+        DocumentHelper.newInstance(this.file.getPath(), this.password, VaultHeader.newInstance(1000),
+                DocumentFormat.INDEXED).writeDocument(newEntries());
+
+        DocumentHelper reader = DocumentHelper.newInstance(this.file.getPath(), this.password);
+        Entries entries = reader.readDocument();
+        Assert.assertEquals(DocumentFormat.INDEXED, reader.getFormat());
+        Assert.assertEquals(VaultHeader.VERSION_INDEXED, reader.getHeader().getVersion());
+        Assert.assertEquals("title1", entries.getEntry().get(1).getTitle());
+        Assert.assertEquals("user1", entries.getEntry().get(1).getUser());
+        Assert.assertEquals("password1", entries.getEntry().get(1).getPassword());
+
+        // the new entry comes first, so the positions of the passwords change
+        Entry entry = newEntry("new");
+        entry.setPassword(null);
+        entries.getEntry().add(0, entry);
+        DocumentHelper.newInstance(this.file.getPath(), this.password, reader.getHeader(), DocumentFormat.INDEXED)
+                .writeDocument(entries);
+        Assert.assertNull(entries.getEntry().get(0).getPassword());
+        Assert.assertEquals("password2", entries.getEntry().get(3).getPassword());
+
+        Entries read = DocumentHelper.newInstance(this.file.getPath(), this.password).readDocument();
+        Assert.assertEquals(4, read.getEntry().size());
+        Assert.assertNull(read.getEntry().get(0).getPassword());
+        Assert.assertEquals("password0", read.getEntry().get(1).getPassword());
+    }
+
+    /**
+     * Entries of indexed files are compared by their decrypted passwords, like other entries.
+     */
+    @Test
+    public void shouldCompareIndexedEntriesByPassword() throws Exception {
+        Entries entries = newEntries();
+        entries.getEntry().get(2).setTitle("title1");
+        entries.getEntry().get(2).setUser("user1");
+        DocumentHelper.newInstance(this.file.getPath(), this.password, VaultHeader.newInstance(1000),
+                DocumentFormat.INDEXED).writeDocument(entries);
+        Entries read = DocumentHelper.newInstance(this.file.getPath(), this.password).readDocument();
+
+        Entry copy = new Entry();
+        copy.setTitle("title1");
+        copy.setUser("user1");
+        copy.setPassword("password2");
+        Assert.assertFalse(read.getEntry().get(1).equals(read.getEntry().get(2)));
+        Assert.assertEquals(copy, read.getEntry().get(2));
+        Assert.assertEquals(read.getEntry().get(2), copy);
+        Assert.assertEquals(copy.hashCode(), read.getEntry().get(2).hashCode());
+        Assert.assertEquals(2, read.getEntry().indexOf(copy));
+    }
+
+    /**
+     * The entries of an indexed file keep the key of the file for the session, reading a password
+     * does not derive the key again. Clearing the data model wipes the key, the password cannot
+     * be read afterwards.
+     */
+    @Test
+    public void shouldKeepIndexedKeyUntilModelCleared() throws Exception {
+        DocumentHelper.newInstance(this.file.getPath(), this.password, VaultHeader.newInstance(1000),
+                DocumentFormat.INDEXED).writeDocument(newEntries());
+        Entries read = DocumentHelper.newInstance(this.file.getPath(), this.password).readDocument();
+
+        DerivedKeyCache.getInstance().clear();
+        Assert.assertEquals("password1", DocumentHelper.readPassword(read.getEntry().get(1)));
+        Assert.assertEquals(0, DerivedKeyCache.getInstance().size());
+
+        Entry detached = DocumentHelper.detach(read.getEntry().get(1));
+        DataModel.getInstance().clear();
+        Assert.assertEquals("password1", detached.getPassword());
+        try {
+            DocumentHelper.readPassword(read.getEntry().get(1));
+            Assert.fail("The key has not been wiped");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    /**
+     * A running save must not block reading the passwords of an indexed file.
+     */
+    @Test(timeout = 10000)
+    public void shouldReadIndexedPasswordDuringSave() throws Exception {
+        DocumentHelper.newInstance(this.file.getPath(), this.password, VaultHeader.newInstance(1000),
+                DocumentFormat.INDEXED).writeDocument(newEntries());
+        Entries read = DocumentHelper.newInstance(this.file.getPath(), this.password).readDocument();
+
+        final CountDownLatch saving = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread save = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (DocumentHelper.WRITE_LOCK) {
+                    saving.countDown();
+                    try {
+                        done.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        });
+        save.start();
+        try {
+            saving.await();
+            Assert.assertEquals("password1", read.getEntry().get(1).getPassword());
+        } finally {
+            done.countDown();
+            save.join();
+        }
+    }
+
+    /**
+     * The passwords of an indexed file are kept, when it is replaced by another format.
+     */
+    @Test
+    public void shouldConvertIndexedDocument() throws Exception {
+        DocumentHelper.newInstance(this.file.getPath(), this.password, VaultHeader.newInstance(1000),
+                DocumentFormat.INDEXED).writeDocument(newEntries());
+        DocumentHelper reader = DocumentHelper.newInstance(this.file.getPath(), this.password);
+        Entries entries = reader.readDocument();
+
+        DocumentHelper writer = DocumentHelper.newInstance(this.file.getPath(), this.password, reader.getHeader(),
+                DocumentFormat.BINARY);
+        writer.writeDocument(entries);
+        Assert.assertEquals(VaultHeader.VERSION, writer.getHeader().getVersion());
+        Assert.assertEquals("password2", entries.getEntry().get(2).getPassword());
+
+        DocumentHelper binaryReader = DocumentHelper.newInstance(this.file.getPath(), this.password);
+        Assert.assertEquals("password2", binaryReader.readDocument().getEntry().get(2).getPassword());
+        Assert.assertEquals(DocumentFormat.BINARY, binaryReader.getFormat());
+    }
+
+    /**
+     * Changes of indexed files are appended to the journal like the changes of other formats.
+     */
+    @Test
+    public void shouldReplayJournalOfIndexedDocument() throws Exception {
+        DocumentHelper.newInstance(this.file.getPath(), this.password, VaultHeader.newInstance(1000),
+                DocumentFormat.INDEXED).writeDocument(newEntries());
+        DocumentHelper reader = DocumentHelper.newInstance(this.file.getPath(), this.password);
+        Entries entries = reader.readDocument();
+        long length = this.file.length();
+
+        entries.getEntry().set(1, newEntry("replaced"));
+        DocumentHelper writer = DocumentHelper.newInstance(this.file.getPath(), this.password, reader.getHeader(),
+                DocumentFormat.INDEXED);
+        writer.writeChanges(entries, Arrays.asList(Journal.Change.replace(1, entries.getEntry().get(1))),
+                reader.getJournalMark());
+        Assert.assertEquals(length, this.file.length());
+
+        Entries read = DocumentHelper.newInstance(this.file.getPath(), this.password).readDocument();
+        Assert.assertEquals("password-replaced", read.getEntry().get(1).getPassword());
+        Assert.assertEquals("password2", read.getEntry().get(2).getPassword());
+    }
+
+    /**
+     * Reading an indexed file with a wrong password has to fail.
+     */
+    @Test(expected = DocumentProcessException.class)
+    public void shouldNotReadIndexedDocumentWithWrongPassword() throws Exception {
+        DocumentHelper.newInstance(this.file.getPath(), this.password, VaultHeader.newInstance(1000),
+                DocumentFormat.INDEXED).writeDocument(newEntries());
+
+        DocumentHelper.newInstance(this.file.getPath(), CryptUtils.toBytes("wrong".toCharArray())).readDocument();
+    }
+}
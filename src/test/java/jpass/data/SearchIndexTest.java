@@ -0,0 +1,121 @@
+package jpass.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import tirnav.passman.data.SearchIndex;
+import tirnav.passman.xml.bind.Entry;
+
+/**
+ * Tests {@link tirnav.passman.data.SearchIndex} against a linear search.
+ *
+ * @author jainj
+ *
+ */
+public class SearchIndexTest {
+
+    private static Entry newEntry(String title, String user, String url, String notes) {
+        Entry entry = new Entry();
+        entry.setTitle(title);
+        entry.setUser(user);
+        entry.setUrl(url);
+        entry.setNotes(notes);
+        return entry;
+    }
+
+    private static List<Entry> linearSearch(List<Entry> entries, String query) {
+        String q = query.toLowerCase();
+        List<Entry> result = new ArrayList<Entry>();
+        for (Entry entry : entries) {
+            for (String field : new String[] {entry.getTitle(), entry.getUser(), entry.getUrl(), entry.getNotes()}) {
+                if (field != null && field.toLowerCase().contains(q)) {
+                    result.add(entry);
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * All fields are searched ignoring case, matches cannot span fields.
+     */
+    @Test
+    public void shouldSearchAllFields() {
+        Entry mail = newEntry("Mail", "alice", "https://mail.example.com", null);
+        Entry bank = newEntry("Bank", "Bob", null, "PIN is in the SAFE");
+        SearchIndex index = new SearchIndex();
+        index.reset(Arrays.asList(mail, bank));
+
+        Assert.assertEquals(Arrays.asList(mail), index.search("MAIL"));
+        Assert.assertEquals(Arrays.asList(bank), index.search("safe"));
+        Assert.assertEquals(Arrays.asList(mail), index.search("alic"));
+        Assert.assertEquals(Arrays.asList(mail, bank), index.search("a"));
+        Assert.assertEquals(Arrays.asList(mail, bank), index.search(""));
+        Assert.assertTrue(index.search("bankbob").isEmpty());
+    }
+
+    /**
+     * Added, removed and replaced entries have to be found, or not found.
+     */
+    @Test
+    public void shouldFollowModifications() {
+        Entry a = newEntry("first", null, null, null);
+        Entry b = newEntry("second", null, null, null);
+        SearchIndex index = new SearchIndex();
+        index.add(a);
+        Assert.assertEquals(Arrays.asList(a), index.search("fir"));
+        Assert.assertTrue(index.search("sec").isEmpty());
+
+        index.add(b);
+        Assert.assertEquals(Arrays.asList(b), index.search("sec"));
+        Assert.assertEquals(Arrays.asList(b), index.search("seco"));
+
+        index.remove(b);
+        Assert.assertTrue(index.search("second").isEmpty());
+        Assert.assertEquals(1, index.size());
+    }
+
+    /**
+     * The result has to be the same as the result of a linear search, also when the query is
+     * typed character by character, and entries are modified in between.
+     */
+    @Test
+    public void shouldMatchLinearSearch() {
+        Random rnd = new Random(42);
+        String alphabet = "abcdeXYZ .";
+        List<Entry> entries = new ArrayList<Entry>();
+        SearchIndex index = new SearchIndex();
+        for (int i = 0; i < 500; i++) {
+            Entry entry = newEntry(randomString(rnd, alphabet, 12), randomString(rnd, alphabet, 6), null,
+                    i % 3 == 0 ? randomString(rnd, alphabet, 30) : null);
+            entries.add(entry);
+            index.add(entry);
+        }
+        for (int round = 0; round < 50; round++) {
+            String query = randomString(rnd, alphabet, 5);
+            for (int length = 0; length <= query.length(); length++) {
+                String prefix = query.substring(0, length);
+                Assert.assertEquals(prefix, linearSearch(entries, prefix), index.search(prefix));
+            }
+            Entry removed = entries.remove(rnd.nextInt(entries.size()));
+            index.remove(removed);
+            Entry added = newEntry(randomString(rnd, alphabet, 12), null, null, null);
+            entries.add(added);
+            index.add(added);
+        }
+    }
+
+    private static String randomString(Random rnd, String alphabet, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(alphabet.charAt(rnd.nextInt(alphabet.length())));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,219 @@
+package jpass.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import tirnav.passman.data.DataModel;
+import tirnav.passman.model.EntryTableModel;
+import tirnav.passman.util.IconStorage;
+import tirnav.passman.xml.bind.Entries;
+import tirnav.passman.xml.bind.Entry;
+
+/**
+ * Tests the incremental updates of {@link tirnav.passman.model.EntryTableModel}, a view over the entries of
+ * {@link tirnav.passman.data.DataModel}.
+ *
+ * @author jainj
+ *
+ */
+public class EntryTableModelTest {
+
+    private DataModel model;
+    private EntryTableModel tableModel;
+    private List<String> events;
+    private File iconDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        this.model = DataModel.getInstance();
+        this.model.clear();
+        this.iconDirectory = File.createTempFile("icons", "");
+        this.iconDirectory.delete();
+        this.tableModel = new EntryTableModel(this.model,
+                IconStorage.newInstance("http://127.0.0.1:1/favicon?domain=%s", this.iconDirectory, 1000, 1024, 60000));
+        this.events = new ArrayList<String>();
+        this.tableModel.addTableModelListener(new TableModelListener() {
+            @Override
+            public void tableChanged(TableModelEvent e) {
+                String type = e.getType() == TableModelEvent.INSERT ? "insert"
+                        : e.getType() == TableModelEvent.DELETE ? "delete" : "update";
+                events.add(type + " " + e.getFirstRow() + "-" + e.getLastRow());
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        this.model.clear();
+        File[] files = this.iconDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        this.iconDirectory.delete();
+    }
+
+    private Entry newEntry(String title) {
+        Entry entry = new Entry();
+        entry.setTitle(title);
+        entry.setUser(title + "-user");
+        this.model.addEntry(entry);
+        return entry;
+    }
+
+    private void assertRows(Entry... expected) {
+        Assert.assertEquals(expected.length, this.tableModel.getRowCount());
+        for (int i = 0; i < expected.length; i++) {
+            Assert.assertSame(expected[i], this.tableModel.getEntry(i));
+            Assert.assertEquals(expected[i].getTitle(), this.tableModel.getValueAt(i, 1));
+        }
+    }
+
+    /**
+     * Contiguous inserted and removed rows have to be reported in one event each.
+     */
+    @Test
+    public void shouldFireBatchedInsertAndDelete() {
+        Entry a = newEntry("a"), b = newEntry("b"), c = newEntry("c"), d = newEntry("d"), e = newEntry("e");
+
+        this.tableModel.update(Arrays.asList(a, b, c, d, e));
+        Assert.assertEquals(Arrays.asList("insert 0-4"), this.events);
+        assertRows(a, b, c, d, e);
+
+        this.events.clear();
+        this.tableModel.update(Arrays.asList(a, e));
+        Assert.assertEquals(Arrays.asList("delete 1-3"), this.events);
+        assertRows(a, e);
+
+        this.events.clear();
+        this.tableModel.update(Arrays.asList(a, b, c, e));
+        Assert.assertEquals(Arrays.asList("insert 1-2"), this.events);
+        assertRows(a, b, c, e);
+    }
+
+    /**
+     * An unchanged list must not fire events, the cell values are read from the live entries.
+     */
+    @Test
+    public void shouldReadValuesFromLiveEntries() {
+        Entry a = newEntry("a"), b = newEntry("b"), c = newEntry("c");
+        this.tableModel.update(Arrays.asList(a, b, c));
+
+        this.events.clear();
+        this.tableModel.update(Arrays.asList(a, b, c));
+        Assert.assertTrue(this.events.isEmpty());
+
+        b.setUser("changed");
+        Assert.assertEquals("changed", this.tableModel.getValueAt(1, 2));
+    }
+
+    /**
+     * Retained rows, whose values have been changed in place, have to be reported as updated,
+     * contiguous rows in one event.
+     */
+    @Test
+    public void shouldFireBatchedUpdateForChangedRows() {
+        Entry a = newEntry("a"), b = newEntry("b"), c = newEntry("c"), d = newEntry("d");
+        this.tableModel.update(Arrays.asList(a, b, c, d));
+
+        b.setModifiedDate(new Date());
+        c.setUser("changed");
+        this.events.clear();
+        this.tableModel.update(Arrays.asList(a, b, c, d));
+        Assert.assertEquals(Arrays.asList("update 1-2"), this.events);
+
+        this.events.clear();
+        this.tableModel.update(Arrays.asList(a, b, c, d));
+        Assert.assertTrue(this.events.isEmpty());
+    }
+
+    /**
+     * A replaced entry is removed and the new one inserted at its position.
+     */
+    @Test
+    public void shouldReplaceEntry() {
+        Entry a = newEntry("a"), b = newEntry("b"), c = newEntry("c");
+        this.tableModel.update(Arrays.asList(a, b, c));
+
+        Entry b2 = new Entry();
+        b2.setTitle("b2");
+        this.model.replaceEntry(b, b2);
+        this.events.clear();
+        this.tableModel.update(Arrays.asList(a, b2, c));
+        Assert.assertEquals(Arrays.asList("delete 1-1", "insert 1-1"), this.events);
+        assertRows(a, b2, c);
+    }
+
+    /**
+     * Reordered rows cannot be updated incrementally, the whole table is refreshed.
+     */
+    @Test
+    public void shouldRefreshReorderedRows() {
+        Entry a = newEntry("a"), b = newEntry("b"), c = newEntry("c");
+        this.tableModel.update(Arrays.asList(a, b, c));
+
+        this.events.clear();
+        this.tableModel.update(Arrays.asList(c, b, a));
+        Assert.assertEquals(Arrays.asList("update 0-" + Integer.MAX_VALUE), this.events);
+        assertRows(c, b, a);
+    }
+
+    /**
+     * Removing an entry shifts the positions in the entry list, the remaining rows must still map to their entries.
+     */
+    @Test
+    public void shouldFollowRemovedEntries() {
+        Entry a = newEntry("a"), b = newEntry("b"), c = newEntry("c"), d = newEntry("d");
+        this.tableModel.update(Arrays.asList(a, c, d));
+
+        this.model.removeEntry(a);
+        this.events.clear();
+        this.tableModel.update(Arrays.asList(b, c, d));
+        Assert.assertEquals(Arrays.asList("delete 0-0", "insert 0-0"), this.events);
+        assertRows(b, c, d);
+    }
+
+    /**
+     * The entry list may be replaced before the view is updated, the rows must keep showing their entries.
+     */
+    @Test
+    public void shouldKeepRowsWhenEntriesReplaced() {
+        Entry a = newEntry("a"), b = newEntry("b"), c = newEntry("c");
+        this.tableModel.update(Arrays.asList(a, b, c));
+
+        Entries replaced = new Entries();
+        replaced.getEntry().add(c);
+        this.model.setEntries(replaced);
+        assertRows(a, b, c);
+        Assert.assertEquals(2, this.tableModel.indexOfTitle("c"));
+
+        this.events.clear();
+        this.tableModel.update(Arrays.asList(c));
+        Assert.assertEquals(Arrays.asList("delete 0-1"), this.events);
+        assertRows(c);
+    }
+
+    /**
+     * Entries without title can be shown, and looked up by a missing title.
+     */
+    @Test
+    public void shouldFindEntryWithoutTitle() {
+        Entry a = newEntry("a"), untitled = newEntry(null);
+        this.tableModel.update(Arrays.asList(a, untitled));
+        Assert.assertEquals(1, this.tableModel.indexOfTitle(null));
+        Assert.assertEquals(-1, this.tableModel.indexOfTitle("b"));
+    }
+}
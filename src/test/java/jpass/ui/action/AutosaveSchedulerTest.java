@@ -0,0 +1,222 @@
+package jpass.ui.action;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import tirnav.passman.data.DataModel;
+import tirnav.passman.data.DocumentFormat;
+import tirnav.passman.data.DocumentHelper;
+import tirnav.passman.data.Journal;
+import tirnav.passman.data.VaultHeader;
+import tirnav.passman.ui.action.AutosaveScheduler;
+import tirnav.passman.util.CryptUtils;
+import tirnav.passman.xml.bind.Entries;
+import tirnav.passman.xml.bind.Entry;
+
+/**
+ * Tests {@link tirnav.passman.ui.action.AutosaveScheduler}.
+ *
+ * @author jainj
+ *
+ */
+public class AutosaveSchedulerTest {
+
+    private final LinkedBlockingQueue<String> saves = new LinkedBlockingQueue<String>();
+
+    private volatile boolean canSave = true;
+
+    private final CountDownLatch checked = new CountDownLatch(1);
+
+    private DataModel model;
+
+    private File file;
+
+    private AutosaveScheduler scheduler;
+
+    @Before
+    public void setUp() throws Exception {
+        this.model = DataModel.getInstance();
+        this.model.clear();
+        this.file = File.createTempFile("autosave", ".pass");
+        this.model.setFileName(this.file.getPath());
+        this.model.setPassword(CryptUtils.toBytes("secret".toCharArray()));
+        this.model.setHeader(VaultHeader.newInstance(1000));
+        this.model.setFormat(DocumentFormat.BINARY);
+        this.scheduler = new AutosaveScheduler(this.model, 50, new AutosaveScheduler.SaveListener() {
+            @Override
+            public boolean canSave() {
+                boolean result = canSave;
+                checked.countDown();
+                return result;
+            }
+
+            @Override
+            public void saved(String fileName) {
+                saves.add("saved");
+            }
+
+            @Override
+            public void saveFailed(String fileName, Exception e) {
+                saves.add("failed");
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        this.scheduler.shutdown();
+        this.model.clear();
+        this.file.delete();
+    }
+
+    private void addEntry(final String title) throws Exception {
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                Entry entry = new Entry();
+                entry.setTitle(title);
+                model.addEntry(entry);
+                model.setModified(true);
+            }
+        });
+    }
+
+    /**
+     * A burst of edits is saved once, and nothing is written while the data model is unchanged.
+     */
+    @Test
+    public void shouldSaveModifiedModelOnce() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            addEntry("entry" + i);
+        }
+        this.scheduler.start();
+
+        Assert.assertEquals("saved", this.saves.poll(5, TimeUnit.SECONDS));
+        Assert.assertNull(this.saves.poll(300, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(1, this.scheduler.getSaveCount());
+        Assert.assertFalse(this.model.isModified());
+
+        byte[] password = CryptUtils.toBytes("secret".toCharArray());
+        Assert.assertEquals(10, DocumentHelper.newInstance(this.file.getPath(), password).readDocument()
+                .getEntry().size());
+
+        addEntry("entry10");
+        Assert.assertEquals("saved", this.saves.poll(5, TimeUnit.SECONDS));
+        Assert.assertEquals(11, DocumentHelper.newInstance(this.file.getPath(), password).readDocument()
+                .getEntry().size());
+    }
+
+    /**
+     * Nothing is saved while the listener does not allow it, or the model has no file.
+     */
+    @Test
+    public void shouldSkipWhenSaveIsNotAllowed() throws Exception {
+        addEntry("entry");
+        this.canSave = false;
+        this.scheduler.start();
+        Assert.assertNull(this.saves.poll(300, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(0, this.file.length());
+
+        this.model.setFileName(null);
+        this.canSave = true;
+        Assert.assertNull(this.saves.poll(300, TimeUnit.MILLISECONDS));
+        Assert.assertTrue(this.model.isModified());
+    }
+
+    /**
+     * An edit during the save keeps the data model modified.
+     */
+    @Test
+    public void shouldKeepModifiedStateOfNewerRevision() throws Exception {
+        addEntry("entry");
+        long revision = this.model.getRevision();
+        addEntry("other");
+        Assert.assertFalse(this.model.setSaved(revision));
+        Assert.assertTrue(this.model.isModified());
+        Assert.assertTrue(this.model.setSaved(this.model.getRevision()));
+    }
+
+    /**
+     * A manual save between the copy and the write of the autosave must not be overwritten by the
+     * older copy.
+     */
+    @Test
+    public void shouldNotOverwriteNewerManualSave() throws Exception {
+        addEntry("entry");
+        byte[] password = this.model.getPassword();
+        synchronized (DocumentHelper.WRITE_LOCK) {
+            this.scheduler.start();
+            Assert.assertTrue(this.checked.await(5, TimeUnit.SECONDS));
+            // the copy is taken on the event dispatch thread, the autosave waits for the lock now
+            addEntry("newer");
+
+            DocumentHelper helper = DocumentHelper.newInstance(this.file.getPath(), password,
+                    this.model.getHeader(), this.model.getFormat());
+            helper.writeDocument(this.model.getEntries());
+            this.model.setSavedRevision(this.model.getRevision());
+            this.model.setJournalMark(helper.getJournalMark());
+            this.model.removeChanges(this.model.getChanges().size());
+            this.model.setModified(false);
+        }
+        this.scheduler.shutdown();
+        Assert.assertTrue(this.scheduler.awaitTermination(5, TimeUnit.SECONDS));
+
+        Assert.assertEquals(0, this.scheduler.getSaveCount());
+        Assert.assertEquals(2, DocumentHelper.newInstance(this.file.getPath(), password).readDocument()
+                .getEntry().size());
+    }
+
+    /**
+     * If the file has been written by someone else since the snapshot, the autosave must not write
+     * its snapshot over it. The outdated mark is dropped, so the next autosave writes a new
+     * snapshot.
+     */
+    @Test
+    public void shouldNotWriteSnapshotWithOutdatedMark() throws Exception {
+        byte[] password = this.model.getPassword();
+        addEntry("entry");
+        DocumentHelper helper = DocumentHelper.newInstance(this.file.getPath(), password, this.model.getHeader(),
+                this.model.getFormat());
+        helper.writeDocument(this.model.getEntries());
+        Journal.Mark mark = helper.getJournalMark();
+        this.model.setJournalMark(mark);
+        this.model.removeChanges(this.model.getChangeSequence());
+
+        // another save of the same file moves its journal
+        Entries other = DocumentHelper.newInstance(this.file.getPath(), password).readDocument();
+        Entry external = new Entry();
+        external.setTitle("external");
+        other.getEntry().add(external);
+        Assert.assertTrue(helper.writeChanges(other, Arrays.asList(Journal.Change.add(external)), mark));
+
+        addEntry("newer");
+        this.scheduler.start();
+        Assert.assertTrue(this.checked.await(5, TimeUnit.SECONDS));
+        this.canSave = false;
+        this.scheduler.shutdown();
+        Assert.assertTrue(this.scheduler.awaitTermination(5, TimeUnit.SECONDS));
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                // waits for the autosave to update the data model
+            }
+        });
+
+        Assert.assertEquals(0, this.scheduler.getSaveCount());
+        Assert.assertTrue(this.model.isModified());
+        Assert.assertEquals(1, this.model.getChanges().size());
+        Assert.assertNull(this.model.getJournalMark());
+        Entries read = DocumentHelper.newInstance(this.file.getPath(), password).readDocument();
+        Assert.assertEquals("external", read.getEntry().get(1).getTitle());
+    }
+}
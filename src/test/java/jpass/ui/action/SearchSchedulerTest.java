@@ -0,0 +1,136 @@
+package jpass.ui.action;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.SwingUtilities;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import tirnav.passman.ui.action.SearchScheduler;
+
+/**
+ * Tests {@link tirnav.passman.ui.action.SearchScheduler}.
+ *
+ * @author jainj
+ *
+ */
+public class SearchSchedulerTest {
+
+    private final List<String> published = Collections.synchronizedList(new ArrayList<String>());
+
+    private final CountDownLatch finished = new CountDownLatch(1);
+
+    private SearchScheduler<String> scheduler;
+
+    @After
+    public void tearDown() {
+        if (this.scheduler != null) {
+            this.scheduler.shutdown();
+        }
+    }
+
+    private SearchScheduler<String> newScheduler(long debounceMillis) {
+        this.scheduler = new SearchScheduler<String>(debounceMillis, new SearchScheduler.ResultListener<String>() {
+            @Override
+            public void searchFinished(String criteria, String result) {
+                Assert.assertTrue(SwingUtilities.isEventDispatchThread());
+                published.add(result);
+                finished.countDown();
+            }
+        });
+        return this.scheduler;
+    }
+
+    private static Callable<String> result(final String value, final AtomicInteger runs) {
+        return new Callable<String>() {
+            @Override
+            public String call() {
+                runs.incrementAndGet();
+                return value;
+            }
+        };
+    }
+
+    /**
+     * Searches scheduled within the debounce window are merged, only the last one runs.
+     */
+    @Test
+    public void shouldRunOnlyLastSearchWithinDebounceWindow() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        SearchScheduler<String> s = newScheduler(200);
+
+        s.schedule("a", result("a", runs));
+        s.schedule("ab", result("ab", runs));
+        s.schedule("abc", result("abc", runs));
+
+        Assert.assertTrue(this.finished.await(5, TimeUnit.SECONDS));
+        flushEventQueue();
+        Assert.assertEquals(1, runs.get());
+        Assert.assertEquals(Collections.singletonList("abc"), this.published);
+    }
+
+    /**
+     * A running search is interrupted by a newer one, and its result is not published.
+     */
+    @Test
+    public void shouldCancelRunningSearch() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicInteger interrupted = new AtomicInteger();
+        SearchScheduler<String> s = newScheduler(0);
+
+        s.schedule("slow", new Callable<String>() {
+            @Override
+            public String call() {
+                started.countDown();
+                try {
+                    Thread.sleep(10000);
+                } catch (InterruptedException e) {
+                    interrupted.incrementAndGet();
+                    throw new CancellationException();
+                }
+                return "slow";
+            }
+        });
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        s.schedule("fast", result("fast", new AtomicInteger()));
+
+        Assert.assertTrue(this.finished.await(5, TimeUnit.SECONDS));
+        flushEventQueue();
+        Assert.assertEquals(1, interrupted.get());
+        Assert.assertEquals(Collections.singletonList("fast"), this.published);
+    }
+
+    /**
+     * A canceled search does not publish its result.
+     */
+    @Test
+    public void shouldNotPublishCanceledSearch() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        SearchScheduler<String> s = newScheduler(100);
+
+        s.schedule("a", result("a", runs));
+        s.cancel();
+
+        Assert.assertFalse(this.finished.await(500, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(0, runs.get());
+        Assert.assertTrue(this.published.isEmpty());
+    }
+
+    private static void flushEventQueue() throws Exception {
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                // wait for the events queued before
+            }
+        });
+    }
+}
@@ -0,0 +1,63 @@
+package jpass.util;
+
+import java.util.Arrays;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import tirnav.passman.util.CryptUtils;
+
+/**
+ * Tests the key derivation functions of {@link tirnav.passman.util.CryptUtils}.
+ *
+ * @author jainj
+ *
+ */
+public class CryptUtilsTest {
+
+    /**
+     * Test vector of RFC 7914, section 11: P = "passwd", S = "salt", c = 1. Only the first 32
+     * bytes of the 64 bytes result are derived.
+     */
+    @Test
+    public void shouldDerivePbkdf2TestVector() throws Exception {
+        byte[] expected = {(byte) 0x55, (byte) 0xac, (byte) 0x04, (byte) 0x6e, (byte) 0x56, (byte) 0xe3,
+                (byte) 0x08, (byte) 0x9f, (byte) 0xec, (byte) 0x16, (byte) 0x91, (byte) 0xc2, (byte) 0x25,
+                (byte) 0x44, (byte) 0xb6, (byte) 0x05, (byte) 0xf9, (byte) 0x41, (byte) 0x85, (byte) 0x21,
+                (byte) 0x6d, (byte) 0xde, (byte) 0x04, (byte) 0x65, (byte) 0xe6, (byte) 0x8b, (byte) 0x9d,
+                (byte) 0x57, (byte) 0xc2, (byte) 0x0d, (byte) 0xac, (byte) 0xbc};
+
+        byte[] key = CryptUtils.getPbkdf2Sha256Hash("passwd".getBytes("UTF-8"), "salt".getBytes("UTF-8"), 1);
+
+        Assert.assertTrue(Arrays.equals(expected, key));
+    }
+
+    /**
+     * The result has to match the PBKDF2 implementation of the JDK.
+     */
+    @Test
+    public void shouldMatchJdkPbkdf2() throws Exception {
+        char[] password = "p\u00e4ssw\u00f6rd".toCharArray();
+        byte[] salt = "0123456789abcdef".getBytes("UTF-8");
+        SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+        byte[] expected = factory.generateSecret(new PBEKeySpec(password, salt, 1234, 256)).getEncoded();
+
+        byte[] key = CryptUtils.getPbkdf2Sha256Hash(CryptUtils.toBytes(password), salt, 1234);
+
+        Assert.assertTrue(Arrays.equals(expected, key));
+    }
+
+    /**
+     * The legacy hash of the encoded password has to be the same as the hash of the characters.
+     */
+    @Test
+    public void shouldHashEncodedPasswordAsBefore() throws Exception {
+        char[] password = "p\u00e4ssw\u00f6rd".toCharArray();
+
+        Assert.assertTrue(Arrays.equals(CryptUtils.getPKCS5Sha256Hash(password),
+                CryptUtils.getPKCS5Sha256Hash(CryptUtils.toBytes(password))));
+    }
+}
@@ -0,0 +1,127 @@
+package jpass.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import tirnav.passman.util.IconPack;
+
+/**
+ * Tests {@link tirnav.passman.util.IconPack}.
+ *
+ * @author jainj
+ *
+ */
+public class IconPackTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        this.file = File.createTempFile("icons", ".pack");
+        this.file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        this.file.delete();
+        new File(this.file.getPath() + ".tmp").delete();
+    }
+
+    private static byte[] newData(int length, int seed) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31 + seed);
+        }
+        return data;
+    }
+
+    /**
+     * The records have to be found after the pack is reopened, replaced records are counted as waste.
+     */
+    @Test
+    public void shouldPersistRecords() throws IOException {
+        IconPack pack = IconPack.open(this.file, 0.5);
+        Assert.assertNull(pack.get("a.com"));
+        pack.put("a.com", newData(100, 1));
+        pack.put("b.com", newData(200, 2));
+        Assert.assertArrayEquals(newData(100, 1), pack.get("a.com"));
+        pack.put("a.com", newData(50, 3));
+        Assert.assertArrayEquals(newData(50, 3), pack.get("a.com"));
+        long length = pack.getLength();
+        pack.close();
+
+        pack = IconPack.open(this.file, 0.5);
+        Assert.assertEquals(2, pack.size());
+        Assert.assertEquals(length, pack.getLength());
+        Assert.assertEquals(2 + 5 + 4 + 100, pack.getWasteBytes());
+        Assert.assertArrayEquals(newData(50, 3), pack.get("a.com"));
+        Assert.assertArrayEquals(newData(200, 2), pack.get("b.com"));
+        pack.close();
+    }
+
+    /**
+     * The pack is compacted on open, when the replaced records exceed the ratio.
+     */
+    @Test
+    public void shouldCompactOnOpen() throws IOException {
+        IconPack pack = IconPack.open(this.file, 0.5);
+        for (int i = 0; i < 10; i++) {
+            pack.put("a.com", newData(10000, i));
+        }
+        pack.put("b.com", newData(10, 42));
+        pack.close();
+
+        pack = IconPack.open(this.file, 0.5);
+        Assert.assertEquals(0, pack.getWasteBytes());
+        Assert.assertEquals(this.file.length(), pack.getLength());
+        Assert.assertTrue(pack.getLength() < 11000);
+        Assert.assertArrayEquals(newData(10000, 9), pack.get("a.com"));
+        Assert.assertArrayEquals(newData(10, 42), pack.get("b.com"));
+        pack.close();
+    }
+
+    /**
+     * A truncated last record is dropped, the following record replaces it.
+     */
+    @Test
+    public void shouldIgnoreTruncatedRecord() throws IOException {
+        IconPack pack = IconPack.open(this.file, 0.5);
+        pack.put("a.com", newData(100, 1));
+        long length = pack.getLength();
+        pack.put("b.com", newData(100, 2));
+        pack.close();
+
+        RandomAccessFile raf = new RandomAccessFile(this.file, "rw");
+        raf.setLength(raf.length() - 10);
+        raf.close();
+
+        pack = IconPack.open(this.file, 0.5);
+        Assert.assertEquals(1, pack.size());
+        Assert.assertEquals(length, pack.getLength());
+        Assert.assertNull(pack.get("b.com"));
+        pack.put("c.com", newData(20, 3));
+        pack.close();
+
+        pack = IconPack.open(this.file, 0.5);
+        Assert.assertEquals(2, pack.size());
+        Assert.assertArrayEquals(newData(20, 3), pack.get("c.com"));
+        pack.close();
+    }
+
+    /**
+     * Other files are not accepted as icon pack.
+     */
+    @Test(expected = IOException.class)
+    public void shouldRejectOtherFile() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(this.file, "rw");
+        raf.write(new byte[]{1, 2, 3, 4, 5, 6});
+        raf.close();
+        IconPack.open(this.file, 0.5);
+    }
+}
@@ -0,0 +1,255 @@
+package jpass.util;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+import javax.swing.ImageIcon;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import tirnav.passman.util.CryptUtils;
+import tirnav.passman.util.IconPack;
+import tirnav.passman.util.IconStorage;
+import tirnav.passman.util.StringUtils;
+
+/**
+ * Tests the background loading of {@link tirnav.passman.util.IconStorage} against a local favicon provider.
+ *
+ * @author jainj
+ *
+ */
+public class IconStorageTest {
+
+    private HttpServer server;
+    private File iconDirectory;
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile long delayMillis;
+    private volatile int status = 200;
+    private byte[] png;
+
+    @Before
+    public void setUp() throws IOException {
+        BufferedImage image = new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        this.png = out.toByteArray();
+
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.createContext("/favicon", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                if (status != 200) {
+                    exchange.sendResponseHeaders(status, -1);
+                    exchange.close();
+                    return;
+                }
+                exchange.sendResponseHeaders(200, png.length);
+                OutputStream body = exchange.getResponseBody();
+                body.write(png);
+                body.close();
+            }
+        });
+        this.server.start();
+
+        this.iconDirectory = File.createTempFile("icons", "");
+        this.iconDirectory.delete();
+    }
+
+    @After
+    public void tearDown() {
+        this.server.stop(0);
+        File[] files = this.iconDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        this.iconDirectory.delete();
+    }
+
+    private IconStorage newIconStorage(int timeoutMillis) {
+        return newIconStorage(timeoutMillis, 1024 * 1024, 60000);
+    }
+
+    private IconStorage newIconStorage(int timeoutMillis, long maxCacheBytes, long retryMillis) {
+        String providerUrl = "http://127.0.0.1:" + this.server.getAddress().getPort() + "/favicon?domain=%s";
+        return IconStorage.newInstance(providerUrl, this.iconDirectory, timeoutMillis, maxCacheBytes, retryMillis);
+    }
+
+    private boolean isStored(String domain) throws IOException {
+        IconPack pack = IconPack.open(new File(this.iconDirectory, "icons.pack"), 1.0);
+        try {
+            return pack.contains(domain);
+        } finally {
+            pack.close();
+        }
+    }
+
+    private static CountDownLatch awaitIcons(IconStorage iconStorage, int count) {
+        final CountDownLatch latch = new CountDownLatch(count);
+        iconStorage.addListener(new IconStorage.Listener() {
+            @Override
+            public void iconLoaded(String domain) {
+                latch.countDown();
+            }
+        });
+        return latch;
+    }
+
+    /**
+     * The default icon is returned until the icon is loaded, concurrent requests of a domain are
+     * fetched only once.
+     */
+    @Test
+    public void shouldLoadIconInBackgroundOnce() throws Exception {
+        this.delayMillis = 200;
+        IconStorage iconStorage = newIconStorage(5000);
+        CountDownLatch latch = awaitIcons(iconStorage, 1);
+
+        for (int i = 0; i < 10; i++) {
+            Assert.assertSame(IconStorage.getDefaultIcon(), iconStorage.getIcon("https://example.com/page" + i));
+        }
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, this.requests.get());
+
+        ImageIcon icon = iconStorage.getIcon("https://example.com/");
+        Assert.assertNotSame(IconStorage.getDefaultIcon(), icon);
+        Assert.assertEquals(16, icon.getIconWidth());
+        Assert.assertTrue(isStored("example.com"));
+
+        // a new storage loads the icon from the pack
+        IconStorage other = newIconStorage(5000);
+        CountDownLatch otherLatch = awaitIcons(other, 1);
+        other.getIcon("https://example.com/");
+        Assert.assertTrue(otherLatch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(16, other.getIcon("https://example.com/").getIconWidth());
+        Assert.assertEquals(1, this.requests.get());
+    }
+
+    /**
+     * A slow provider must not block the loading, the default icon is used for the domain.
+     */
+    @Test
+    public void shouldUseDefaultIconOnTimeout() throws Exception {
+        this.delayMillis = 2000;
+        IconStorage iconStorage = newIconStorage(100);
+        CountDownLatch latch = awaitIcons(iconStorage, 1);
+
+        long start = System.currentTimeMillis();
+        iconStorage.getIcon("https://slow.example.com/");
+        Assert.assertTrue(latch.await(1500, TimeUnit.MILLISECONDS));
+        Assert.assertTrue(System.currentTimeMillis() - start < 1500);
+        Assert.assertSame(IconStorage.getDefaultIcon(), iconStorage.getIcon("https://slow.example.com/"));
+        Assert.assertFalse(isStored("slow.example.com"));
+    }
+
+    /**
+     * Icon files of earlier versions are moved into the pack.
+     */
+    @Test
+    public void shouldImportLegacyIconFile() throws Exception {
+        this.iconDirectory.mkdir();
+        File legacyFile = new File(this.iconDirectory,
+                StringUtils.byteArrayToHex(CryptUtils.getSha256Hash("legacy.example.com".toCharArray())) + ".png");
+        FileOutputStream out = new FileOutputStream(legacyFile);
+        out.write(this.png);
+        out.close();
+
+        IconStorage iconStorage = newIconStorage(5000);
+        CountDownLatch latch = awaitIcons(iconStorage, 1);
+        iconStorage.getIcon("https://legacy.example.com/");
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(16, iconStorage.getIcon("https://legacy.example.com/").getIconWidth());
+        Assert.assertEquals(0, this.requests.get());
+        Assert.assertFalse(legacyFile.exists());
+        Assert.assertTrue(isStored("legacy.example.com"));
+    }
+
+    /**
+     * URLs without a domain get the default icon without a request.
+     */
+    @Test
+    public void shouldNotFetchWithoutDomain() {
+        IconStorage iconStorage = newIconStorage(5000);
+        Assert.assertSame(IconStorage.getDefaultIcon(), iconStorage.getIcon(null));
+        Assert.assertSame(IconStorage.getDefaultIcon(), iconStorage.getIcon("not a url"));
+        Assert.assertEquals(0, this.requests.get());
+    }
+
+    /**
+     * The least recently used icons are evicted, when the decoded size exceeds the limit.
+     */
+    @Test
+    public void shouldEvictLeastRecentlyUsedIcons() throws Exception {
+        // two 16x16 icons fit
+        IconStorage iconStorage = newIconStorage(5000, 2 * 16 * 16 * 4, 60000);
+        CountDownLatch latch = awaitIcons(iconStorage, 2);
+        iconStorage.getIcon("https://a.example.com/");
+        iconStorage.getIcon("https://b.example.com/");
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(2, iconStorage.getMissCount());
+
+        // a is used more recently than b
+        Assert.assertNotSame(IconStorage.getDefaultIcon(), iconStorage.getIcon("https://a.example.com/"));
+        Assert.assertEquals(1, iconStorage.getHitCount());
+
+        latch = awaitIcons(iconStorage, 1);
+        iconStorage.getIcon("https://c.example.com/");
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, iconStorage.getEvictionCount());
+        Assert.assertEquals(2 * 16 * 16 * 4, iconStorage.getCacheBytes());
+
+        Assert.assertNotSame(IconStorage.getDefaultIcon(), iconStorage.getIcon("https://a.example.com/"));
+        Assert.assertNotSame(IconStorage.getDefaultIcon(), iconStorage.getIcon("https://c.example.com/"));
+        Assert.assertSame(IconStorage.getDefaultIcon(), iconStorage.getIcon("https://b.example.com/"));
+        Assert.assertEquals(3, iconStorage.getHitCount());
+        Assert.assertEquals(4, iconStorage.getMissCount());
+    }
+
+    /**
+     * A failed domain is not requested again until the retry time elapses.
+     */
+    @Test
+    public void shouldRetryFailedDomainAfterTimeToLive() throws Exception {
+        this.status = 404;
+        IconStorage iconStorage = newIconStorage(5000, 1024 * 1024, 300);
+        CountDownLatch latch = awaitIcons(iconStorage, 1);
+        iconStorage.getIcon("https://missing.example.com/");
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, this.requests.get());
+
+        Assert.assertSame(IconStorage.getDefaultIcon(), iconStorage.getIcon("https://missing.example.com/"));
+        Assert.assertEquals(1, this.requests.get());
+        Assert.assertEquals(1, iconStorage.getHitCount());
+
+        Thread.sleep(400);
+        this.status = 200;
+        latch = awaitIcons(iconStorage, 1);
+        iconStorage.getIcon("https://missing.example.com/");
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(2, this.requests.get());
+        Assert.assertNotSame(IconStorage.getDefaultIcon(), iconStorage.getIcon("https://missing.example.com/"));
+    }
+}
@@ -0,0 +1,86 @@
+package jpass.util;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import tirnav.passman.util.PasswordGenerator;
+
+/**
+ * Tests {@link tirnav.passman.util.PasswordGenerator}.
+ *
+ * @author jainj
+ *
+ */
+public class PasswordGeneratorTest {
+
+    /**
+     * Duplicate characters are removed, the order of the first occurrences is kept.
+     */
+    @Test
+    public void shouldRemoveDuplicateCharacters() {
+        PasswordGenerator generator = new PasswordGenerator("abcabc!a", new Random(1));
+
+        Assert.assertTrue(Arrays.equals("abc!".toCharArray(), generator.getCharacters()));
+    }
+
+    /**
+     * A batch contains passwords of the requested length, made of the given characters only.
+     */
+    @Test
+    public void shouldGenerateBatchOfPasswords() {
+        String characters = "ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+        PasswordGenerator generator = new PasswordGenerator(characters);
+
+        char[][] passwords = generator.generate(1000, 20);
+
+        Assert.assertEquals(1000, passwords.length);
+        for (char[] password : passwords) {
+            Assert.assertEquals(20, password.length);
+            for (char c : password) {
+                Assert.assertTrue(characters.indexOf(c) >= 0);
+            }
+        }
+        Assert.assertFalse(Arrays.equals(passwords[0], passwords[1]));
+    }
+
+    /**
+     * The characters have to be uniformly distributed also when the number of characters does
+     * not divide the range of a {@code byte}, and when two {@code byte}s are drawn per character.
+     */
+    @Test
+    public void shouldDrawCharactersUniformly() {
+        StringBuilder large = new StringBuilder();
+        for (char c = 0x100; c < 0x100 + 300; c++) {
+            large.append(c);
+        }
+        for (String characters : new String[] {"abcdefghijklmnopqrstuvwxyz0123456789!\"#$%&'()*+,-./:;<=>?@[\\]^_{|}~",
+            large.toString()}) {
+            PasswordGenerator generator = new PasswordGenerator(characters, new Random(characters.length()));
+            int samples = 2000 * characters.length();
+            char[] password = generator.generate(samples);
+            int[] counts = new int[0x100 + 300];
+            for (char c : password) {
+                counts[c]++;
+            }
+            double expected = (double) samples / characters.length();
+            double chiSquare = 0;
+            for (int i = 0; i < characters.length(); i++) {
+                double diff = counts[characters.charAt(i)] - expected;
+                chiSquare += diff * diff / expected;
+            }
+            // above the 99.9% quantile of the chi-squared distribution for these degrees of freedom
+            Assert.assertTrue("chi-square " + chiSquare, chiSquare < 2 * characters.length());
+        }
+    }
+
+    /**
+     * An empty character set is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectEmptyCharacters() {
+        new PasswordGenerator("");
+    }
+}
@@ -0,0 +1,135 @@
+package jpass.xml.converter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PushbackInputStream;
+import java.util.Date;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import tirnav.passman.xml.bind.Entries;
+import tirnav.passman.xml.bind.Entry;
+import tirnav.passman.xml.converter.BinaryConverter;
+import tirnav.passman.xml.converter.XmlConverter;
+
+/**
+ * Tests {@link tirnav.passman.xml.converter.BinaryConverter}.
+ *
+ * @author jainj
+ *
+ */
+public class BinaryConverterTest {
+
+    private final BinaryConverter converter = new BinaryConverter();
+
+    /**
+     * All fields have to survive a round trip, missing fields stay {@code null}.
+     */
+    @Test
+    public void shouldReadWrittenEntries() throws Exception {
+        Entries entries = new Entries();
+        Entry full = new Entry();
+        full.setTitle("title \u00e9\u4e2d\ud83d\udd11");
+        full.setUrl("https://example.com");
+        full.setUser("user");
+        full.setPassword("p\u00e4ss");
+        full.setNotes("line 1\nline 2");
+        full.setModifiedDate(new Date(1234567890123L));
+        full.setLastPasswordChanged(new Date(-1L));
+        full.setChangePasswordInDays(-5);
+        entries.getEntry().add(full);
+        Entry empty = new Entry();
+        empty.setTitle("");
+        entries.getEntry().add(empty);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        converter.write(entries, output);
+        Entries read = converter.read(new ByteArrayInputStream(output.toByteArray()));
+
+        Assert.assertEquals(2, read.getEntry().size());
+        Entry a = read.getEntry().get(0);
+        Assert.assertEquals(full.getTitle(), a.getTitle());
+        Assert.assertEquals(full.getUrl(), a.getUrl());
+        Assert.assertEquals(full.getUser(), a.getUser());
+        Assert.assertEquals(full.getPassword(), a.getPassword());
+        Assert.assertEquals(full.getNotes(), a.getNotes());
+        Assert.assertEquals(full.getModifiedDate(), a.getModifiedDate());
+        Assert.assertEquals(full.getLastPasswordChanged(), a.getLastPasswordChanged());
+        Assert.assertEquals(full.getChangePasswordInDays(), a.getChangePasswordInDays());
+        Entry b = read.getEntry().get(1);
+        Assert.assertEquals("", b.getTitle());
+        Assert.assertNull(b.getUrl());
+        Assert.assertNull(b.getModifiedDate());
+        Assert.assertNull(b.getChangePasswordInDays());
+    }
+
+    /**
+     * Fields with unknown tags, written by newer versions, are skipped.
+     */
+    @Test
+    public void shouldSkipUnknownFields() throws Exception {
+        byte[] data = {(byte) 0x89, 'P', 'M', 'B', 1,
+            // record: unknown tag 99 with 3 bytes, then title "ab"
+            9, 99, 3, 1, 2, 3, 1, 2, 'a', 'b',
+            0};
+
+        Entries read = converter.read(new ByteArrayInputStream(data));
+
+        Assert.assertEquals(1, read.getEntry().size());
+        Assert.assertEquals("ab", read.getEntry().get(0).getTitle());
+    }
+
+    /**
+     * Truncated documents are rejected.
+     */
+    @Test(expected = IOException.class)
+    public void shouldRejectTruncatedDocument() throws Exception {
+        byte[] data = {(byte) 0x89, 'P', 'M', 'B', 1, 9, 99, 3, 1};
+
+        converter.read(new ByteArrayInputStream(data));
+    }
+
+    /**
+     * A negative record length and data after the terminator are rejected, instead of returning
+     * the entries read so far.
+     */
+    @Test
+    public void shouldRejectCorruptDocument() throws Exception {
+        byte[][] documents = {
+            {(byte) 0x89, 'P', 'M', 'B', 1, 4, 1, 2, 'a', 'b', (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x0f},
+            {(byte) 0x89, 'P', 'M', 'B', 1, 4, 1, 2, 'a', 'b', 0, 4}};
+        for (byte[] data : documents) {
+            try {
+                converter.read(new ByteArrayInputStream(data));
+                Assert.fail("Corrupt document accepted");
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Binary and XML documents are distinguished without consuming the stream.
+     */
+    @Test
+    public void shouldDetectFormat() throws Exception {
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        converter.write(new Entries(), binary);
+        ByteArrayOutputStream xml = new ByteArrayOutputStream();
+        new XmlConverter<Entries>(Entries.class).write(new Entries(), xml);
+
+        PushbackInputStream input = new PushbackInputStream(new ByteArrayInputStream(binary.toByteArray()), 4);
+        Assert.assertTrue(BinaryConverter.isBinary(input));
+        Assert.assertEquals(0, converter.read(input).getEntry().size());
+
+        input = new PushbackInputStream(new ByteArrayInputStream(xml.toByteArray()), 4);
+        Assert.assertFalse(BinaryConverter.isBinary(input));
+        Assert.assertEquals('<', input.read());
+
+        input = new PushbackInputStream(new ByteArrayInputStream(new byte[] {1, 2}), 4);
+        Assert.assertFalse(BinaryConverter.isBinary(input));
+        Assert.assertEquals(1, input.read());
+    }
+}
@@ -0,0 +1,112 @@
+package jpass.xml.converter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import tirnav.passman.xml.bind.Entries;
+import tirnav.passman.xml.bind.Entry;
+import tirnav.passman.xml.converter.ElementCallback;
+import tirnav.passman.xml.converter.XmlConverter;
+
+/**
+ * Tests the streaming methods of {@link tirnav.passman.xml.converter.XmlConverter} against the
+ * whole document binding.
+ *
+ * @author jainj
+ *
+ */
+public class XmlConverterTest {
+
+    private final XmlConverter<Entries> converter = new XmlConverter<Entries>(Entries.class);
+
+    private static Entries newEntries(int count) {
+        Entries entries = new Entries();
+        for (int i = 0; i < count; i++) {
+            Entry entry = new Entry();
+            entry.setTitle("title <" + i + "> & more");
+            entry.setUrl(i % 2 == 0 ? "http://example.com/" + i : null);
+            entry.setNotes("first line\nsecond line");
+            entry.setModifiedDate(new Date(1000L * i));
+            entry.setChangePasswordInDays(i);
+            entries.getEntry().add(entry);
+        }
+        return entries;
+    }
+
+    /**
+     * Writing the elements one at a time has to produce the same XML as writing the document.
+     */
+    @Test
+    public void shouldWriteSameXmlAsDocumentBinding() throws Exception {
+        for (int count : new int[] {0, 1, 5}) {
+            Entries entries = newEntries(count);
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            ByteArrayOutputStream actual = new ByteArrayOutputStream();
+
+            converter.write(entries, expected);
+            converter.writeElements(entries.getEntry(), "entry", actual);
+
+            Assert.assertEquals(expected.toString("UTF-8"), actual.toString("UTF-8"));
+        }
+    }
+
+    /**
+     * Reading the elements one at a time has to produce the same entries as reading the document.
+     */
+    @Test
+    public void shouldReadSameEntriesAsDocumentBinding() throws Exception {
+        for (int count : new int[] {0, 1, 5}) {
+            ByteArrayOutputStream xml = new ByteArrayOutputStream();
+            converter.write(newEntries(count), xml);
+
+            Entries expected = converter.read(new ByteArrayInputStream(xml.toByteArray()));
+            final List<Entry> actual = new ArrayList<Entry>();
+            converter.readElements(new ByteArrayInputStream(xml.toByteArray()), "entry", Entry.class,
+                    new ElementCallback<Entry>() {
+                        @Override
+                        public void element(Entry entry) {
+                            actual.add(entry);
+                        }
+                    });
+
+            Assert.assertEquals(expected.getEntry().size(), actual.size());
+            for (int i = 0; i < actual.size(); i++) {
+                Entry e = expected.getEntry().get(i);
+                Entry a = actual.get(i);
+                Assert.assertEquals(e.getTitle(), a.getTitle());
+                Assert.assertEquals(e.getUrl(), a.getUrl());
+                Assert.assertEquals(e.getUser(), a.getUser());
+                Assert.assertEquals(e.getNotes(), a.getNotes());
+                Assert.assertEquals(e.getModifiedDate(), a.getModifiedDate());
+                Assert.assertEquals(e.getChangePasswordInDays(), a.getChangePasswordInDays());
+            }
+        }
+    }
+
+    /**
+     * Unknown elements in the root element are skipped.
+     */
+    @Test
+    public void shouldSkipUnknownElements() throws Exception {
+        String xml = "<entries><meta><a>1</a></meta><entry><title>one</title></entry>"
+                + "<other>text</other><entry><title>two</title></entry></entries>";
+        final List<String> titles = new ArrayList<String>();
+
+        converter.readElements(new ByteArrayInputStream(xml.getBytes("UTF-8")), "entry", Entry.class,
+                new ElementCallback<Entry>() {
+                    @Override
+                    public void element(Entry entry) {
+                        titles.add(entry.getTitle());
+                    }
+                });
+
+        Assert.assertEquals(Arrays.asList("one", "two"), titles);
+    }
+}